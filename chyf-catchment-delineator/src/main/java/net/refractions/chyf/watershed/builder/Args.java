@@ -40,6 +40,8 @@ public class Args {
 		options.addOption("g", false, "use geopackage data source");
 		options.addOption("d", true, "use postgis data source");
 		options.addOption("a", true, "if postgis is using this specifies the aoi to process; if not specified the next unprocessed aoi will be processed until no more to process");
+		options.addOption("j", true, "write a json performance report of the processing stages to this file");
+		options.addOption("s", false, "if geopackage is used this rewrites the output in spatial order, rebuilds the spatial indexes and vacuums the file once processing is complete");
 	}
 
 	protected String inData = null;
@@ -57,6 +59,8 @@ public class Args {
 	private Path propertiesFile = null;
 	private int cores = 1;
 	private boolean recover = false;
+	private Path report = null;
+	private boolean compact = false;
 	
 
 	/**
@@ -90,6 +94,9 @@ public class Args {
 				args.recover = true;
 			}
 			
+			if (cmd.hasOption("j")) args.report = Paths.get(cmd.getOptionValue("j"));
+			if (cmd.hasOption("s")) args.compact = true;
+			
 			if (cmd.hasOption("g")) args.geopkg = true;
 			
 			if (cmd.hasOption("d")) {
@@ -159,6 +166,20 @@ public class Args {
 		return recover;
 	}
 
+	/**
+	 * @return the file to write the json performance report to or null if not provided
+	 */
+	public Path getReportFile() {
+		return report;
+	}
+
+	/**
+	 * @return true if geopackage output should be compacted once processing is complete
+	 */
+	public boolean isCompactOutput() {
+		return compact;
+	}
+
 	public String getAoi() {
 		return this.aoi;
 	}
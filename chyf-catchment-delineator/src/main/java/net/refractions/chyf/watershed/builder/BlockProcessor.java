@@ -19,6 +19,7 @@ package net.refractions.chyf.watershed.builder;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 
@@ -30,6 +31,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import net.refractions.chyf.util.ProcessStatistics;
+import net.refractions.chyf.util.RunReport;
 import net.refractions.chyf.watershed.WatershedBoundaryBuilder;
 import net.refractions.chyf.watershed.inputprep.DuplicateHydroEdgeRemover;
 import net.refractions.chyf.watershed.model.HydroEdge;
@@ -68,14 +70,19 @@ public class BlockProcessor {
 	        block.setState(BlockState.EXTRACT);
 	        stats.reportStatus(logger, "Processing Block " + block);
 	
-	        List<HydroEdge> allHydroEdges = dm.getHydroEdges(block);
+	        List<HydroEdge> allHydroEdges;
+	        List<Coordinate> demCoords;
+	        try(RunReport.Stage stage = ProcessStatistics.startStage("BlockProcessor.extract")){
+		        allHydroEdges = dm.getHydroEdges(block);
+		        demCoords = allHydroEdges.isEmpty() ? Collections.emptyList() : dm.getDEM(block);
+		        stage.addItems(allHydroEdges.size() + demCoords.size());
+	        }
 	        if(allHydroEdges.isEmpty()) {
 	        	block.setState(BlockState.DISABLED, "No hydro edges in block.");
 	        	stats.reportStatus(logger, "No hydro edges in block; skipping");
 	        	return;
 	        }
 	
-	        List<Coordinate> demCoords = dm.getDEM(block);
 	        if(demCoords.isEmpty()) {
 	        	block.setState(BlockState.DISABLED, "No DEM in block");
 	        	stats.reportStatus(logger, "No DEM in block; skipping");
@@ -99,7 +106,10 @@ public class BlockProcessor {
             }
             
             WatershedBoundaryBuilder builder = new WatershedBoundaryBuilder(demCoords, respectedDemCoords, allHydroEdges, dm.getGeometryFactory(), stats);
-            builder.build();
+            try(RunReport.Stage stage = ProcessStatistics.startStage("BlockProcessor.build")){
+            	builder.build();
+            	stage.addItems(demCoords.size());
+            }
 
             Collection<WatershedBoundaryEdge> watershedBoundaryColl = builder.getBoundaryEdges();
 
@@ -114,12 +124,19 @@ public class BlockProcessor {
             }
 
             stats.reportStatus(logger, "Saving Results");
-            dm.writeWatershedBoundaries(watershedBoundaryColl);
+            try(RunReport.Stage stage = ProcessStatistics.startStage("BlockProcessor.write")){
+            	dm.writeWatershedBoundaries(watershedBoundaryColl);
+            	stage.addItems(watershedBoundaryColl.size());
+            }
 
             stats.reportStatus(logger, "Stage3: QA");
             block.setState(BlockState.QA);
 
-            WatershedQA watershedQA = new WatershedQA(builder);
+            WatershedQA watershedQA;
+            try(RunReport.Stage stage = ProcessStatistics.startStage("BlockProcessor.qa")){
+            	watershedQA = new WatershedQA(builder);
+            	stage.addItems(watershedBoundaryColl.size());
+            }
 
             if (!watershedQA.isValid()) {
                 logger.error(watershedQA.getErrorMessage());
@@ -33,6 +33,7 @@ import org.slf4j.LoggerFactory;
 
 import net.refractions.chyf.datasource.ChyfGeoPackageDataSource;
 import net.refractions.chyf.datasource.EcType;
+import net.refractions.chyf.datasource.GeoPackageCompactor;
 import net.refractions.chyf.datasource.ProcessingState;
 import net.refractions.chyf.util.ProcessStatistics;
 import net.refractions.chyf.watershed.model.HydroEdge;
@@ -59,9 +60,11 @@ public class CatchmentDelineator {
 		if (a.geopkg || (a.postgis && a.hasAoi())) {
 	    	CatchmentDelineator cd = new CatchmentDelineator(a);
 	    	cd.build();
+	    	if (a.geopkg && a.isCompactOutput()) cd.compactOutput();
 		}else if (a.postgis && !a.hasAoi()) {
 			processAllAoi(a);
 		}
+		if (a.getReportFile() != null) ProcessStatistics.getRunReport().writeJson(a.getReportFile());
     }
     
     /*
@@ -84,7 +87,12 @@ public class CatchmentDelineator {
 				dataSource.setState(ProcessingState.WS_DONE);
 			}catch (Exception ex) {
 				logger.error("Could not process catchments for aoi (" + aoi + ")", ex);
-				dataSource.setState(ProcessingState.WS_ERROR);
+				try {
+					dataSource.setState(ProcessingState.WS_ERROR);
+				}catch (IOException ex2) {
+					//for example the aoi was claimed by another worker
+					logger.error(ex2.getMessage(), ex2);
+				}
 			}
 			
 		}
@@ -158,6 +166,17 @@ public class CatchmentDelineator {
     	// QA?
     }
     
+    /**
+     * Rewrites the geopackage output in spatial order; see 
+     * {@link ChyfGeoPackageDataSource#compact(int)}
+     */
+    public void compactOutput() throws IOException {
+    	ICatchmentDelineatorDataSource dataSource = dm.getDataSource();
+    	if (!(dataSource instanceof ChyfGeoPackageDataSource)) throw new IOException("Only geopackage output can be compacted");
+    	logger.info("Compacting output");
+    	((ChyfGeoPackageDataSource)dataSource).compact(GeoPackageCompactor.DEFAULT_QUERY_COUNT);
+    }
+    
     public void processBlocks() {
         BlockProcessor processor = new BlockProcessor(dm);
         List<DataBlock> blocksToRun = blocks.stream().filter(new Predicate<DataBlock>() {
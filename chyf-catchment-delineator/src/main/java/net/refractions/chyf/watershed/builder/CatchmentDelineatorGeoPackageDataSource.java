@@ -52,7 +52,13 @@ public class CatchmentDelineatorGeoPackageDataSource extends ChyfGeoPackageDataS
 
 	public CatchmentDelineatorGeoPackageDataSource(Path geopackageFile) throws IOException {
 		super(geopackageFile);
-		addInternalIdAttribute();
+		try {
+			addInternalIdAttribute();
+		}catch (IOException ex) {
+			//stops the log writer
+			close();
+			throw ex;
+		}
 	}
 	
 	@Override
@@ -122,7 +128,7 @@ public class CatchmentDelineatorGeoPackageDataSource extends ChyfGeoPackageDataS
 			FeatureEntry fe = geopkg.feature(layer.getLayerName());	
 			Transaction tx = new DefaultTransaction();
 			try {
-				SimpleFeatureWriter writer = geopkg.writer(fe, true, null, tx);
+				SimpleFeatureWriter writer = getFeatureWriter(fe, true, null, tx);
 				for(T datum : data) {
 					SimpleFeature f = writer.next();
 					func.accept(datum, f);
@@ -157,7 +163,7 @@ public class CatchmentDelineatorGeoPackageDataSource extends ChyfGeoPackageDataS
 			}
 			Transaction tx = new DefaultTransaction();
 			try { 
-				SimpleFeatureWriter writer = geopkg.writer(fe, false, filter, tx);
+				SimpleFeatureWriter writer = getFeatureWriter(fe, false, filter, tx);
 				int count = 0;
 				while(writer.hasNext()) {
 					count++;
@@ -186,7 +192,7 @@ public class CatchmentDelineatorGeoPackageDataSource extends ChyfGeoPackageDataS
 			Filter filter = ff.equals(ff.property("id"), ff.literal(dataBlock.getId()));
 			Transaction tx = new DefaultTransaction();
 			try { 
-				SimpleFeatureWriter writer = geopkg.writer(fe, false, filter, tx);
+				SimpleFeatureWriter writer = getFeatureWriter(fe, false, filter, tx);
 				while(writer.hasNext()) {
 					SimpleFeature f = writer.next();
 					f.setAttribute("state", dataBlock.getState().id);
@@ -212,7 +218,7 @@ public class CatchmentDelineatorGeoPackageDataSource extends ChyfGeoPackageDataS
 		for(FeatureEntry fe : geopkg.features()) {
 			int count = 0;
 			try(Transaction tx = new DefaultTransaction()) {
-				SimpleFeatureWriter writer = geopkg.writer(fe, false, Filter.INCLUDE, tx);
+				SimpleFeatureWriter writer = getFeatureWriter(fe, false, Filter.INCLUDE, tx);
 				while(writer.hasNext()) {
 					count++;
 					SimpleFeature f = writer.next();
@@ -84,77 +84,80 @@ public class CatchmentDelineatorPostgisDataSource extends ChyfPostGisDataSource
 	 * @throws IOException
 	 */
 	private void clearAoiOutputTables() throws IOException {
-		Connection c = getConnection();
+		try(Connection c = getConnection()){
 		
-		List<ILayer> toProcess = new ArrayList<>();
-		for (Layer l : Layer.values()) {
-			if (l == Layer.AOI) continue;
-		    toProcess.add(l);
-		}
-		for (CatchmentLayer l : CatchmentLayer.values()) {
-			toProcess.add(l);
-		}
-		toProcess.add(Layer.AOI);
+			List<ILayer> toProcess = new ArrayList<>();
+			for (Layer l : Layer.values()) {
+				if (l == Layer.AOI) continue;
+			    toProcess.add(l);
+			}
+			for (CatchmentLayer l : CatchmentLayer.values()) {
+				toProcess.add(l);
+			}
+			toProcess.add(Layer.AOI);
 		
-		for (ILayer l : toProcess) {
+			for (ILayer l : toProcess) {
 			
-			SimpleFeatureType schema = null;
-			try{
-				schema = workingDataStore.getSchema(getTypeName(l));
-			}catch (Exception ex) {
+				SimpleFeatureType schema = null;
+				try{
+					schema = workingDataStore.getSchema(getTypeName(l));
+				}catch (Exception ex) {
 				
-			}
-			if (schema != null) {
-				StringBuilder sb = new StringBuilder();
-				sb.append("DELETE FROM ");
-				sb.append(getTableName(l));
-				sb.append(" WHERE ");
-				sb.append(getAoiFieldName(l));
-				sb.append(" = ? ");
+				}
+				if (schema != null) {
+					StringBuilder sb = new StringBuilder();
+					sb.append("DELETE FROM ");
+					sb.append(getTableName(l));
+					sb.append(" WHERE ");
+					sb.append(getAoiFieldName(l));
+					sb.append(" = ? ");
 				
-				try(PreparedStatement ps = c.prepareStatement(sb.toString())){
-					ps.setObject(1,  aoiUuid);
-					ps.executeUpdate();
-				}catch (SQLException ex) {
-					throw new IOException(ex);
+					try(PreparedStatement ps = c.prepareStatement(sb.toString())){
+						ps.setObject(1,  aoiUuid);
+						ps.executeUpdate();
+					}catch (SQLException ex) {
+						throw new IOException(ex);
+					}
 				}
-			}
 			
-			//copy over raw data
-			SimpleFeatureType rtype = null;
-			try{
-				rtype = rawDataStore.getSchema(getTypeName(l));
-			}catch (IOException ex) {
-				//not found
-			}
-			if (rtype != null) {
-	    		Name internalidatt = ChyfDataSource.findAttribute(rtype, ChyfAttribute.INTERNAL_ID);
+				//copy over raw data
+				SimpleFeatureType rtype = null;
+				try{
+					rtype = rawDataStore.getSchema(getTypeName(l));
+				}catch (IOException ex) {
+					//not found
+				}
+				if (rtype != null) {
+		    		Name internalidatt = ChyfDataSource.findAttribute(rtype, ChyfAttribute.INTERNAL_ID);
 	    		
-	    		StringBuilder sb = new StringBuilder();
-	    		sb.append("INSERT INTO ");
-	    		sb.append(workingSchema + "." + getTypeName(l));
-	    		sb.append(" SELECT ");
-	    		if (l != Layer.AOI && internalidatt == null) {
-	    			sb.append("uuid_generate_v4() as " + ChyfAttribute.INTERNAL_ID.getFieldName());
-	    			sb.append(",");
-	    		}
-	    		sb.append(" a.* ");
-	    		sb.append(" FROM " + rawSchema + "." + getTypeName(l) + " a ");
-	    		sb.append(" WHERE ");
-	    		sb.append(getAoiFieldName(l));
-	    		sb.append(" = " );
-	    		sb.append (" ? ");
+		    		StringBuilder sb = new StringBuilder();
+		    		sb.append("INSERT INTO ");
+		    		sb.append(workingSchema + "." + getTypeName(l));
+		    		sb.append(" SELECT ");
+		    		if (l != Layer.AOI && internalidatt == null) {
+		    			sb.append("uuid_generate_v4() as " + ChyfAttribute.INTERNAL_ID.getFieldName());
+		    			sb.append(",");
+		    		}
+		    		sb.append(" a.* ");
+		    		sb.append(" FROM " + rawSchema + "." + getTypeName(l) + " a ");
+		    		sb.append(" WHERE ");
+		    		sb.append(getAoiFieldName(l));
+		    		sb.append(" = " );
+		    		sb.append (" ? ");
 	    		
-	    		try(PreparedStatement ps = c.prepareStatement(sb.toString())){
-	    			ps.setObject(1, aoiUuid);
-	    			ps.executeUpdate();
-	    		}catch(SQLException ex) {
-	    			throw new IOException(ex);
-	    		}	    		   
+		    		try(PreparedStatement ps = c.prepareStatement(sb.toString())){
+		    			ps.setObject(1, aoiUuid);
+		    			ps.executeUpdate();
+		    		}catch(SQLException ex) {
+		    			throw new IOException(ex);
+		    		}	    		   
+				}
 			}
-		}
 	
 		
+		}catch (SQLException ex) {
+			throw new IOException(ex);
+		}
 	}
 	
 	@Override
@@ -213,7 +216,6 @@ public class CatchmentDelineatorPostgisDataSource extends ChyfPostGisDataSource
 			//an alter table statement 
 			workingDataStore.createSchema(ft);
 			
-			Connection c = getConnection();
 			StringBuilder sb = new StringBuilder();
 			sb.append("ALTER TABLE ");
 			sb.append(workingSchema + "." + ft.getTypeName().toLowerCase());
@@ -221,7 +223,7 @@ public class CatchmentDelineatorPostgisDataSource extends ChyfPostGisDataSource
 			sb.append(getAoiFieldName(null));
 			sb.append(" uuid NOT NULL ");
 			
-			try(Statement s = c.createStatement()){
+			try(Connection c = getConnection(); Statement s = c.createStatement()){
 				s.execute(sb.toString());
 			}catch(SQLException ex) {
 				throw new IOException (ex);
@@ -394,34 +396,37 @@ public class CatchmentDelineatorPostgisDataSource extends ChyfPostGisDataSource
 	public void reprecisionAll() throws IOException {
 		
 		ProcessStatistics stats = new ProcessStatistics();
-		Connection c = getConnection();
+		try(Connection c = getConnection()){
 		
-		for (Layer layer : Layer.values()) {
+			for (Layer layer : Layer.values()) {
 			
-			SimpleFeatureType fs = workingDataStore.getSchema(getTypeName(layer));
+				SimpleFeatureType fs = workingDataStore.getSchema(getTypeName(layer));
 			
-			StringBuilder sb = new StringBuilder();
-			sb.append("UPDATE ");
-			sb.append(getTableName(layer));
-			sb.append(" SET ");
-			sb.append(fs.getGeometryDescriptor().getLocalName());
-//			sb.append(" = ST_SnapToGrid(");
-			sb.append(" = ST_ReducePrecision(");
-			sb.append(fs.getGeometryDescriptor().getLocalName());
-			sb.append(", ?)");
-			sb.append(" WHERE ");
-			sb.append (getAoiFieldName(layer));
-			sb.append(" = ? ");
+				StringBuilder sb = new StringBuilder();
+				sb.append("UPDATE ");
+				sb.append(getTableName(layer));
+				sb.append(" SET ");
+				sb.append(fs.getGeometryDescriptor().getLocalName());
+	//			sb.append(" = ST_SnapToGrid(");
+				sb.append(" = ST_ReducePrecision(");
+				sb.append(fs.getGeometryDescriptor().getLocalName());
+				sb.append(", ?)");
+				sb.append(" WHERE ");
+				sb.append (getAoiFieldName(layer));
+				sb.append(" = ? ");
 			
-			try(PreparedStatement ps = c.prepareStatement(sb.toString())){
-				ps.setDouble(1, 1 / WatershedSettings.getPrecisionModel().getScale() );
-				ps.setObject(2, aoiUuid);
-				ps.executeUpdate();
-			}catch (SQLException ex) {
-				throw new IOException(ex);
-			}
+				try(PreparedStatement ps = c.prepareStatement(sb.toString())){
+					ps.setDouble(1, 1 / WatershedSettings.getPrecisionModel().getScale() );
+					ps.setObject(2, aoiUuid);
+					ps.executeUpdate();
+				}catch (SQLException ex) {
+					throw new IOException(ex);
+				}
 			
-			stats.reportStatus(logger, "Precision reduction applied to layer " + layer.name());
+				stats.reportStatus(logger, "Precision reduction applied to layer " + layer.name());
+			}
+		}catch (SQLException ex) {
+			throw new IOException(ex);
 		}
 	}
 
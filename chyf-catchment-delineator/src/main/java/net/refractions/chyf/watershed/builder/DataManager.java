@@ -45,8 +45,10 @@ import org.slf4j.LoggerFactory;
 
 import net.refractions.chyf.datasource.ChyfAttribute;
 import net.refractions.chyf.datasource.ChyfDataSource;
+import net.refractions.chyf.datasource.ChyfGeoPackageDataSource;
 import net.refractions.chyf.datasource.EcType;
 import net.refractions.chyf.datasource.EfType;
+import net.refractions.chyf.datasource.GeoPackageGeometryReader;
 import net.refractions.chyf.datasource.ILayer;
 import net.refractions.chyf.datasource.Layer;
 import net.refractions.chyf.util.ProcessStatistics;
@@ -143,24 +145,26 @@ public class DataManager {
 			}
 			List<HydroEdge> edges = new ArrayList<HydroEdge>();
 
-			FeatureReader<SimpleFeatureType, SimpleFeature> edgeReader = dataSource.query(CatchmentLayer.HYDRO_EDGE_LAYER, bufferedEnv, null);
-			while (edgeReader.hasNext()) {
-				SimpleFeature edge = edgeReader.next();
-				LineString edgeGeom = (LineString) edge.getDefaultGeometry();
-				Integer drainageId = (Integer)edge.getAttribute("drainageId");
-				WaterSide waterSide = WaterSide.convert((String)edge.getAttribute("waterSide"));
-				// ignore edges with water on both sides
-				if(waterSide == WaterSide.BOTH) continue; 
-				if(edgeGeom.getCoordinate() instanceof CoordinateXY) {
-					CoordinateSequence newSeq = PackedCoordinateSequenceFactory.DOUBLE_FACTORY.create(edgeGeom.getNumPoints(), 3);
-					CoordinateSequences.copy(edgeGeom.getCoordinateSequence(), 0, newSeq, 0, edgeGeom.getNumPoints());
-					edgeGeom = gf.createLineString(newSeq);
+			if (dataSource instanceof ChyfGeoPackageDataSource) {
+				// decode geometries directly into packed sequences instead of creating features
+				try(GeoPackageGeometryReader edgeReader = ((ChyfGeoPackageDataSource)dataSource).getGeometryReader(
+						CatchmentLayer.HYDRO_EDGE_LAYER, bufferedEnv, null, "drainageId", "waterSide")){
+					while (edgeReader.next()) {
+						WaterSide waterSide = WaterSide.convert(edgeReader.getString(1));
+						addHydroEdge(edges, (LineString) edgeReader.getGeometry(), edgeReader.getInteger(0), waterSide, targetEnvPoly);
+					}
 				}
-				if(targetEnvPoly == null || targetEnvPoly.intersects(edgeGeom)) {
-					edges.add(new HydroEdge(edgeGeom, drainageId, waterSide));
+			}else {
+				FeatureReader<SimpleFeatureType, SimpleFeature> edgeReader = dataSource.query(CatchmentLayer.HYDRO_EDGE_LAYER, bufferedEnv, null);
+				while (edgeReader.hasNext()) {
+					SimpleFeature edge = edgeReader.next();
+					LineString edgeGeom = (LineString) edge.getDefaultGeometry();
+					Integer drainageId = (Integer)edge.getAttribute("drainageId");
+					WaterSide waterSide = WaterSide.convert((String)edge.getAttribute("waterSide"));
+					addHydroEdge(edges, edgeGeom, drainageId, waterSide, targetEnvPoly);
 				}
+				edgeReader.close();
 			}
-			edgeReader.close();
 
 			stats.reportStatus(logger, "loaded " + edges.size() + " hydro edges.");
 			return edges;
@@ -169,6 +173,19 @@ public class DataManager {
 		}
 	}
 	
+	private void addHydroEdge(List<HydroEdge> edges, LineString edgeGeom, Integer drainageId, WaterSide waterSide, Geometry targetEnvPoly) {
+		// ignore edges with water on both sides
+		if(waterSide == WaterSide.BOTH) return; 
+		if(edgeGeom.getCoordinate() instanceof CoordinateXY) {
+			CoordinateSequence newSeq = PackedCoordinateSequenceFactory.DOUBLE_FACTORY.create(edgeGeom.getNumPoints(), 3);
+			CoordinateSequences.copy(edgeGeom.getCoordinateSequence(), 0, newSeq, 0, edgeGeom.getNumPoints());
+			edgeGeom = gf.createLineString(newSeq);
+		}
+		if(targetEnvPoly == null || targetEnvPoly.intersects(edgeGeom)) {
+			edges.add(new HydroEdge(edgeGeom, drainageId, waterSide));
+		}
+	}
+	
 	public synchronized List<Geometry> getFlowpaths() {
 		ProcessStatistics stats = new ProcessStatistics();
 		stats.reportStatus(logger, "loading flowpaths");
@@ -197,11 +197,12 @@ public class WatershedBoundaryMerger {
 			if(polys.size() > 1) {
 				for(int polyIdx = 0; polyIdx < polys.size(); polyIdx++) {
 					Polygon p = polys.get(polyIdx);
+					PolygonEdgeMatcher matcher = new PolygonEdgeMatcher(p);
 					boolean touchesHydroEdge = false;
 					for(HydroEdge edge : hydroEdges) {
 						Coordinate c0 = edge.getLine().getCoordinateN(0);
 						Coordinate c1 = edge.getLine().getCoordinateN(1);
-						int result = PolygonEdgeMatcher.compare(p, c0, c1);
+						int result = matcher.compare(c0, c1);
 						// we don't want polys on the water side of HydroEdges
 						if((edge.isWaterLeft() && result == -1) 
 								|| (edge.isWaterRight() && result == 1)) {
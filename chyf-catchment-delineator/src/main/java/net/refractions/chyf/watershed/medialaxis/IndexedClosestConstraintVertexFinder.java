@@ -24,7 +24,7 @@ import org.locationtech.jts.triangulate.quadedge.QuadEdge;
 import org.locationtech.jts.triangulate.quadedge.Vertex;
 import org.locationtech.jts.util.Assert;
 
-import net.refractions.chyf.util.KDTree;
+import net.refractions.chyf.util.PackedKDTree;
 import net.refractions.chyf.watershed.model.WatershedVertex;
 
 /**
@@ -39,13 +39,13 @@ public class IndexedClosestConstraintVertexFinder {
 									// (including if none supplied)
 	//private double searchBoxInitialSize = 0.001;
 	//private double searchBoxSizeIncrementFactor = 2.0;
-	private KDTree<Vertex> index = null; // null if no constraint vertices loaded
+	private PackedKDTree<Vertex> index = null; // null if no constraint vertices loaded
 
 	public IndexedClosestConstraintVertexFinder(List<? extends Vertex> constraintVertices) {
 		if (constraintVertices.size() > 0) {
 //			index = new KdTree();
 //			loadIndex(constraintVertices);
-			index = new KDTree<Vertex>(constraintVertices, v -> v.getCoordinate());
+			index = new PackedKDTree<Vertex>(constraintVertices, v -> v.getCoordinate());
 		}
 	}
 
@@ -85,8 +85,7 @@ public class IndexedClosestConstraintVertexFinder {
 	}
 
 	private Vertex findClosest(Coordinate pt) {
-		List<Vertex> closest = index.query(pt, 1, null);
-		return closest.get(0);
+		return index.getItem(index.nearest(pt.getX(), pt.getY()));
 //		Collection<KdNode> kdNodes = findNearKdNodes(pt);
 //
 //		double minDist = Double.MAX_VALUE;
@@ -12,12 +12,12 @@ import org.locationtech.jts.geom.LineString;
 import org.locationtech.jts.triangulate.quadedge.QuadEdge;
 import org.locationtech.jts.util.Assert;
 
-import net.refractions.chyf.util.KDTree;
+import net.refractions.chyf.util.PackedKDTree;
 import net.refractions.chyf.watershed.model.HydroEdge;
 import net.refractions.chyf.watershed.model.WatershedVertex;
 
 public class IndexedClosestHydroFinder {
-	private KDTree<Coordinate> index;
+	private PackedKDTree<Coordinate> index;
 
 	public IndexedClosestHydroFinder(List<HydroEdge> hydroEdges) {
 		Set<Coordinate> hydroCoords = new HashSet<Coordinate>(hydroEdges.size());
@@ -27,7 +27,7 @@ public class IndexedClosestHydroFinder {
 				hydroCoords.add(ls.getCoordinateN(i));
 			}
 		}
-		index = new KDTree<Coordinate>(new ArrayList<Coordinate>(hydroCoords), Function.identity());
+		index = new PackedKDTree<Coordinate>(new ArrayList<Coordinate>(hydroCoords), Function.identity());
 	}
 
 //	public void assignClosest(Collection<QuadEdge> quadEdges) {
@@ -55,8 +55,8 @@ public class IndexedClosestHydroFinder {
 //	}
 
 	private Coordinate findClosest(Coordinate pt) {
-		List<Coordinate> closest = index.query(pt, 1, null);
-		return closest.get(0);
+		int closest = index.nearest(pt.getX(), pt.getY());
+		return index.getItem(closest);
 //		Collection<KdNode> kdNodes = findNearKdNodes(pt);
 //
 //		double minDist = Double.MAX_VALUE;
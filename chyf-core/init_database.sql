@@ -12,6 +12,10 @@ create table raw.aoi(
  processing_start_datetime timestamp,
  processing_end_datetime timestamp,
  processing_parameters varchar,
+ -- work queue: claiming worker, lease expiry and claim order (highest first)
+ worker_id varchar,
+ lease_expiry timestamptz,
+ priority double precision,
  primary key (id)
 );
 
@@ -53,6 +53,8 @@ public abstract class Args {
 		options.addOption("d", true, "use postgis data source");
 		options.addOption("a", true, "if postgis is using this specifies the aoi to process; if not specified the next unprocessed aoi will be processed until no more to process");
 		options.addOption("a1", false, "if postgis is using this specifies this will process the next aoi in the table then exit (only one of a or a1 can be specified)");
+		options.addOption("j", true, "write a json performance report of the processing stages to this file");
+		options.addOption("s", false, "if geopackage is used this rewrites the output in spatial order, rebuilds the spatial indexes and vacuums the file once processing is complete");
 	}
 	
 	protected String inData = null;
@@ -66,6 +68,8 @@ public abstract class Args {
 	protected String dbstring = "";
 	protected String aoi = "";
 	protected boolean singleAoi = false;
+	protected Path report = null;
+	protected boolean compact = false;
 	
 	/**
 	 * Parses the command line arguments.  Returns true
@@ -125,6 +129,8 @@ public abstract class Args {
 		if (cmd.hasOption("a1")) {
 			this.singleAoi = true;
 		}
+		if (cmd.hasOption("j")) report = Paths.get(cmd.getOptionValue("j"));
+		if (cmd.hasOption("s")) compact = true;
 	}
 	
 	
@@ -246,6 +252,22 @@ public abstract class Args {
 		return this.outData;
 	}
 	
+	/**
+	 * 
+	 * @return the file to write the json performance report to or null if not provided
+	 */
+	public Path getReportFile() {
+		return this.report;
+	}
+	
+	/**
+	 * 
+	 * @return true if geopackage output should be compacted once processing is complete
+	 */
+	public boolean isCompactOutput() {
+		return this.compact;
+	}
+	
 	/**
 	 * 
 	 * @return the associated properties file or null if not provided
@@ -0,0 +1,329 @@
+/*******************************************************************************
+ * Copyright 2020 Government of Canada
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package net.refractions.chyf.datasource;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import javax.sql.DataSource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Work queue over the aoi table for running many workers against
+ * one database.
+ *
+ * Workers claim an aoi with SELECT ... FOR UPDATE SKIP LOCKED so concurrent
+ * claims never wait on each other or claim the same aoi.  Each claim records
+ * the worker id and a lease expiry time; while an aoi is claimed the lease is
+ * renewed by a background heartbeat.  If a worker dies its lease expires and
+ * the aoi can be claimed again by another worker.  Aois in the processing
+ * state without a lease (released, or claimed before the queue was used)
+ * can also be claimed.  A worker that finds its lease was taken by another
+ * worker must stop processing the aoi; see {@link #checkLease()}.  Aois are claimed in order
+ * of the priority column (highest first) and then by area (largest first) so
+ * the longest running aois are started first.
+ *
+ * The worker_id, lease_expiry and priority columns are added to the aoi
+ * table if they do not exist.
+ *
+ */
+public class AoiWorkQueue implements AutoCloseable {
+
+	static final Logger logger = LoggerFactory.getLogger(AoiWorkQueue.class.getCanonicalName());
+
+	public static final Duration DEFAULT_LEASE = Duration.ofMinutes(5);
+
+	/**
+	 * A claimed aoi
+	 */
+	public static class Claim {
+		private UUID id;
+		private String name;
+		private String parameters;
+
+		Claim(UUID id, String name, String parameters){
+			this.id = id;
+			this.name = name;
+			this.parameters = parameters;
+		}
+
+		public UUID getId() {
+			return id;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		/**
+		 * @return the processing parameters or null if none are set
+		 */
+		public String getParameters() {
+			return parameters;
+		}
+	}
+
+	private DataSource dataSource;
+	private String aoitable;
+	private String workerId;
+	private Duration lease = DEFAULT_LEASE;
+
+	private volatile boolean initialized = false;
+	private Claim current;
+	private volatile boolean leaseLost = false;
+
+	private ScheduledExecutorService heartbeats;
+	private ScheduledFuture<?> heartbeat;
+
+	/**
+	 * Creates a queue with a generated worker id
+	 *
+	 * @param dataSource the database to connect to
+	 * @param aoitable the schema qualified aoi table
+	 */
+	public AoiWorkQueue(DataSource dataSource, String aoitable) {
+		this(dataSource, aoitable, ManagementFactory.getRuntimeMXBean().getName() + ":" + UUID.randomUUID().toString().substring(0, 8));
+	}
+
+	public AoiWorkQueue(DataSource dataSource, String aoitable, String workerId) {
+		this.dataSource = dataSource;
+		this.aoitable = aoitable;
+		this.workerId = workerId;
+
+		heartbeats = Executors.newSingleThreadScheduledExecutor(r->{
+			Thread t = new Thread(r, "aoi-heartbeat");
+			t.setDaemon(true);
+			return t;
+		});
+	}
+
+	public String getWorkerId() {
+		return this.workerId;
+	}
+
+	/**
+	 * Sets how long a claim lasts without a heartbeat.  Heartbeats are sent
+	 * every third of this duration.  Default is {@link #DEFAULT_LEASE}.
+	 *
+	 * @param lease
+	 */
+	public void setLease(Duration lease) {
+		if (lease.toMillis() < 3) throw new IllegalArgumentException("Lease must be at least 3 milliseconds");
+		this.lease = lease;
+	}
+
+	/**
+	 * @return the aoi currently claimed by this worker or null
+	 */
+	public synchronized Claim getCurrent() {
+		return current;
+	}
+
+	/**
+	 * Claims the next aoi that is in the current state, or that is in
+	 * the processing state with an expired or no lease, and updates its
+	 * state to processing.  Any existing claim is released first.
+	 *
+	 * @param current the state to search for
+	 * @param processing the state to update to to flag aoi as processing
+	 * @return the claimed aoi or null if no more aois to process
+	 * @throws IOException
+	 */
+	public synchronized Claim claim(ProcessingState current, ProcessingState processing) throws IOException {
+		release();
+
+		StringBuilder sb = new StringBuilder();
+		sb.append("WITH nextaoi AS (");
+		sb.append("SELECT id FROM " + aoitable);
+		sb.append(" WHERE status = ? OR (status = ? AND (lease_expiry IS NULL OR lease_expiry < now())) ");
+		sb.append(" ORDER BY priority DESC NULLS LAST, ST_Area(geometry) DESC, id ");
+		sb.append(" LIMIT 1 FOR UPDATE SKIP LOCKED) ");
+		sb.append("UPDATE " + aoitable);
+		sb.append(" SET status = ?, worker_id = ?, lease_expiry = now() + ? * interval '1 millisecond', ");
+		sb.append(" processing_start_datetime = now(), processing_end_datetime = null ");
+		sb.append(" FROM nextaoi ");
+		sb.append(" WHERE " + aoitable + ".id = nextaoi.id ");
+		sb.append("RETURNING " + aoitable + ".id, " + aoitable + ".name, " + aoitable + ".processing_parameters");
+
+		try(Connection c = getConnection()){
+			try(PreparedStatement ps = c.prepareStatement(sb.toString())){
+				ps.setString(1, current.name());
+				ps.setString(2, processing.name());
+				ps.setString(3, processing.name());
+				ps.setString(4, workerId);
+				ps.setLong(5, lease.toMillis());
+				try(ResultSet rs = ps.executeQuery()){
+					if (!rs.next()) return null;
+
+					String parameters = rs.getString(3);
+					if (parameters != null && parameters.trim().isBlank()) {
+						parameters = null;
+					}else if (parameters != null){
+						//convert ; into \n
+						parameters = parameters.replaceAll(";", System.lineSeparator());
+					}
+					this.current = new Claim((UUID)rs.getObject(1), rs.getString(2), parameters);
+					this.leaseLost = false;
+				}
+			}
+		}catch (SQLException ex) {
+			throw new IOException(ex);
+		}
+
+		long period = lease.toMillis() / 3;
+		heartbeat = heartbeats.scheduleAtFixedRate(this::heartbeat, period, period, TimeUnit.MILLISECONDS);
+		return this.current;
+	}
+
+	/**
+	 * Extends the lease of the current claim.  Called by the heartbeat;
+	 * can also be called directly by long running stages.
+	 *
+	 * @return false if there is no current claim or the lease
+	 * was lost to another worker
+	 */
+	public boolean heartbeat() {
+		Claim claim = getCurrent();
+		if (claim == null || leaseLost) return false;
+
+		StringBuilder sb = new StringBuilder();
+		sb.append("UPDATE " + aoitable);
+		sb.append(" SET lease_expiry = now() + ? * interval '1 millisecond' ");
+		sb.append(" WHERE id = ? AND worker_id = ?");
+
+		try(Connection c = getConnection();
+				PreparedStatement ps = c.prepareStatement(sb.toString())){
+			ps.setLong(1, lease.toMillis());
+			ps.setObject(2, claim.getId());
+			ps.setString(3, workerId);
+			if (ps.executeUpdate() == 0) {
+				//a heartbeat still running when the claim was released
+				//must not flag the next claim as lost
+				synchronized(this) {
+					if (claim != current) return false;
+					leaseLost = true;
+				}
+				logger.warn("Lease on aoi " + claim.getName() + " was lost by worker " + workerId);
+				return false;
+			}
+			return true;
+		}catch (Exception ex) {
+			//keep trying on the next heartbeat
+			logger.warn("Unable to renew lease on aoi " + claim.getName() + ": " + ex.getMessage());
+			return false;
+		}
+	}
+
+	/**
+	 * @return true if another worker has claimed the current aoi 
+	 * since it was claimed by this worker
+	 */
+	public boolean isLeaseLost() {
+		return leaseLost;
+	}
+	
+	/**
+	 * Called between processing stages and before results are written
+	 * so a worker stops processing an aoi that was claimed by another 
+	 * worker after its lease expired.
+	 * 
+	 * @throws IOException if the lease on the current claim was lost
+	 */
+	public void checkLease() throws IOException {
+		if (!leaseLost) return;
+		Claim claim = getCurrent();
+		throw new IOException("Lease on aoi " + (claim == null ? "" : claim.getName()) + " was lost by worker " + workerId + "; the aoi is being processed by another worker");
+	}
+	
+	/**
+	 * Stops the heartbeat and clears the lease of the current claim.
+	 * The aoi state should be updated before it is released.
+	 *
+	 * @throws IOException
+	 */
+	public synchronized void release() throws IOException {
+		if (heartbeat != null) {
+			heartbeat.cancel(false);
+			heartbeat = null;
+		}
+		if (current == null) return;
+
+		StringBuilder sb = new StringBuilder();
+		sb.append("UPDATE " + aoitable);
+		sb.append(" SET worker_id = null, lease_expiry = null ");
+		sb.append(" WHERE id = ? AND worker_id = ?");
+
+		try(Connection c = getConnection();
+				PreparedStatement ps = c.prepareStatement(sb.toString())){
+			ps.setObject(1, current.getId());
+			ps.setString(2, workerId);
+			ps.executeUpdate();
+		}catch (SQLException ex) {
+			throw new IOException(ex);
+		}finally {
+			current = null;
+			leaseLost = false;
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			release();
+		}finally {
+			heartbeats.shutdownNow();
+		}
+	}
+
+	private Connection getConnection() throws SQLException {
+		Connection c = dataSource.getConnection();
+		if (!initialized) {
+			//columns used by the queue; only altered if missing as
+			//workers may not own the table
+			try(Statement s = c.createStatement()){
+				boolean exists = false;
+				try(ResultSet rs = s.executeQuery("SELECT count(*) FROM information_schema.columns WHERE table_schema || '.' || table_name = '" + aoitable + "' AND column_name IN ('worker_id', 'lease_expiry', 'priority')")){
+					exists = rs.next() && rs.getInt(1) == 3;
+				}
+				if (!exists) {
+					s.execute("ALTER TABLE " + aoitable
+						+ " ADD COLUMN IF NOT EXISTS worker_id varchar, "
+						+ " ADD COLUMN IF NOT EXISTS lease_expiry timestamptz, "
+						+ " ADD COLUMN IF NOT EXISTS priority double precision");
+					if (!c.getAutoCommit()) c.commit();
+				}
+			}catch (SQLException ex) {
+				c.close();
+				throw ex;
+			}
+			initialized = true;
+		}
+		return c;
+	}
+}
@@ -0,0 +1,238 @@
+/*******************************************************************************
+ * Copyright 2020 Government of Canada
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package net.refractions.chyf.datasource;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import org.locationtech.jts.geom.Geometry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Buffers error and warning log items and writes them to the data source
+ * in batches.
+ *
+ * Items are written by a background thread once batchSize items are waiting
+ * or, if a flush interval is set, once the oldest waiting item is that old.
+ * At most capacity items are buffered; logging blocks while the buffer is full
+ * so memory use is bounded.  {@link #flush()} writes all buffered items on the
+ * calling thread and must be called before the data source is finished or closed.
+ *
+ * Batches are never written concurrently.  If a background write fails the
+ * batch is kept and written again before any other items, and the exception
+ * is thrown from the next call to log.  {@link #flush()} only throws if the
+ * failed batch still cannot be written.
+ *
+ */
+public class AsyncLogSink implements AutoCloseable {
+
+	static final Logger logger = LoggerFactory.getLogger(AsyncLogSink.class.getCanonicalName());
+
+	public static final int DEFAULT_BATCH_SIZE = 500;
+	public static final int DEFAULT_CAPACITY = 10000;
+
+	/**
+	 * Writes a batch of log items
+	 */
+	public interface BatchWriter {
+		void write(List<LogItem> items) throws IOException;
+	}
+
+	/**
+	 * An error or warning log entry
+	 */
+	public static class LogItem {
+		private String type;
+		private Geometry location;
+		private String message;
+		private String process;
+
+		public LogItem(String type, Geometry location, String message, String process) {
+			this.type = type;
+			this.location = location;
+			this.message = message;
+			this.process = process;
+		}
+
+		public String getType() {
+			return type;
+		}
+
+		public Geometry getLocation() {
+			return location;
+		}
+
+		public String getMessage() {
+			return message;
+		}
+
+		public String getProcess() {
+			return process;
+		}
+	}
+
+	private BatchWriter writer;
+	private int batchSize;
+	private long flushInterval;
+
+	private BlockingQueue<LogItem> items;
+	//batch that failed to write; written before any other items
+	private List<LogItem> pending = new ArrayList<>();
+	private Object writeLock = new Object();
+	private Object signal = new Object();
+	private volatile IOException failure;
+	private volatile long oldest = -1;
+	private volatile boolean closed = false;
+
+	private Thread thread;
+
+	/**
+	 *
+	 * @param writer writes batches of items
+	 * @param batchSize number of items to write at once
+	 * @param flushInterval maximum time in milliseconds an item waits
+	 * before being written; 0 to only write full batches
+	 * @param capacity maximum number of buffered items
+	 */
+	public AsyncLogSink(BatchWriter writer, int batchSize, long flushInterval, int capacity) {
+		if (batchSize < 1 || capacity < batchSize) throw new IllegalArgumentException("Capacity must be at least the batch size");
+		this.writer = writer;
+		this.batchSize = batchSize;
+		this.flushInterval = flushInterval;
+		this.items = new ArrayBlockingQueue<>(capacity);
+
+		thread = new Thread(this::run, "chyf-log-writer");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	public void log(String type, Geometry location, String message, String process) throws IOException {
+		checkFailure();
+		if (closed) throw new IOException("Log is closed");
+		try {
+			if (items.isEmpty()) oldest = System.currentTimeMillis();
+			items.put(new LogItem(type, location, message, process));
+		}catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new IOException(ex);
+		}
+		if (items.size() >= batchSize) {
+			synchronized(signal) {
+				signal.notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * Writes all buffered items, including any batch where the
+	 * background write failed
+	 *
+	 * @throws IOException if the items cannot be written
+	 */
+	public void flush() throws IOException {
+		synchronized(writeLock) {
+			try {
+				write(true);
+			}catch (IOException ex) {
+				throw new IOException("Unable to write log items", ex);
+			}finally {
+				//reported here or the failed items have been written
+				failure = null;
+			}
+		}
+	}
+
+	/**
+	 * Flushes buffered items and stops the background thread
+	 */
+	@Override
+	public void close() throws IOException {
+		if (closed) return;
+		synchronized(signal) {
+			closed = true;
+			signal.notifyAll();
+		}
+		try {
+			thread.join();
+		}catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+		flush();
+	}
+
+	private void checkFailure() throws IOException {
+		IOException ex = failure;
+		if (ex != null) {
+			failure = null;
+			throw new IOException("Unable to write log items", ex);
+		}
+	}
+
+	/*
+	 * writes full batches or, if all is true, every item
+	 */
+	private void write(boolean all) throws IOException {
+		synchronized(writeLock) {
+			if (!pending.isEmpty()) {
+				writer.write(pending);
+				pending.clear();
+			}
+			List<LogItem> batch = new ArrayList<>(batchSize);
+			while(items.size() >= batchSize || (all && !items.isEmpty())) {
+				items.drainTo(batch, batchSize);
+				oldest = items.isEmpty() ? -1 : System.currentTimeMillis();
+				try {
+					writer.write(batch);
+				}catch (IOException | RuntimeException ex) {
+					pending = batch;
+					throw ex;
+				}
+				batch.clear();
+			}
+		}
+	}
+
+	private void run() {
+		while(!closed) {
+			try {
+				synchronized(signal) {
+					//remaining items are written by close
+					if (closed) return;
+					if (items.size() < batchSize) signal.wait(flushInterval > 0 ? flushInterval : 0);
+				}
+			}catch (InterruptedException ex) {
+				return;
+			}
+			long first = oldest;
+			boolean expired = flushInterval > 0 && first >= 0 && System.currentTimeMillis() - first >= flushInterval;
+			synchronized(writeLock) {
+				try {
+					write(expired);
+				}catch (IOException ex) {
+					logger.error("Unable to write log items: " + ex.getMessage(), ex);
+					failure = ex;
+				}catch (RuntimeException ex) {
+					logger.error("Unable to write log items: " + ex.getMessage(), ex);
+					failure = new IOException(ex);
+				}
+			}
+		}
+	}
+}
@@ -22,10 +22,14 @@ import java.nio.file.StandardCopyOption;
 import java.sql.Connection;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
-import java.util.UUID;
+import java.util.Set;
 
 import org.geotools.data.DefaultTransaction;
 import org.geotools.data.Transaction;
@@ -38,8 +42,11 @@ import org.geotools.geometry.jts.ReferencedEnvelope;
 import org.geotools.geopkg.FeatureEntry;
 import org.geotools.geopkg.GeoPackage;
 import org.geotools.referencing.CRS;
+import org.locationtech.jts.geom.Envelope;
 import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryFactory;
 import org.locationtech.jts.geom.Polygon;
+import org.locationtech.jts.geom.impl.PackedCoordinateSequenceFactory;
 import org.opengis.feature.simple.SimpleFeature;
 import org.opengis.feature.simple.SimpleFeatureType;
 import org.opengis.feature.type.Name;
@@ -51,7 +58,9 @@ import org.slf4j.LoggerFactory;
 import org.sqlite.SQLiteConfig;
 
 import net.refractions.chyf.ChyfLogger;
+import net.refractions.chyf.util.ProcessStatistics;
 import net.refractions.chyf.util.ReprojectionUtils;
+import net.refractions.chyf.util.RunReport;
 
 /**
  * Reads a geopackage input dataset.  
@@ -63,12 +72,44 @@ public class ChyfGeoPackageDataSource implements ChyfDataSource{
 
 	static final Logger logger = LoggerFactory.getLogger(ChyfGeoPackageDataSource.class.getCanonicalName());
 
+	//sqlite expression for a random version 4 uuid in the same format as UUID.randomUUID().toString()
+	private static final String RANDOM_UUID_SQL = "lower(hex(randomblob(4)) || '-' || hex(randomblob(2)) || '-4' || "
+			+ "substr(hex(randomblob(2)), 2) || '-' || substr('89ab', 1 + (abs(random()) % 4), 1) || "
+			+ "substr(hex(randomblob(2)), 2) || '-' || hex(randomblob(6)))";
+
+	/**
+	 * System property for the default in memory snapshot budget in bytes
+	 */
+	public static final String SNAPSHOT_BUDGET_PROPERTY = "chyf.geopackage.snapshotbudget";
+	
+	//estimated in memory size of a feature relative to its encoded geometry
+	//plus a fixed cost per feature for attributes and index entries 
+	private static final int SNAPSHOT_GEOMETRY_FACTOR = 3;
+	private static final int SNAPSHOT_FEATURE_BYTES = 512;
+	
+	private static final GeometryFactory PACKED_FACTORY = new GeometryFactory(PackedCoordinateSequenceFactory.DOUBLE_FACTORY);
+
 	protected Path geopackageFile;
 	protected GeoPackage geopkg;
 	protected CoordinateReferenceSystem crs;
 	
-	protected List<LogItem> logitems = new ArrayList<>();
+	//held while writing log items or reopening the geopackage
+	private final Object geopkgLock = new Object();
+	//errors and warnings are written in batches as they are logged
+	//and any remaining are written on finish; created at the end of the
+	//constructor so a failed constructor does not leave the writer thread running
+	protected AsyncLogSink log;
 	
+	//in memory layer snapshots by table name; all fields guarded by snapshots
+	private long snapshotBudget = Long.getLong(SNAPSHOT_BUDGET_PROPERTY, 0);
+	private long snapshotUsed = 0;
+	private final Map<String, LayerSnapshot> snapshots = new HashMap<>();
+	private final Map<String, Long> snapshotSizes = new HashMap<>();
+	private final Map<String, Long> layerVersions = new HashMap<>();
+	private long snapshotGeneration = 0;
+	private final Set<String> oversized = new HashSet<>();
+	//key for the transaction state that invalidates snapshots on commit
+	private final Object snapshotStateKey = new Object();
 	
 	/**
 	 * Deletes any existing output files and copies the input
@@ -85,28 +126,168 @@ public class ChyfGeoPackageDataSource implements ChyfDataSource{
 		ChyfLogger.INSTANCE.setDataSource(this);
 		this.geopackageFile = geopackageFile;
 		read();
+		log = new AsyncLogSink(this::writeLogItems, AsyncLogSink.DEFAULT_BATCH_SIZE, 0, AsyncLogSink.DEFAULT_CAPACITY);
 	}
 	
 	@Override
 	public void finish() throws IOException{
-		try(Transaction tx = new DefaultTransaction()) {	
-			try(SimpleFeatureWriter fw = geopkg.writer(getEntry(Layer.ERRORS), true, Filter.EXCLUDE, tx)){
-				for (LogItem it : logitems) {
-					SimpleFeature fs = fw.next();
-					fs.setAttribute("type", it.type);
-					fs.setAttribute("message", it.message);
-					fs.setAttribute("process", it.process);
-					fs.setDefaultGeometry(it.location);
-					fw.write();
+		log.flush();
+		//super.finish();
+	}
+	
+	private void writeLogItems(List<AsyncLogSink.LogItem> items) throws IOException {
+		synchronized(geopkgLock) {
+			try(Transaction tx = new DefaultTransaction()) {	
+				//not getEntry, which would lock this data source while holding geopkgLock
+				FeatureEntry entry = geopkg.feature(Layer.ERRORS.getLayerName());
+				try(SimpleFeatureWriter fw = getFeatureWriter(entry, true, Filter.EXCLUDE, tx)){
+					for (AsyncLogSink.LogItem it : items) {
+						SimpleFeature fs = fw.next();
+						fs.setAttribute("type", it.getType());
+						fs.setAttribute("message", it.getMessage());
+						fs.setAttribute("process", it.getProcess());
+						fs.setDefaultGeometry(it.getLocation());
+						fw.write();
+					}
+					tx.commit();
+				}catch(IOException ex) {
+					tx.rollback();
+					throw ex;
 				}
-				tx.commit();
-				logitems.clear();
-			}catch(IOException ex) {
-				tx.rollback();
-				throw ex;
 			}
-		}		
-		//super.finish();
+		}
+	}
+	
+	/**
+	 * Closes and reads the geopackage again, for example after 
+	 * the table structure has been changed
+	 * 
+	 * @throws IOException
+	 */
+	protected void reopen() throws IOException {
+		synchronized(geopkgLock) {
+			geopkg.close();
+			read();
+		}
+		clearSnapshots();
+	}
+	
+	/**
+	 * Sets the memory available for in memory layer snapshots.  When 
+	 * set, layers that fit in the remaining budget are read into memory
+	 * the first time they are queried and later queries are served from 
+	 * memory until the layer is modified.  The budget is shared by all layers
+	 * and the size of each layer is estimated from its encoded geometries.
+	 * 
+	 * Default is the value of the {@link #SNAPSHOT_BUDGET_PROPERTY} system 
+	 * property or 0 which disables snapshots.
+	 * 
+	 * @param bytes maximum estimated size of all snapshots 
+	 */
+	public void setSnapshotBudget(long bytes) {
+		if (bytes < 0) throw new IllegalArgumentException("Snapshot budget cannot be negative");
+		synchronized(snapshots) {
+			this.snapshotBudget = bytes;
+		}
+		clearSnapshots();
+	}
+	
+	public long getSnapshotBudget() {
+		synchronized(snapshots) {
+			return this.snapshotBudget;
+		}
+	}
+	
+	/**
+	 * Must be called after a layer is modified other than through
+	 * {@link #getFeatureWriter(FeatureEntry, boolean, Filter, Transaction)},
+	 * for example by sql statements, so queries do not return
+	 * stale snapshot features.
+	 * 
+	 * @param fe the modified layer
+	 */
+	protected void layerModified(FeatureEntry fe) {
+		if (fe == null) return;
+		layerModified(fe.getTableName());
+	}
+	
+	private void layerModified(String table) {
+		synchronized(snapshots) {
+			layerVersions.merge(table, 1L, Long::sum);
+			oversized.remove(table);
+			LayerSnapshot snapshot = snapshots.remove(table);
+			if (snapshot != null) snapshotUsed -= snapshotSizes.remove(table);
+		}
+	}
+	
+	private void clearSnapshots() {
+		synchronized(snapshots) {
+			snapshotGeneration++;
+			snapshots.clear();
+			snapshotSizes.clear();
+			oversized.clear();
+			snapshotUsed = 0;
+		}
+	}
+	
+	/**
+	 * @return the snapshot for the layer, reading it if it fits in the
+	 * remaining budget, or null if snapshots are disabled or the layer 
+	 * does not fit
+	 */
+	private LayerSnapshot getSnapshot(FeatureEntry fe) throws IOException {
+		String table = fe.getTableName();
+		long version;
+		long generation;
+		synchronized(snapshots) {
+			if (snapshotBudget <= 0) return null;
+			LayerSnapshot snapshot = snapshots.get(table);
+			if (snapshot != null) return snapshot;
+			if (oversized.contains(table)) return null;
+			version = layerVersions.getOrDefault(table, 0L);
+			generation = snapshotGeneration;
+		}
+		
+		long size = estimateSnapshotSize(fe);
+		synchronized(snapshots) {
+			if (snapshotUsed + size > snapshotBudget) {
+				oversized.add(table);
+				return null;
+			}
+		}
+		
+		LayerSnapshot snapshot = new LayerSnapshot(geopkg.reader(fe, Filter.INCLUDE, null));
+		synchronized(snapshots) {
+			//modified or cleared while reading
+			if (layerVersions.getOrDefault(table, 0L) != version || snapshotGeneration != generation) return null;
+			if (snapshots.containsKey(table)) return snapshots.get(table);
+			if (snapshotUsed + size > snapshotBudget) {
+				oversized.add(table);
+				return null;
+			}
+			snapshots.put(table, snapshot);
+			snapshotSizes.put(table, size);
+			snapshotUsed += size;
+		}
+		logger.debug("Layer " + table + " snapshot: " + snapshot.size() + " features, ~" + size + " bytes");
+		return snapshot;
+	}
+	
+	private long estimateSnapshotSize(FeatureEntry fe) throws IOException {
+		StringBuilder sb = new StringBuilder();
+		sb.append("SELECT count(*), coalesce(sum(length(");
+		sb.append(fe.getGeometryColumn());
+		sb.append(")), 0) FROM ");
+		sb.append(fe.getTableName());
+		
+		try(Connection c = geopkg.getDataSource().getConnection();
+				Statement s = c.createStatement();
+				ResultSet rs = s.executeQuery(sb.toString())){
+			if (!rs.next()) return 0;
+			return rs.getLong(1) * SNAPSHOT_FEATURE_BYTES + rs.getLong(2) * SNAPSHOT_GEOMETRY_FACTOR;
+		}catch (SQLException ex) {
+			throw new IOException(ex);
+		}
 	}
 	
 	/**
@@ -188,8 +369,8 @@ public class ChyfGeoPackageDataSource implements ChyfDataSource{
 		logInternal("WARNING", location, message, process);
 	}
 	
-	private synchronized void logInternal(String type, Geometry location, String message, String process) throws IOException {
-		logitems.add(new LogItem(type, location, message, process));
+	private void logInternal(String type, Geometry location, String message, String process) throws IOException {
+		log.log(type, location, message, process);
 	}
 	
 	/**
@@ -231,6 +412,28 @@ public class ChyfGeoPackageDataSource implements ChyfDataSource{
     	if (fe == null) return null;
     	return geopkg.reader(fe, filter, tx);
     }
+    
+	/**
+	 * Returns a feature writer for the given layer.  Writes must go through 
+	 * this method, not the geopackage, so in memory snapshots of the layer
+	 * are discarded.
+	 * 
+	 * @return a feature writer for the given layer
+	 */
+	protected SimpleFeatureWriter getFeatureWriter(FeatureEntry fe, boolean append, Filter filter, Transaction tx) throws IOException {
+		SimpleFeatureWriter writer = geopkg.writer(fe, append, filter, tx);
+		String table = fe.getTableName();
+		layerModified(table);
+		if (tx != null && tx != Transaction.AUTO_COMMIT) {
+			SnapshotState state = (SnapshotState) tx.getState(snapshotStateKey);
+			if (state == null) {
+				state = new SnapshotState();
+				tx.putState(snapshotStateKey, state);
+			}
+			state.tables.add(table);
+		}
+		return new SnapshotWriter(writer, table);
+	}
    
 	
     /**
@@ -311,36 +514,38 @@ public class ChyfGeoPackageDataSource implements ChyfDataSource{
 					if (rs.next()) throw new RuntimeException("Provided internal ids are not unique.");
 				}
 			}
-		} catch (SQLException sqle) {
-			throw new IOException(sqle);
-		}
-		
-		geopkg.close();
-		read();
-		
-		//populate internal_id with uuids
-		for (FeatureEntry layer : featureEntries) {
-			try(DefaultTransaction tx = new DefaultTransaction()) {
-				try {
-					Filter blankFilter = ff.isNull(ff.property(ChyfAttribute.INTERNAL_ID.getFieldName()));
-		
-					try(SimpleFeatureWriter writer = geopkg.writer(layer, false, blankFilter, tx)){
-						Name name = ChyfDataSource.findAttribute(writer.getFeatureType(), ChyfAttribute.INTERNAL_ID);
-						
-						while(writer.hasNext()) {
-							SimpleFeature sf = writer.next();
-							sf.setAttribute(name, UUID.randomUUID().toString());
-							writer.write();
-						}
-					}
-					tx.commit();
-				} catch (IOException ioe) {
-					tx.rollback();
-					throw ioe;
+			
+			//populate internal_id with random (version 4) uuids in a single update 
+			//per table; the rows are updated in place so geometries are not decoded
+			boolean autocommit = c.getAutoCommit();
+			c.setAutoCommit(false);
+			try(Statement stmt = c.createStatement()){
+				for (FeatureEntry layer : featureEntries) {
+					StringBuilder sb = new StringBuilder();
+					sb.append("UPDATE ");
+					sb.append(layer.getTableName());
+					sb.append(" SET ");
+					sb.append(ChyfAttribute.INTERNAL_ID.getFieldName());
+					sb.append(" = ");
+					sb.append(RANDOM_UUID_SQL);
+					sb.append(" WHERE ");
+					sb.append(ChyfAttribute.INTERNAL_ID.getFieldName());
+					sb.append(" is null");
+					stmt.executeUpdate(sb.toString());
 				}
+				c.commit();
+			}catch (SQLException ex) {
+				c.rollback();
+				throw ex;
+			}finally {
+				c.setAutoCommit(autocommit);
 			}
+		} catch (SQLException sqle) {
+			throw new IOException(sqle);
 		}
 		
+		//so the feature types include the new attribute
+		if (!addId.isEmpty()) reopen();
 	}
 
 	@Override
@@ -376,9 +581,78 @@ public class ChyfGeoPackageDataSource implements ChyfDataSource{
 		if(filter != null) {
 			netFilter = ff.and(netFilter, filter);
 		}
+		
+		LayerSnapshot snapshot = getSnapshot(fe);
+		if (snapshot != null) {
+			Envelope env = null;
+			if (bounds != null) {
+				BoundingBox b = ReprojectionUtils.reproject(bounds, ReprojectionUtils.srsCodeToCRS(fe.getSrid()));
+				env = new Envelope(b.getMinX(), b.getMaxX(), b.getMinY(), b.getMaxY());
+			}
+			return snapshot.query(env, filter);
+		}
     	return geopkg.reader(fe, netFilter, null);
 	}
 	
+	/**
+	 * Reads geometries and the given attributes from a layer without creating
+	 * features.  Geometries use packed coordinate sequences.  Unlike query, 
+	 * features are only filtered by envelope and the filter is a sql where 
+	 * clause.  Returns null if the layer does not exist.
+	 * 
+	 * @param layer layer to read
+	 * @param bounds optional bounds 
+	 * @param where optional sql where clause
+	 * @param attributes attribute columns to read
+	 * @throws IOException
+	 */
+	public GeoPackageGeometryReader getGeometryReader(ILayer layer, ReferencedEnvelope bounds, String where, String... attributes) throws IOException {
+		FeatureEntry fe = getEntry(layer);
+		if (fe == null) return null;
+		Envelope env = null;
+		if (bounds != null) {
+			BoundingBox b = ReprojectionUtils.reproject(bounds, ReprojectionUtils.srsCodeToCRS(fe.getSrid()));
+			env = new Envelope(b.getMinX(), b.getMaxX(), b.getMinY(), b.getMaxY());
+		}
+		try {
+			return new GeoPackageGeometryReader(geopkg.getDataSource().getConnection(), fe, env, where, attributes, PACKED_FACTORY);
+		}catch (SQLException ex) {
+			throw new IOException(ex);
+		}
+	}
+	
+	/**
+	 * Rewrites the feature tables in spatial order, rebuilds the spatial 
+	 * indexes and vacuums the geopackage so later bbox queries read fewer
+	 * pages; see {@link GeoPackageCompactor}.  Feature ids are renumbered.
+	 * Should be called once processing is complete; outstanding errors and 
+	 * warnings are written first.
+	 * 
+	 * @param queries number of bbox queries used to measure each table
+	 * before and after compaction, 0 to not measure
+	 * @return the result for each feature table
+	 * @throws IOException
+	 */
+	public synchronized List<GeoPackageCompactor.TableResult> compact(int queries) throws IOException {
+		log.flush();
+		List<GeoPackageCompactor.TableResult> results;
+		try(RunReport.Stage stage = ProcessStatistics.startStage("GeoPackageCompactor")){
+			synchronized(geopkgLock) {
+				try(Connection c = geopkg.getDataSource().getConnection()){
+					GeoPackageCompactor compactor = new GeoPackageCompactor(c);
+					compactor.setQueryCount(queries);
+					results = compactor.compact();
+				}catch (SQLException ex) {
+					throw new IOException(ex);
+				}
+			}
+			for (GeoPackageCompactor.TableResult r : results) stage.addItems(r.getFeatures());
+		}finally {
+			clearSnapshots();
+		}
+		return results;
+	}
+	
 	protected Filter filterFromEnvelope(ReferencedEnvelope env, FeatureEntry source) {
 		BoundingBox bounds = ReprojectionUtils.reproject(env, ReprojectionUtils.srsCodeToCRS(source.getSrid()));
 		String geom = source.getGeometryColumn();
@@ -410,9 +684,83 @@ public class ChyfGeoPackageDataSource implements ChyfDataSource{
 	
 	@Override
 	public synchronized void close() {
+		try {
+			log.close();
+		}catch (IOException ex) {
+			logger.error("Unable to write errors and warnings: " + ex.getMessage(), ex);
+		}
 		geopkg.close();
 	}
 	
+	/*
+	 * discards snapshots of the layers written in a transaction
+	 * once it is committed
+	 */
+	private class SnapshotState implements Transaction.State {
+		private Set<String> tables = new HashSet<>();
+		
+		@Override
+		public void setTransaction(Transaction transaction) {
+			//also on close as the geopackage connection may commit 
+			//after this state
+			if (transaction == null) invalidate();
+		}
+		@Override
+		public void addAuthorization(String AuthID) throws IOException {
+		}
+		@Override
+		public void commit() throws IOException {
+			invalidate();
+		}
+		@Override
+		public void rollback() throws IOException {
+		}
+		private void invalidate() {
+			for (String table : tables) layerModified(table);
+		}
+	}
+	
+	/*
+	 * discards snapshots of the layer when the writer is closed
+	 */
+	private class SnapshotWriter implements SimpleFeatureWriter {
+		private SimpleFeatureWriter delegate;
+		private String table;
+		
+		SnapshotWriter(SimpleFeatureWriter delegate, String table){
+			this.delegate = delegate;
+			this.table = table;
+		}
+		@Override
+		public SimpleFeatureType getFeatureType() {
+			return delegate.getFeatureType();
+		}
+		@Override
+		public SimpleFeature next() throws IOException {
+			return delegate.next();
+		}
+		@Override
+		public void remove() throws IOException {
+			delegate.remove();
+		}
+		@Override
+		public void write() throws IOException {
+			delegate.write();
+		}
+		@Override
+		public boolean hasNext() throws IOException {
+			return delegate.hasNext();
+		}
+		@Override
+		public void close() throws IOException {
+			try {
+				delegate.close();
+			}finally {
+				layerModified(table);
+			}
+		}
+	}
+	
 	public static final void deleteOutputFile(Path outputFile) throws IOException {
 		if (Files.exists(outputFile)) {
 			Files.delete(outputFile);
@@ -424,20 +772,4 @@ public class ChyfGeoPackageDataSource implements ChyfDataSource{
 			if (Files.exists(p)) Files.delete(p);
 		}
 	}
-	
-	class LogItem{
-		
-		String type;
-		Geometry location;
-		String message;
-		String process;
-		
-		public LogItem(String type,	Geometry location,	String message,	String process) {
-			this.type = type;
-			this.location = location;
-			this.message = message;
-			this.process = process;
-		}
-	
-	}
 }
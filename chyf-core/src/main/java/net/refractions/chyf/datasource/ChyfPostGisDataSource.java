@@ -22,7 +22,6 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
@@ -30,22 +29,19 @@ import java.util.UUID;
 
 import org.geotools.data.DataStore;
 import org.geotools.data.DataStoreFinder;
-import org.geotools.data.DataUtilities;
 import org.geotools.data.DefaultTransaction;
 import org.geotools.data.FeatureReader;
-import org.geotools.data.FeatureStore;
 import org.geotools.data.Query;
 import org.geotools.data.Transaction;
 import org.geotools.data.simple.SimpleFeatureSource;
 import org.geotools.data.util.NullProgressListener;
-import org.geotools.feature.simple.SimpleFeatureBuilder;
 import org.geotools.geometry.jts.JTS;
 import org.geotools.geometry.jts.ReferencedEnvelope;
 import org.geotools.jdbc.JDBCDataStore;
-import org.geotools.jdbc.JDBCDataStoreFactory;
 import org.geotools.referencing.CRS;
 import org.locationtech.jts.geom.Geometry;
 import org.locationtech.jts.geom.Polygon;
+import org.locationtech.jts.io.WKBWriter;
 import org.opengis.feature.Feature;
 import org.opengis.feature.FeatureVisitor;
 import org.opengis.feature.simple.SimpleFeature;
@@ -83,11 +79,20 @@ public class ChyfPostGisDataSource implements ChyfDataSource{
 	protected String aoiId;
 	protected UUID aoiUuid;
 	
+	private AoiWorkQueue queue;
+	
+	//errors and warnings are inserted in batches on a background thread;
+	//started at the end of the constructor (see startLog)
+	protected AsyncLogSink log;
+	
 	protected String rawSchema = "raw";
 	protected String workingSchema = "working";
 	
 	protected Map<String, Object> connectionParameters;
 	
+	//one pool of connections for the raw and working datastores
+	protected PostGisConnectionPool pool;
+	
 	protected ChyfPostGisDataSource() throws IOException {
 		
 	}
@@ -99,54 +104,28 @@ public class ChyfPostGisDataSource implements ChyfDataSource{
 		this.rawSchema = inschema;
 		this.workingSchema = outschema;
 		
-		int port = 5432;
-		String host = null;
-		String dbname = null;
-		String user = null;
-		String password = null;
-		
-		String[] bits = connectionString.split(";");
-		for (String bit : bits) {
-			if (bit.toLowerCase().contains("host=")) {
-				host = bit.substring("host=".length());
-			}else if (bit.toLowerCase().contains("db=")) {
-				dbname = bit.substring("db=".length());
-			}else if (bit.toLowerCase().contains("user=")) {
-				user = bit.substring("user=".length());
-			}else if (bit.toLowerCase().contains("password=")) {
-				password = bit.substring("password=".length());
-			}else if (bit.toLowerCase().contains("port=")) {
-				String sport = bit.substring("port=".length());
-				port = Integer.valueOf(sport);
-			}
-		}
-		connectionParameters = new HashMap<>();
-		connectionParameters.put("dbtype", "postgis");
-		connectionParameters.put("host", host);
-		connectionParameters.put("port", port);
-		connectionParameters.put("schema", rawSchema);
-		connectionParameters.put("database", dbname);
-		connectionParameters.put("user", user);
-		connectionParameters.put("passwd", password);
-
-		connectionParameters.put(JDBCDataStoreFactory.EXPOSE_PK.key, Boolean.TRUE);
+		pool = new PostGisConnectionPool(connectionString);
 		
-		rawDataStore = DataStoreFinder.getDataStore(connectionParameters);
-		try(Transaction tx = new DefaultTransaction()){
-			try {
-				Connection c = ((JDBCDataStore)rawDataStore).getConnection(tx);
-				c.createStatement().execute("CREATE SCHEMA IF NOT EXISTS " + workingSchema);
-				tx.commit();
-			}catch (SQLException ex) {
-				tx.rollback();
-				throw new IOException(ex);
-			}
+		rawDataStore = pool.getDataStore(rawSchema);
+		try(Connection c = pool.getConnection(); Statement s = c.createStatement()){
+			s.execute("CREATE SCHEMA IF NOT EXISTS " + workingSchema);
+		}catch (SQLException ex) {
+			throw new IOException(ex);
 		}
 		
-	    connectionParameters.put("schema", workingSchema);
-	    workingDataStore = DataStoreFinder.getDataStore(connectionParameters);
+	    workingDataStore = pool.getDataStore(workingSchema);
 	    
 		createWorkingTables();
+		startLog();
+	}
+	
+	/**
+	 * Starts the background writer for errors and warnings.  Called last
+	 * by constructors so a failed constructor does not leave the writer
+	 * thread running.
+	 */
+	protected void startLog() {
+		log = new AsyncLogSink(this::writeLogItems, AsyncLogSink.DEFAULT_BATCH_SIZE, 5000, AsyncLogSink.DEFAULT_CAPACITY);
 	}
 	
 	/**
@@ -157,117 +136,116 @@ public class ChyfPostGisDataSource implements ChyfDataSource{
 	}
 	
 	/**
-	 * Finds the next aoi in the raw.aoi table with
-	 * a state of ready.  Updates the state to processing.
+	 * Claims the next aoi in the raw.aoi table with the current
+	 * state, or with the processing state and an expired lease,
+	 * and updates the state to processing.  The claim is kept alive
+	 * by heartbeats until the state is set to a state that is not
+	 * a processing state.
+	 * 
 	 * @param current the current state to search for
 	 * @param processing the state to update to to flag aoi as processing
-	 * @return null if no more items to process
+	 * @return aoi name and processing parameters; aoi name is null if no more items to process
+	 * @see AoiWorkQueue
 	 */
 	public String[] getNextAoiToProcess(ProcessingState current, ProcessingState processing) throws IOException{
-		String laoiId = null;
-		String parameters = null;
+		AoiWorkQueue.Claim claim = getWorkQueue().claim(current, processing);
+		if (claim == null) return new String[] {null, null};
 		
-		try(Transaction tx = new DefaultTransaction()){
-			try {
-				Connection c = ((JDBCDataStore)workingDataStore).getConnection(tx);
-					
-				String aoitable = rawSchema + "." + getTypeName(Layer.AOI);
-				try(Statement stmt = c.createStatement()){
-					StringBuilder sb = new StringBuilder();
-					sb.append("WITH nextaoi AS (");
-					sb.append("SELECT id FROM ");
-					sb.append(aoitable);
-					sb.append(" WHERE status = '" + current.name() + "' LIMIT 1) ");
-					sb.append(" UPDATE " + aoitable + " ");
-					sb.append(" SET STATUS = '" + processing.name() + "'");
-					sb.append(", processing_start_datetime = now(), "); 
-					sb.append(" processing_end_datetime = null ");
-					sb.append(" FROM nextaoi ");
-					sb.append(" WHERE status = '" + current.name() + "'");
-					sb.append(" AND ");
-					sb.append(aoitable + ".id = nextaoi.id ");
-					sb.append("RETURNING " + aoitable + ".name, " + aoitable + ".processing_parameters");
-						
-					try(ResultSet rs = stmt.executeQuery(sb.toString())){
-						if (rs.next()) {
-							laoiId  = rs.getString(1);
-							parameters = rs.getString(2);
-							if (parameters != null && parameters.trim().isBlank()) {
-								parameters = null;
-							}else if (parameters != null){
-								//convert ; into \n
-								parameters = parameters.replaceAll(";", System.lineSeparator());
-							}
-						}
-					}
-					
-					if (laoiId != null) {
-						String wtable = workingSchema + "." + getTypeName(Layer.AOI); 
-						sb = new StringBuilder();
-						sb.append("UPDATE ");
-						sb.append(wtable);
-						sb.append(" SET status = a.status, processing_start_datetime = a.processing_start_datetime, processing_end_datetime = a.processing_end_datetime ");
-						sb.append(" FROM ");
-						sb.append(aoitable);
-						sb.append(" WHERE ");
-						sb.append(wtable + ".id = " + aoitable + ".id ");
-						sb.append(" AND ");
-						sb.append(aoitable + ".name= '" + laoiId + "'");
-						
-						try(PreparedStatement ps = c.prepareStatement(sb.toString())){
-							ps.executeUpdate();
-						}
-					}
-				}
-				tx.commit();
-			}catch (SQLException ex) {
-				tx.rollback();
-				throw new IOException(ex);
-			}
+		String aoitable = rawSchema + "." + getTypeName(Layer.AOI);
+		String wtable = workingSchema + "." + getTypeName(Layer.AOI); 
+		StringBuilder sb = new StringBuilder();
+		sb.append("UPDATE ");
+		sb.append(wtable);
+		sb.append(" SET status = a.status, processing_start_datetime = a.processing_start_datetime, processing_end_datetime = a.processing_end_datetime ");
+		sb.append(" FROM ");
+		sb.append(aoitable + " a ");
+		sb.append(" WHERE ");
+		sb.append(wtable + ".id = a.id ");
+		sb.append(" AND a.id = ? ");
+		
+		try(Connection c = pool.getConnection();
+				PreparedStatement ps = c.prepareStatement(sb.toString())){
+			ps.setObject(1, claim.getId());
+			ps.executeUpdate();
+		}catch (SQLException ex) {
+			throw new IOException(ex);
 		}
 		
-		return new String[] {laoiId, parameters};
+		return new String[] {claim.getName(), claim.getParameters()};
+	}
+	
+	/**
+	 * @return the work queue used to claim aois
+	 */
+	protected synchronized AoiWorkQueue getWorkQueue() {
+		if (queue == null) {
+			queue = new AoiWorkQueue(pool.getDataSource(), 
+					rawSchema + "." + getTypeName(Layer.AOI));
+		}
+		return queue;
 	}
+	
+	/**
+	 * Throws an exception if the aoi was claimed from the work queue 
+	 * and has since been claimed by another worker.
+	 * 
+	 * @throws IOException if the lease on the aoi was lost
+	 */
+	public void checkLease() throws IOException {
+		AoiWorkQueue q;
+		synchronized(this) {
+			q = queue;
+		}
+		if (q != null) q.checkLease();
+	}
+	
 	/**
 	 * Updates the state of the aoi processing (both the working 
-	 * and finish schema).
+	 * and finish schema).  If the aoi was claimed from the work queue
+	 * the state is only updated if this worker still holds the claim.
 	 * 
 	 * @param state
-	 * @throws IOException 
+	 * @throws IOException if the state cannot be updated or the aoi
+	 * was claimed by another worker
 	 */
 	public void setState(ProcessingState state) throws IOException {
-		try(Transaction tx = new DefaultTransaction()){
-			try {
-				Connection c = getConnection(tx);
-					
-				for (String schema : new String[] {workingSchema, rawSchema}) {
-					
-					String aoitable = schema + "." + getTypeName(Layer.AOI);
-					try(Statement stmt = c.createStatement()){
-						
-						StringBuilder sb = new StringBuilder();
-						sb.append("UPDATE ");
-						sb.append(aoitable);
-						sb.append(" SET status = ? ");
-						sb.append(" WHERE ");
-						sb.append(getAoiFieldName(Layer.AOI));
-						sb.append(" = ? ");
-						
-						try(PreparedStatement ps = c.prepareStatement(sb.toString())){
-							ps.setString(1, state.name());
-							ps.setObject(2, aoiUuid);
-						
-							ps.executeUpdate();
-						}catch (Exception ex) {
-							throw new IOException(ex);
-						}
-					}
+		String workerId = null;
+		synchronized(this) {
+			if (queue != null && queue.getCurrent() != null) workerId = queue.getWorkerId();
+		}
+		
+		//both schemas are updated in one statement and one round trip;
+		//the working schema only if the raw schema is updated
+		StringBuilder sb = new StringBuilder();
+		sb.append("WITH r AS (UPDATE ");
+		sb.append(rawSchema + "." + getTypeName(Layer.AOI));
+		sb.append(" SET status = ? WHERE " + getAoiFieldName(Layer.AOI) + " = ? ");
+		if (workerId != null) sb.append(" AND worker_id = ? ");
+		sb.append(" RETURNING " + getAoiFieldName(Layer.AOI) + "), ");
+		sb.append("w AS (UPDATE ");
+		sb.append(workingSchema + "." + getTypeName(Layer.AOI));
+		sb.append(" SET status = ? WHERE " + getAoiFieldName(Layer.AOI) + " IN (SELECT " + getAoiFieldName(Layer.AOI) + " FROM r)) ");
+		sb.append("SELECT count(*) FROM r");
+		
+		try(Connection c = pool.getConnection();
+				PreparedStatement ps = c.prepareStatement(sb.toString())){
+			int i = 1;
+			ps.setString(i++, state.name());
+			ps.setObject(i++, aoiUuid);
+			if (workerId != null) ps.setString(i++, workerId);
+			ps.setString(i++, state.name());
+			try(ResultSet rs = ps.executeQuery()){
+				if (!rs.next() || rs.getInt(1) == 0) {
+					throw new IOException("State of aoi " + aoiUuid + " not updated to " + state.name() + (workerId == null ? "" : "; the aoi is not claimed by worker " + workerId));
 				}
-				tx.commit();
-			}catch (SQLException ex) {
-				tx.rollback();
-				throw new IOException(ex);
 			}
+		}catch (SQLException ex) {
+			throw new IOException(ex);
+		}
+		
+		//processing finished, stop renewing the lease
+		synchronized(this) {
+			if (queue != null && !state.isProcessing()) queue.release();
 		}
 	}
 	
@@ -284,20 +262,30 @@ public class ChyfPostGisDataSource implements ChyfDataSource{
 	}
 	
 	protected void resetWorkingDataStore() throws IOException {
+		log.flush();
+		if (pool != null) {
+			pool.resetDataStore(workingSchema);
+			workingDataStore = pool.getDataStore(workingSchema);
+			return;
+		}
 		workingDataStore.dispose();
 		connectionParameters.put("schema", workingSchema);
 		workingDataStore = DataStoreFinder.getDataStore(connectionParameters);
 	}
 	
 	public void setAoi(String aoiId) throws IOException {
+		//log items are written with the aoi current when they are written
+		log.flush();
+		
 		//query aoi table for aoi id
-	    Connection c = ((JDBCDataStore)rawDataStore).getConnection(Transaction.AUTO_COMMIT);
 	    StringBuilder sb = new StringBuilder();
 	    sb.append("SELECT id FROM ");
 	    sb.append(rawSchema + "." + getTypeName(Layer.AOI));
 	    sb.append(" WHERE name = ? ");
 	    
-	    try(PreparedStatement ps = c.prepareStatement(sb.toString())){
+	    aoiUuid = null;
+	    try(Connection c = pool.getConnection();
+	    		PreparedStatement ps = c.prepareStatement(sb.toString())){
 	    	ps.setString(1, aoiId);
 	    	try(ResultSet rs = ps.executeQuery()){
 	    		if (rs.next()) {
@@ -437,7 +425,25 @@ public class ChyfPostGisDataSource implements ChyfDataSource{
 	
 	@Override
 	public synchronized void close() {
-		if (workingDataStore != null) workingDataStore.dispose();
+		try {
+			if (log != null) log.close();
+		}catch (IOException ex) {
+			logger.error("Unable to write errors and warnings: " + ex.getMessage(), ex);
+		}
+		if (queue != null) {
+			try {
+				queue.close();
+			}catch (IOException ex) {
+				logger.warn("Unable to release aoi claim: " + ex.getMessage(), ex);
+			}
+			queue = null;
+		}
+		if (pool != null) {
+			//disposes the datastores
+			pool.close();
+		}else if (workingDataStore != null) {
+			workingDataStore.dispose();
+		}
 	}
 
 	@Override
@@ -462,121 +468,124 @@ public class ChyfPostGisDataSource implements ChyfDataSource{
 	    	if (stype == null) throw new IOException("No raw data table for layer :" + l.getLayerName());
 	    }
 	    
-	    Connection c = getConnection();
+	    try(Connection c = getConnection()){
 	    
-	    //read the srid from the eflowpath table
-		try {
-			StringBuilder sb = new StringBuilder();
-			sb.append("SELECT srid ");
-			sb.append("FROM geometry_columns ");
-			sb.append(" WHERE f_table_schema = ? AND f_table_name = ?");
+		    //read the srid from the eflowpath table
+			try {
+				StringBuilder sb = new StringBuilder();
+				sb.append("SELECT srid ");
+				sb.append("FROM geometry_columns ");
+				sb.append(" WHERE f_table_schema = ? AND f_table_name = ?");
 
-			try(PreparedStatement ps = c.prepareStatement(sb.toString())){
-				ps.setString(1, rawSchema);
-				ps.setString(2, getTypeName(Layer.EFLOWPATHS));
-				try(ResultSet rs = ps.executeQuery()){
-					if (rs.next()) {
-						srid = rs.getInt(1);
-						this.crs = CRS.decode("EPSG:" + srid);
+				try(PreparedStatement ps = c.prepareStatement(sb.toString())){
+					ps.setString(1, rawSchema);
+					ps.setString(2, getTypeName(Layer.EFLOWPATHS));
+					try(ResultSet rs = ps.executeQuery()){
+						if (rs.next()) {
+							srid = rs.getInt(1);
+							this.crs = CRS.decode("EPSG:" + srid);
+						}
 					}
 				}
+			} catch (Exception e) {
+				throw new IOException (e);
+			}
+			if (this.crs == null) {
+				throw new IOException("Could not determine srid of eflowpath table - ensure a valid srid exists in the geometry column tables for the eflowpath table");
 			}
-		} catch (Exception e) {
-			throw new IOException (e);
-		}
-		if (this.crs == null) {
-			throw new IOException("Could not determine srid of eflowpath table - ensure a valid srid exists in the geometry column tables for the eflowpath table");
-		}
 	    
 	    
-	    //check if working tables exist;
-	    List<Layer> toProcess = new ArrayList<>();
-	    toProcess.add(Layer.AOI);
-	    for (Layer l : Layer.values()) {
-	    	if (l == Layer.AOI ) continue;
-	    	toProcess.add(l);
-	    }
+		    //check if working tables exist;
+		    List<Layer> toProcess = new ArrayList<>();
+		    toProcess.add(Layer.AOI);
+		    for (Layer l : Layer.values()) {
+		    	if (l == Layer.AOI ) continue;
+		    	toProcess.add(l);
+		    }
 	    
-	    for (Layer l : toProcess) {
-	    	SimpleFeatureType stype = null;
+		    for (Layer l : toProcess) {
+		    	SimpleFeatureType stype = null;
 	    	
 	    
-	    	try {
-	    		stype = workingDataStore.getSchema(getTypeName(l));
-	    	}catch (IOException ex) {
-	    		//not found
-	    	}
+		    	try {
+		    		stype = workingDataStore.getSchema(getTypeName(l));
+		    	}catch (IOException ex) {
+		    		//not found
+		    	}
 	    	
-	    	if (stype == null) {
-	    		if (l == Layer.ERRORS) {
-	    			createErrorWarningsTable(c);
-	    		}else {
-		    		SimpleFeatureType rtype = rawDataStore.getSchema(getTypeName(l));
-		    		Name interalidatt = ChyfDataSource.findAttribute(rtype, ChyfAttribute.INTERNAL_ID);
+		    	if (stype == null) {
+		    		if (l == Layer.ERRORS) {
+		    			createErrorWarningsTable(c);
+		    		}else {
+			    		SimpleFeatureType rtype = rawDataStore.getSchema(getTypeName(l));
+			    		Name interalidatt = ChyfDataSource.findAttribute(rtype, ChyfAttribute.INTERNAL_ID);
 		    		
-			    	StringBuilder sb = new StringBuilder();
-			    	//create new table
-			    	sb.append("CREATE TABLE ");
-			    	sb.append(getTableName(l));
-			    	sb.append(" AS SELECT ");
-			    	if (l != Layer.AOI && interalidatt == null) {
-			    		sb.append("uuid_generate_v4() as " + ChyfAttribute.INTERNAL_ID.getFieldName());
-			    		sb.append(",");
-			    	}
-			    	sb.append(" a.* ");
-			    	sb.append(" FROM " + rawSchema + "." + getTypeName(l) + " a ");
-			    	sb.append(" WHERE ");
-			    	sb.append(getAoiFieldName(l));
-			    	sb.append(" = " );
-			    	sb.append (" ? ");
+				    	StringBuilder sb = new StringBuilder();
+				    	//create new table
+				    	sb.append("CREATE TABLE ");
+				    	sb.append(getTableName(l));
+				    	sb.append(" AS SELECT ");
+				    	if (l != Layer.AOI && interalidatt == null) {
+				    		sb.append("uuid_generate_v4() as " + ChyfAttribute.INTERNAL_ID.getFieldName());
+				    		sb.append(",");
+				    	}
+				    	sb.append(" a.* ");
+				    	sb.append(" FROM " + rawSchema + "." + getTypeName(l) + " a ");
+				    	sb.append(" WHERE ");
+				    	sb.append(getAoiFieldName(l));
+				    	sb.append(" = " );
+				    	sb.append (" ? ");
 			    		
-			    	try(PreparedStatement ps = c.prepareStatement(sb.toString())){
-			    		ps.setObject(1, aoiUuid);
-			    		ps.executeUpdate();
-			    	}catch(SQLException ex) {
-			    		throw new IOException(ex);
-			    	}
+				    	try(PreparedStatement ps = c.prepareStatement(sb.toString())){
+				    		ps.setObject(1, aoiUuid);
+				    		ps.executeUpdate();
+				    	}catch(SQLException ex) {
+				    		throw new IOException(ex);
+				    	}
 			    	
 			    	
 			    	
-			    	try {
-				    	if (l == Layer.AOI) {
-				    		sb = new StringBuilder();
-				    		sb.append("ALTER TABLE ");
-				    		sb.append(getTableName(l));
-				    		sb.append(" ADD PRIMARY KEY (id) ");
-				    		c.createStatement().executeUpdate(sb.toString());
-				    	}else {
-				    		sb = new StringBuilder();
-				    		sb.append("ALTER TABLE ");
-				    		sb.append(getTableName(l));
-				    		sb.append(" ADD PRIMARY KEY ( ");
-				    		sb.append(ChyfAttribute.INTERNAL_ID.getFieldName());
-				    		sb.append(")");
-				    		c.createStatement().executeUpdate(sb.toString());
+				    	try {
+					    	if (l == Layer.AOI) {
+					    		sb = new StringBuilder();
+					    		sb.append("ALTER TABLE ");
+					    		sb.append(getTableName(l));
+					    		sb.append(" ADD PRIMARY KEY (id) ");
+					    		c.createStatement().executeUpdate(sb.toString());
+					    	}else {
+					    		sb = new StringBuilder();
+					    		sb.append("ALTER TABLE ");
+					    		sb.append(getTableName(l));
+					    		sb.append(" ADD PRIMARY KEY ( ");
+					    		sb.append(ChyfAttribute.INTERNAL_ID.getFieldName());
+					    		sb.append(")");
+					    		c.createStatement().executeUpdate(sb.toString());
 				    		
-				    		sb = new StringBuilder();
-				    		sb.append("CREATE INDEX ON ");
-				    		sb.append(getTableName(l));
-				    		sb.append(" ( ");
-				    		sb.append(getAoiFieldName(l));
-				    		sb.append(")");
-				    		c.createStatement().executeUpdate(sb.toString());
+					    		sb = new StringBuilder();
+					    		sb.append("CREATE INDEX ON ");
+					    		sb.append(getTableName(l));
+					    		sb.append(" ( ");
+					    		sb.append(getAoiFieldName(l));
+					    		sb.append(")");
+					    		c.createStatement().executeUpdate(sb.toString());
 				    	
-				    		//TODO: this assumes geometry field
-				    		sb = new StringBuilder();
-				    		sb.append("CREATE INDEX ON ");
-				    		sb.append(getTableName(l));
-				    		sb.append(" using gist (geometry) ");
+					    		//TODO: this assumes geometry field
+					    		sb = new StringBuilder();
+					    		sb.append("CREATE INDEX ON ");
+					    		sb.append(getTableName(l));
+					    		sb.append(" using gist (geometry) ");
 				    		
-				    		c.createStatement().executeUpdate(sb.toString());
-				    	}	
-			    	}catch(SQLException ex) {
-			    		throw new IOException(ex);
-			    	}	   
+					    		c.createStatement().executeUpdate(sb.toString());
+					    	}	
+				    	}catch(SQLException ex) {
+				    		throw new IOException(ex);
+				    	}	   
 			    	
-	    		}
-	    	}
+		    		}
+		    	}
+		    }
+	    }catch (SQLException ex) {
+	    	throw new IOException(ex);
 	    }
 	    createNameIdTable();
 	}
@@ -608,31 +617,50 @@ public class ChyfPostGisDataSource implements ChyfDataSource{
 		logInternal("WARNING", location, message, process);
 	}
 	private void logInternal(String type, Geometry location, String message, String process) throws IOException{
+		log.log(type, location, message, process);
+	}
+	
+	/*
+	 * inserts a batch of log items for the current aoi
+	 */
+	private void writeLogItems(List<AsyncLogSink.LogItem> items) throws IOException{
+		StringBuilder sb = new StringBuilder();
+		sb.append("INSERT INTO ");
+		sb.append(getTableName(Layer.ERRORS));
+		sb.append("(" + getAoiFieldName(Layer.ERRORS) + ", type, message, process, geometry) ");
+		sb.append("VALUES (?, ?, ?, ?, ST_GeomFromWKB(?, " + srid + "))");
 		
-		SimpleFeatureType pntType = getFeatureType(Layer.ERRORS);
-
-		List<SimpleFeature> features = new ArrayList<>();
-		SimpleFeatureBuilder featureBuilder = new SimpleFeatureBuilder(pntType);
-		
-		String uuid = UUID.randomUUID().toString();
-		featureBuilder.set("geometry", location);
-		featureBuilder.set(getAoiFieldName(Layer.ERRORS), aoiUuid);
-		featureBuilder.set("type", type);
-		featureBuilder.set("message", message);
-		featureBuilder.set("process", process);
-		SimpleFeature sf = featureBuilder.buildFeature(uuid);
-		features.add(sf);
-		
-		try(Transaction t1 = new DefaultTransaction("transaction 1")){
-			@SuppressWarnings("unchecked")
-			FeatureStore<SimpleFeatureType, SimpleFeature> store = 
-					(FeatureStore<SimpleFeatureType, SimpleFeature>) workingDataStore.getFeatureSource(getTypeName(Layer.ERRORS));
-			store.setTransaction(t1);
-			store.addFeatures(DataUtilities.collection(features));
-			t1.commit();
+		WKBWriter wkb = new WKBWriter();
+		try(Transaction tx = new DefaultTransaction()){
+			try {
+				Connection c = getConnection(tx);
+				try(PreparedStatement ps = c.prepareStatement(sb.toString())){
+					for (AsyncLogSink.LogItem item : items) {
+						ps.setObject(1, aoiUuid);
+						ps.setString(2, item.getType());
+						ps.setString(3, item.getMessage());
+						ps.setString(4, item.getProcess());
+						ps.setBytes(5, item.getLocation() == null ? null : wkb.write(item.getLocation()));
+						ps.addBatch();
+					}
+					ps.executeBatch();
+				}
+				tx.commit();
+			}catch (SQLException ex) {
+				tx.rollback();
+				throw new IOException(ex);
+			}
 		}
 	}
 	
+	/**
+	 * Writes any buffered errors and warnings
+	 */
+	@Override
+	public void finish() throws IOException {
+		log.flush();
+		checkLease();
+	}
 	
 	protected void createNameIdTable() throws IOException {
 		try{
@@ -642,14 +670,16 @@ public class ChyfPostGisDataSource implements ChyfDataSource{
 			sb.append("(");
 	    	sb.append(getAoiFieldName(Layer.FEATURENAMES) + " uuid not null references " + workingSchema + "." + getTableName(Layer.AOI) + " (" + getAoiFieldName(Layer.AOI) + "), "); 
 			sb.append(" fid varchar, name_id varchar, geodbname varchar, name varchar, primary key (fid)) ");
-			getConnection().createStatement().execute(sb.toString());
 			
-    		sb = new StringBuilder();
-    		sb.append("ALTER TABLE ");
-			sb.append(workingSchema + "." + getTypeName(Layer.FEATURENAMES));
-    		sb.append(" ADD CONSTRAINT feature_names_aoi_id_unq UNIQUE (aoi_id, name_id) ");
-    		getConnection().createStatement().execute(sb.toString());
-    		
+			try(Connection c = getConnection(); Statement s = c.createStatement()){
+				s.execute(sb.toString());
+				
+	    		sb = new StringBuilder();
+	    		sb.append("ALTER TABLE ");
+				sb.append(workingSchema + "." + getTypeName(Layer.FEATURENAMES));
+	    		sb.append(" ADD CONSTRAINT feature_names_aoi_id_unq UNIQUE (aoi_id, name_id) ");
+	    		s.execute(sb.toString());
+			}
 
 		}catch (SQLException ex) {
 			throw new IOException(ex);
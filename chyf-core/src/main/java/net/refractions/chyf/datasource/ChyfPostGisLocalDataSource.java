@@ -24,14 +24,11 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 import java.util.StringJoiner;
 import java.util.UUID;
 
 import org.geotools.data.DataStore;
-import org.geotools.data.DataStoreFinder;
 import org.geotools.data.DataUtilities;
 import org.geotools.data.DefaultTransaction;
 import org.geotools.data.FeatureReader;
@@ -47,7 +44,6 @@ import org.geotools.geometry.jts.ReferencedEnvelope;
 import org.geotools.geopkg.FeatureEntry;
 import org.geotools.geopkg.GeoPackage;
 import org.geotools.jdbc.JDBCDataStore;
-import org.geotools.jdbc.JDBCDataStoreFactory;
 import org.geotools.referencing.CRS;
 import org.geotools.util.factory.Hints;
 import org.locationtech.jts.geom.Geometry;
@@ -88,53 +84,42 @@ public abstract class ChyfPostGisLocalDataSource implements ChyfDataSource{
 	protected String inputSchema = "raw";
 	protected String outputSchema = "working";
 	
-	private Map<String, Object> connectionParameters;
+	//connections and datastores are shared by all aois processed
+	private PostGisConnectionPool pool;
 		
 	protected ChyfGeoPackageDataSource local;
 
+	private AoiWorkQueue queue;
+	
+	//aoi lifecycle sql; built once so the pooled prepared statements are reused 
+	private String findAoiSql;
+	private String setStateSql;
+	private String setClaimedStateSql;
 	
 	public ChyfPostGisLocalDataSource(String connectionString, String inschema, 
 			String outschema) throws IOException {
 		this.inputSchema = inschema;
 		this.outputSchema = outschema;
 		
-		int port = 5432;
-		String host = null;
-		String dbname = null;
-		String user = null;
-		String password = null;
+		this.pool = new PostGisConnectionPool(connectionString);
 		
-		String[] bits = connectionString.split(";");
-		for (String bit : bits) {
-			if (bit.toLowerCase().contains("host=")) {
-				host = bit.substring("host=".length());
-			}else if (bit.toLowerCase().contains("db=")) {
-				dbname = bit.substring("db=".length());
-			}else if (bit.toLowerCase().contains("user=")) {
-				user = bit.substring("user=".length());
-			}else if (bit.toLowerCase().contains("password=")) {
-				password = bit.substring("password=".length());
-			}else if (bit.toLowerCase().contains("port=")) {
-				String sport = bit.substring("port=".length());
-				port = Integer.valueOf(sport);
-			}
-		}
-		connectionParameters = new HashMap<>();
-		connectionParameters.put("dbtype", "postgis");
-		connectionParameters.put("host", host);
-		connectionParameters.put("port", port);
-		connectionParameters.put("schema", inputSchema);
-		connectionParameters.put("database", dbname);
-		connectionParameters.put("user", user);
-		connectionParameters.put("passwd", password);
-
-		connectionParameters.put(JDBCDataStoreFactory.EXPOSE_PK.key, Boolean.TRUE);
+		String inAoiTable = inputSchema + "." + Layer.AOI.getLayerName().toLowerCase();
+		String outAoiTable = outputSchema + "." + Layer.AOI.getLayerName().toLowerCase();
+		
+		findAoiSql = "SELECT id FROM " + inAoiTable + " WHERE upper(name) = ? ";
+		
+		//both schemas are updated in one round trip; the output schema
+		//only if the input schema is updated
+		String setState = "WITH i AS (UPDATE " + inAoiTable + " SET status = ?, processing_end_datetime = now() WHERE id = ? %s RETURNING id), "
+				+ "o AS (UPDATE " + outAoiTable + " SET status = ?, processing_end_datetime = now() WHERE id IN (SELECT id FROM i)) "
+				+ "SELECT count(*) FROM i";
+		setStateSql = String.format(setState, "");
+		setClaimedStateSql = String.format(setState, "AND worker_id = ?");
 		
-		DataStore inputDataStore = createInputDataStore();
 		try {
 			
 			// read the srid from the eflowpath table
-			try(Connection c = ((JDBCDataStore)inputDataStore).getConnection(Transaction.AUTO_COMMIT)) {
+			try(Connection c = pool.getConnection()) {
 				StringBuilder sb = new StringBuilder();
 				sb.append("SELECT srid ");
 				sb.append("FROM geometry_columns ");
@@ -157,9 +142,9 @@ public abstract class ChyfPostGisLocalDataSource implements ChyfDataSource{
 				throw new IOException(
 						"Could not determine srid of eflowpath table - ensure a valid srid exists in the geometry column tables for the eflowpath table");
 			}
-		}finally {
-			
-			inputDataStore.dispose();
+		}catch (IOException ex) {
+			pool.close();
+			throw ex;
 		}
 	}
 	
@@ -174,36 +159,32 @@ public abstract class ChyfPostGisLocalDataSource implements ChyfDataSource{
 	protected ChyfGeoPackageDataSource createLocalDataSource() throws Exception {
 		
 		DataStore inputDataStore = createInputDataStore();
-		try {
 		
-			//initialize output schema
-			initOutputSchema(inputDataStore);
-			
-			//create local filestore
-			Path temp = Files.createTempFile("fp", ".geopkg");
-			logger.info("Creating geopackage file:" + temp.toString());
-			
-			GeoPackage geopkg = new GeoPackage(temp.toFile());
-			geopkg.init();
-			geopkg.addCRS(getCoordinateReferenceSystem(), "EPSG", srid);
-			cacheData(inputDataStore, geopkg);
-			geopkg.close();
-			
-			//clean output data
-			try(DefaultTransaction tx = new DefaultTransaction()){
-				try {
-					cleanOutputSchema(((JDBCDataStore)inputDataStore).getConnection(tx), tx, true);
-					tx.commit();
-				}catch (IOException ex) {
-					tx.rollback();
-					throw ex;
-				}
+		//initialize output schema
+		initOutputSchema(inputDataStore);
+		
+		//create local filestore
+		Path temp = Files.createTempFile("fp", ".geopkg");
+		logger.info("Creating geopackage file:" + temp.toString());
+		
+		GeoPackage geopkg = new GeoPackage(temp.toFile());
+		geopkg.init();
+		geopkg.addCRS(getCoordinateReferenceSystem(), "EPSG", srid);
+		cacheData(inputDataStore, geopkg);
+		geopkg.close();
+		
+		//clean output data
+		try(DefaultTransaction tx = new DefaultTransaction()){
+			try {
+				cleanOutputSchema(((JDBCDataStore)inputDataStore).getConnection(tx), tx, true);
+				tx.commit();
+			}catch (IOException ex) {
+				tx.rollback();
+				throw ex;
 			}
-			
-			return createLocalDataSourceInternal(temp);
-		}finally {
-			inputDataStore.dispose();
 		}
+		
+		return createLocalDataSourceInternal(temp);
 	}
 
 	/**
@@ -375,123 +356,101 @@ public abstract class ChyfPostGisLocalDataSource implements ChyfDataSource{
 	}
 	
 	/**
-	 * Finds the next aoi in the raw.aoi table with
-	 * a state of ready.  Updates the state to processing.
+	 * Claims the next aoi in the raw.aoi table with the current
+	 * state, or with the processing state and an expired lease,
+	 * and updates the state to processing.  The claim is kept alive
+	 * by heartbeats until the state is set to a state that is not
+	 * a processing state.
+	 * 
 	 * @param current the current state to search for
 	 * @param processing the state to update to to flag aoi as processing
-	 * @return null if no more items to process
+	 * @return aoi name and processing parameters; aoi name is null if no more items to process
+	 * @see AoiWorkQueue
 	 */
 	public String[] getNextAoiToProcess(ProcessingState current, ProcessingState processing) throws IOException{
-		String laoiId = null;
-		String parameters = null;
-		
-		DataStore inputDataStore = createInputDataStore();
-		try {
-			try(Transaction tx = new DefaultTransaction()){
-				try {
-					Connection c = ((JDBCDataStore)inputDataStore).getConnection(tx);
-						
-					String aoitable = inputSchema + "." + Layer.AOI.getLayerName().toLowerCase();
-					try(Statement stmt = c.createStatement()){
-						//find the next aoi to process
-						StringBuilder sb = new StringBuilder();
-						sb.append("WITH nextaoi AS (");
-						sb.append("SELECT id FROM ");
-						sb.append(aoitable);
-						sb.append(" WHERE status = '" + current.name() + "' LIMIT 1) ");
-						sb.append(" UPDATE " + aoitable + " ");
-						sb.append(" SET STATUS = '" + processing.name() + "'");
-						sb.append(", processing_start_datetime = now(), "); 
-						sb.append(" processing_end_datetime = null ");
-						sb.append(" FROM nextaoi ");
-						sb.append(" WHERE status = '" + current.name() + "'");
-						sb.append(" AND ");
-						sb.append(aoitable + ".id = nextaoi.id ");
-						sb.append("RETURNING " + aoitable + ".name, " + aoitable + ".processing_parameters");
-							
-						try(ResultSet rs = stmt.executeQuery(sb.toString())){
-							if (rs.next()) {
-								laoiId  = rs.getString(1);
-								parameters = rs.getString(2);
-								if (parameters != null && parameters.trim().isBlank()) {
-									parameters = null;
-								}else if (parameters != null){
-									//convert ; into \n
-									parameters = parameters.replaceAll(";", System.lineSeparator());
-								}
-							}
-						}
-						
-					}
-					tx.commit();
-				}catch (SQLException ex) {
-					tx.rollback();
-					throw new IOException(ex);
-				}
-			}
-			
-			return new String[] {laoiId, parameters};
-		} finally {
-			inputDataStore.dispose();
+		AoiWorkQueue.Claim claim = getWorkQueue().claim(current, processing);
+		if (claim == null) return new String[] {null, null};
+		return new String[] {claim.getName(), claim.getParameters()};
+	}
+	
+	/**
+	 * @return the work queue used to claim aois
+	 * @throws IOException
+	 */
+	protected synchronized AoiWorkQueue getWorkQueue() throws IOException {
+		if (queue == null) {
+			queue = new AoiWorkQueue(pool.getDataSource(), 
+					inputSchema + "." + Layer.AOI.getLayerName().toLowerCase());
 		}
+		return queue;
 	}
+	
+	/**
+	 * Throws an exception if the aoi was claimed from the work queue 
+	 * and has since been claimed by another worker.
+	 * 
+	 * @throws IOException if the lease on the aoi was lost
+	 */
+	public void checkLease() throws IOException {
+		AoiWorkQueue q;
+		synchronized(this) {
+			q = queue;
+		}
+		if (q != null) q.checkLease();
+	}
+	
 	/**
 	 * Updates the state of the aoi processing (both the working 
-	 * and finish schema).
+	 * and finish schema).  If the aoi was claimed from the work queue
+	 * the state is only updated if this worker still holds the claim.
 	 * 
 	 * @param state
-	 * @throws IOException 
+	 * @throws IOException if the state cannot be updated or the aoi
+	 * was claimed by another worker
 	 */
 	public void setState(ProcessingState state) throws IOException {
+		String workerId = null;
+		synchronized(this) {
+			if (queue != null && queue.getCurrent() != null) workerId = queue.getWorkerId();
+		}
 		
-		DataStore inputDataStore = createInputDataStore();
-		try {
-			try(Transaction tx = new DefaultTransaction()){
-				try {
-					Connection c = ((JDBCDataStore)inputDataStore).getConnection(tx);
-	
-					for (String schema : new String[] {inputSchema, outputSchema}) {
-						
-						String aoitable = schema + "." + Layer.AOI.getLayerName().toLowerCase();
-						try(Statement stmt = c.createStatement()){
-							
-							StringBuilder sb = new StringBuilder();
-							sb.append("UPDATE ");
-							sb.append( aoitable );
-							sb.append(" SET status = ?, processing_end_datetime = now() ");
-							sb.append(" WHERE id = ? ");
-							
-							try(PreparedStatement ps = c.prepareStatement(sb.toString())){
-								ps.setString(1, state.name());
-								ps.setObject(2, aoiUuid);
-							
-								ps.executeUpdate();
-							}catch (Exception ex) {
-								throw new IOException(ex);
-							}
-						}
-					}
-					tx.commit();
-				}catch (SQLException ex) {
-					tx.rollback();
-					throw new IOException(ex);
+		//a single statement so both schemas are updated atomically
+		try(Connection c = pool.getConnection();
+				PreparedStatement ps = c.prepareStatement(workerId == null ? setStateSql : setClaimedStateSql)){
+			int i = 1;
+			ps.setString(i++, state.name());
+			ps.setObject(i++, aoiUuid);
+			if (workerId != null) ps.setString(i++, workerId);
+			ps.setString(i++, state.name());
+			try(ResultSet rs = ps.executeQuery()){
+				if (!rs.next() || rs.getInt(1) == 0) {
+					throw new IOException("State of aoi " + aoiUuid + " not updated to " + state.name() + (workerId == null ? "" : "; the aoi is not claimed by worker " + workerId));
 				}
 			}
-		}finally {
-			inputDataStore.dispose();
+		}catch (SQLException ex) {
+			throw new IOException(ex);
+		}
+		
+		//processing finished, stop renewing the lease
+		synchronized(this) {
+			if (queue != null && !state.isProcessing()) queue.release();
 		}
 	}
 	
+	/**
+	 * @return the pooled datastore for the input schema; this datastore
+	 * is shared and disposed when the data source is closed
+	 */
 	protected DataStore createInputDataStore() throws IOException {
-		connectionParameters.put("schema", inputSchema);
-		DataStore inputDataStore = DataStoreFinder.getDataStore(connectionParameters);
-		return inputDataStore;
+		return pool.getDataStore(inputSchema);
 	}
 	
+	/**
+	 * @return the pooled datastore for the output schema; this datastore
+	 * is shared and disposed when the data source is closed
+	 */
 	protected DataStore createOutputDataStore() throws IOException {
-		connectionParameters.put("schema", outputSchema);
-		DataStore inputDataStore = DataStoreFinder.getDataStore(connectionParameters);
-		return inputDataStore;
+		return pool.getDataStore(outputSchema);
 	}
 	
 	public void setAoi(String aoiId) throws IOException {
@@ -499,34 +458,23 @@ public abstract class ChyfPostGisLocalDataSource implements ChyfDataSource{
 			this.local.close();
 		}
 		this.local = null;
+		this.aoiUuid = null;
 		
-		DataStore inputDataStore = createInputDataStore();
-		try (Connection c = ((JDBCDataStore)inputDataStore).getConnection(Transaction.AUTO_COMMIT)){
-			//query aoi table for aoi id
-		    
-		    StringBuilder sb = new StringBuilder();
-		    sb.append("SELECT id FROM ");
-		    sb.append(inputSchema + "." + Layer.AOI.getLayerName().toLowerCase());
-		    sb.append(" WHERE upper(name) = ? ");
-		    
-		    try(PreparedStatement ps = c.prepareStatement(sb.toString())){
-		    	ps.setString(1, aoiId.toUpperCase());
-		    	try(ResultSet rs = ps.executeQuery()){
-		    		if (rs.next()) {
-		    			aoiUuid = (UUID) rs.getObject(1);
-		    		}
-		    	}
-		    }catch (SQLException ex) {
-		    	throw new IOException(ex);
-		    }
-		    if (aoiUuid == null) {
-		    	throw new IOException("No aoi found with id " + aoiId);
-		    }
-		 }catch (SQLException ex) {
-		   	throw new IOException(ex);
-		 }finally {
-			inputDataStore.dispose();
-		 }
+		//query aoi table for aoi id
+		try (Connection c = pool.getConnection();
+				PreparedStatement ps = c.prepareStatement(findAoiSql)){
+			ps.setString(1, aoiId.toUpperCase());
+			try(ResultSet rs = ps.executeQuery()){
+				if (rs.next()) {
+					aoiUuid = (UUID) rs.getObject(1);
+				}
+			}
+		}catch (SQLException ex) {
+			throw new IOException(ex);
+		}
+		if (aoiUuid == null) {
+			throw new IOException("No aoi found with id " + aoiId);
+		}
 	}
 	
 	
@@ -573,6 +521,15 @@ public abstract class ChyfPostGisLocalDataSource implements ChyfDataSource{
 	@Override
 	public synchronized void close() {
 		//if (outputDataStore != null) outputDataStore.dispose();
+		if (queue != null) {
+			try {
+				queue.close();
+			}catch (IOException ex) {
+				logger.warn("Unable to release aoi claim: " + ex.getMessage(), ex);
+			}
+			queue = null;
+		}
+		pool.close();
 	}
 
 	@Override
@@ -685,20 +642,31 @@ public abstract class ChyfPostGisLocalDataSource implements ChyfDataSource{
 	public void finish() throws IOException {
 		local.finish();
 		
-		DataStore outputDataStore = createOutputDataStore();
+		//results of an aoi claimed by another worker are discarded
 		try {
-			try(DefaultTransaction tx = new DefaultTransaction()){
-				try {
-					uploadResultsInternal(outputDataStore, tx);
-					tx.commit();
-				}catch (IOException ex) {
-					tx.rollback();
-					throw ex;
-				}
+			checkLease();
+		}catch (IOException ex) {
+			discardLocal();
+			throw ex;
+		}
+		
+		DataStore outputDataStore = createOutputDataStore();
+		try(DefaultTransaction tx = new DefaultTransaction()){
+			try {
+				uploadResultsInternal(outputDataStore, tx);
+				tx.commit();
+			}catch (IOException ex) {
+				tx.rollback();
+				throw ex;
 			}
-		}finally {
-			outputDataStore.dispose();
 		}
+		discardLocal();
+	}
+	
+	/*
+	 * closes and deletes the local cache
+	 */
+	private void discardLocal() {
 		local.close();
 		try {
 			Files.delete(local.getFileName());
@@ -849,23 +817,24 @@ public abstract class ChyfPostGisLocalDataSource implements ChyfDataSource{
 	 * 
 	 */
 	protected void initOutputSchema(DataStore inputDataStore) throws IOException{
+		try(Connection c = pool.getConnection(); Statement s = c.createStatement()){
+			s.execute("CREATE SCHEMA IF NOT EXISTS " + outputSchema);
+		}catch (SQLException ex) {
+			throw new IOException(ex);
+		}
+		
+		//the output datastore caches table definitions; it is reset
+		//so tables created by other workers are found
+		pool.resetDataStore(outputSchema);
 		DataStore outputDataStore = createOutputDataStore();
-		try {
-			try(Transaction tx = new DefaultTransaction()){
-				try {
-					Connection c = ((JDBCDataStore)inputDataStore).getConnection(tx);
-					c.createStatement().execute("CREATE SCHEMA IF NOT EXISTS " + outputSchema);
-					tx.commit();
-					
-					initOutputSchemaInternal(inputDataStore, outputDataStore, tx);
-					tx.commit();
-				}catch (SQLException ex) {
-					tx.rollback();
-					throw new IOException(ex);
-				}
+		try(Transaction tx = new DefaultTransaction()){
+			try {
+				initOutputSchemaInternal(inputDataStore, outputDataStore, tx);
+				tx.commit();
+			}catch (IOException ex) {
+				tx.rollback();
+				throw ex;
 			}
-		}finally {
-			outputDataStore.dispose();
 		}
 	}	
 }
@@ -0,0 +1,417 @@
+/*******************************************************************************
+ * Copyright 2020 Government of Canada
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package net.refractions.chyf.datasource;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Geometry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Rewrites the feature tables of a geopackage so features that are close
+ * together are stored close together in the file, then rebuilds the spatial
+ * indexes and vacuums and analyzes the geopackage.
+ *
+ * Sqlite stores the rows of a table in primary key order so features are
+ * renumbered in the Hilbert curve order of the centre of their envelopes;
+ * features without a geometry are placed last.  Feature ids are not
+ * preserved, features should be identified by their internal id.
+ * The rtree of the spatial index is loaded in the same order with the
+ * index triggers dropped, and the triggers are restored after.
+ *
+ * If a query count is set, the time to run that many random bbox queries
+ * against the spatial index of each table is measured before and after
+ * compaction.  The same boxes are used for both. The queries run in process
+ * so the file may be in the operating system cache for both measurements.
+ *
+ */
+public class GeoPackageCompactor {
+
+	static final Logger logger = LoggerFactory.getLogger(GeoPackageCompactor.class.getCanonicalName());
+
+	public static final int DEFAULT_QUERY_COUNT = 1000;
+
+	//grid size of the hilbert curve is 2^order in each direction
+	private static final int HILBERT_ORDER = 16;
+	//width and height of the query boxes relative to the table extent
+	private static final double QUERY_SIZE = 1.0 / 32;
+	private static final long QUERY_SEED = 1;
+	private static final int BATCH_SIZE = 1000;
+
+	private static final String ORDER_TABLE = "chyf_compact_order";
+	private static final String COPY_TABLE = "chyf_compact_copy";
+
+	/**
+	 * The result of compacting one table.  Times are in nanoseconds
+	 * and are -1 if not measured.
+	 */
+	public static class TableResult {
+		private String table;
+		private int features;
+		private boolean rewritten;
+		private int queries;
+		private long queryTimeBefore = -1;
+		private long queryTimeAfter = -1;
+
+		TableResult(String table) {
+			this.table = table;
+		}
+
+		public String getTable() { return table; }
+		public int getFeatures() { return features; }
+		/**
+		 * @return false if the table was already in order
+		 */
+		public boolean isRewritten() { return rewritten; }
+		public int getQueries() { return queries; }
+		public long getQueryTimeBefore() { return queryTimeBefore; }
+		public long getQueryTimeAfter() { return queryTimeAfter; }
+	}
+
+	/*
+	 * a feature table and its features in compacted order
+	 */
+	private static class Table {
+		String name;
+		String geometry;
+		String pk;
+		String index;
+		List<String> columns = new ArrayList<>();
+		Envelope extent = new Envelope();
+		long[] fids;
+		Envelope[] envelopes;
+		TableResult result;
+	}
+
+	private Connection connection;
+	private int queryCount = 0;
+
+	/**
+	 * @param connection connection to the geopackage in auto commit mode;
+	 * must not be in use by any other statement or transaction
+	 */
+	public GeoPackageCompactor(Connection connection) {
+		this.connection = connection;
+	}
+
+	/**
+	 * Sets the number of bbox queries used to measure each table before
+	 * and after compaction.  Default is 0 which disables the measurement.
+	 */
+	public void setQueryCount(int queryCount) {
+		if (queryCount < 0) throw new IllegalArgumentException("Query count cannot be negative");
+		this.queryCount = queryCount;
+	}
+
+	/**
+	 * Compacts all feature tables of the geopackage
+	 *
+	 * @return the result for each feature table
+	 * @throws IOException
+	 */
+	public List<TableResult> compact() throws IOException {
+		try {
+			List<Table> tables = findTables();
+
+			for (Table t : tables) {
+				readTable(t);
+				if (t.index != null && queryCount > 0) t.result.queryTimeBefore = measure(t);
+				rewriteTable(t);
+			}
+
+			try(Statement s = connection.createStatement()){
+				s.execute("VACUUM");
+				s.execute("ANALYZE");
+			}
+
+			List<TableResult> results = new ArrayList<>();
+			for (Table t : tables) {
+				if (t.index != null && queryCount > 0) {
+					t.result.queryTimeAfter = measure(t);
+					t.result.queries = queryCount;
+				}
+				results.add(t.result);
+
+				StringBuilder sb = new StringBuilder();
+				sb.append("Compacted ").append(t.name).append(": ").append(t.result.features).append(" features");
+				if (!t.result.rewritten) sb.append(" (already in order)");
+				if (t.result.queries > 0) {
+					sb.append("; ").append(t.result.queries).append(" bbox queries ");
+					sb.append(t.result.queryTimeBefore / 1_000_000).append(" ms before, ");
+					sb.append(t.result.queryTimeAfter / 1_000_000).append(" ms after");
+				}
+				logger.info(sb.toString());
+			}
+			return results;
+		}catch (SQLException ex) {
+			throw new IOException(ex);
+		}
+	}
+
+	/**
+	 * Computes the distance along a Hilbert curve filling a grid of
+	 * 2^order by 2^order cells
+	 *
+	 * @param order
+	 * @param x cell column from 0 to 2^order - 1
+	 * @param y cell row from 0 to 2^order - 1
+	 * @return distance of the cell along the curve
+	 */
+	public static long hilbertIndex(int order, long x, long y) {
+		long n = 1L << order;
+		long d = 0;
+		for (long s = n / 2; s > 0; s /= 2) {
+			long rx = (x & s) > 0 ? 1 : 0;
+			long ry = (y & s) > 0 ? 1 : 0;
+			d += s * s * ((3 * rx) ^ ry);
+			//rotate the quadrant
+			if (ry == 0) {
+				if (rx == 1) {
+					x = n - 1 - x;
+					y = n - 1 - y;
+				}
+				long temp = x;
+				x = y;
+				y = temp;
+			}
+		}
+		return d;
+	}
+
+	private List<Table> findTables() throws SQLException {
+		List<Table> tables = new ArrayList<>();
+		try(Statement s = connection.createStatement();
+				ResultSet rs = s.executeQuery("SELECT c.table_name, g.column_name FROM gpkg_contents c "
+						+ "JOIN gpkg_geometry_columns g ON g.table_name = c.table_name "
+						+ "WHERE c.data_type = 'features' ORDER BY c.table_name")){
+			while(rs.next()) {
+				Table t = new Table();
+				t.name = rs.getString(1);
+				t.geometry = rs.getString(2);
+				t.result = new TableResult(t.name);
+				tables.add(t);
+			}
+		}
+
+		for (Table t : tables) {
+			try(Statement s = connection.createStatement();
+					ResultSet rs = s.executeQuery("PRAGMA table_info(" + quote(t.name) + ")")){
+				while(rs.next()) {
+					String column = rs.getString("name");
+					if (rs.getInt("pk") == 1) {
+						t.pk = column;
+					}else {
+						t.columns.add(column);
+					}
+				}
+			}
+			String index = "rtree_" + t.name + "_" + t.geometry;
+			try(PreparedStatement ps = connection.prepareStatement("SELECT name FROM sqlite_master WHERE type = 'table' AND name = ?")){
+				ps.setString(1, index);
+				try(ResultSet rs = ps.executeQuery()){
+					if (rs.next()) t.index = index;
+				}
+			}
+		}
+		//no integer primary key to order by
+		tables.removeIf(t->{
+			if (t.pk == null) logger.warn("Table " + t.name + " has no primary key and will not be compacted");
+			return t.pk == null;
+		});
+		return tables;
+	}
+
+	/*
+	 * reads the envelope of each feature and sorts the features
+	 * in hilbert curve order
+	 */
+	private void readTable(Table t) throws SQLException, IOException {
+		GeoPackageGeometryDecoder decoder = new GeoPackageGeometryDecoder();
+		List<Long> fids = new ArrayList<>();
+		List<Envelope> envelopes = new ArrayList<>();
+
+		try(Statement s = connection.createStatement();
+				ResultSet rs = s.executeQuery("SELECT " + quote(t.pk) + ", " + quote(t.geometry) + " FROM " + quote(t.name))){
+			while(rs.next()) {
+				fids.add(rs.getLong(1));
+				byte[] blob = rs.getBytes(2);
+				Envelope env = GeoPackageGeometryDecoder.decodeEnvelope(blob);
+				if (env == null && blob != null) {
+					Geometry g = decoder.decode(blob);
+					if (g != null) env = g.getEnvelopeInternal();
+				}
+				if (env != null && env.isNull()) env = null;
+				if (env != null) t.extent.expandToInclude(env);
+				envelopes.add(env);
+			}
+		}
+
+		int size = fids.size();
+		long[] keys = new long[size];
+		double width = t.extent.getWidth();
+		double height = t.extent.getHeight();
+		long cells = (1L << HILBERT_ORDER) - 1;
+		for (int i = 0; i < size; i ++) {
+			Envelope env = envelopes.get(i);
+			if (env == null) {
+				keys[i] = Long.MAX_VALUE;
+				continue;
+			}
+			long x = width == 0 ? 0 : (long)((env.centre().x - t.extent.getMinX()) / width * cells);
+			long y = height == 0 ? 0 : (long)((env.centre().y - t.extent.getMinY()) / height * cells);
+			keys[i] = hilbertIndex(HILBERT_ORDER, x, y);
+		}
+
+		Integer[] order = new Integer[size];
+		for (int i = 0; i < size; i ++) order[i] = i;
+		Arrays.sort(order, Comparator.<Integer>comparingLong(i->keys[i]).thenComparingLong(i->fids.get(i)));
+
+		t.fids = new long[size];
+		t.envelopes = new Envelope[size];
+		for (int i = 0; i < size; i ++) {
+			t.fids[i] = fids.get(order[i]);
+			t.envelopes[i] = envelopes.get(order[i]);
+		}
+		t.result.features = size;
+	}
+
+	/*
+	 * copies the table and reinserts the features numbered in order
+	 */
+	private void rewriteTable(Table t) throws SQLException {
+		boolean ordered = true;
+		for (int i = 0; i < t.fids.length && ordered; i ++) {
+			if (t.fids[i] != i + 1) ordered = false;
+		}
+		if (ordered) return;
+
+		boolean autocommit = connection.getAutoCommit();
+		connection.setAutoCommit(false);
+		try(Statement s = connection.createStatement()){
+			//the index and any other triggers are restored after the features are reinserted
+			List<String> triggers = new ArrayList<>();
+			List<String> triggerNames = new ArrayList<>();
+			try(PreparedStatement ps = connection.prepareStatement("SELECT name, sql FROM sqlite_master WHERE type = 'trigger' AND tbl_name = ?")){
+				ps.setString(1, t.name);
+				try(ResultSet rs = ps.executeQuery()){
+					while(rs.next()) {
+						triggerNames.add(rs.getString(1));
+						triggers.add(rs.getString(2));
+					}
+				}
+			}
+			for (String name : triggerNames) s.execute("DROP TRIGGER " + quote(name));
+
+			s.execute("CREATE TEMP TABLE " + ORDER_TABLE + " (pos INTEGER PRIMARY KEY, fid INTEGER NOT NULL)");
+			try(PreparedStatement ps = connection.prepareStatement("INSERT INTO " + ORDER_TABLE + " (pos, fid) VALUES (?, ?)")){
+				for (int i = 0; i < t.fids.length; i ++) {
+					ps.setLong(1, i + 1);
+					ps.setLong(2, t.fids[i]);
+					ps.addBatch();
+					if ((i + 1) % BATCH_SIZE == 0) ps.executeBatch();
+				}
+				ps.executeBatch();
+			}
+			s.execute("CREATE TEMP TABLE " + COPY_TABLE + " AS SELECT * FROM " + quote(t.name));
+			s.execute("DELETE FROM " + quote(t.name));
+
+			StringBuilder sb = new StringBuilder();
+			sb.append("INSERT INTO ").append(quote(t.name)).append(" (").append(quote(t.pk));
+			for (String c : t.columns) sb.append(", ").append(quote(c));
+			sb.append(") SELECT o.pos");
+			for (String c : t.columns) sb.append(", c.").append(quote(c));
+			sb.append(" FROM ").append(ORDER_TABLE).append(" o JOIN ").append(COPY_TABLE).append(" c ON c.");
+			sb.append(quote(t.pk)).append(" = o.fid ORDER BY o.pos");
+			s.execute(sb.toString());
+
+			if (t.index != null) {
+				s.execute("DELETE FROM " + quote(t.index));
+				try(PreparedStatement ps = connection.prepareStatement("INSERT INTO " + quote(t.index) + " (id, minx, maxx, miny, maxy) VALUES (?, ?, ?, ?, ?)")){
+					int count = 0;
+					for (int i = 0; i < t.envelopes.length; i ++) {
+						Envelope env = t.envelopes[i];
+						if (env == null) continue;
+						ps.setLong(1, i + 1);
+						ps.setDouble(2, env.getMinX());
+						ps.setDouble(3, env.getMaxX());
+						ps.setDouble(4, env.getMinY());
+						ps.setDouble(5, env.getMaxY());
+						ps.addBatch();
+						if (++count % BATCH_SIZE == 0) ps.executeBatch();
+					}
+					ps.executeBatch();
+				}
+			}
+
+			s.execute("DROP TABLE " + ORDER_TABLE);
+			s.execute("DROP TABLE " + COPY_TABLE);
+			for (String trigger : triggers) s.execute(trigger);
+
+			connection.commit();
+			t.result.rewritten = true;
+		}catch (SQLException ex) {
+			connection.rollback();
+			throw ex;
+		}finally {
+			connection.setAutoCommit(autocommit);
+		}
+	}
+
+	/*
+	 * runs random bbox queries against the spatial index, reading the
+	 * geometry of each feature found
+	 */
+	private long measure(Table t) throws SQLException {
+		if (t.extent.isNull()) return 0;
+		double width = t.extent.getWidth() * QUERY_SIZE;
+		double height = t.extent.getHeight() * QUERY_SIZE;
+		Random r = new Random(QUERY_SEED);
+
+		String sql = "SELECT " + quote(t.geometry) + " FROM " + quote(t.name) + " WHERE " + quote(t.pk)
+				+ " IN (SELECT id FROM " + quote(t.index) + " WHERE minx <= ? AND maxx >= ? AND miny <= ? AND maxy >= ?)";
+		long now = System.nanoTime();
+		try(PreparedStatement ps = connection.prepareStatement(sql)){
+			for (int i = 0; i < queryCount; i ++) {
+				double x = t.extent.getMinX() + r.nextDouble() * (t.extent.getWidth() - width);
+				double y = t.extent.getMinY() + r.nextDouble() * (t.extent.getHeight() - height);
+				ps.setDouble(1, x + width);
+				ps.setDouble(2, x);
+				ps.setDouble(3, y + height);
+				ps.setDouble(4, y);
+				try(ResultSet rs = ps.executeQuery()){
+					while(rs.next()) rs.getBytes(1);
+				}
+			}
+		}
+		return System.nanoTime() - now;
+	}
+
+	private static String quote(String name) {
+		return "\"" + name.replace("\"", "\"\"") + "\"";
+	}
+}
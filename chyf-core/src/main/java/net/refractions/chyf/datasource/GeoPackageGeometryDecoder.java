@@ -0,0 +1,215 @@
+/*******************************************************************************
+ * Copyright 2020 Government of Canada
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package net.refractions.chyf.datasource;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.LineString;
+import org.locationtech.jts.geom.LinearRing;
+import org.locationtech.jts.geom.Point;
+import org.locationtech.jts.geom.Polygon;
+import org.locationtech.jts.geom.impl.PackedCoordinateSequence;
+import org.locationtech.jts.geom.impl.PackedCoordinateSequenceFactory;
+
+/**
+ * Decodes GeoPackage geometry blobs (the GeoPackage binary header
+ * followed by WKB) directly into geometries backed by
+ * {@link PackedCoordinateSequence.Double} sequences.
+ *
+ * Both ISO WKB (type codes 1000+ for Z, 2000+ for M) and extended
+ * WKB (high bit flags) geometry types are supported.  The header envelope
+ * can be read without decoding the geometry.
+ *
+ */
+public class GeoPackageGeometryDecoder {
+
+	private static final int WKB_POINT = 1;
+	private static final int WKB_LINESTRING = 2;
+	private static final int WKB_POLYGON = 3;
+	private static final int WKB_MULTIPOINT = 4;
+	private static final int WKB_MULTILINESTRING = 5;
+	private static final int WKB_MULTIPOLYGON = 6;
+	private static final int WKB_GEOMETRYCOLLECTION = 7;
+
+	private static final int EWKB_Z = 0x80000000;
+	private static final int EWKB_M = 0x40000000;
+	private static final int EWKB_SRID = 0x20000000;
+
+	private GeometryFactory gf;
+
+	public GeoPackageGeometryDecoder() {
+		this(new GeometryFactory(PackedCoordinateSequenceFactory.DOUBLE_FACTORY));
+	}
+
+	/**
+	 * @param gf the factory used to create geometries; coordinate sequences
+	 * are always packed doubles regardless of the factory's sequence factory
+	 */
+	public GeoPackageGeometryDecoder(GeometryFactory gf) {
+		this.gf = gf;
+	}
+
+	/**
+	 * @param blob GeoPackage geometry blob
+	 * @return the geometry or null if the blob is null
+	 * @throws IOException if the blob is not a valid GeoPackage geometry
+	 */
+	public Geometry decode(byte[] blob) throws IOException {
+		if (blob == null) return null;
+		try {
+			ByteBuffer buffer = ByteBuffer.wrap(blob);
+			buffer.position(headerLength(blob));
+			return readGeometry(buffer);
+		}catch (BufferUnderflowException | IllegalArgumentException ex) {
+			throw new IOException("Invalid GeoPackage geometry", ex);
+		}
+	}
+
+	/**
+	 * Reads the x/y envelope stored in the header
+	 *
+	 * @param blob GeoPackage geometry blob
+	 * @return the envelope or null if the header does not include an
+	 * envelope or the blob is null
+	 * @throws IOException if the blob is not a valid GeoPackage geometry
+	 */
+	public static Envelope decodeEnvelope(byte[] blob) throws IOException {
+		if (blob == null) return null;
+		headerLength(blob);
+		if (envelopeLength(blob[3]) == 0) return null;
+		ByteBuffer buffer = ByteBuffer.wrap(blob);
+		buffer.order((blob[3] & 0x01) == 1 ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN);
+		buffer.position(8);
+		double minx = buffer.getDouble();
+		double maxx = buffer.getDouble();
+		double miny = buffer.getDouble();
+		double maxy = buffer.getDouble();
+		return new Envelope(minx, maxx, miny, maxy);
+	}
+
+	/*
+	 * validates the header and returns the offset of the wkb
+	 */
+	private static int headerLength(byte[] blob) throws IOException {
+		if (blob.length < 8 || blob[0] != 'G' || blob[1] != 'P') throw new IOException("Invalid GeoPackage geometry header");
+		int length = 8 + envelopeLength(blob[3]);
+		if (blob.length < length) throw new IOException("Invalid GeoPackage geometry header");
+		return length;
+	}
+
+	private static int envelopeLength(byte flags) throws IOException {
+		switch((flags >> 1) & 0x07) {
+		case 0: return 0;
+		case 1: return 32;
+		case 2:
+		case 3: return 48;
+		case 4: return 64;
+		default: throw new IOException("Invalid GeoPackage geometry envelope type");
+		}
+	}
+
+	private Geometry readGeometry(ByteBuffer buffer) throws IOException {
+		buffer.order(buffer.get() == 0 ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN);
+		int typeInt = buffer.getInt();
+
+		boolean hasZ = (typeInt & EWKB_Z) != 0;
+		boolean hasM = (typeInt & EWKB_M) != 0;
+		if ((typeInt & EWKB_SRID) != 0) buffer.getInt();
+		typeInt = typeInt & 0x0FFFFFFF;
+		//iso type codes
+		int iso = typeInt / 1000;
+		if (iso == 1 || iso == 3) hasZ = true;
+		if (iso == 2 || iso == 3) hasM = true;
+		int type = typeInt % 1000;
+
+		int dimension = 2 + (hasZ ? 1 : 0) + (hasM ? 1 : 0);
+		int measures = hasM ? 1 : 0;
+
+		switch(type) {
+		case WKB_POINT:
+			return readPoint(buffer, dimension, measures);
+		case WKB_LINESTRING:
+			return gf.createLineString(readSequence(buffer, buffer.getInt(), dimension, measures));
+		case WKB_POLYGON:
+			return readPolygon(buffer, dimension, measures);
+		case WKB_MULTIPOINT:{
+			Point[] parts = new Point[buffer.getInt()];
+			for (int i = 0; i < parts.length; i ++) parts[i] = (Point) readPart(buffer, Point.class);
+			return gf.createMultiPoint(parts);
+		}
+		case WKB_MULTILINESTRING:{
+			LineString[] parts = new LineString[buffer.getInt()];
+			for (int i = 0; i < parts.length; i ++) parts[i] = (LineString) readPart(buffer, LineString.class);
+			return gf.createMultiLineString(parts);
+		}
+		case WKB_MULTIPOLYGON:{
+			Polygon[] parts = new Polygon[buffer.getInt()];
+			for (int i = 0; i < parts.length; i ++) parts[i] = (Polygon) readPart(buffer, Polygon.class);
+			return gf.createMultiPolygon(parts);
+		}
+		case WKB_GEOMETRYCOLLECTION:{
+			Geometry[] parts = new Geometry[buffer.getInt()];
+			for (int i = 0; i < parts.length; i ++) parts[i] = readPart(buffer, Geometry.class);
+			return gf.createGeometryCollection(parts);
+		}
+		default:
+			throw new IOException("Unsupported WKB geometry type " + typeInt);
+		}
+	}
+
+	/*
+	 * each part of a multi geometry has its own byte order and type
+	 */
+	private Geometry readPart(ByteBuffer buffer, Class<? extends Geometry> expected) throws IOException {
+		Geometry g = readGeometry(buffer);
+		if (!expected.isInstance(g)) throw new IOException("Invalid WKB; expected " + expected.getSimpleName() + " but found " + g.getGeometryType());
+		return g;
+	}
+
+	private Point readPoint(ByteBuffer buffer, int dimension, int measures) {
+		PackedCoordinateSequence.Double seq = readSequence(buffer, 1, dimension, measures);
+		//empty points are written with NaN ordinates
+		if (Double.isNaN(seq.getX(0)) && Double.isNaN(seq.getY(0))) {
+			return gf.createPoint(new PackedCoordinateSequence.Double(new double[0], dimension, measures));
+		}
+		return gf.createPoint(seq);
+	}
+
+	private Polygon readPolygon(ByteBuffer buffer, int dimension, int measures) {
+		int numRings = buffer.getInt();
+		if (numRings == 0) return gf.createPolygon();
+		LinearRing shell = gf.createLinearRing(readSequence(buffer, buffer.getInt(), dimension, measures));
+		LinearRing[] holes = new LinearRing[numRings - 1];
+		for (int i = 0; i < holes.length; i ++) {
+			holes[i] = gf.createLinearRing(readSequence(buffer, buffer.getInt(), dimension, measures));
+		}
+		return gf.createPolygon(shell, holes);
+	}
+
+	private PackedCoordinateSequence.Double readSequence(ByteBuffer buffer, int size, int dimension, int measures) {
+		if (size < 0 || (long)size * dimension * 8 > buffer.remaining()) throw new IllegalArgumentException("Invalid WKB coordinate count " + size);
+		double[] coords = new double[size * dimension];
+		buffer.asDoubleBuffer().get(coords);
+		buffer.position(buffer.position() + coords.length * 8);
+		return new PackedCoordinateSequence.Double(coords, dimension, measures);
+	}
+}
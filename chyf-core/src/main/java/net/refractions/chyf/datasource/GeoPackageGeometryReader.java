@@ -0,0 +1,244 @@
+/*******************************************************************************
+ * Copyright 2020 Government of Canada
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package net.refractions.chyf.datasource;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import org.geotools.geopkg.FeatureEntry;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryFactory;
+
+/**
+ * Reads geometries and selected attributes from a GeoPackage feature table
+ * using sql, without creating features.  Geometries are decoded
+ * directly from the GeoPackage binary into packed coordinate sequences
+ * by {@link GeoPackageGeometryDecoder}.
+ *
+ * If bounds are provided only features whose envelope intersects the bounds
+ * are returned; the spatial index is used if the table has one.  Callers
+ * must test the geometries themselves if they require exact intersection.
+ *
+ * <pre>
+ * try(GeoPackageGeometryReader reader = ...){
+ *   while(reader.next()){
+ *     Geometry g = reader.getGeometry();
+ *     Integer value = reader.getInteger(0);
+ *   }
+ * }
+ * </pre>
+ *
+ */
+public class GeoPackageGeometryReader implements AutoCloseable {
+
+	private Connection connection;
+	private PreparedStatement statement;
+	private ResultSet results;
+
+	private GeoPackageGeometryDecoder decoder;
+	private Envelope bounds;
+	private boolean useIndex;
+
+	private byte[] current;
+	private Geometry geometry;
+
+	/**
+	 * Reads all features, or those that match the where clause, from the
+	 * feature entry. The reader owns the connection and closes it when the
+	 * reader is closed.
+	 *
+	 * @param connection connection to the geopackage
+	 * @param fe the layer to read
+	 * @param bounds bounds in the layer coordinate reference system or null
+	 * @param where sql where clause or null
+	 * @param attributes the attribute columns to read
+	 * @param gf geometry factory for the created geometries
+	 * @throws IOException
+	 */
+	public GeoPackageGeometryReader(Connection connection, FeatureEntry fe, Envelope bounds,
+			String where, String[] attributes, GeometryFactory gf) throws IOException {
+		this.connection = connection;
+		this.decoder = new GeoPackageGeometryDecoder(gf);
+		this.bounds = bounds;
+
+		String table = fe.getTableName();
+		String geom = fe.getGeometryColumn();
+		try {
+			String index = null;
+			String pk = null;
+			if (bounds != null) {
+				index = findSpatialIndex(table, geom);
+				if (index != null) pk = findPrimaryKey(table);
+				useIndex = index != null && pk != null;
+			}
+
+			StringBuilder sb = new StringBuilder();
+			sb.append("SELECT ");
+			sb.append(quote(geom));
+			for (String att : attributes) {
+				sb.append(", ");
+				sb.append(quote(att));
+			}
+			sb.append(" FROM ");
+			sb.append(quote(table));
+			sb.append(" WHERE 1=1");
+			if (useIndex) {
+				sb.append(" AND ");
+				sb.append(quote(pk));
+				sb.append(" IN (SELECT id FROM ");
+				sb.append(quote(index));
+				sb.append(" WHERE minx <= ? AND maxx >= ? AND miny <= ? AND maxy >= ?)");
+			}
+			if (where != null) {
+				sb.append(" AND (");
+				sb.append(where);
+				sb.append(")");
+			}
+
+			statement = connection.prepareStatement(sb.toString());
+			if (useIndex) {
+				statement.setDouble(1, bounds.getMaxX());
+				statement.setDouble(2, bounds.getMinX());
+				statement.setDouble(3, bounds.getMaxY());
+				statement.setDouble(4, bounds.getMinY());
+			}
+			results = statement.executeQuery();
+		}catch (SQLException ex) {
+			close();
+			throw new IOException(ex);
+		}
+	}
+
+	/**
+	 * Moves to the next feature
+	 *
+	 * @return false if there are no more features
+	 * @throws IOException
+	 */
+	public boolean next() throws IOException {
+		try {
+			while(results.next()) {
+				current = results.getBytes(1);
+				geometry = null;
+				if (bounds == null || useIndex) return true;
+
+				//no index; use the header envelope if present
+				Envelope env = GeoPackageGeometryDecoder.decodeEnvelope(current);
+				if (env == null) {
+					Geometry g = getGeometry();
+					if (g == null) continue;
+					env = g.getEnvelopeInternal();
+				}
+				if (env.intersects(bounds)) return true;
+			}
+			current = null;
+			geometry = null;
+			return false;
+		}catch (SQLException ex) {
+			throw new IOException(ex);
+		}
+	}
+
+	/**
+	 * @return the geometry of the current feature
+	 * @throws IOException
+	 */
+	public Geometry getGeometry() throws IOException {
+		if (geometry == null && current != null) geometry = decoder.decode(current);
+		return geometry;
+	}
+
+	/**
+	 * @param index index of the attribute in the attributes provided
+	 * to the reader
+	 */
+	public Object getAttribute(int index) throws IOException {
+		try {
+			return results.getObject(index + 2);
+		}catch (SQLException ex) {
+			throw new IOException(ex);
+		}
+	}
+
+	/**
+	 * @param index index of the attribute in the attributes provided
+	 * to the reader
+	 * @return the attribute as an integer or null if it has no value
+	 */
+	public Integer getInteger(int index) throws IOException {
+		try {
+			int value = results.getInt(index + 2);
+			return results.wasNull() ? null : value;
+		}catch (SQLException ex) {
+			throw new IOException(ex);
+		}
+	}
+
+	/**
+	 * @param index index of the attribute in the attributes provided
+	 * to the reader
+	 */
+	public String getString(int index) throws IOException {
+		try {
+			return results.getString(index + 2);
+		}catch (SQLException ex) {
+			throw new IOException(ex);
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			if (results != null) results.close();
+			if (statement != null) statement.close();
+			connection.close();
+		}catch (SQLException ex) {
+			throw new IOException(ex);
+		}
+	}
+
+	/*
+	 * the rtree table of the geopackage spatial index extension
+	 */
+	private String findSpatialIndex(String table, String geom) throws SQLException {
+		String index = "rtree_" + table + "_" + geom;
+		try(PreparedStatement ps = connection.prepareStatement("SELECT name FROM sqlite_master WHERE type = 'table' AND name = ?")){
+			ps.setString(1, index);
+			try(ResultSet rs = ps.executeQuery()){
+				return rs.next() ? index : null;
+			}
+		}
+	}
+
+	private String findPrimaryKey(String table) throws SQLException {
+		try(Statement s = connection.createStatement();
+				ResultSet rs = s.executeQuery("PRAGMA table_info(" + quote(table) + ")")){
+			while(rs.next()) {
+				if (rs.getInt("pk") == 1) return rs.getString("name");
+			}
+		}
+		return null;
+	}
+
+	private static String quote(String name) {
+		return "\"" + name.replace("\"", "\"\"") + "\"";
+	}
+}
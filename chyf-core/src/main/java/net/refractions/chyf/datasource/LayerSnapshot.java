@@ -0,0 +1,168 @@
+/*******************************************************************************
+ * Copyright 2020 Government of Canada
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package net.refractions.chyf.datasource;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import org.geotools.data.simple.SimpleFeatureReader;
+import org.geotools.feature.simple.SimpleFeatureImpl;
+import org.geotools.filter.identity.FeatureIdImpl;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.impl.PackedCoordinateSequenceFactory;
+import org.locationtech.jts.index.strtree.STRtree;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.filter.Filter;
+
+/**
+ * In memory copy of a layer with an STR index on the feature envelopes.
+ *
+ * Geometries are stored with packed coordinate sequences and the
+ * attribute values of each feature in a single array.  Readers return
+ * new features with copied geometries, so callers can modify them as they
+ * could features from a geopackage reader.
+ *
+ */
+class LayerSnapshot {
+
+	private static final GeometryFactory PACKED = new GeometryFactory(PackedCoordinateSequenceFactory.DOUBLE_FACTORY);
+
+	private final SimpleFeatureType type;
+	private final int geometryIndex;
+	private final List<Object[]> features = new ArrayList<>();
+	private final List<String> fids = new ArrayList<>();
+	private final STRtree index = new STRtree();
+
+	/**
+	 * Reads all features from the reader and closes it
+	 */
+	LayerSnapshot(SimpleFeatureReader reader) throws IOException {
+		try{
+			type = reader.getFeatureType();
+			geometryIndex = type.getGeometryDescriptor() == null ? -1 : type.indexOf(type.getGeometryDescriptor().getLocalName());
+			while(reader.hasNext()) {
+				SimpleFeature sf = reader.next();
+				Object[] values = sf.getAttributes().toArray();
+				Envelope env = null;
+				if (geometryIndex >= 0 && values[geometryIndex] != null) {
+					Geometry original = (Geometry)values[geometryIndex];
+					Geometry g = PACKED.createGeometry(original);
+					//not copied by the factory
+					g.setSRID(original.getSRID());
+					g.setUserData(original.getUserData());
+					values[geometryIndex] = g;
+					env = g.getEnvelopeInternal();
+				}
+				int i = features.size();
+				features.add(values);
+				fids.add(sf.getID());
+				//features without geometry only match queries without bounds
+				if (env != null) index.insert(env, i);
+			}
+		}finally {
+			reader.close();
+		}
+		index.build();
+	}
+
+	public int size() {
+		return features.size();
+	}
+
+	/**
+	 * @param bounds bounds in the layer crs or null for all features
+	 * @param filter additional filter or null
+	 * @return features that intersect the bounds and match the filter in
+	 * the order they were read
+	 */
+	public SimpleFeatureReader query(Envelope bounds, Filter filter) {
+		List<Integer> candidates;
+		if (bounds == null) {
+			candidates = null;
+		}else {
+			candidates = new ArrayList<>();
+			for (Object o : index.query(bounds)) candidates.add((Integer)o);
+			Collections.sort(candidates);
+		}
+		Geometry area = bounds == null ? null : PACKED.toGeometry(bounds);
+		return new Reader(candidates, area, filter);
+	}
+
+	private SimpleFeature copy(int i) {
+		Object[] values = features.get(i).clone();
+		if (geometryIndex >= 0 && values[geometryIndex] != null) {
+			values[geometryIndex] = ((Geometry)values[geometryIndex]).copy();
+		}
+		return new SimpleFeatureImpl(values, type, new FeatureIdImpl(fids.get(i)), false);
+	}
+
+	private class Reader implements SimpleFeatureReader {
+
+		private List<Integer> candidates;
+		private Geometry area;
+		private Filter filter;
+		private int position = 0;
+		private SimpleFeature next;
+
+		Reader(List<Integer> candidates, Geometry area, Filter filter){
+			this.candidates = candidates;
+			this.area = area;
+			this.filter = filter;
+		}
+
+		@Override
+		public SimpleFeatureType getFeatureType() {
+			return type;
+		}
+
+		@Override
+		public boolean hasNext() {
+			int cnt = candidates == null ? features.size() : candidates.size();
+			while (next == null && position < cnt) {
+				int i = candidates == null ? position : candidates.get(position);
+				position++;
+				if (area != null) {
+					Geometry g = (Geometry) features.get(i)[geometryIndex];
+					if (!area.intersects(g)) continue;
+				}
+				SimpleFeature sf = copy(i);
+				if (filter != null && !filter.evaluate(sf)) continue;
+				next = sf;
+			}
+			return next != null;
+		}
+
+		@Override
+		public SimpleFeature next() {
+			if (!hasNext()) throw new NoSuchElementException();
+			SimpleFeature sf = next;
+			next = null;
+			return sf;
+		}
+
+		@Override
+		public void close() {
+			next = null;
+			position = Integer.MAX_VALUE;
+		}
+	}
+}
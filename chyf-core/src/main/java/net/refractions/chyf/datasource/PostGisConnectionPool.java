@@ -0,0 +1,255 @@
+/*******************************************************************************
+ * Copyright 2020 Government of Canada
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package net.refractions.chyf.datasource;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.sql.DataSource;
+
+import org.geotools.data.DataStore;
+import org.geotools.data.DataStoreFinder;
+import org.geotools.data.jdbc.datasource.DBCPDataSource;
+import org.geotools.data.postgis.PostgisNGDataStoreFactory;
+import org.geotools.jdbc.JDBCDataStoreFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A single pool of connections to a PostGIS database shared by the
+ * datastores of all schemas (eg. raw and working) used by a data source.
+ *
+ * The pool caches prepared statements per connection so repeated sql
+ * (aoi claims, state changes, lookups) is only parsed and planned once,
+ * and the datastores use prepared statements with batched inserts for
+ * feature reads and writes.
+ *
+ * Datastores are created once per schema and kept until the pool is
+ * closed; connections obtained from the pool or the datastores must be
+ * closed by the caller to return them to the pool.
+ *
+ */
+public class PostGisConnectionPool implements AutoCloseable {
+
+	static final Logger logger = LoggerFactory.getLogger(PostGisConnectionPool.class.getCanonicalName());
+
+	public static final int DEFAULT_MAX_CONNECTIONS = 20;
+	public static final int DEFAULT_MAX_PREPARED_STATEMENTS = 100;
+	public static final int DEFAULT_BATCH_INSERT_SIZE = 500;
+
+	private Map<String, Object> connectionParameters;
+	private DBCPDataSource pool;
+	private DataSource shared;
+	private Map<String, DataStore> dataStores = new HashMap<>();
+
+	/**
+	 * @param connectionString connection string of the form
+	 * host=HOST;port=PORT;db=NAME;user=USERNAME;password=PASSWORD
+	 * @throws IOException
+	 */
+	public PostGisConnectionPool(String connectionString) throws IOException {
+		this(parseConnectionString(connectionString));
+	}
+
+	/**
+	 * @param connectionParameters PostGIS datastore parameters; pooling
+	 * parameters that are not provided are set to the defaults of this class
+	 * @throws IOException
+	 */
+	public PostGisConnectionPool(Map<String, Object> connectionParameters) throws IOException {
+		this.connectionParameters = new HashMap<>(connectionParameters);
+		this.connectionParameters.putIfAbsent(JDBCDataStoreFactory.EXPOSE_PK.key, Boolean.TRUE);
+		this.connectionParameters.putIfAbsent(JDBCDataStoreFactory.MAXCONN.key, DEFAULT_MAX_CONNECTIONS);
+		this.connectionParameters.putIfAbsent(JDBCDataStoreFactory.MAX_OPEN_PREPARED_STATEMENTS.key, DEFAULT_MAX_PREPARED_STATEMENTS);
+		this.connectionParameters.putIfAbsent(JDBCDataStoreFactory.BATCH_INSERT_SIZE.key, DEFAULT_BATCH_INSERT_SIZE);
+		this.connectionParameters.putIfAbsent(PostgisNGDataStoreFactory.PREPARED_STATEMENTS.key, Boolean.TRUE);
+
+		pool = new DBCPDataSource(new PostgisNGDataStoreFactory().createDataSource(this.connectionParameters));
+		shared = new SharedDataSource(pool);
+	}
+
+	/**
+	 * Parses a connection string of the form
+	 * host=HOST;port=PORT;db=NAME;user=USERNAME;password=PASSWORD
+	 * into PostGIS datastore parameters
+	 *
+	 * @param connectionString
+	 * @return datastore connection parameters
+	 */
+	public static Map<String, Object> parseConnectionString(String connectionString) {
+		int port = 5432;
+		String host = null;
+		String dbname = null;
+		String user = null;
+		String password = null;
+
+		String[] bits = connectionString.split(";");
+		for (String bit : bits) {
+			if (bit.toLowerCase().contains("host=")) {
+				host = bit.substring("host=".length());
+			}else if (bit.toLowerCase().contains("db=")) {
+				dbname = bit.substring("db=".length());
+			}else if (bit.toLowerCase().contains("user=")) {
+				user = bit.substring("user=".length());
+			}else if (bit.toLowerCase().contains("password=")) {
+				password = bit.substring("password=".length());
+			}else if (bit.toLowerCase().contains("port=")) {
+				String sport = bit.substring("port=".length());
+				port = Integer.valueOf(sport);
+			}
+		}
+		Map<String, Object> connectionParameters = new HashMap<>();
+		connectionParameters.put("dbtype", "postgis");
+		connectionParameters.put("host", host);
+		connectionParameters.put("port", port);
+		connectionParameters.put("database", dbname);
+		connectionParameters.put("user", user);
+		connectionParameters.put("passwd", password);
+		return connectionParameters;
+	}
+
+	/**
+	 * @return the pooled data source; connections must be closed by the caller
+	 */
+	public DataSource getDataSource() {
+		return shared;
+	}
+
+	/**
+	 * @return a connection from the pool; must be closed by the caller
+	 * @throws IOException
+	 */
+	public Connection getConnection() throws IOException {
+		try {
+			return shared.getConnection();
+		}catch (SQLException ex) {
+			throw new IOException(ex);
+		}
+	}
+
+	/**
+	 * Gets the datastore for a schema.  The datastore uses the
+	 * connections of this pool and is disposed when the pool is closed.
+	 *
+	 * @param schema
+	 * @return the datastore for the schema
+	 * @throws IOException
+	 */
+	public synchronized DataStore getDataStore(String schema) throws IOException {
+		DataStore store = dataStores.get(schema);
+		if (store == null) {
+			if (pool == null) throw new IOException("Connection pool is closed");
+			Map<String, Object> params = new HashMap<>(connectionParameters);
+			params.put(JDBCDataStoreFactory.SCHEMA.key, schema);
+			params.put(JDBCDataStoreFactory.DATASOURCE.key, shared);
+			store = DataStoreFinder.getDataStore(params);
+			if (store == null) throw new IOException("Could not connect to PostGIS database");
+			dataStores.put(schema, store);
+		}
+		return store;
+	}
+
+	/**
+	 * Disposes of the datastore for a schema so the next call to
+	 * {@link #getDataStore(String)} reads the table definitions again.
+	 * The connections of the pool are not affected.
+	 *
+	 * @param schema
+	 */
+	public synchronized void resetDataStore(String schema) {
+		DataStore store = dataStores.remove(schema);
+		if (store != null) store.dispose();
+	}
+
+	@Override
+	public synchronized void close() {
+		for (DataStore store : dataStores.values()) store.dispose();
+		dataStores.clear();
+		if (pool != null) {
+			try {
+				pool.close();
+			}catch (SQLException ex) {
+				logger.warn("Unable to close connection pool: " + ex.getMessage(), ex);
+			}
+			pool = null;
+		}
+	}
+
+	/*
+	 * Datastores close managed data sources when they are disposed; the
+	 * pool is shared by several datastores so they are given this wrapper
+	 * and the pool is closed by the pool owner.
+	 */
+	private static class SharedDataSource implements DataSource {
+
+		private DataSource delegate;
+
+		SharedDataSource(DataSource delegate) {
+			this.delegate = delegate;
+		}
+
+		@Override
+		public Connection getConnection() throws SQLException {
+			return delegate.getConnection();
+		}
+
+		@Override
+		public Connection getConnection(String username, String password) throws SQLException {
+			return delegate.getConnection(username, password);
+		}
+
+		@Override
+		public PrintWriter getLogWriter() throws SQLException {
+			return delegate.getLogWriter();
+		}
+
+		@Override
+		public void setLogWriter(PrintWriter out) throws SQLException {
+			delegate.setLogWriter(out);
+		}
+
+		@Override
+		public void setLoginTimeout(int seconds) throws SQLException {
+			delegate.setLoginTimeout(seconds);
+		}
+
+		@Override
+		public int getLoginTimeout() throws SQLException {
+			return delegate.getLoginTimeout();
+		}
+
+		@Override
+		public java.util.logging.Logger getParentLogger() throws SQLFeatureNotSupportedException {
+			return delegate.getParentLogger();
+		}
+
+		@Override
+		public <T> T unwrap(Class<T> iface) throws SQLException {
+			if (iface.isInstance(this)) return iface.cast(this);
+			return delegate.unwrap(iface);
+		}
+
+		@Override
+		public boolean isWrapperFor(Class<?> iface) throws SQLException {
+			return iface.isInstance(this) || delegate.isWrapperFor(iface);
+		}
+	}
+}
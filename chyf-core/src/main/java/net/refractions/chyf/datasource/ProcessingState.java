@@ -28,5 +28,12 @@ public enum ProcessingState {
 	WS_PROCESSING,
 	WS_DONE,
 	FP_ERROR,
-	WS_ERROR,
+	WS_ERROR;
+	
+	/**
+	 * @return true if the state flags an aoi that is claimed by a worker
+	 */
+	public boolean isProcessing() {
+		return this == FP_PROCESSING || this == WS_PROCESSING;
+	}
 }
@@ -0,0 +1,255 @@
+/*******************************************************************************
+ * Copyright 2020 Government of Canada
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package net.refractions.chyf.util;
+
+import java.util.List;
+import java.util.function.Function;
+
+import org.locationtech.jts.geom.Coordinate;
+
+/**
+ * A static 2D KD-tree stored in flat arrays.
+ *
+ * Items are reordered at construction so that the node for the range [lo, hi)
+ * is at index (lo + hi) / 2 with its children in the ranges on either side; no
+ * node objects or child pointers are kept and coordinates are packed x,y in a
+ * single double array.  The tree splits on x at even depths and on y at odd depths.
+ *
+ * Queries return item indexes and write their results into caller supplied
+ * buffers so they do not allocate.  Unlike {@link KDTree} the tree cannot be
+ * filtered during a query.  The tree is immutable and safe to query from
+ * multiple threads.
+ */
+public class PackedKDTree<T> {
+
+	private final double[] coords;
+	private final Object[] items;
+
+	public PackedKDTree(List<? extends T> items, Function<T,Coordinate> toCoord) {
+		int n = items.size();
+		double[] xy = new double[n * 2];
+		int[] order = new int[n];
+		for (int i = 0; i < n; i ++) {
+			Coordinate c = toCoord.apply(items.get(i));
+			xy[i * 2] = c.getX();
+			xy[i * 2 + 1] = c.getY();
+			order[i] = i;
+		}
+		build(xy, order, 0, n, 0);
+
+		this.coords = new double[n * 2];
+		this.items = new Object[n];
+		for (int i = 0; i < n; i ++) {
+			coords[i * 2] = xy[order[i] * 2];
+			coords[i * 2 + 1] = xy[order[i] * 2 + 1];
+			this.items[i] = items.get(order[i]);
+		}
+	}
+
+	public int size() {
+		return items.length;
+	}
+
+	@SuppressWarnings("unchecked")
+	public T getItem(int index) {
+		return (T)items[index];
+	}
+
+	public double getX(int index) {
+		return coords[index * 2];
+	}
+
+	public double getY(int index) {
+		return coords[index * 2 + 1];
+	}
+
+	/**
+	 *
+	 * @return the index of the item closest to the point or -1 if the tree is empty
+	 */
+	public int nearest(double x, double y) {
+		return nearest(0, items.length, 0, x, y, -1, Double.POSITIVE_INFINITY);
+	}
+
+	/**
+	 * Finds the items closest to the point, nearest first.  At most
+	 * indexes.length items are found.
+	 *
+	 * @param maxDistance items must be closer than this distance; use
+	 * Double.POSITIVE_INFINITY for no limit
+	 * @param indexes buffer for the item indexes
+	 * @param distancesSq buffer for the squared distances to the items; must
+	 * be at least as long as indexes
+	 * @return the number of items found
+	 */
+	public int nearest(double x, double y, double maxDistance, int[] indexes, double[] distancesSq) {
+		if (distancesSq.length < indexes.length) throw new IllegalArgumentException("Distance buffer is smaller than the index buffer");
+		if (indexes.length == 0) return 0;
+		return nearest(0, items.length, 0, x, y, maxDistance * maxDistance, indexes, distancesSq, 0);
+	}
+
+	/**
+	 * Finds the items within the distance of the point, in no particular order.
+	 *
+	 * @param radius items must be closer than this distance
+	 * @param indexes buffer for the item indexes
+	 * @return the number of items within the distance; if this is more than
+	 * indexes.length only the first indexes.length items are stored and the
+	 * query can be repeated with a larger buffer
+	 */
+	public int within(double x, double y, double radius, int[] indexes) {
+		return within(0, items.length, 0, x, y, radius * radius, indexes, 0);
+	}
+
+	private int nearest(int lo, int hi, int axis, double x, double y, int best, double bestSq) {
+		if (lo >= hi) return best;
+		int mid = (lo + hi) >>> 1;
+		double dSq = distanceSq(mid, x, y);
+		if (dSq < bestSq) {
+			best = mid;
+			bestSq = dSq;
+		}
+		double diff = (axis == 0 ? x : y) - coords[mid * 2 + axis];
+		int next = 1 - axis;
+		if (diff < 0) {
+			best = nearest(lo, mid, next, x, y, best, bestSq);
+			bestSq = distanceSq(best, x, y);
+			if (diff * diff < bestSq) best = nearest(mid + 1, hi, next, x, y, best, bestSq);
+		}else {
+			best = nearest(mid + 1, hi, next, x, y, best, bestSq);
+			bestSq = distanceSq(best, x, y);
+			if (diff * diff < bestSq) best = nearest(lo, mid, next, x, y, best, bestSq);
+		}
+		return best;
+	}
+
+	private int nearest(int lo, int hi, int axis, double x, double y, double maxSq,
+			int[] indexes, double[] distancesSq, int count) {
+		if (lo >= hi) return count;
+		int mid = (lo + hi) >>> 1;
+		int k = indexes.length;
+
+		double dSq = distanceSq(mid, x, y);
+		if (dSq < maxSq && (count < k || dSq < distancesSq[k - 1])) {
+			//insertion sort into the results, dropping the farthest if full
+			int i = count < k ? count++ : k - 1;
+			while (i > 0 && distancesSq[i - 1] > dSq) {
+				indexes[i] = indexes[i - 1];
+				distancesSq[i] = distancesSq[i - 1];
+				i--;
+			}
+			indexes[i] = mid;
+			distancesSq[i] = dSq;
+		}
+
+		double diff = (axis == 0 ? x : y) - coords[mid * 2 + axis];
+		int next = 1 - axis;
+		int nearLo = diff < 0 ? lo : mid + 1;
+		int nearHi = diff < 0 ? mid : hi;
+		int farLo = diff < 0 ? mid + 1 : lo;
+		int farHi = diff < 0 ? hi : mid;
+
+		count = nearest(nearLo, nearHi, next, x, y, maxSq, indexes, distancesSq, count);
+		// only search far side if the search circle crosses the splitting line
+		double worst = count < k ? maxSq : distancesSq[k - 1];
+		if (diff * diff < worst) {
+			count = nearest(farLo, farHi, next, x, y, maxSq, indexes, distancesSq, count);
+		}
+		return count;
+	}
+
+	private int within(int lo, int hi, int axis, double x, double y, double radiusSq, int[] indexes, int count) {
+		if (lo >= hi) return count;
+		int mid = (lo + hi) >>> 1;
+		if (distanceSq(mid, x, y) < radiusSq) {
+			if (count < indexes.length) indexes[count] = mid;
+			count++;
+		}
+		double diff = (axis == 0 ? x : y) - coords[mid * 2 + axis];
+		int next = 1 - axis;
+		if (diff < 0 || diff * diff < radiusSq) {
+			count = within(lo, mid, next, x, y, radiusSq, indexes, count);
+		}
+		if (diff >= 0 || diff * diff < radiusSq) {
+			count = within(mid + 1, hi, next, x, y, radiusSq, indexes, count);
+		}
+		return count;
+	}
+
+	private double distanceSq(int index, double x, double y) {
+		if (index < 0) return Double.POSITIVE_INFINITY;
+		double dx = coords[index * 2] - x;
+		double dy = coords[index * 2 + 1] - y;
+		return dx * dx + dy * dy;
+	}
+
+	/*
+	 * orders the range so the median on the axis is at the middle,
+	 * smaller values before it and larger values after it, then
+	 * orders each half on the other axis
+	 */
+	private static void build(double[] xy, int[] order, int lo, int hi, int axis) {
+		if (hi - lo <= 1) return;
+		int mid = (lo + hi) >>> 1;
+		select(xy, order, lo, hi - 1, mid, axis);
+		build(xy, order, lo, mid, 1 - axis);
+		build(xy, order, mid + 1, hi, 1 - axis);
+	}
+
+	/*
+	 * quickselect on order[left..right] so order[n] is the item that
+	 * would be there if the range were sorted on the axis
+	 */
+	private static void select(double[] xy, int[] order, int left, int right, int n, int axis) {
+		while (left < right) {
+			// median of three pivot
+			int m = (left + right) >>> 1;
+			if (value(xy, order, m, axis) < value(xy, order, left, axis)) swap(order, left, m);
+			if (value(xy, order, right, axis) < value(xy, order, left, axis)) swap(order, left, right);
+			if (value(xy, order, right, axis) < value(xy, order, m, axis)) swap(order, m, right);
+			double pivot = value(xy, order, m, axis);
+
+			int i = left;
+			int j = right;
+			while (i <= j) {
+				while (value(xy, order, i, axis) < pivot) i++;
+				while (value(xy, order, j, axis) > pivot) j--;
+				if (i <= j) {
+					swap(order, i, j);
+					i++;
+					j--;
+				}
+			}
+			if (n <= j) {
+				right = j;
+			}else if (n >= i) {
+				left = i;
+			}else {
+				return;
+			}
+		}
+	}
+
+	private static double value(double[] xy, int[] order, int i, int axis) {
+		return xy[order[i] * 2 + axis];
+	}
+
+	private static void swap(int[] order, int i, int j) {
+		int t = order[i];
+		order[i] = order[j];
+		order[j] = t;
+	}
+}
@@ -15,13 +15,114 @@
  *******************************************************************************/
 package net.refractions.chyf.util;
 
+import java.util.HashMap;
+import java.util.Map;
+
 import org.locationtech.jts.algorithm.Orientation;
 import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.CoordinateSequence;
 import org.locationtech.jts.geom.LineString;
 import org.locationtech.jts.geom.Polygon;
 
+/**
+ * Determines if line segments lie on the edge of a polygon.
+ * 
+ * The static {@link #compare(Polygon, Coordinate, Coordinate)} walks the
+ * rings of the polygon for each segment.  When many segments are compared to
+ * the same polygon create a matcher for the polygon; the segments of the 
+ * rings are hashed once and each comparison is a single lookup.
+ */
 public class PolygonEdgeMatcher {
 
+	/*
+	 * directed segment; coordinates are compared with == as in
+	 * Coordinate.equals2D
+	 */
+	private static final class Segment {
+		private double x0, y0, x1, y1;
+		
+		Segment(double x0, double y0, double x1, double y1){
+			//-0.0 == 0.0 but they have different bits
+			this.x0 = x0 + 0.0;
+			this.y0 = y0 + 0.0;
+			this.x1 = x1 + 0.0;
+			this.y1 = y1 + 0.0;
+		}
+		
+		@Override
+		public boolean equals(Object other) {
+			if (!(other instanceof Segment)) return false;
+			Segment s = (Segment)other;
+			return x0 == s.x0 && y0 == s.y0 && x1 == s.x1 && y1 == s.y1;
+		}
+		
+		@Override
+		public int hashCode() {
+			long h = Double.doubleToLongBits(x0);
+			h = h * 31 + Double.doubleToLongBits(y0);
+			h = h * 31 + Double.doubleToLongBits(x1);
+			h = h * 31 + Double.doubleToLongBits(y1);
+			return (int)(h ^ (h >>> 32));
+		}
+	}
+	
+	private Map<Segment, Integer> segments;
+	
+	/**
+	 * Creates a matcher for the polygon, indexing the segments of all 
+	 * rings in both directions.
+	 * 
+	 * @param p Polygon to compare to
+	 */
+	public PolygonEdgeMatcher(Polygon p) {
+		int size = p.getExteriorRing().getNumPoints();
+		for(int ringIdx = 0; ringIdx < p.getNumInteriorRing(); ringIdx ++) {
+			size += p.getInteriorRingN(ringIdx).getNumPoints();
+		}
+		segments = new HashMap<>(size * 4);
+		
+		//same precedence as compare(Polygon, ...); interior rings first
+		//and the first matching segment of a ring is kept
+		for(int ringIdx = 0; ringIdx < p.getNumInteriorRing(); ringIdx ++) {
+			addRing(p.getInteriorRingN(ringIdx), true);
+		}
+		addRing(p.getExteriorRing(), false);
+	}
+	
+	private void addRing(LineString ring, boolean interior) {
+		CoordinateSequence seq = ring.getCoordinateSequence();
+		int numPoints = seq.size();
+		if (numPoints == 0) return;
+		boolean ccw = Orientation.isCCW(seq);
+		int forward = (ccw ^ interior) ? -1 : 1;
+		
+		for(int coordIdx = 0; coordIdx < numPoints; coordIdx ++) {
+			double x = seq.getX(coordIdx);
+			double y = seq.getY(coordIdx);
+			if (Double.isNaN(x) || Double.isNaN(y)) continue;
+			if(coordIdx + 1 < numPoints) {
+				segments.putIfAbsent(new Segment(x, y, seq.getX(coordIdx + 1), seq.getY(coordIdx + 1)), forward);
+			}
+			if(coordIdx > 0) {
+				segments.putIfAbsent(new Segment(x, y, seq.getX(coordIdx - 1), seq.getY(coordIdx - 1)), -forward);
+			}
+		}
+	}
+	
+	/**
+	 * Determines if the given line segment lies exactly on part of the edge of the polygon
+	 * of this matcher; see {@link #compare(Polygon, Coordinate, Coordinate)}.
+	 * 
+	 * @param c0 initial coordinate of line segment
+	 * @param c1 final coordinate of line segment
+	 * @return -1 if the interior of the polygon is on the left of the line from c0 to c1, 
+	 * 		1 if it is on the right, and 0 if it doesn't lie on the polygon edge.
+	 */
+	public int compare(Coordinate c0, Coordinate c1) {
+		Integer result = segments.get(new Segment(c0.x, c0.y, c1.x, c1.y));
+		return result == null ? 0 : result;
+	}
+
 	/**
 	 * Determines if the given line segment lies exactly on part of the edge of the polygon
 	 * and if it does, returns -1 if the interior of the polygon is on the left of the line, 
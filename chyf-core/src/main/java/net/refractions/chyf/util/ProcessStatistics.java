@@ -20,7 +20,9 @@ import java.text.DecimalFormat;
 import org.locationtech.jts.util.Stopwatch;
 import org.slf4j.Logger;
 /**
- * Computes and outputs statistics about time and memory usage
+ * Computes and outputs statistics about time and memory usage.  Processing
+ * stages are also recorded in a {@link RunReport} which can be written
+ * as json.
  */
 public class ProcessStatistics {
     private static DecimalFormat memFormat = new DecimalFormat("#,##0");
@@ -30,6 +32,8 @@ public class ProcessStatistics {
     	globalSw.start();
     }
     
+    private static RunReport runReport = new RunReport();
+    
     private Stopwatch     sw               = new Stopwatch();
     private long          splitTime        = 0;
 
@@ -71,6 +75,22 @@ public class ProcessStatistics {
         return String.format("%1$6s/%2$sMB", formatMem(committedMem), formatMem(totalMem));
     }
 
+    /**
+     * @return the report of all stages run in this jvm
+     */
+    public static RunReport getRunReport() {
+    	return runReport;
+    }
+    
+    /**
+     * Starts a stage in the run report; the stage is recorded when closed
+     * 
+     * @param name stage name
+     */
+    public static RunReport.Stage startStage(String name) {
+    	return runReport.startStage(name);
+    }
+    
     public static final double MEGABYTE = 1048576;
 
     public static String formatMem(long size) {
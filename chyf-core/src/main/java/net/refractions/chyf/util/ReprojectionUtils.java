@@ -15,12 +15,20 @@
  *******************************************************************************/
 package net.refractions.chyf.util;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
 import org.geotools.geometry.jts.JTS;
 import org.geotools.geometry.jts.ReferencedEnvelope;
 import org.geotools.referencing.CRS;
 import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.CoordinateSequence;
 import org.locationtech.jts.geom.Envelope;
 import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryComponentFilter;
+import org.locationtech.jts.geom.LineString;
+import org.locationtech.jts.geom.Point;
 import org.locationtech.jts.geom.util.AffineTransformation;
 import org.opengis.referencing.FactoryException;
 import org.opengis.referencing.NoSuchAuthorityCodeException;
@@ -32,31 +40,22 @@ import org.opengis.referencing.operation.TransformException;
 /**
  * Reprojection tools.
  * 
+ * Transforms are cached by source and target coordinate reference system
+ * so they are only looked up once.
+ * 
  * @author Emily
  *
  */
 public class ReprojectionUtils {
 	
+	private static final ConcurrentHashMap<TransformKey, CachedTransform> transforms = new ConcurrentHashMap<>();
+	
 	public static <T extends Geometry> T reproject(T geom, CoordinateReferenceSystem fromCRS, CoordinateReferenceSystem toCRS) {
 		if(geom == null) {
 			return null;
 		}
 		try {
-			
-			MathTransform transform = CRS.findMathTransform(fromCRS, toCRS, true);
-			
-			if(fromCRS.getCoordinateSystem().getAxis(0).getDirection().absolute()
-					.equals(AxisDirection.NORTH)) {
-				geom = flipAxes(geom);
-			}
-			
-			@SuppressWarnings("unchecked")
-			T newGeom = (T)JTS.transform(geom, transform);
-			if(toCRS.getCoordinateSystem().getAxis(0).getDirection().absolute()
-					.equals(AxisDirection.NORTH)) {
-				newGeom = flipAxes(newGeom);
-			}
-			return newGeom;
+			return getTransform(fromCRS, toCRS, true).transform(geom);
 		} catch(FactoryException fe) {
 			throw new RuntimeException("Unexpected error in coordinate reprojection.", fe);
 		} catch(TransformException te) {
@@ -69,22 +68,17 @@ public class ReprojectionUtils {
 			return null;
 		}
 		try {
-			MathTransform transform = CRS.findMathTransform(env.getCoordinateReferenceSystem(), toCRS, true);
-			if(env.getCoordinateReferenceSystem().getCoordinateSystem().getAxis(0).getDirection().absolute()
-					.equals(AxisDirection.NORTH)) {
+			CachedTransform transform = getTransform(env.getCoordinateReferenceSystem(), toCRS, true);
+			if(transform.flipSource) {
 				env = flipAxes(env);
 			}
 			
-			
-			Envelope e = JTS.transform(env, transform);
+			Envelope e = JTS.transform(env, transform.getMathTransform());
 			ReferencedEnvelope re = new ReferencedEnvelope(e, toCRS);
 			
-			if(toCRS.getCoordinateSystem().getAxis(0).getDirection().absolute()
-					.equals(AxisDirection.NORTH)) {
+			if(transform.flipTarget) {
 				re = flipAxes(re);
 			}
-			
-			
 			return re;
 		} catch(FactoryException fe) {
 			throw new RuntimeException("Unexpected error in coordinate reprojection.", fe);
@@ -93,6 +87,30 @@ public class ReprojectionUtils {
 		}
 	}
 
+	/**
+	 * Gets the transform between two coordinate reference systems, including 
+	 * the axis order handling used by the reproject functions.  
+	 * 
+	 * @param fromCRS
+	 * @param toCRS
+	 * @param lenient see {@link CRS#findMathTransform(CoordinateReferenceSystem, CoordinateReferenceSystem, boolean)}
+	 * @return
+	 * @throws FactoryException
+	 */
+	public static CachedTransform getTransform(CoordinateReferenceSystem fromCRS, CoordinateReferenceSystem toCRS, boolean lenient) throws FactoryException {
+		TransformKey key = new TransformKey(fromCRS, toCRS, lenient);
+		CachedTransform transform = transforms.get(key);
+		if (transform == null) {
+			transform = new CachedTransform(CRS.findMathTransform(fromCRS, toCRS, lenient), isNorthFirst(fromCRS), isNorthFirst(toCRS));
+			CachedTransform existing = transforms.putIfAbsent(key, transform);
+			if (existing != null) transform = existing;
+		}
+		return transform;
+	}
+	
+	private static boolean isNorthFirst(CoordinateReferenceSystem crs) {
+		return crs.getCoordinateSystem().getAxis(0).getDirection().absolute().equals(AxisDirection.NORTH);
+	}
 	
 	public static CoordinateReferenceSystem srsCodeToCRS(int srsCode) {
 		try {
@@ -122,4 +140,124 @@ public class ReprojectionUtils {
 		
 		return new ReferencedEnvelope(c1.x, c2.x, c1.y, c2.y, env.getCoordinateReferenceSystem());
 	}
+	
+	/**
+	 * Transform between two coordinate reference systems.  Coordinates of 
+	 * systems with the north axis first are swapped before and after 
+	 * transforming.
+	 */
+	public static class CachedTransform {
+		
+		private final MathTransform transform;
+		private final boolean flipSource;
+		private final boolean flipTarget;
+		
+		private CachedTransform(MathTransform transform, boolean flipSource, boolean flipTarget) {
+			this.transform = transform;
+			this.flipSource = flipSource;
+			this.flipTarget = flipTarget;
+		}
+		
+		public MathTransform getMathTransform() {
+			return transform;
+		}
+		
+		/**
+		 * Transforms packed x,y coordinates in place.
+		 * 
+		 * @param coordinates x1, y1, x2, y2, ...
+		 * @param numPoints number of points to transform
+		 * @throws TransformException
+		 */
+		public void transform(double[] coordinates, int numPoints) throws TransformException {
+			if (transform.getSourceDimensions() != 2 || transform.getTargetDimensions() != 2) {
+				throw new IllegalStateException("Packed coordinate transforms only supported for 2D coordinate reference systems");
+			}
+			if (flipSource) swap(coordinates, numPoints);
+			transform.transform(coordinates, 0, coordinates, 0, numPoints);
+			if (flipTarget) swap(coordinates, numPoints);
+		}
+		
+		/**
+		 * 
+		 * @return a transformed copy of the geometry
+		 * @throws TransformException
+		 */
+		public <T extends Geometry> T transform(T geom) throws TransformException {
+			if (transform.getSourceDimensions() != 2 || transform.getTargetDimensions() != 2) {
+				if (flipSource) geom = flipAxes(geom);
+				@SuppressWarnings("unchecked")
+				T newGeom = (T)JTS.transform(geom, transform);
+				if (flipTarget) newGeom = flipAxes(newGeom);
+				return newGeom;
+			}
+			
+			@SuppressWarnings("unchecked")
+			T newGeom = (T)geom.copy();
+			List<CoordinateSequence> sequences = new ArrayList<>();
+			newGeom.apply(new GeometryComponentFilter() {
+				@Override
+				public void filter(Geometry g) {
+					if (g instanceof LineString) sequences.add(((LineString)g).getCoordinateSequence());
+					if (g instanceof Point) sequences.add(((Point)g).getCoordinateSequence());
+				}
+			});
+			
+			double[] buffer = new double[0];
+			for (CoordinateSequence seq : sequences) {
+				int size = seq.size();
+				if (buffer.length < size * 2) buffer = new double[size * 2];
+				for (int i = 0; i < size; i ++) {
+					buffer[i * 2] = seq.getX(i);
+					buffer[i * 2 + 1] = seq.getY(i);
+				}
+				transform(buffer, size);
+				for (int i = 0; i < size; i ++) {
+					seq.setOrdinate(i, CoordinateSequence.X, buffer[i * 2]);
+					seq.setOrdinate(i, CoordinateSequence.Y, buffer[i * 2 + 1]);
+				}
+			}
+			newGeom.geometryChanged();
+			return newGeom;
+		}
+		
+		private static void swap(double[] coordinates, int numPoints) {
+			for (int i = 0; i < numPoints * 2; i += 2) {
+				double t = coordinates[i];
+				coordinates[i] = coordinates[i + 1];
+				coordinates[i + 1] = t;
+			}
+		}
+	}
+	
+	/*
+	 * cache key for transforms
+	 */
+	private static class TransformKey {
+		private final CoordinateReferenceSystem from;
+		private final CoordinateReferenceSystem to;
+		private final boolean lenient;
+		private final int hash;
+		
+		TransformKey(CoordinateReferenceSystem from, CoordinateReferenceSystem to, boolean lenient){
+			this.from = from;
+			this.to = to;
+			this.lenient = lenient;
+			this.hash = (from.hashCode() * 31 + to.hashCode()) * 31 + Boolean.hashCode(lenient);
+		}
+		
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+		
+		@Override
+		public boolean equals(Object other) {
+			if (!(other instanceof TransformKey)) return false;
+			TransformKey k = (TransformKey)other;
+			return lenient == k.lenient 
+					&& (from == k.from || from.equals(k.from)) 
+					&& (to == k.to || to.equals(k.to));
+		}
+	}
 }
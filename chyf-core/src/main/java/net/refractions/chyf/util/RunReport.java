@@ -0,0 +1,309 @@
+/*******************************************************************************
+ * Copyright 2020 Government of Canada
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package net.refractions.chyf.util;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.OperatingSystemMXBean;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.MDC;
+
+/**
+ * Records the wall time, cpu time, allocated bytes, peak heap and item count
+ * of each processing stage so runs can be compared.  Stages are recorded
+ * when they are closed and are also emitted as flight recorder events
+ * ({@link StageEvent}).
+ *
+ * <pre>
+ * try(RunReport.Stage stage = ProcessStatistics.startStage("PointEngine")){
+ *   ...
+ *   stage.addItems(points.size());
+ * }
+ * </pre>
+ *
+ * The aoi of a stage is the aoi_id of the logging context of the thread
+ * that starts the stage.
+ *
+ * Thread cpu time and allocated bytes are for the thread that started
+ * the stage.  Process cpu time and peak heap are for the whole jvm, so
+ * include work done by worker threads but overlap if stages run
+ * concurrently.  Heap pool peaks are only reset when a stage starts while
+ * no other stage is running, so the peak heap of a nested or concurrent
+ * stage is the peak since the outermost running stage started.
+ *
+ */
+public class RunReport {
+
+	/**
+	 * A running stage
+	 */
+	public class Stage implements AutoCloseable {
+		private String aoi;
+		private String name;
+		private Instant start;
+		private long startNanos;
+		private long startThreadCpu;
+		private long startProcessCpu;
+		private long startThreadAllocated;
+		private AtomicLong items = new AtomicLong();
+		private StageEvent event;
+		private boolean closed = false;
+
+		private Stage(String name) {
+			this.name = name;
+			this.aoi = MDC.get("aoi_id");
+			this.start = Instant.now();
+
+			event = new StageEvent();
+			event.begin();
+
+			//resetting would lose the peak of stages that are already running
+			synchronized(heapPools) {
+				if (running++ == 0) {
+					for (MemoryPoolMXBean pool : heapPools) pool.resetPeakUsage();
+				}
+			}
+			startThreadAllocated = threadAllocatedBytes();
+			startThreadCpu = threadCpuTime();
+			startProcessCpu = processCpuTime();
+			startNanos = System.nanoTime();
+		}
+
+		/**
+		 * Adds to the number of items processed by the stage; can be
+		 * called from any thread
+		 */
+		public void addItems(long count) {
+			items.addAndGet(count);
+		}
+
+		@Override
+		public void close() {
+			if (closed) return;
+			closed = true;
+
+			long wall = System.nanoTime() - startNanos;
+			event.end();
+
+			long peak = 0;
+			synchronized(heapPools) {
+				for (MemoryPoolMXBean pool : heapPools) {
+					if (pool.getPeakUsage() != null) peak += pool.getPeakUsage().getUsed();
+				}
+				running--;
+			}
+
+			StageResult result = new StageResult(aoi, name, start, wall,
+					delta(startThreadCpu, threadCpuTime()), delta(startProcessCpu, processCpuTime()),
+					delta(startThreadAllocated, threadAllocatedBytes()), peak, items.get());
+			synchronized(results) {
+				results.add(result);
+			}
+
+			if (event.shouldCommit()) {
+				event.aoi = aoi;
+				event.stage = name;
+				event.items = result.getItems();
+				event.threadCpuTime = result.getThreadCpuTime();
+				event.processCpuTime = result.getProcessCpuTime();
+				event.allocated = result.getThreadAllocatedBytes();
+				event.peakHeap = result.getPeakHeapBytes();
+				event.commit();
+			}
+		}
+	}
+
+	/**
+	 * The statistics of a completed stage.  Times are in nanoseconds;
+	 * cpu times and allocated bytes are -1 if not supported by the jvm.
+	 */
+	public static class StageResult {
+		private String aoi;
+		private String stage;
+		private Instant start;
+		private long wallTime;
+		private long threadCpuTime;
+		private long processCpuTime;
+		private long threadAllocatedBytes;
+		private long peakHeapBytes;
+		private long items;
+
+		StageResult(String aoi, String stage, Instant start, long wallTime, long threadCpuTime, long processCpuTime,
+				long threadAllocatedBytes, long peakHeapBytes, long items) {
+			this.aoi = aoi;
+			this.stage = stage;
+			this.start = start;
+			this.wallTime = wallTime;
+			this.threadCpuTime = threadCpuTime;
+			this.processCpuTime = processCpuTime;
+			this.threadAllocatedBytes = threadAllocatedBytes;
+			this.peakHeapBytes = peakHeapBytes;
+			this.items = items;
+		}
+
+		public String getAoi() { return aoi; }
+		public String getStage() { return stage; }
+		public Instant getStart() { return start; }
+		public long getWallTime() { return wallTime; }
+		public long getThreadCpuTime() { return threadCpuTime; }
+		public long getProcessCpuTime() { return processCpuTime; }
+		public long getThreadAllocatedBytes() { return threadAllocatedBytes; }
+		public long getPeakHeapBytes() { return peakHeapBytes; }
+		public long getItems() { return items; }
+	}
+
+	private final Instant created = Instant.now();
+	private final List<StageResult> results = new ArrayList<>();
+
+	private final List<MemoryPoolMXBean> heapPools = new ArrayList<>();
+	//number of stages running; guarded by heapPools
+	private int running = 0;
+	private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+	private final OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+
+	public RunReport() {
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP && pool.isValid()) heapPools.add(pool);
+		}
+		if (threads instanceof com.sun.management.ThreadMXBean) {
+			com.sun.management.ThreadMXBean t = (com.sun.management.ThreadMXBean)threads;
+			if (t.isThreadAllocatedMemorySupported() && !t.isThreadAllocatedMemoryEnabled()) t.setThreadAllocatedMemoryEnabled(true);
+		}
+		if (threads.isCurrentThreadCpuTimeSupported() && !threads.isThreadCpuTimeEnabled()) threads.setThreadCpuTimeEnabled(true);
+	}
+
+	/**
+	 * Starts a stage; the stage is recorded when it is closed
+	 */
+	public Stage startStage(String name) {
+		return new Stage(name);
+	}
+
+	/**
+	 * @return the completed stages in the order they were closed
+	 */
+	public List<StageResult> getStages(){
+		synchronized(results) {
+			return new ArrayList<>(results);
+		}
+	}
+
+	public void clear() {
+		synchronized(results) {
+			results.clear();
+		}
+	}
+
+	/**
+	 * Writes the completed stages to a json file
+	 *
+	 * @param file
+	 * @throws IOException
+	 */
+	public void writeJson(Path file) throws IOException {
+		try(Writer writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)){
+			writeJson(writer);
+		}
+	}
+
+	public void writeJson(Writer writer) throws IOException {
+		StringBuilder sb = new StringBuilder();
+		sb.append("{\n");
+		sb.append("  \"created\": ").append(quote(created.toString())).append(",\n");
+		sb.append("  \"java\": ").append(quote(System.getProperty("java.version"))).append(",\n");
+		sb.append("  \"processors\": ").append(Runtime.getRuntime().availableProcessors()).append(",\n");
+		sb.append("  \"maxHeapBytes\": ").append(Runtime.getRuntime().maxMemory()).append(",\n");
+		sb.append("  \"stages\": [");
+		boolean first = true;
+		for (StageResult r : getStages()) {
+			sb.append(first ? "\n" : ",\n");
+			first = false;
+			sb.append("    {");
+			sb.append("\"aoi\": ").append(quote(r.getAoi())).append(", ");
+			sb.append("\"stage\": ").append(quote(r.getStage())).append(", ");
+			sb.append("\"start\": ").append(quote(r.getStart().toString())).append(", ");
+			sb.append("\"wallMs\": ").append(toMillis(r.getWallTime())).append(", ");
+			sb.append("\"threadCpuMs\": ").append(toMillis(r.getThreadCpuTime())).append(", ");
+			sb.append("\"processCpuMs\": ").append(toMillis(r.getProcessCpuTime())).append(", ");
+			sb.append("\"threadAllocatedBytes\": ").append(r.getThreadAllocatedBytes()).append(", ");
+			sb.append("\"peakHeapBytes\": ").append(r.getPeakHeapBytes()).append(", ");
+			sb.append("\"items\": ").append(r.getItems());
+			sb.append("}");
+		}
+		sb.append(first ? "]\n" : "\n  ]\n");
+		sb.append("}\n");
+		writer.write(sb.toString());
+	}
+
+	private static long delta(long start, long end) {
+		return start < 0 || end < 0 ? -1 : end - start;
+	}
+
+	private static long toMillis(long nanos) {
+		return nanos < 0 ? -1 : nanos / 1_000_000;
+	}
+
+	private static String quote(String value) {
+		if (value == null) return "null";
+		StringBuilder sb = new StringBuilder("\"");
+		for (char c : value.toCharArray()) {
+			switch(c) {
+			case '"': sb.append("\\\""); break;
+			case '\\': sb.append("\\\\"); break;
+			case '\n': sb.append("\\n"); break;
+			case '\r': sb.append("\\r"); break;
+			case '\t': sb.append("\\t"); break;
+			default:
+				if (c < 0x20) {
+					sb.append(String.format("\\u%04x", (int)c));
+				}else {
+					sb.append(c);
+				}
+			}
+		}
+		return sb.append("\"").toString();
+	}
+
+	private long threadCpuTime() {
+		if (!threads.isCurrentThreadCpuTimeSupported()) return -1;
+		return threads.getCurrentThreadCpuTime();
+	}
+
+	private long processCpuTime() {
+		if (os instanceof com.sun.management.OperatingSystemMXBean) {
+			return ((com.sun.management.OperatingSystemMXBean)os).getProcessCpuTime();
+		}
+		return -1;
+	}
+
+	private long threadAllocatedBytes() {
+		if (threads instanceof com.sun.management.ThreadMXBean) {
+			return ((com.sun.management.ThreadMXBean)threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+		}
+		return -1;
+	}
+}
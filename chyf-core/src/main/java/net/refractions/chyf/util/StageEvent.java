@@ -0,0 +1,60 @@
+/*******************************************************************************
+ * Copyright 2020 Government of Canada
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package net.refractions.chyf.util;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * Flight recorder event for a processing stage; the event duration
+ * is the stage wall time.
+ */
+@Name("net.refractions.chyf.Stage")
+@Label("Processing Stage")
+@Category("CHyF")
+@Description("A processing stage recorded in the run report")
+class StageEvent extends Event {
+
+	@Label("AOI")
+	String aoi;
+
+	@Label("Stage")
+	String stage;
+
+	@Label("Items")
+	long items;
+
+	@Label("Thread CPU Time")
+	@Timespan(Timespan.NANOSECONDS)
+	long threadCpuTime;
+
+	@Label("Process CPU Time")
+	@Timespan(Timespan.NANOSECONDS)
+	long processCpuTime;
+
+	@Label("Allocated")
+	@DataAmount
+	long allocated;
+
+	@Label("Peak Heap")
+	@DataAmount
+	long peakHeap;
+}
@@ -0,0 +1,253 @@
+/*******************************************************************************
+ * Copyright 2020 Government of Canada
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package net.refractions.chyf.datasource;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.sql.DataSource;
+
+import org.geotools.data.DataStoreFinder;
+import org.geotools.jdbc.JDBCDataStore;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Runs several workers against an aoi table in a local PostGIS database.
+ *
+ * The database is given by the chyf.test.postgis system property using the
+ * same connection string as the processing tools
+ * (host=...;port=...;db=...;user=...;password=...); the tests are skipped if
+ * it is not set.  The tests create and drop the aoi_queue_test schema.
+ */
+class AoiWorkQueueTest {
+
+	private static final String SCHEMA = "aoi_queue_test";
+	private static final String AOI_TABLE = SCHEMA + ".aoi";
+
+	private static JDBCDataStore store;
+	private static DataSource dataSource;
+
+	@BeforeAll
+	static void setUp() throws Exception {
+		String connection = System.getProperty("chyf.test.postgis");
+		Assumptions.assumeTrue(connection != null, "chyf.test.postgis not set");
+
+		Map<String, Object> params = new HashMap<>();
+		params.put("dbtype", "postgis");
+		params.put("port", 5432);
+		for (String bit : connection.split(";")) {
+			String[] kv = bit.split("=", 2);
+			if (kv[0].equalsIgnoreCase("host")) params.put("host", kv[1]);
+			else if (kv[0].equalsIgnoreCase("port")) params.put("port", Integer.valueOf(kv[1]));
+			else if (kv[0].equalsIgnoreCase("db")) params.put("database", kv[1]);
+			else if (kv[0].equalsIgnoreCase("user")) params.put("user", kv[1]);
+			else if (kv[0].equalsIgnoreCase("password")) params.put("passwd", kv[1]);
+		}
+		store = (JDBCDataStore) DataStoreFinder.getDataStore(params);
+		dataSource = store.getDataSource();
+	}
+
+	@AfterAll
+	static void tearDown() throws Exception {
+		if (store == null) return;
+		execute("DROP SCHEMA IF EXISTS " + SCHEMA + " CASCADE");
+		store.dispose();
+	}
+
+	@BeforeEach
+	void createTable() throws Exception {
+		execute("DROP SCHEMA IF EXISTS " + SCHEMA + " CASCADE");
+		execute("CREATE SCHEMA " + SCHEMA);
+		//as created by init_database.sql before the work queue columns
+		execute("CREATE TABLE " + AOI_TABLE + "(id uuid primary key, name varchar unique, "
+				+ "geometry geometry(POLYGON, 4326) NOT NULL, status varchar not null default 'READY', "
+				+ "processing_start_datetime timestamp, processing_end_datetime timestamp, processing_parameters varchar)");
+	}
+
+	@Test
+	void testConcurrentClaims() throws Exception {
+		int numAois = 60;
+		for (int i = 0; i < numAois; i ++) addAoi("aoi" + i, 1, null);
+
+		Map<String, String> claimedBy = new ConcurrentHashMap<>();
+		AtomicInteger duplicates = new AtomicInteger();
+
+		int numWorkers = 8;
+		ExecutorService workers = Executors.newFixedThreadPool(numWorkers);
+		try {
+			List<Future<?>> results = new ArrayList<>();
+			for (int w = 0; w < numWorkers; w ++) {
+				String workerId = "worker" + w;
+				results.add(workers.submit(()->{
+					try(AoiWorkQueue queue = new AoiWorkQueue(dataSource, AOI_TABLE, workerId)){
+						AoiWorkQueue.Claim claim;
+						while((claim = queue.claim(ProcessingState.READY, ProcessingState.FP_PROCESSING)) != null) {
+							if (claimedBy.putIfAbsent(claim.getName(), workerId) != null) duplicates.incrementAndGet();
+							Thread.sleep(5);
+							setStatus(claim.getId(), ProcessingState.FP_DONE);
+						}
+					}
+					return null;
+				}));
+			}
+			for (Future<?> f : results) f.get();
+		}finally {
+			workers.shutdownNow();
+		}
+
+		assertEquals(0, duplicates.get());
+		assertEquals(numAois, claimedBy.size());
+		assertEquals(numAois, count("status = 'FP_DONE' AND worker_id IS NULL AND lease_expiry IS NULL"));
+	}
+
+	@Test
+	void testExpiredLeaseReclaimed() throws Exception {
+		addAoi("aoi1", 1, null);
+
+		try(AoiWorkQueue crashed = new AoiWorkQueue(dataSource, AOI_TABLE, "crashed");
+				AoiWorkQueue other = new AoiWorkQueue(dataSource, AOI_TABLE, "other")){
+			AoiWorkQueue.Claim claim = crashed.claim(ProcessingState.READY, ProcessingState.FP_PROCESSING);
+			assertNotNull(claim);
+			assertNull(other.claim(ProcessingState.READY, ProcessingState.FP_PROCESSING));
+
+			//worker stopped sending heartbeats
+			execute("UPDATE " + AOI_TABLE + " SET lease_expiry = now() - interval '1 second'");
+
+			AoiWorkQueue.Claim reclaimed = other.claim(ProcessingState.READY, ProcessingState.FP_PROCESSING);
+			assertNotNull(reclaimed);
+			assertEquals(claim.getId(), reclaimed.getId());
+			assertFalse(crashed.heartbeat());
+			assertTrue(crashed.isLeaseLost());
+			assertThrows(IOException.class, crashed::checkLease);
+			assertTrue(other.heartbeat());
+			other.checkLease();
+		}
+	}
+
+	@Test
+	void testHeartbeatKeepsLease() throws Exception {
+		addAoi("aoi1", 1, null);
+
+		try(AoiWorkQueue worker = new AoiWorkQueue(dataSource, AOI_TABLE, "worker");
+				AoiWorkQueue other = new AoiWorkQueue(dataSource, AOI_TABLE, "other")){
+			worker.setLease(Duration.ofMillis(600));
+			assertNotNull(worker.claim(ProcessingState.READY, ProcessingState.FP_PROCESSING));
+
+			//several lease durations
+			Thread.sleep(2000);
+			assertNull(other.claim(ProcessingState.READY, ProcessingState.FP_PROCESSING));
+
+			//released while still processing
+			worker.release();
+			assertNotNull(other.claim(ProcessingState.READY, ProcessingState.FP_PROCESSING), "Released aoi should be reclaimed");
+		}
+	}
+
+	@Test
+	void testNoLeaseReclaimed() throws Exception {
+		addAoi("aoi1", 1, null);
+		//processing before the work queue columns existed
+		execute("UPDATE " + AOI_TABLE + " SET status = 'FP_PROCESSING'");
+
+		try(AoiWorkQueue worker = new AoiWorkQueue(dataSource, AOI_TABLE, "worker")){
+			assertNotNull(worker.claim(ProcessingState.READY, ProcessingState.FP_PROCESSING));
+			assertEquals(1, count("worker_id = 'worker' AND lease_expiry IS NOT NULL"));
+		}
+	}
+
+	@Test
+	void testPriorityOrder() throws Exception {
+		addAoi("small", 1, null);
+		addAoi("large", 10, null);
+		addAoi("medium", 5, null);
+		addAoi("priority", 1, 100.0);
+
+		List<String> order = new ArrayList<>();
+		try(AoiWorkQueue queue = new AoiWorkQueue(dataSource, AOI_TABLE, "worker")){
+			AoiWorkQueue.Claim claim;
+			while((claim = queue.claim(ProcessingState.READY, ProcessingState.FP_PROCESSING)) != null) {
+				order.add(claim.getName());
+				setStatus(claim.getId(), ProcessingState.FP_DONE);
+			}
+		}
+		assertEquals(List.of("priority", "large", "medium", "small"), order);
+	}
+
+	private static void addAoi(String name, double size, Double priority) throws SQLException {
+		//priority column is only added once a queue has connected
+		execute("ALTER TABLE " + AOI_TABLE + " ADD COLUMN IF NOT EXISTS priority double precision");
+		try(Connection c = dataSource.getConnection();
+				PreparedStatement ps = c.prepareStatement("INSERT INTO " + AOI_TABLE + " (id, name, geometry, priority) VALUES (?, ?, ST_MakeEnvelope(0, 0, ?, ?, 4326), ?)")){
+			ps.setObject(1, UUID.randomUUID());
+			ps.setString(2, name);
+			ps.setDouble(3, size);
+			ps.setDouble(4, size);
+			if (priority == null) {
+				ps.setNull(5, Types.DOUBLE);
+			}else {
+				ps.setDouble(5, priority);
+			}
+			ps.executeUpdate();
+		}
+	}
+
+	private static void setStatus(UUID id, ProcessingState state) throws SQLException {
+		try(Connection c = dataSource.getConnection();
+				PreparedStatement ps = c.prepareStatement("UPDATE " + AOI_TABLE + " SET status = ? WHERE id = ?")){
+			ps.setString(1, state.name());
+			ps.setObject(2, id);
+			ps.executeUpdate();
+		}
+	}
+
+	private static int count(String where) throws SQLException {
+		try(Connection c = dataSource.getConnection();
+				Statement s = c.createStatement();
+				ResultSet rs = s.executeQuery("SELECT count(*) FROM " + AOI_TABLE + " WHERE " + where)){
+			rs.next();
+			return rs.getInt(1);
+		}
+	}
+
+	private static void execute(String sql) throws SQLException {
+		try(Connection c = dataSource.getConnection();
+				Statement s = c.createStatement()){
+			s.execute(sql);
+		}
+	}
+}
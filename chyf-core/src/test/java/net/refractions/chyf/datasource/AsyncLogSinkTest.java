@@ -0,0 +1,126 @@
+/*******************************************************************************
+ * Copyright 2020 Government of Canada
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package net.refractions.chyf.datasource;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.jupiter.api.Test;
+
+class AsyncLogSinkTest {
+
+	@Test
+	void testConcurrentLogging() throws Exception {
+		List<String> written = Collections.synchronizedList(new ArrayList<>());
+		List<Integer> batches = Collections.synchronizedList(new ArrayList<>());
+
+		AsyncLogSink sink = new AsyncLogSink(items->{
+			batches.add(items.size());
+			for (AsyncLogSink.LogItem item : items) written.add(item.getMessage());
+		}, 50, 0, 200);
+
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			List<Future<?>> results = new ArrayList<>();
+			for (int t = 0; t < 4; t ++) {
+				int thread = t;
+				results.add(executor.submit(()->{
+					for (int i = 0; i < 2500; i ++) sink.log("ERROR", null, thread + ":" + i, "TEST");
+					return null;
+				}));
+			}
+			for (Future<?> f : results) f.get();
+		}finally {
+			executor.shutdownNow();
+		}
+		sink.close();
+
+		assertEquals(10000, written.size());
+		assertEquals(10000, new HashSet<>(written).size());
+		for (int size : batches) assertTrue(size <= 50);
+	}
+
+	@Test
+	void testFlushInterval() throws Exception {
+		List<String> written = Collections.synchronizedList(new ArrayList<>());
+		try(AsyncLogSink sink = new AsyncLogSink(items->{
+				for (AsyncLogSink.LogItem item : items) written.add(item.getMessage());
+			}, 50, 100, 200)){
+			sink.log("WARNING", null, "message", "TEST");
+			Thread.sleep(500);
+			assertEquals(List.of("message"), written);
+		}
+	}
+
+	@Test
+	void testFlush() throws Exception {
+		List<String> written = Collections.synchronizedList(new ArrayList<>());
+		try(AsyncLogSink sink = new AsyncLogSink(items->{
+				for (AsyncLogSink.LogItem item : items) written.add(item.getMessage());
+			}, 50, 0, 200)){
+			sink.log("WARNING", null, "message", "TEST");
+			assertTrue(written.isEmpty());
+			sink.flush();
+			assertEquals(List.of("message"), written);
+		}
+	}
+
+	@Test
+	void testFailure() throws Exception {
+		AsyncLogSink sink = new AsyncLogSink(items->{
+			throw new IOException("failed");
+		}, 2, 0, 4);
+		sink.log("ERROR", null, "1", "TEST");
+		sink.log("ERROR", null, "2", "TEST");
+		Thread.sleep(200);
+		assertThrows(IOException.class, ()->sink.log("ERROR", null, "3", "TEST"));
+		//the failed batch is written again and still fails
+		assertThrows(IOException.class, sink::close);
+		assertThrows(IOException.class, ()->sink.log("ERROR", null, "4", "TEST"));
+	}
+
+	@Test
+	void testFailedBatchRetried() throws Exception {
+		List<String> written = Collections.synchronizedList(new ArrayList<>());
+		boolean[] fail = {true};
+		try(AsyncLogSink sink = new AsyncLogSink(items->{
+				if (fail[0]) {
+					fail[0] = false;
+					throw new IOException("failed");
+				}
+				for (AsyncLogSink.LogItem item : items) written.add(item.getMessage());
+			}, 2, 0, 4)){
+			sink.log("ERROR", null, "1", "TEST");
+			sink.log("ERROR", null, "2", "TEST");
+			Thread.sleep(200);
+			assertTrue(written.isEmpty());
+			//the failed batch is written by flush
+			sink.flush();
+			assertEquals(List.of("1", "2"), written);
+			sink.log("ERROR", null, "3", "TEST");
+			sink.flush();
+			assertEquals(List.of("1", "2", "3"), written);
+		}
+	}
+}
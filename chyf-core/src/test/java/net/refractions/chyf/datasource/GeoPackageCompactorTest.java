@@ -0,0 +1,216 @@
+/*******************************************************************************
+ * Copyright 2020 Government of Canada
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package net.refractions.chyf.datasource;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.geotools.data.DataUtilities;
+import org.geotools.data.DefaultTransaction;
+import org.geotools.data.Transaction;
+import org.geotools.data.simple.SimpleFeatureReader;
+import org.geotools.data.simple.SimpleFeatureWriter;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.geotools.geopkg.FeatureEntry;
+import org.geotools.geopkg.GeoPackage;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.filter.Filter;
+
+/**
+ * Tests the Hilbert curve order and compacting a geopackage layer written
+ * in random order.
+ */
+class GeoPackageCompactorTest {
+
+	private static final GeometryFactory gf = new GeometryFactory();
+
+	@Test
+	void testHilbertIndex() {
+		for (int order = 1; order <= 6; order ++) {
+			int n = 1 << order;
+			long[][] cells = new long[n * n][];
+			for (int x = 0; x < n; x ++) {
+				for (int y = 0; y < n; y ++) {
+					int d = (int) GeoPackageCompactor.hilbertIndex(order, x, y);
+					assertNull(cells[d]);
+					cells[d] = new long[] {x, y};
+				}
+			}
+			//each cell is next to the previous cell
+			for (int i = 1; i < cells.length; i ++) {
+				assertEquals(1, Math.abs(cells[i][0] - cells[i - 1][0]) + Math.abs(cells[i][1] - cells[i - 1][1]));
+			}
+		}
+	}
+
+	@Test
+	void testCompact(@TempDir Path dir) throws Exception {
+		SimpleFeatureType type = DataUtilities.createType("edges", "geom:LineString:srid=4326,lineId:Integer");
+		SimpleFeatureBuilder builder = new SimpleFeatureBuilder(type);
+
+		//random walks in random order; 20000 lines of 20 vertices
+		Random r = new Random(1);
+		List<SimpleFeature> features = new ArrayList<>();
+		Map<Integer, Geometry> expected = new HashMap<>();
+		for (int line = 0; line < 20000; line ++) {
+			Coordinate[] cs = new Coordinate[20];
+			double x = r.nextDouble() * 10;
+			double y = r.nextDouble() * 10;
+			for (int i = 0; i < cs.length; i ++) {
+				x += (r.nextDouble() - 0.5) * 0.001;
+				y += (r.nextDouble() - 0.5) * 0.001;
+				cs[i] = new Coordinate(x, y);
+			}
+			Geometry g = gf.createLineString(cs);
+			builder.set("geom", g);
+			builder.set("lineId", line);
+			features.add(builder.buildFeature(null));
+			expected.put(line, g);
+		}
+
+		GeoPackage geopkg = new GeoPackage(dir.resolve("edges.gpkg").toFile());
+		try {
+			geopkg.init();
+			FeatureEntry entry = new FeatureEntry();
+			entry.setTableName("edges");
+			entry.setM(false);
+			geopkg.add(entry, DataUtilities.collection(features));
+			geopkg.createSpatialIndex(entry);
+			FeatureEntry fe = geopkg.feature("edges");
+
+			int triggers = count(geopkg, "SELECT count(*) FROM sqlite_master WHERE type = 'trigger' AND tbl_name = 'edges'");
+			assertTrue(triggers > 0);
+			double before = meanDistance(geopkg);
+
+			List<GeoPackageCompactor.TableResult> results;
+			try(Connection c = geopkg.getDataSource().getConnection()){
+				GeoPackageCompactor compactor = new GeoPackageCompactor(c);
+				compactor.setQueryCount(GeoPackageCompactor.DEFAULT_QUERY_COUNT);
+				results = compactor.compact();
+			}
+
+			GeoPackageCompactor.TableResult result = results.stream().filter(t->t.getTable().equals("edges")).findFirst().get();
+			assertEquals(20000, result.getFeatures());
+			assertTrue(result.isRewritten());
+			assertEquals(GeoPackageCompactor.DEFAULT_QUERY_COUNT, result.getQueries());
+
+			//same features, renumbered from 1 and in spatial order
+			assertEquals(triggers, count(geopkg, "SELECT count(*) FROM sqlite_master WHERE type = 'trigger' AND tbl_name = 'edges'"));
+			assertEquals(1, count(geopkg, "SELECT min(fid) FROM edges"));
+			assertEquals(20000, count(geopkg, "SELECT max(fid) FROM edges"));
+			assertEquals(20000, count(geopkg, "SELECT count(*) FROM rtree_edges_geom"));
+			assertTrue(meanDistance(geopkg) < before / 10);
+			try(SimpleFeatureReader reader = geopkg.reader(fe, Filter.INCLUDE, null)){
+				int cnt = 0;
+				while(reader.hasNext()) {
+					SimpleFeature sf = reader.next();
+					assertTrue(expected.get(sf.getAttribute("lineId")).equalsExact((Geometry)sf.getDefaultGeometry()));
+					cnt++;
+				}
+				assertEquals(20000, cnt);
+			}
+
+			//the rebuilt index finds the same features as a scan
+			Envelope env = new Envelope(2, 4, 2, 4);
+			int indexed = 0;
+			int scanned = 0;
+			try(GeoPackageGeometryReader reader = new GeoPackageGeometryReader(geopkg.getDataSource().getConnection(), fe, env, null, new String[] {}, gf)){
+				//the rtree stores float envelopes rounded outwards
+				while(reader.next()) {
+					if (reader.getGeometry().getEnvelopeInternal().intersects(env)) indexed ++;
+				}
+			}
+			for (Geometry g : expected.values()) {
+				if (g.getEnvelopeInternal().intersects(env)) scanned ++;
+			}
+			assertTrue(scanned > 0);
+			assertEquals(scanned, indexed);
+
+			//compacting again leaves the features in place; no queries are measured by default
+			try(Connection c = geopkg.getDataSource().getConnection()){
+				results = new GeoPackageCompactor(c).compact();
+			}
+			result = results.stream().filter(t->t.getTable().equals("edges")).findFirst().get();
+			assertFalse(result.isRewritten());
+			assertEquals(0, result.getQueries());
+			assertEquals(-1, result.getQueryTimeBefore());
+			assertEquals(-1, result.getQueryTimeAfter());
+
+			//the restored triggers maintain the index
+			try(Transaction tx = new DefaultTransaction()){
+				try(SimpleFeatureWriter writer = geopkg.writer(fe, true, Filter.EXCLUDE, tx)){
+					SimpleFeature sf = writer.next();
+					sf.setAttribute("lineId", -1);
+					sf.setDefaultGeometry(gf.createLineString(new Coordinate[] {new Coordinate(20, 20), new Coordinate(21, 21)}));
+					writer.write();
+					tx.commit();
+				}
+			}
+			assertEquals(20001, count(geopkg, "SELECT count(*) FROM rtree_edges_geom"));
+			assertEquals(1, count(geopkg, "SELECT count(*) FROM rtree_edges_geom WHERE minx >= 20"));
+		}finally {
+			geopkg.close();
+		}
+	}
+
+	private int count(GeoPackage geopkg, String sql) throws Exception {
+		try(Connection c = geopkg.getDataSource().getConnection();
+				Statement s = c.createStatement();
+				ResultSet rs = s.executeQuery(sql)){
+			assertTrue(rs.next());
+			return rs.getInt(1);
+		}
+	}
+
+	/*
+	 * mean distance between the envelope centres of features with consecutive ids
+	 */
+	private double meanDistance(GeoPackage geopkg) throws Exception {
+		GeoPackageGeometryDecoder decoder = new GeoPackageGeometryDecoder();
+		double total = 0;
+		int cnt = 0;
+		try(Connection c = geopkg.getDataSource().getConnection();
+				Statement s = c.createStatement();
+				ResultSet rs = s.executeQuery("SELECT geom FROM edges ORDER BY fid")){
+			Coordinate last = null;
+			while(rs.next()) {
+				Coordinate centre = decoder.decode(rs.getBytes(1)).getEnvelopeInternal().centre();
+				if (last != null) {
+					total += last.distance(centre);
+					cnt ++;
+				}
+				last = centre;
+			}
+		}
+		return total / cnt;
+	}
+}
@@ -0,0 +1,206 @@
+/*******************************************************************************
+ * Copyright 2020 Government of Canada
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package net.refractions.chyf.datasource;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import org.geotools.data.DataUtilities;
+import org.geotools.data.simple.SimpleFeatureReader;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.geotools.geopkg.FeatureEntry;
+import org.geotools.geopkg.GeoPackage;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.LineString;
+import org.locationtech.jts.geom.impl.PackedCoordinateSequence;
+import org.locationtech.jts.io.WKBWriter;
+import org.locationtech.jts.io.WKTReader;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+
+/**
+ * Tests decoding GeoPackage geometries and compares reading a layer with
+ * {@link GeoPackageGeometryReader} against the GeoTools feature reader.
+ */
+class GeoPackageGeometryReaderTest {
+
+	private static final GeometryFactory gf = new GeometryFactory();
+
+	@Test
+	void testDecode() throws Exception {
+		String[] wkts = new String[] {
+			"POINT (1 2)",
+			"POINT Z (1 2 3)",
+			"POINT EMPTY",
+			"LINESTRING (0 0, 1 1, 2 0)",
+			"LINESTRING Z (0 0 1, 1 1 2, 2 0 3)",
+			"POLYGON ((0 0, 10 0, 10 10, 0 10, 0 0), (1 1, 2 1, 2 2, 1 1))",
+			"POLYGON EMPTY",
+			"MULTIPOINT ((1 1), (2 2))",
+			"MULTILINESTRING ((0 0, 1 1), (2 2, 3 3, 4 4))",
+			"MULTIPOLYGON (((0 0, 1 0, 1 1, 0 0)), ((5 5, 6 5, 6 6, 5 5)))",
+			"GEOMETRYCOLLECTION (POINT (1 1), LINESTRING (0 0, 1 1))",
+		};
+		GeoPackageGeometryDecoder decoder = new GeoPackageGeometryDecoder();
+		WKTReader reader = new WKTReader();
+		for (String wkt : wkts) {
+			Geometry expected = reader.read(wkt);
+			int dimension = wkt.contains(" Z ") ? 3 : 2;
+			for (int order : new int[] {WKBWriter.wkbXDR, WKBWriter.wkbNDR}) {
+				for (boolean envelope : new boolean[] {true, false}) {
+					byte[] blob = toGeoPackage(expected, dimension, order, envelope);
+					Geometry actual = decoder.decode(blob);
+					assertTrue(expected.equalsExact(actual), wkt);
+					assertEquals(expected.getGeometryType(), actual.getGeometryType());
+					if (envelope && !expected.isEmpty()) assertEquals(expected.getEnvelopeInternal(), GeoPackageGeometryDecoder.decodeEnvelope(blob));
+					if (!envelope) assertNull(GeoPackageGeometryDecoder.decodeEnvelope(blob));
+				}
+			}
+		}
+
+		LineString ls = (LineString) decoder.decode(toGeoPackage(reader.read("LINESTRING Z (0 0 1, 1 1 2)"), 3, WKBWriter.wkbNDR, true));
+		assertTrue(ls.getCoordinateSequence() instanceof PackedCoordinateSequence.Double);
+		assertEquals(3, ls.getCoordinateSequence().getDimension());
+		assertEquals(2, ls.getCoordinateSequence().getOrdinate(1, 2));
+
+		assertNull(decoder.decode(null));
+		assertThrows(java.io.IOException.class, ()->decoder.decode(new byte[] {1, 2, 3}));
+	}
+
+	@Test
+	void testReadLayer(@TempDir Path dir) throws Exception {
+		SimpleFeatureType type = DataUtilities.createType("edges", "geom:LineString:srid=4326,drainageId:Integer,waterSide:String");
+		SimpleFeatureBuilder builder = new SimpleFeatureBuilder(type);
+
+		//random walks; 20000 lines of 50 vertices
+		Random r = new Random(1);
+		List<SimpleFeature> features = new ArrayList<>();
+		for (int line = 0; line < 20000; line ++) {
+			Coordinate[] cs = new Coordinate[50];
+			double x = r.nextDouble() * 10;
+			double y = r.nextDouble() * 10;
+			for (int i = 0; i < cs.length; i ++) {
+				x += (r.nextDouble() - 0.5) * 0.001;
+				y += (r.nextDouble() - 0.5) * 0.001;
+				cs[i] = new Coordinate(x, y);
+			}
+			builder.set("geom", gf.createLineString(cs));
+			builder.set("drainageId", line % 7 == 0 ? null : line);
+			builder.set("waterSide", line % 2 == 0 ? "left" : "right");
+			features.add(builder.buildFeature(null));
+		}
+
+		GeoPackage geopkg = new GeoPackage(dir.resolve("edges.gpkg").toFile());
+		try {
+			geopkg.init();
+			FeatureEntry entry = new FeatureEntry();
+			entry.setTableName("edges");
+			entry.setM(false);
+			geopkg.add(entry, DataUtilities.collection(features));
+			geopkg.createSpatialIndex(entry);
+			FeatureEntry fe = geopkg.feature("edges");
+
+			//all features
+			List<Object[]> expected = readFeatures(geopkg, fe, null);
+			List<Object[]> actual = readDirect(geopkg, fe, null);
+			assertSameFeatures(expected, actual);
+
+			//bounds; the feature reader filters by exact intersection
+			Envelope env = new Envelope(2, 4, 2, 4);
+			Geometry area = gf.toGeometry(env);
+			expected = readFeatures(geopkg, fe, env);
+			actual = readDirect(geopkg, fe, env);
+			actual.removeIf(o->!area.intersects((Geometry)o[0]));
+			assertFalse(expected.isEmpty());
+			assertSameFeatures(expected, actual);
+		}finally {
+			geopkg.close();
+		}
+	}
+
+	private void assertSameFeatures(List<Object[]> expected, List<Object[]> actual) {
+		assertEquals(expected.size(), actual.size());
+		//readers may return features in a different order
+		Comparator<Object[]> order = Comparator.comparingDouble(o->((Geometry)o[0]).getCoordinate().x);
+		expected.sort(order);
+		actual.sort(order);
+		for (int i = 0; i < expected.size(); i ++) {
+			assertTrue(((Geometry)expected.get(i)[0]).equalsExact((Geometry)actual.get(i)[0]));
+			assertEquals(expected.get(i)[1], actual.get(i)[1]);
+			assertEquals(expected.get(i)[2], actual.get(i)[2]);
+		}
+	}
+
+	private List<Object[]> readFeatures(GeoPackage geopkg, FeatureEntry fe, Envelope env) throws Exception {
+		List<Object[]> items = new ArrayList<>();
+		try(SimpleFeatureReader reader = geopkg.reader(fe, env == null ? null : ChyfDataSource.ff.intersects(ChyfDataSource.ff.property("geom"), ChyfDataSource.ff.literal(gf.toGeometry(env))), null)){
+			while(reader.hasNext()) {
+				SimpleFeature sf = reader.next();
+				items.add(new Object[] {sf.getDefaultGeometry(), sf.getAttribute("drainageId"), sf.getAttribute("waterSide")});
+			}
+		}
+		return items;
+	}
+
+	private List<Object[]> readDirect(GeoPackage geopkg, FeatureEntry fe, Envelope env) throws Exception {
+		List<Object[]> items = new ArrayList<>();
+		try(GeoPackageGeometryReader reader = new GeoPackageGeometryReader(geopkg.getDataSource().getConnection(), fe, env, null, new String[] {"drainageId", "waterSide"}, gf)){
+			while(reader.next()) {
+				items.add(new Object[] {reader.getGeometry(), reader.getInteger(0), reader.getString(1)});
+			}
+		}
+		return items;
+	}
+
+	/*
+	 * geopackage binary header followed by wkb
+	 */
+	private static byte[] toGeoPackage(Geometry g, int dimension, int byteOrder, boolean envelope) {
+		byte[] wkb = new WKBWriter(dimension, byteOrder).write(g);
+		boolean hasEnvelope = envelope && !g.isEmpty();
+		ByteBuffer buffer = ByteBuffer.allocate(8 + (hasEnvelope ? 32 : 0) + wkb.length);
+		buffer.order(byteOrder == WKBWriter.wkbNDR ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN);
+		buffer.put((byte)'G');
+		buffer.put((byte)'P');
+		buffer.put((byte)0);
+		int flags = byteOrder == WKBWriter.wkbNDR ? 1 : 0;
+		if (hasEnvelope) flags |= 1 << 1;
+		if (g.isEmpty()) flags |= 1 << 4;
+		buffer.put((byte)flags);
+		buffer.putInt(4326);
+		if (hasEnvelope) {
+			Envelope env = g.getEnvelopeInternal();
+			buffer.putDouble(env.getMinX());
+			buffer.putDouble(env.getMaxX());
+			buffer.putDouble(env.getMinY());
+			buffer.putDouble(env.getMaxY());
+		}
+		buffer.put(wkb);
+		return buffer.array();
+	}
+}
@@ -0,0 +1,132 @@
+/*******************************************************************************
+ * Copyright 2020 Government of Canada
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package net.refractions.chyf.datasource;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.geotools.data.DataUtilities;
+import org.geotools.data.simple.SimpleFeatureReader;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.junit.jupiter.api.Test;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.LineString;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+
+class LayerSnapshotTest {
+
+	private static final GeometryFactory gf = new GeometryFactory();
+
+	@Test
+	void testQuery() throws Exception {
+		SimpleFeatureType type = DataUtilities.createType("flowpaths", "the_geom:LineString,ef_type:Integer");
+		SimpleFeatureBuilder builder = new SimpleFeatureBuilder(type);
+		List<SimpleFeature> features = new ArrayList<>();
+		for (int i = 0; i < 100; i ++) {
+			//diagonal lines so envelope candidates are not all intersections
+			builder.set("the_geom", gf.createLineString(new Coordinate[] {new Coordinate(i, 0), new Coordinate(i + 10, 10)}));
+			builder.set("ef_type", i % 2 == 0 ? 1 : 2);
+			features.add(builder.buildFeature("flowpaths." + i));
+		}
+		LayerSnapshot snapshot = new LayerSnapshot(reader(type, features));
+		assertEquals(100, snapshot.size());
+
+		assertEquals(ids(features), ids(read(snapshot.query(null, null))));
+
+		//brute force
+		Envelope env = new Envelope(20, 25, 0, 1);
+		Geometry area = gf.toGeometry(env);
+		List<SimpleFeature> expected = new ArrayList<>();
+		for (SimpleFeature sf : features) {
+			if (area.intersects((Geometry)sf.getDefaultGeometry())) expected.add(sf);
+		}
+		assertFalse(expected.isEmpty());
+		assertEquals(ids(expected), ids(read(snapshot.query(env, null))));
+
+		List<SimpleFeature> filtered = read(snapshot.query(env, ChyfDataSource.ff.equals(ChyfDataSource.ff.property("ef_type"), ChyfDataSource.ff.literal(1))));
+		expected.removeIf(sf->!sf.getAttribute("ef_type").equals(1));
+		assertEquals(ids(expected), ids(filtered));
+	}
+
+	@Test
+	void testFeaturesAreCopies() throws Exception {
+		SimpleFeatureType type = DataUtilities.createType("flowpaths", "the_geom:LineString,ef_type:Integer");
+		SimpleFeatureBuilder builder = new SimpleFeatureBuilder(type);
+		Geometry g = gf.createLineString(new Coordinate[] {new Coordinate(0, 0), new Coordinate(1, 1)});
+		g.setSRID(4617);
+		g.setUserData("original");
+		builder.set("the_geom", g);
+		builder.set("ef_type", 1);
+		LayerSnapshot snapshot = new LayerSnapshot(reader(type, List.of(builder.buildFeature("flowpaths.1"))));
+
+		SimpleFeature first = read(snapshot.query(null, null)).get(0);
+		assertEquals(4617, ((Geometry)first.getDefaultGeometry()).getSRID());
+		assertEquals("original", ((Geometry)first.getDefaultGeometry()).getUserData());
+		((Geometry)first.getDefaultGeometry()).setUserData("modified");
+		((LineString)first.getDefaultGeometry()).getCoordinateN(0).x = 5;
+		first.setAttribute("ef_type", 2);
+
+		SimpleFeature second = read(snapshot.query(null, null)).get(0);
+		assertEquals("original", ((Geometry)second.getDefaultGeometry()).getUserData());
+		assertEquals(4617, ((Geometry)second.getDefaultGeometry()).getSRID());
+		assertEquals(0, ((LineString)second.getDefaultGeometry()).getCoordinateN(0).x);
+		assertEquals(1, second.getAttribute("ef_type"));
+		assertEquals("flowpaths.1", second.getID());
+	}
+
+	private static List<String> ids(List<SimpleFeature> features){
+		List<String> ids = new ArrayList<>();
+		for (SimpleFeature sf : features) ids.add(sf.getID());
+		return ids;
+	}
+
+	private static List<SimpleFeature> read(SimpleFeatureReader reader) throws IOException{
+		List<SimpleFeature> features = new ArrayList<>();
+		try(reader){
+			while(reader.hasNext()) features.add(reader.next());
+		}
+		return features;
+	}
+
+	private static SimpleFeatureReader reader(SimpleFeatureType type, List<SimpleFeature> features) {
+		Iterator<SimpleFeature> it = features.iterator();
+		return new SimpleFeatureReader() {
+			@Override
+			public SimpleFeatureType getFeatureType() {
+				return type;
+			}
+			@Override
+			public SimpleFeature next() {
+				return it.next();
+			}
+			@Override
+			public boolean hasNext() {
+				return it.hasNext();
+			}
+			@Override
+			public void close() {
+			}
+		};
+	}
+}
@@ -0,0 +1,167 @@
+/*******************************************************************************
+ * Copyright 2020 Government of Canada
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package net.refractions.chyf.datasource;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.geotools.data.DataStore;
+import org.geotools.data.DataStoreFinder;
+import org.geotools.data.Transaction;
+import org.geotools.jdbc.JDBCDataStore;
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests the shared connection pool and compares parallel workers running
+ * the aoi state update with the pool against creating a datastore for
+ * each update.
+ *
+ * The database is given by the chyf.test.postgis system property; the
+ * database tests are skipped if it is not set.  The tests create and drop
+ * the pool_test schema.
+ */
+class PostGisConnectionPoolTest {
+
+	private static final String SCHEMA = "pool_test";
+	private static final int WORKERS = 8;
+	private static final int UPDATES = 50;
+
+	@Test
+	void testParseConnectionString() {
+		Map<String, Object> params = PostGisConnectionPool.parseConnectionString("host=localhost;port=5433;db=chyf;user=me;password=secret");
+		assertEquals("postgis", params.get("dbtype"));
+		assertEquals("localhost", params.get("host"));
+		assertEquals(5433, params.get("port"));
+		assertEquals("chyf", params.get("database"));
+		assertEquals("me", params.get("user"));
+		assertEquals("secret", params.get("passwd"));
+
+		params = PostGisConnectionPool.parseConnectionString("host=localhost;db=chyf;user=me");
+		assertEquals(5432, params.get("port"));
+		assertNull(params.get("passwd"));
+	}
+
+	@Test
+	void testPool() throws Exception {
+		String connection = System.getProperty("chyf.test.postgis");
+		Assumptions.assumeTrue(connection != null, "chyf.test.postgis not set");
+
+		try(PostGisConnectionPool pool = new PostGisConnectionPool(connection)){
+			try(Connection c = pool.getConnection(); Statement s = c.createStatement()){
+				s.execute("DROP SCHEMA IF EXISTS " + SCHEMA + " CASCADE");
+				s.execute("CREATE SCHEMA " + SCHEMA);
+				s.execute("CREATE TABLE " + SCHEMA + ".aoi (id integer primary key, status varchar)");
+				s.execute("INSERT INTO " + SCHEMA + ".aoi SELECT i, 'READY' FROM generate_series(0, " + (WORKERS - 1) + ") i");
+			}
+			try {
+				DataStore store = pool.getDataStore(SCHEMA);
+				assertSame(store, pool.getDataStore(SCHEMA));
+				assertTrue(store.getTypeNames().length > 0);
+
+				//resetting a datastore must not close the shared connections
+				pool.resetDataStore(SCHEMA);
+				DataStore store2 = pool.getDataStore(SCHEMA);
+				assertNotSame(store, store2);
+				try(Connection c = ((JDBCDataStore)store2).getConnection(Transaction.AUTO_COMMIT);
+						Statement s = c.createStatement();
+						ResultSet rs = s.executeQuery("SELECT count(*) FROM " + SCHEMA + ".aoi")){
+					assertTrue(rs.next());
+					assertEquals(WORKERS, rs.getInt(1));
+				}
+
+				String sql = "UPDATE " + SCHEMA + ".aoi SET status = ? WHERE id = ?";
+
+				runWorkers(id->{
+					for (int i = 0; i < UPDATES; i ++) {
+						try(Connection c = pool.getConnection();
+								PreparedStatement ps = c.prepareStatement(sql)){
+							ps.setString(1, "STATE" + i);
+							ps.setInt(2, id);
+							assertEquals(1, ps.executeUpdate());
+						}
+					}
+					return null;
+				});
+				assertEquals(WORKERS, countStatus(pool, "STATE" + (UPDATES - 1)));
+
+				//previous behaviour; a datastore (and connection pool) per update
+				Map<String, Object> params = PostGisConnectionPool.parseConnectionString(connection);
+				params.put("schema", SCHEMA);
+				runWorkers(id->{
+					for (int i = 0; i < UPDATES; i ++) {
+						DataStore ds = DataStoreFinder.getDataStore(params);
+						try(Connection c = ((JDBCDataStore)ds).getConnection(Transaction.AUTO_COMMIT);
+								PreparedStatement ps = c.prepareStatement(sql)){
+							ps.setString(1, "UNPOOLED" + i);
+							ps.setInt(2, id);
+							assertEquals(1, ps.executeUpdate());
+						}finally {
+							ds.dispose();
+						}
+					}
+					return null;
+				});
+
+				assertEquals(WORKERS, countStatus(pool, "UNPOOLED" + (UPDATES - 1)));
+			}finally {
+				try(Connection c = pool.getConnection(); Statement s = c.createStatement()){
+					s.execute("DROP SCHEMA IF EXISTS " + SCHEMA + " CASCADE");
+				}
+			}
+		}
+	}
+
+	private interface Worker {
+		Void run(int id) throws Exception;
+	}
+
+	private int countStatus(PostGisConnectionPool pool, String status) throws Exception {
+		try(Connection c = pool.getConnection();
+				PreparedStatement ps = c.prepareStatement("SELECT count(*) FROM " + SCHEMA + ".aoi WHERE status = ?")){
+			ps.setString(1, status);
+			try(ResultSet rs = ps.executeQuery()){
+				assertTrue(rs.next());
+				return rs.getInt(1);
+			}
+		}
+	}
+
+	private void runWorkers(Worker worker) throws Exception {
+		ExecutorService service = Executors.newFixedThreadPool(WORKERS);
+		try {
+			List<Future<Void>> results = new ArrayList<>();
+			for (int i = 0; i < WORKERS; i ++) {
+				int id = i;
+				results.add(service.submit((Callable<Void>)()->worker.run(id)));
+			}
+			for (Future<Void> f : results) f.get();
+		}finally {
+			service.shutdown();
+		}
+	}
+}
@@ -0,0 +1,128 @@
+/*******************************************************************************
+ * Copyright 2020 Government of Canada
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package net.refractions.chyf.util;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.locationtech.jts.geom.Coordinate;
+
+/**
+ * Compares the packed tree with {@link KDTree} on vertices of random
+ * polylines.
+ */
+class PackedKDTreeTest {
+
+	private static final int NUM_QUERIES = 200000;
+
+	private static List<Coordinate> items;
+	private static List<Coordinate> queries;
+
+	@BeforeAll
+	static void setUp() throws Exception {
+		//clustered vertices along random walks, similar to
+		//the constraint vertices of hydro edges
+		Random r = new Random(1);
+		items = new ArrayList<Coordinate>();
+		for (int line = 0; line < 500; line ++) {
+			double x = r.nextDouble() * 10000;
+			double y = r.nextDouble() * 10000;
+			double angle = r.nextDouble() * Math.PI * 2;
+			for (int i = 0; i < 200; i ++) {
+				angle += (r.nextDouble() - 0.5);
+				x += Math.cos(angle) * 5;
+				y += Math.sin(angle) * 5;
+				items.add(new Coordinate(x, y));
+			}
+		}
+		queries = new ArrayList<Coordinate>();
+		for (int i = 0; i < NUM_QUERIES; i ++) {
+			queries.add(new Coordinate(r.nextDouble() * 10000, r.nextDouble() * 10000));
+		}
+	}
+
+	@Test
+	void testNearest() {
+		KDTree<Coordinate> tree = new KDTree<Coordinate>(new ArrayList<>(items), c -> c);
+		PackedKDTree<Coordinate> packed = new PackedKDTree<Coordinate>(items, c -> c);
+
+		double total1 = 0;
+		for (Coordinate q : queries) {
+			total1 += q.distance(tree.query(q, 1).get(0));
+		}
+
+		double total2 = 0;
+		for (Coordinate q : queries) {
+			total2 += q.distance(packed.getItem(packed.nearest(q.getX(), q.getY())));
+		}
+
+		assertEquals(total1, total2, 0.000001);
+	}
+
+	@Test
+	void testKNearest() {
+		KDTree<Coordinate> tree = new KDTree<Coordinate>(new ArrayList<>(items), c -> c);
+		PackedKDTree<Coordinate> packed = new PackedKDTree<Coordinate>(items, c -> c);
+
+		int[] indexes = new int[10];
+		double[] distances = new double[10];
+		for (int i = 0; i < 10000; i ++) {
+			Coordinate q = queries.get(i);
+			List<Coordinate> expected = tree.query(q, 10, 50.0);
+			int cnt = packed.nearest(q.getX(), q.getY(), 50.0, indexes, distances);
+			assertEquals(expected.size(), cnt);
+			for (int j = 0; j < cnt; j ++) {
+				assertEquals(q.distance(expected.get(j)), Math.sqrt(distances[j]), 0.000001);
+				assertTrue(distances[j] < 50.0 * 50.0);
+				if (j > 0) assertTrue(distances[j] >= distances[j - 1]);
+			}
+		}
+		//no result buffer
+		assertEquals(0, packed.nearest(queries.get(0).getX(), queries.get(0).getY(), 50.0, new int[0], new double[0]));
+	}
+
+	@Test
+	void testWithin() {
+		PackedKDTree<Coordinate> packed = new PackedKDTree<Coordinate>(items, c -> c);
+
+		int[] indexes = new int[16];
+		for (int i = 0; i < 1000; i ++) {
+			Coordinate q = queries.get(i);
+			int expected = 0;
+			for (Coordinate c : items) {
+				if (q.distance(c) < 25) expected++;
+			}
+			int cnt = packed.within(q.getX(), q.getY(), 25, indexes);
+			assertEquals(expected, cnt);
+			for (int j = 0; j < Math.min(cnt, indexes.length); j ++) {
+				assertTrue(q.distance(packed.getItem(indexes[j])) < 25);
+			}
+		}
+	}
+
+	@Test
+	void testEmpty() {
+		PackedKDTree<Coordinate> packed = new PackedKDTree<Coordinate>(new ArrayList<Coordinate>(), c -> c);
+		assertEquals(-1, packed.nearest(0, 0));
+		assertEquals(0, packed.nearest(0, 0, Double.POSITIVE_INFINITY, new int[1], new double[1]));
+		assertEquals(0, packed.within(0, 0, 10, new int[1]));
+	}
+}
@@ -17,11 +17,16 @@ package net.refractions.chyf.util;
 
 import static org.junit.jupiter.api.Assertions.*;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
 import org.junit.jupiter.api.Test;
 import org.locationtech.jts.algorithm.Orientation;
 import org.locationtech.jts.geom.Coordinate;
 import org.locationtech.jts.geom.GeometryFactory;
 import org.locationtech.jts.geom.LineString;
+import org.locationtech.jts.geom.LinearRing;
 import org.locationtech.jts.geom.Polygon;
 
 class PolygonEdgeMatcherTest {
@@ -38,7 +43,96 @@ class PolygonEdgeMatcherTest {
 		Polygon rp = gf.createPolygon(revCoords);
 		testPoly(rp);
 		assertEquals(0, PolygonEdgeMatcher.compare(rp, coords[0], new Coordinate(5, 5)));
-
+		assertEquals(0, new PolygonEdgeMatcher(rp).compare(coords[0], new Coordinate(5, 5)));
+		assertEquals(PolygonEdgeMatcher.compare(p, coords[0], coords[1]), new PolygonEdgeMatcher(p).compare(new Coordinate(-0.0, 0), new Coordinate(0, 1)));
+	}
+	
+	@Test
+	void testHoles() {
+		GeometryFactory gf = new GeometryFactory();
+		Polygon p = (Polygon) gf.createPolygon(gf.createLinearRing(new Coordinate[] {
+				new Coordinate(0,0), new Coordinate(10,0), new Coordinate(10,10), new Coordinate(0,10), new Coordinate(0,0)}),
+				new LinearRing[] {gf.createLinearRing(new Coordinate[] {
+				new Coordinate(2,2), new Coordinate(2,4), new Coordinate(4,4), new Coordinate(4,2), new Coordinate(2,2)})});
+		PolygonEdgeMatcher matcher = new PolygonEdgeMatcher(p);
+		for (LineString ring : new LineString[] {p.getExteriorRing(), p.getInteriorRingN(0)}) {
+			for(int i=0; i < ring.getNumPoints()-1; i++) {
+				Coordinate c0 = ring.getCoordinateN(i);
+				Coordinate c1 = ring.getCoordinateN(i+1);
+				assertNotEquals(0, PolygonEdgeMatcher.compare(p, c0, c1));
+				assertEquals(PolygonEdgeMatcher.compare(p, c0, c1), matcher.compare(c0, c1));
+				assertEquals(PolygonEdgeMatcher.compare(p, c1, c0), matcher.compare(c1, c0));
+			}
+		}
+		//interior is to the left walking ccw around the shell and cw around the hole
+		assertEquals(-1, matcher.compare(new Coordinate(0,0), new Coordinate(10,0)));
+		assertEquals(-1, matcher.compare(new Coordinate(2,2), new Coordinate(2,4)));
+		assertEquals(1, matcher.compare(new Coordinate(2,2), new Coordinate(4,2)));
+		//diagonal of the hole is not an edge
+		assertEquals(0, matcher.compare(new Coordinate(2,2), new Coordinate(4,4)));
+	}
+	
+	/**
+	 * Compares the matcher to the static compare on a lake with many
+	 * islands.
+	 */
+	@Test
+	void testManyIslands() {
+		GeometryFactory gf = new GeometryFactory();
+		Random r = new Random(1);
+		
+		//shell of 20000 vertices, 400 islands of 50 vertices
+		LinearRing shell = gf.createLinearRing(circle(0, 0, 1000, 20000));
+		List<LinearRing> holes = new ArrayList<>();
+		for (int i = 0; i < 20; i ++) {
+			for (int j = 0; j < 20; j ++) {
+				holes.add(gf.createLinearRing(circle(-600 + i * 60, -600 + j * 60, 10 + r.nextDouble() * 10, 50)));
+			}
+		}
+		Polygon p = gf.createPolygon(shell, holes.toArray(new LinearRing[holes.size()]));
+		
+		//ring segments in both directions and segments that are not on the edge
+		List<Coordinate[]> segments = new ArrayList<>();
+		for (LineString ring : rings(p)) {
+			for (int i = 0; i < ring.getNumPoints() - 1; i ++) {
+				segments.add(new Coordinate[] {ring.getCoordinateN(i), ring.getCoordinateN(i + 1)});
+				segments.add(new Coordinate[] {ring.getCoordinateN(i + 1), ring.getCoordinateN(i)});
+				segments.add(new Coordinate[] {ring.getCoordinateN(i), new Coordinate(r.nextDouble(), r.nextDouble())});
+			}
+		}
+		
+		PolygonEdgeMatcher matcher = new PolygonEdgeMatcher(p);
+		int[] indexed = new int[segments.size()];
+		for (int i = 0; i < segments.size(); i ++) {
+			indexed[i] = matcher.compare(segments.get(i)[0], segments.get(i)[1]);
+		}
+		
+		//the static compare is too slow to run on all segments
+		int step = 50;
+		for (int i = 0; i < segments.size(); i += step) {
+			assertEquals(PolygonEdgeMatcher.compare(p, segments.get(i)[0], segments.get(i)[1]), indexed[i]);
+		}
+		
+		int onEdge = 0;
+		for (int v : indexed) if (v != 0) onEdge ++;
+		assertEquals(segments.size() * 2 / 3, onEdge);
+	}
+	
+	private static List<LineString> rings(Polygon p){
+		List<LineString> rings = new ArrayList<>();
+		rings.add(p.getExteriorRing());
+		for (int i = 0; i < p.getNumInteriorRing(); i ++) rings.add(p.getInteriorRingN(i));
+		return rings;
+	}
+	
+	private static Coordinate[] circle(double x, double y, double radius, int n) {
+		Coordinate[] cs = new Coordinate[n + 1];
+		for (int i = 0; i < n; i ++) {
+			double a = i * Math.PI * 2 / n;
+			cs[i] = new Coordinate(x + Math.cos(a) * radius, y + Math.sin(a) * radius);
+		}
+		cs[n] = cs[0];
+		return cs;
 	}
 	
 	private void testPoly(Polygon p) {
@@ -51,6 +145,9 @@ class PolygonEdgeMatcherTest {
 				assertEquals(1, PolygonEdgeMatcher.compare(p, ring.getCoordinateN(i), ring.getCoordinateN(i+1)));
 				assertEquals(-1, PolygonEdgeMatcher.compare(p, ring.getCoordinateN(i+1), ring.getCoordinateN(i)));				
 			}
+			PolygonEdgeMatcher matcher = new PolygonEdgeMatcher(p);
+			assertEquals(PolygonEdgeMatcher.compare(p, ring.getCoordinateN(i), ring.getCoordinateN(i+1)), matcher.compare(ring.getCoordinateN(i), ring.getCoordinateN(i+1)));
+			assertEquals(PolygonEdgeMatcher.compare(p, ring.getCoordinateN(i+1), ring.getCoordinateN(i)), matcher.compare(ring.getCoordinateN(i+1), ring.getCoordinateN(i)));
 		}
 	}
 
@@ -0,0 +1,111 @@
+/*******************************************************************************
+ * Copyright 2020 Government of Canada
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License.
+ *******************************************************************************/
+package net.refractions.chyf.util;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.geotools.geometry.jts.JTS;
+import org.geotools.referencing.CRS;
+import org.junit.jupiter.api.Test;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.Polygon;
+import org.locationtech.jts.geom.util.AffineTransformation;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
+import org.opengis.referencing.cs.AxisDirection;
+import org.opengis.referencing.operation.MathTransform;
+
+/**
+ * Compares reprojection using cached transforms with looking up
+ * the transform for every geometry.
+ */
+class ReprojectionUtilsTest {
+
+	private static final int NUM_GEOMETRIES = 20000;
+	
+	@Test
+	void testReproject() throws Exception {
+		CoordinateReferenceSystem from = CRS.decode("EPSG:4617");
+		CoordinateReferenceSystem to = CRS.decode("EPSG:3978");
+		
+		GeometryFactory gf = new GeometryFactory();
+		Random r = new Random(1);
+		List<Polygon> polygons = new ArrayList<>();
+		for (int i = 0; i < NUM_GEOMETRIES; i ++) {
+			//EPSG:4617 is latitude, longitude
+			double lat = 45 + r.nextDouble() * 10;
+			double lon = -100 + r.nextDouble() * 20;
+			Coordinate[] cs = new Coordinate[11];
+			for (int j = 0; j < 10; j ++) {
+				double a = j * Math.PI * 2 / 10;
+				cs[j] = new Coordinate(lat + Math.sin(a) * 0.01, lon + Math.cos(a) * 0.01);
+			}
+			cs[10] = cs[0];
+			polygons.add(gf.createPolygon(cs));
+		}
+		
+		//transform found for every geometry
+		List<Geometry> expected = new ArrayList<>();
+		AffineTransformation flip = new AffineTransformation(0, 1, 0, 1, 0, 0);
+		for (Polygon p : polygons) {
+			MathTransform transform = CRS.findMathTransform(from, to, true);
+			Geometry g = p;
+			if (from.getCoordinateSystem().getAxis(0).getDirection().absolute().equals(AxisDirection.NORTH)) {
+				g = flip.transform(p);
+			}
+			expected.add(JTS.transform(g, transform));
+		}
+		
+		List<Geometry> actual = new ArrayList<>();
+		for (Polygon p : polygons) {
+			actual.add(ReprojectionUtils.reproject(p, from, to));
+		}
+		
+		for (int i = 0; i < polygons.size(); i ++) {
+			assertTrue(expected.get(i).equalsExact(actual.get(i), 0.000001));
+		}
+		
+		//back to the original coordinates, including the axis flip
+		for (int i = 0; i < polygons.size(); i ++) {
+			assertTrue(polygons.get(i).equalsExact(ReprojectionUtils.reproject(actual.get(i), to, from), 0.0000001));
+		}
+	}
+	
+	@Test
+	void testPackedCoordinates() throws Exception {
+		CoordinateReferenceSystem from = CRS.decode("EPSG:4617");
+		CoordinateReferenceSystem to = CRS.decode("EPSG:3978");
+		
+		GeometryFactory gf = new GeometryFactory();
+		double[] packed = {45, -75, 50.5, -100.25, 60, -120};
+		List<Geometry> points = new ArrayList<>();
+		for (int i = 0; i < packed.length; i += 2) {
+			points.add(ReprojectionUtils.reproject(gf.createPoint(new Coordinate(packed[i], packed[i+1])), from, to));
+		}
+		
+		ReprojectionUtils.getTransform(from, to, true).transform(packed, 3);
+		for (int i = 0; i < points.size(); i ++) {
+			assertEquals(points.get(i).getCoordinate().x, packed[i * 2], 0.000001);
+			assertEquals(points.get(i).getCoordinate().y, packed[i * 2 + 1], 0.000001);
+		}
+		assertSame(ReprojectionUtils.getTransform(from, to, true), ReprojectionUtils.getTransform(from, to, true));
+	}
+}
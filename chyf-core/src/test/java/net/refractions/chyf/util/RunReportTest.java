@@ -0,0 +1,96 @@
+/*******************************************************************************
+ * Copyright 2020 Government of Canada
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package net.refractions.chyf.util;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.slf4j.MDC;
+
+/**
+ * Tests the stages recorded by the run report and the json it writes.
+ */
+class RunReportTest {
+
+	@Test
+	void testStages() throws Exception {
+		RunReport report = new RunReport();
+
+		MDC.put("aoi_id", "test\"aoi");
+		try {
+			try(RunReport.Stage stage = report.startStage("first")){
+				List<double[]> items = new ArrayList<>();
+				for (int i = 0; i < 1000; i ++) items.add(new double[100]);
+				stage.addItems(items.size());
+			}
+		}finally {
+			MDC.remove("aoi_id");
+		}
+		try(RunReport.Stage stage = report.startStage("second")){
+			stage.addItems(2);
+			stage.addItems(3);
+		}
+
+		List<RunReport.StageResult> stages = report.getStages();
+		assertEquals(2, stages.size());
+
+		RunReport.StageResult first = stages.get(0);
+		assertEquals("first", first.getStage());
+		assertEquals("test\"aoi", first.getAoi());
+		assertEquals(1000, first.getItems());
+		assertTrue(first.getWallTime() > 0);
+		if (first.getThreadAllocatedBytes() >= 0) assertTrue(first.getThreadAllocatedBytes() >= 1000 * 100 * 8);
+
+		RunReport.StageResult second = stages.get(1);
+		assertEquals("second", second.getStage());
+		assertNull(second.getAoi());
+		assertEquals(5, second.getItems());
+
+		StringWriter writer = new StringWriter();
+		report.writeJson(writer);
+		String json = writer.toString();
+		assertTrue(json.contains("\"aoi\": \"test\\\"aoi\", \"stage\": \"first\""), json);
+		assertTrue(json.contains("\"aoi\": null, \"stage\": \"second\""), json);
+		assertTrue(json.contains("\"items\": 5}"), json);
+
+		report.clear();
+		assertTrue(report.getStages().isEmpty());
+		writer = new StringWriter();
+		report.writeJson(writer);
+		assertTrue(writer.toString().contains("\"stages\": []"), writer.toString());
+	}
+
+	@Test
+	void testNestedStages() throws Exception {
+		RunReport report = new RunReport();
+		List<double[]> items = new ArrayList<>();
+		try(RunReport.Stage outer = report.startStage("outer")){
+			for (int i = 0; i < 1000; i ++) items.add(new double[1000]);
+			//starting the inner stage does not reset the outer stage peak
+			try(RunReport.Stage inner = report.startStage("inner")){
+				items.clear();
+			}
+		}
+		List<RunReport.StageResult> stages = report.getStages();
+		assertEquals("inner", stages.get(0).getStage());
+		assertEquals("outer", stages.get(1).getStage());
+		assertTrue(stages.get(1).getPeakHeapBytes() >= stages.get(0).getPeakHeapBytes());
+	}
+}
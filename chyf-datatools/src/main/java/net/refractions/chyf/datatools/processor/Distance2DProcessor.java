@@ -15,11 +15,17 @@
  */
 package net.refractions.chyf.datatools.processor;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
 
 import org.geotools.data.simple.SimpleFeatureReader;
-import org.geotools.geometry.jts.ReferencedEnvelope;
 import org.locationtech.jts.geom.Coordinate;
 import org.locationtech.jts.geom.Envelope;
 import org.locationtech.jts.geom.Geometry;
@@ -30,9 +36,12 @@ import org.locationtech.jts.geom.MultiPolygon;
 import org.locationtech.jts.geom.Point;
 import org.locationtech.jts.geom.Polygon;
 import org.locationtech.jts.geom.prep.PreparedPolygon;
+import org.locationtech.jts.index.strtree.STRtree;
 import org.locationtech.jts.operation.distance.DistanceOp;
 import org.opengis.feature.simple.SimpleFeature;
 import org.opengis.referencing.crs.CoordinateReferenceSystem;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import net.refractions.chyf.datatools.readers.ChyfDataSource;
 
@@ -44,7 +53,44 @@ import net.refractions.chyf.datatools.readers.ChyfDataSource;
  */
 public class Distance2DProcessor {
 
+	static final Logger logger = LoggerFactory.getLogger(Distance2DProcessor.class.getCanonicalName());
+
+	/**
+	 * Method used to compute the distance from the grid points
+	 * to the water edges
+	 */
+	public enum Method{
+		/**
+		 * distance transform of the rasterized water edges
+		 */
+		RASTER,
+		/**
+		 * distance from each grid point to each water edge; much slower
+		 * but kept for validating the raster results
+		 */
+		VECTOR
+	}
+	
+	//catchments that require more grid points than this are processed with
+	//the vector method to limit memory use
+	private static final long MAX_RASTER_SIZE = 1 << 25;
+	
+	//memory used per grid point by the distance and label rasters
+	private static final long BYTES_PER_CELL = 20;
+	//raster memory permits are allocated in blocks of this many grid points
+	private static final int CELLS_PER_PERMIT = 1 << 10;
+	//number of points sampled along each side of the catchment envelope
+	//to bound the distance to water
+	private static final int SAMPLE_COUNT = 8;
+	
 	private int cellSize = 1;
+	private Method method = Method.RASTER;
+	private int workers = Runtime.getRuntime().availableProcessors();
+	private long rasterMemory = Runtime.getRuntime().maxMemory() / 2;
+	
+	//limits the raster memory used by all workers
+	private Semaphore rasterPermits;
+	private long maxRasterSize;
 	
 	private CoordinateReferenceSystem toWork;
 	private GeometryFactory gf = new GeometryFactory();
@@ -70,8 +116,44 @@ public class Distance2DProcessor {
 		this.cellSize = cellSize;
 	}
 	
+	/**
+	 * Default method is {@link Method#RASTER}
+	 * @param method
+	 */
+	public void setMethod(Method method) {
+		this.method = method;
+	}
+	
+	/**
+	 * Sets the number of catchments processed concurrently.  With a single worker
+	 * catchments are processed on the calling thread in the order they are read.
+	 * 
+	 * @param workers
+	 */
+	public void setWorkerCount(int workers) {
+		if (workers < 1) throw new IllegalArgumentException("Worker count must be at least 1");
+		this.workers = workers;
+	}
+	
+	/**
+	 * Sets the memory, in bytes, available to the rasters of all the catchments
+	 * being processed.  Workers wait for memory to be released before allocating
+	 * a raster, and catchments that need more than this are processed with the
+	 * vector method.  Defaults to half the maximum heap size.
+	 * 
+	 * @param bytes
+	 */
+	public void setRasterMemory(long bytes) {
+		if (bytes < BYTES_PER_CELL * CELLS_PER_PERMIT) throw new IllegalArgumentException("Raster memory must be at least " + (BYTES_PER_CELL * CELLS_PER_PERMIT) + " bytes");
+		this.rasterMemory = bytes;
+	}
+	
 	public void doWork(ProgressMonitor progressMonitor) throws Exception {
 		distanceToWater = new Distance2DResult();
+		
+		long permits = Math.min(Integer.MAX_VALUE, rasterMemory / BYTES_PER_CELL / CELLS_PER_PERMIT);
+		rasterPermits = new Semaphore((int)permits);
+		maxRasterSize = Math.min(MAX_RASTER_SIZE, permits * CELLS_PER_PERMIT);
 				
 		//lets make a 1m grid out of this
 		int total = 0;
@@ -80,84 +162,242 @@ public class Distance2DProcessor {
 		}
 		progressMonitor.setTaskLength(total);
 		
+		//water features are read once and shared by all catchments
+		WaterLayer waterbodies = new WaterLayer(dataSource.getWaterbodies(null));
+		WaterLayer flowpaths = new WaterLayer(dataSource.getFlowpaths(null));
+		
 		try(SimpleFeatureReader reader = dataSource.getECatchments(null)){
-			while(reader.hasNext()) {
-				
-				progressMonitor.worked(1);
-				
-				SimpleFeature sf = reader.next();
-				
-				Geometry g = (Geometry) sf.getDefaultGeometry();
-				Polygon p = null;
-				if (g instanceof Polygon) {
-					p = (Polygon)g;
-				}else if (g instanceof MultiPolygon && (((MultiPolygon)g).getNumGeometries() == 1)) {
-					p = (Polygon) ((MultiPolygon)g).getGeometryN(0);
-				}else {
-					throw new IllegalStateException("Geometry of type " + g.getClass().toString() + " is not supported for ecatchment.");
+			CoordinateReferenceSystem crs = reader.getFeatureType().getCoordinateReferenceSystem();
+			
+			if (workers == 1) {
+				while(reader.hasNext()) {
+					progressMonitor.worked(1);
+					SimpleFeature sf = reader.next();
+					addResult(processCatchment(sf.getID(), (Geometry) sf.getDefaultGeometry(), crs, waterbodies, flowpaths));
 				}
-				
-				boolean process = true;
-				List<LineString> waterEdges = new ArrayList<>();
-				
-				try(SimpleFeatureReader wbReader = dataSource.getWaterbodies( new ReferencedEnvelope(p.getEnvelopeInternal(), sf.getType().getCoordinateReferenceSystem()))){
-					while(wbReader.hasNext()) {
-						SimpleFeature sb = wbReader.next();
-						Geometry wbGeom = (Geometry) sb.getDefaultGeometry();
-					
-						IntersectionMatrix matrix = p.relate(wbGeom);
-						if(matrix.isEquals(3,3)) {
-							//overlaps entirely - this is distance to water = 0
-							distanceToWater.addResult(sf.getID(), 0.0, 0.0);
-							process = false;
-							break;
-						}else if (matrix.matches("****1****")){
-							//boundary intersection is line - get these lines as water edge
-							Geometry intersection = p.intersection(wbGeom);
-							for (int i = 0; i < intersection.getNumGeometries(); i ++) {
-								if (intersection.getGeometryN(i) instanceof LineString) {
-									LineString ls = (LineString)(intersection.getGeometryN(i));
-									waterEdges.add(ReprojectionUtils.reproject(ls, sb.getType().getCoordinateReferenceSystem(), toWork));
-								}
-							}
-						}
+				return;
+			}
+			
+			//at most workers catchments are queued or in progress at any time
+			ExecutorService executor = Executors.newFixedThreadPool(workers);
+			try {
+				CompletionService<CatchmentResult> completion = new ExecutorCompletionService<>(executor);
+				int running = 0;
+				while (reader.hasNext() || running > 0) {
+					while (running < workers && reader.hasNext()) {
+						SimpleFeature sf = reader.next();
+						String fid = sf.getID();
+						Geometry g = (Geometry) sf.getDefaultGeometry();
+						completion.submit(()->processCatchment(fid, g, crs, waterbodies, flowpaths));
+						running++;
 					}
+					CatchmentResult result;
+					try {
+						result = completion.take().get();
+					}catch (ExecutionException ex) {
+						if (ex.getCause() instanceof Exception) throw (Exception)ex.getCause();
+						throw ex;
+					}
+					running--;
+					progressMonitor.worked(1);
+					addResult(result);
 				}
-				if (!process) continue;
-				
-				//add flowpaths to list of edges
-				try(SimpleFeatureReader fpReader = dataSource.getFlowpaths( new ReferencedEnvelope(p.getEnvelopeInternal(), sf.getType().getCoordinateReferenceSystem()))){
-					while(fpReader.hasNext()) {
-						SimpleFeature sb = fpReader.next();
-						Geometry fpGeom = (Geometry) sb.getDefaultGeometry();
-						if (p.relate(fpGeom, "1********")){
-							for (int i = 0; i < fpGeom.getNumGeometries(); i ++) {
-								if (fpGeom.getGeometryN(i) instanceof LineString) {
-									LineString ls = (LineString)(fpGeom.getGeometryN(i));
-									waterEdges.add(ReprojectionUtils.reproject(ls, sb.getType().getCoordinateReferenceSystem(), toWork));
-								}
-							}
-						}
+			}finally {
+				executor.shutdownNow();
+			}
+		}
+	}
+	
+	private void addResult(CatchmentResult result) {
+		if (result == null) return;
+		if (result.distances == null) {
+			distanceToWater.addResult(result.fid, result.mean, result.max);
+		}else {
+			distanceToWater.addResult(result.fid, result.mean, result.max, result.distances);
+		}
+	}
+	
+	/*
+	 * computes the distances for a single catchment; returns null if the
+	 * catchment has no water edges
+	 */
+	private CatchmentResult processCatchment(String fid, Geometry g, CoordinateReferenceSystem crs, WaterLayer waterbodies, WaterLayer flowpaths) throws InterruptedException {
+		Polygon p = null;
+		if (g instanceof Polygon) {
+			p = (Polygon)g;
+		}else if (g instanceof MultiPolygon && (((MultiPolygon)g).getNumGeometries() == 1)) {
+			p = (Polygon) ((MultiPolygon)g).getGeometryN(0);
+		}else {
+			throw new IllegalStateException("Geometry of type " + g.getClass().toString() + " is not supported for ecatchment.");
+		}
+		
+		List<LineString> waterEdges = new ArrayList<>();
+		
+		for (Geometry wbGeom : waterbodies.query(p.getEnvelopeInternal())) {
+			IntersectionMatrix matrix = p.relate(wbGeom);
+			if(matrix.isEquals(3,3)) {
+				//overlaps entirely - this is distance to water = 0
+				return new CatchmentResult(fid, 0.0, 0.0, null);
+			}else if (matrix.matches("****1****")){
+				//boundary intersection is line - get these lines as water edge
+				Geometry intersection = p.intersection(wbGeom);
+				for (int i = 0; i < intersection.getNumGeometries(); i ++) {
+					if (intersection.getGeometryN(i) instanceof LineString) {
+						LineString ls = (LineString)(intersection.getGeometryN(i));
+						waterEdges.add(ReprojectionUtils.reproject(ls, waterbodies.crs, toWork));
 					}
 				}
-				
-				if (waterEdges.isEmpty()) {
-					System.out.println("ERROR: NO WATER EDGES IN CATCHMENT");
-					continue;
+			}
+		}
+		
+		//add flowpaths to list of edges
+		for (Geometry fpGeom : flowpaths.query(p.getEnvelopeInternal())) {
+			if (p.relate(fpGeom, "1********")){
+				for (int i = 0; i < fpGeom.getNumGeometries(); i ++) {
+					if (fpGeom.getGeometryN(i) instanceof LineString) {
+						LineString ls = (LineString)(fpGeom.getGeometryN(i));
+						waterEdges.add(ReprojectionUtils.reproject(ls, flowpaths.crs, toWork));
+					}
 				}
-				
-				//reproject
-				p = ReprojectionUtils.reproject(p, sf.getType().getCoordinateReferenceSystem(), toWork);
+			}
+		}
+		
+		if (waterEdges.isEmpty()) {
+			logger.error("No water edges in catchment " + fid);
+			return null;
+		}
+		
+		//reproject
+		p = ReprojectionUtils.reproject(p, crs, toWork);
 
-				//need to get all water edges that bound or reside in the polygon
-				double[] value = processFeature(p, waterEdges);
-				distanceToWater.addResult(sf.getID(), value[0], value[1]);
+		//need to get all water edges that bound or reside in the polygon
+		QuantileSketch distances = new QuantileSketch();
+		double[] value = processFeature(p, waterEdges, distances);
+		return new CatchmentResult(fid, value[0], value[1], distances);
+	}
+	
+	/*
+	 * returns the mean and max distance, adding all the distances to the sketch
+	 */
+	private double[] processFeature(Polygon polygon, List<LineString> waterEdges, QuantileSketch sketch) throws InterruptedException {
+		if (method == Method.VECTOR) return processFeatureVector(polygon, waterEdges, sketch);
+		return processFeatureRaster(polygon, waterEdges, sketch);
+	}
+	
+	private double[] processFeatureRaster(Polygon polygon, List<LineString> waterEdges, QuantileSketch sketch) throws InterruptedException {
+		//edges can extend well outside the catchment; only the parts within the
+		//search distance of the catchment can be nearest to a grid point
+		Envelope clip = new Envelope(polygon.getEnvelopeInternal());
+		clip.expandBy(searchDistance(clip, waterEdges) + cellSize);
+		List<LineString> clipped = clip(waterEdges, clip);
+		
+		Envelope env = new Envelope(polygon.getEnvelopeInternal());
+		for (LineString ls : clipped) env.expandToInclude(ls.getEnvelopeInternal());
+		
+		int size = cellSize;
+		
+		//grid points are the same as the vector method, with a extra point on each
+		//side so the water edges are completely inside the grid
+		int startx = ((int)Math.floor( env.getMinX() / size ) - 1) * size;
+		int starty = ((int)Math.floor( env.getMinY() / size ) - 1) * size;
+		
+		int endx = ((int)Math.ceil( env.getMaxX() / size ) + 1) * size;
+		int endy = ((int)Math.ceil( env.getMaxY() / size ) + 1) * size;
+		
+		int width = (endx - startx) / size + 1;
+		int height = (endy - starty) / size + 1;
+		long cells = (long)width * height;
+		if (cells > maxRasterSize) {
+			logger.warn("Catchment too large for raster distance computation; using vector method");
+			return processFeatureVector(polygon, waterEdges, sketch);
+		}
+		
+		int permits = (int)((cells + CELLS_PER_PERMIT - 1) / CELLS_PER_PERMIT);
+		rasterPermits.acquire(permits);
+		try {
+			return processFeatureRaster(polygon, clipped, sketch, width, height, startx, starty);
+		}finally {
+			rasterPermits.release(permits);
+		}
+	}
+	
+	private double[] processFeatureRaster(Polygon polygon, List<LineString> waterEdges, QuantileSketch sketch, int width, int height, int startx, int starty) {
+		int size = cellSize;
+		DistanceRaster distances = new DistanceRaster(width, height, startx, starty, size);
+		for (LineString ls : waterEdges) {
+			for (int i = 0; i < ls.getNumPoints() - 1; i ++) {
+				Coordinate c1 = ls.getCoordinateN(i);
+				Coordinate c2 = ls.getCoordinateN(i + 1);
+				distances.addSegment(c1.x, c1.y, c2.x, c2.y);
 			}
 		}
+		distances.compute();
 		
+		//grid points inside the polygon
+		LabelRaster inside = new LabelRaster(width, height, startx - size / 2.0, starty - size / 2.0, size, size);
+		inside.burn(polygon, 0, 0, width - 1, 0, height - 1);
 		
+		double distanceSum = 0;
+		double maxDistance = Double.NaN;
+		int count = 0;
+		for (int y = 0; y < height; y ++) {
+			for (int x = 0; x < width; x ++) {
+				if (inside.getLabel(x, y) == LabelRaster.NO_LABEL) continue;
+				double d = distances.getDistance(x, y);
+				if (Double.isNaN(d)) continue;
+				distanceSum += d;
+				sketch.add(d);
+				count ++;
+				if (Double.isNaN(maxDistance) || d > maxDistance) maxDistance = d;
+			}
+		}
+		if (count == 0) return new double[] {Double.NaN, Double.NaN};
+		return new double[] {distanceSum / count, maxDistance};
 	}
-	private double[] processFeature(Polygon polygon, List<LineString> waterEdges) {
+	
+	/*
+	 * an upper bound on the distance from any point in the envelope to the
+	 * nearest water edge; the distance from each point is at most the distance
+	 * from the closest sample point plus the distance to that sample point
+	 */
+	private double searchDistance(Envelope env, List<LineString> waterEdges) {
+		double dx = env.getWidth() / (SAMPLE_COUNT - 1);
+		double dy = env.getHeight() / (SAMPLE_COUNT - 1);
+		double max = 0;
+		for (int i = 0; i < SAMPLE_COUNT; i ++) {
+			for (int j = 0; j < SAMPLE_COUNT; j ++) {
+				Point p = gf.createPoint(new Coordinate(env.getMinX() + i * dx, env.getMinY() + j * dy));
+				double d = Double.MAX_VALUE;
+				for (LineString ls : waterEdges) {
+					d = Math.min(d, DistanceOp.distance(p, ls));
+				}
+				max = Math.max(max, d);
+			}
+		}
+		return max + Math.sqrt(dx * dx + dy * dy) / 2;
+	}
+	
+	/*
+	 * the parts of the water edges inside the envelope
+	 */
+	private List<LineString> clip(List<LineString> waterEdges, Envelope env) {
+		Geometry box = gf.toGeometry(env);
+		List<LineString> clipped = new ArrayList<>();
+		for (LineString ls : waterEdges) {
+			if (env.covers(ls.getEnvelopeInternal())) {
+				clipped.add(ls);
+				continue;
+			}
+			if (!env.intersects(ls.getEnvelopeInternal())) continue;
+			Geometry part = ls.intersection(box);
+			for (int i = 0; i < part.getNumGeometries(); i ++) {
+				if (part.getGeometryN(i) instanceof LineString) clipped.add((LineString)part.getGeometryN(i));
+			}
+		}
+		return clipped;
+	}
+	
+	private double[] processFeatureVector(Polygon polygon, List<LineString> waterEdges, QuantileSketch sketch) {
 		Envelope env = polygon.getEnvelopeInternal();
 		
 		int size = cellSize;
@@ -184,6 +424,7 @@ public class Distance2DProcessor {
 					}
 					if (d != Double.MAX_VALUE) {
 						distanceSum += d;
+						sketch.add(d);
 						count ++;
 						
 						if (Double.isNaN(maxDistance)) {
@@ -199,4 +440,48 @@ public class Distance2DProcessor {
 		if (count == 0) return new double[] {Double.NaN, Double.NaN};
 		return new double[] {distanceSum / count, maxDistance};
 	}
+	
+	/*
+	 * distances computed for a catchment
+	 */
+	private static class CatchmentResult{
+		private String fid;
+		private double mean;
+		private double max;
+		private QuantileSketch distances;
+		
+		CatchmentResult(String fid, double mean, double max, QuantileSketch distances){
+			this.fid = fid;
+			this.mean = mean;
+			this.max = max;
+			this.distances = distances;
+		}
+	}
+	
+	/*
+	 * all the geometries of a water layer with a spatial index
+	 */
+	private static class WaterLayer{
+		private STRtree index = new STRtree();
+		private CoordinateReferenceSystem crs;
+		
+		WaterLayer(SimpleFeatureReader reader) throws IOException{
+			try{
+				crs = reader.getFeatureType().getCoordinateReferenceSystem();
+				while(reader.hasNext()) {
+					Geometry g = (Geometry) reader.next().getDefaultGeometry();
+					if (g != null) index.insert(g.getEnvelopeInternal(), g);
+				}
+			}finally {
+				reader.close();
+			}
+			//build before the index is shared between threads
+			index.build();
+		}
+		
+		@SuppressWarnings("unchecked")
+		List<Geometry> query(Envelope env){
+			return index.query(env);
+		}
+	}
 }
@@ -31,20 +31,37 @@ public class Distance2DResult {
 	}
 	
 	public void addResult(String fid, double mean, double max) {
-		results.put(fid,  new Statistics(mean, max));
+		results.put(fid,  new Statistics(mean, max, null));
+	}
+	
+	/**
+	 * 
+	 * @param fid
+	 * @param mean
+	 * @param max
+	 * @param distances sketch of all distances used to compute quantiles
+	 */
+	public void addResult(String fid, double mean, double max, QuantileSketch distances) {
+		results.put(fid,  new Statistics(mean, max, distances));
 	}
 	
 	public Statistics getResult(String fid) {
 		return results.get(fid);
 	}
 	
+	public HashMap<String, Statistics> getStats(){
+		return this.results;
+	}
+	
 	public class Statistics{
 		private double mean;
 		private double max;
+		private QuantileSketch distances;
 	
-		public Statistics(double mean, double max) {
+		public Statistics(double mean, double max, QuantileSketch distances) {
 			this.max = max;
 			this.mean = mean;
+			this.distances = distances;
 		}
 		
 		public double getMean() {
@@ -53,6 +70,16 @@ public class Distance2DResult {
 		public double getMax() {
 			return this.max;
 		}
+		/**
+		 * 
+		 * @param quantile value between 0 and 1
+		 * @return the estimated distance at the quantile; if no distances
+		 * were provided the quantile of a single value, the mean
+		 */
+		public double getQuantile(double quantile) {
+			if (distances == null) return mean;
+			return distances.getQuantile(quantile);
+		}
 	}
 	
 	
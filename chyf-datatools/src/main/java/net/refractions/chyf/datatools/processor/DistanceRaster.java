@@ -0,0 +1,218 @@
+/*
+ * Copyright 2019 Government of Canada
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.refractions.chyf.datatools.processor;
+
+import java.util.Arrays;
+
+/**
+ * Grid of distances from each grid node to the nearest of a set of line segments.
+ * Node (x,y) is located at (xmin + x * cellsize, ymin + y * cellsize).
+ *
+ * The segments are rasterized by seeding the grid nodes nearest to points
+ * along each segment.  An exact Euclidean distance transform (Felzenszwalb and
+ * Huttenlocher) then finds the nearest seed node for every node in linear time
+ * and the distance of each node is computed to the segments of the nearest
+ * seed nodes of it and its eight neighbours.  Distances are therefore actual
+ * point to segment distances; the segment found is not always the nearest
+ * one but the error is bounded by the cell size.
+ *
+ */
+public class DistanceRaster {
+
+	private static final double INF = Double.POSITIVE_INFINITY;
+
+	private final int width;
+	private final int height;
+	private final double xmin;
+	private final double ymin;
+	private final double cellsize;
+
+	//x1, y1, x2, y2 for each segment
+	private double[] segments = new double[64];
+	private int numSegments = 0;
+
+	//segment seeded at each node
+	private final int[] seeds;
+	private double[] distances;
+
+	public DistanceRaster(int width, int height, double xmin, double ymin, double cellsize) {
+		this.width = width;
+		this.height = height;
+		this.xmin = xmin;
+		this.ymin = ymin;
+		this.cellsize = cellsize;
+		this.seeds = new int[width * height];
+		Arrays.fill(seeds, -1);
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	/**
+	 * Adds a segment to compute distances to.  Must be called before
+	 * {@link #compute()}.
+	 */
+	public void addSegment(double x1, double y1, double x2, double y2) {
+		if (numSegments * 4 == segments.length) segments = Arrays.copyOf(segments, segments.length * 2);
+		int seg = numSegments++;
+		segments[seg * 4] = x1;
+		segments[seg * 4 + 1] = y1;
+		segments[seg * 4 + 2] = x2;
+		segments[seg * 4 + 3] = y2;
+
+		//sample the segment at half the cell size and seed the nearest node
+		//of each sample, keeping the closest segment if a node is seeded twice
+		int n = (int)Math.ceil(Math.hypot(x2 - x1, y2 - y1) / (cellsize / 2.0));
+		for (int i = 0; i <= n; i ++) {
+			double t = n == 0 ? 0 : i / (double)n;
+			int x = (int)Math.round((x1 + t * (x2 - x1) - xmin) / cellsize);
+			int y = (int)Math.round((y1 + t * (y2 - y1) - ymin) / cellsize);
+			if (x < 0 || y < 0 || x >= width || y >= height) continue;
+			int index = x + y * width;
+			int current = seeds[index];
+			if (current == seg) continue;
+			if (current < 0 || distance(index, seg) < distance(index, current)) seeds[index] = seg;
+		}
+	}
+
+	/**
+	 * Computes the distances for all nodes.
+	 */
+	public void compute() {
+		int[] nearest = new int[width * height];
+		distances = new double[width * height];
+
+		//columns: squared distance (in cells) to the nearest seed in the same column
+		for (int x = 0; x < width; x ++) {
+			int last = -1;
+			for (int y = 0; y < height; y ++) {
+				int index = x + y * width;
+				if (seeds[index] >= 0) last = index;
+				nearest[index] = last;
+			}
+			last = -1;
+			for (int y = height - 1; y >= 0; y --) {
+				int index = x + y * width;
+				if (seeds[index] >= 0) last = index;
+				if (last >= 0 && (nearest[index] < 0 || (last - index) < (index - nearest[index]))) nearest[index] = last;
+				if (nearest[index] < 0) {
+					distances[index] = INF;
+				}else {
+					double dy = (nearest[index] - index) / width;
+					distances[index] = dy * dy;
+				}
+			}
+		}
+
+		//rows: lower envelope of the column distances
+		double[] f = new double[width];
+		int[] source = new int[width];
+		int[] v = new int[width];
+		double[] z = new double[width + 1];
+		for (int y = 0; y < height; y ++) {
+			int row = y * width;
+			System.arraycopy(distances, row, f, 0, width);
+			System.arraycopy(nearest, row, source, 0, width);
+
+			int k = -1;
+			for (int q = 0; q < width; q ++) {
+				if (f[q] == INF) continue;
+				if (k < 0) {
+					k = 0;
+					v[0] = q;
+					z[0] = -INF;
+					z[1] = INF;
+					continue;
+				}
+				double s = intersection(f, q, v[k]);
+				while (s <= z[k]) {
+					k --;
+					s = intersection(f, q, v[k]);
+				}
+				k ++;
+				v[k] = q;
+				z[k] = s;
+				z[k + 1] = INF;
+			}
+			if (k < 0) {
+				for (int q = 0; q < width; q ++) nearest[row + q] = -1;
+				continue;
+			}
+			k = 0;
+			for (int q = 0; q < width; q ++) {
+				while (z[k + 1] < q) k ++;
+				nearest[row + q] = source[v[k]];
+			}
+		}
+
+		//distance to the segments of the nearest seeds
+		for (int y = 0; y < height; y ++) {
+			for (int x = 0; x < width; x ++) {
+				int index = x + y * width;
+				double d = INF;
+				for (int ny = Math.max(0, y - 1); ny <= Math.min(height - 1, y + 1); ny ++) {
+					for (int nx = Math.max(0, x - 1); nx <= Math.min(width - 1, x + 1); nx ++) {
+						d = Math.min(d, distanceToSeed(index, nearest[nx + ny * width]));
+					}
+				}
+				distances[index] = d == INF ? Double.NaN : d;
+			}
+		}
+	}
+
+	/**
+	 *
+	 * @return the distance from the node to the nearest segment or NaN
+	 * if there are no segments
+	 */
+	public double getDistance(int x, int y) {
+		return distances[x + y * width];
+	}
+
+	/*
+	 * intersection of the parabolas rooted at q and p
+	 */
+	private static double intersection(double[] f, int q, int p) {
+		return ((f[q] + (double)q * q) - (f[p] + (double)p * p)) / (2.0 * q - 2.0 * p);
+	}
+
+	private double distanceToSeed(int index, int seed) {
+		if (seed < 0) return INF;
+		return distance(index, seeds[seed]);
+	}
+
+	/*
+	 * distance from node to segment
+	 */
+	private double distance(int index, int seg) {
+		double px = xmin + (index % width) * cellsize;
+		double py = ymin + (index / width) * cellsize;
+		double x1 = segments[seg * 4];
+		double y1 = segments[seg * 4 + 1];
+		double dx = segments[seg * 4 + 2] - x1;
+		double dy = segments[seg * 4 + 3] - y1;
+		double len2 = dx * dx + dy * dy;
+		double t = len2 == 0 ? 0 : ((px - x1) * dx + (py - y1) * dy) / len2;
+		if (t < 0) t = 0;
+		if (t > 1) t = 1;
+		return Math.hypot(px - (x1 + t * dx), py - (y1 + t * dy));
+	}
+}
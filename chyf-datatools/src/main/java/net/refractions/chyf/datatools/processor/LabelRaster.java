@@ -0,0 +1,191 @@
+/*
+ * Copyright 2019 Government of Canada
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.refractions.chyf.datatools.processor;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.Polygon;
+
+/**
+ * Grid of integer labels built by scan-line rasterization of polygons.
+ * A cell is labelled with a polygon if the cell center is inside
+ * the polygon; cell (x,y) has its center at
+ * (xmin + x * xcellsize + xcellsize / 2, ymin + y * ycellsize + ycellsize / 2).
+ *
+ * Cells with centers inside more than one polygon keep all labels.
+ *
+ */
+public class LabelRaster {
+
+	public static final int NO_LABEL = -1;
+
+	private final int width;
+	private final int height;
+	private final double xmin;
+	private final double ymin;
+	private final double xcellsize;
+	private final double ycellsize;
+
+	private final int[] labels;
+	//additional labels for cells inside multiple polygons
+	private final HashMap<Integer, int[]> overlaps = new HashMap<>();
+	//cells with entries in overlaps, checked before the (boxing) map lookup
+	private final BitSet overlapping = new BitSet();
+
+	private double[] crossings = new double[16];
+
+	public LabelRaster(int width, int height, double xmin, double ymin, double xcellsize, double ycellsize) {
+		this.width = width;
+		this.height = height;
+		this.xmin = xmin;
+		this.ymin = ymin;
+		this.xcellsize = xcellsize;
+		this.ycellsize = ycellsize;
+		this.labels = new int[width * height];
+		Arrays.fill(labels, NO_LABEL);
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	/**
+	 *
+	 * @return the first label of the cell or {@link #NO_LABEL}
+	 */
+	public int getLabel(int x, int y) {
+		return labels[x + y * width];
+	}
+
+	/**
+	 *
+	 * @return all the labels of the cell, empty if the cell has no labels
+	 */
+	public int[] getLabels(int x, int y) {
+		int index = x + y * width;
+		if (labels[index] == NO_LABEL) return new int[0];
+		if (!overlapping.get(index)) return new int[] {labels[index]};
+		int[] other = overlaps.get(index);
+		int[] all = new int[other.length + 1];
+		all[0] = labels[index];
+		System.arraycopy(other, 0, all, 1, other.length);
+		return all;
+	}
+
+	/**
+	 * Copies the labels of the cell into the buffer without allocating.
+	 * If the cell has more labels than fit in the buffer only the
+	 * first buffer.length labels are copied.
+	 *
+	 * @param buffer
+	 * @return the number of labels of the cell, 0 if the cell has no labels
+	 */
+	public int getLabels(int x, int y, int[] buffer) {
+		int index = x + y * width;
+		if (labels[index] == NO_LABEL) return 0;
+		if (buffer.length > 0) buffer[0] = labels[index];
+		if (!overlapping.get(index)) return 1;
+		int[] other = overlaps.get(index);
+		System.arraycopy(other, 0, buffer, 1, Math.max(0, Math.min(other.length, buffer.length - 1)));
+		return other.length + 1;
+	}
+
+	/**
+	 * Labels all cells with centers inside the polygonal components of the
+	 * geometry.  Only cells with x in [xstart, xend] and y in [ystart, yend]
+	 * are labelled.
+	 *
+	 * @param geometry
+	 * @param label
+	 */
+	public void burn(Geometry geometry, int label, int xstart, int xend, int ystart, int yend) {
+		for (int i = 0; i < geometry.getNumGeometries(); i ++) {
+			Geometry part = geometry.getGeometryN(i);
+			if (part instanceof Polygon) {
+				burn((Polygon)part, label, xstart, xend, ystart, yend);
+			}
+		}
+	}
+
+	private void burn(Polygon polygon, int label, int xstart, int xend, int ystart, int yend) {
+		Envelope env = polygon.getEnvelopeInternal();
+		Coordinate[][] rings = new Coordinate[polygon.getNumInteriorRing() + 1][];
+		rings[0] = polygon.getExteriorRing().getCoordinates();
+		for (int i = 0; i < polygon.getNumInteriorRing(); i ++) {
+			rings[i + 1] = polygon.getInteriorRingN(i).getCoordinates();
+		}
+
+		int y0 = Math.max(ystart, (int)Math.floor((env.getMinY() - ymin) / ycellsize) - 1);
+		int y1 = Math.min(yend, (int)Math.ceil((env.getMaxY() - ymin) / ycellsize) + 1);
+		for (int y = y0; y <= y1; y ++) {
+			double yc = ymin + y * ycellsize + (ycellsize / 2.0);
+
+			//crossings of the scan line with the polygon edges, using a half open
+			//rule so vertices on the scan line are counted once
+			int cnt = 0;
+			for (Coordinate[] ring : rings) {
+				for (int k = 0; k < ring.length - 1; k ++) {
+					Coordinate p1 = ring[k];
+					Coordinate p2 = ring[k + 1];
+					if ((p1.y > yc) != (p2.y > yc)) {
+						if (cnt == crossings.length) crossings = Arrays.copyOf(crossings, cnt * 2);
+						crossings[cnt++] = p1.x + (yc - p1.y) * (p2.x - p1.x) / (p2.y - p1.y);
+					}
+				}
+			}
+			if (cnt < 2) continue;
+			Arrays.sort(crossings, 0, cnt);
+
+			for (int k = 0; k + 1 < cnt; k += 2) {
+				double left = crossings[k];
+				double right = crossings[k + 1];
+				int x0 = Math.max(xstart, (int)Math.floor((left - xmin) / xcellsize) - 1);
+				int x1 = Math.min(xend, (int)Math.ceil((right - xmin) / xcellsize) + 1);
+				for (int x = x0; x <= x1; x ++) {
+					double xc = xmin + x * xcellsize + (xcellsize / 2.0);
+					if (xc > left && xc < right) set(x + y * width, label);
+				}
+			}
+		}
+	}
+
+	private void set(int index, int label) {
+		int current = labels[index];
+		if (current == NO_LABEL) {
+			labels[index] = label;
+		}else if (current != label) {
+			int[] other = overlaps.get(index);
+			if (other == null) {
+				overlaps.put(index, new int[] {label});
+				overlapping.set(index);
+			}else {
+				for (int o : other) if (o == label) return;
+				int[] n = Arrays.copyOf(other, other.length + 1);
+				n[other.length] = label;
+				overlaps.put(index, n);
+			}
+		}
+	}
+}
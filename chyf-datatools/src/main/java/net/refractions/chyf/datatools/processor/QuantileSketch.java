@@ -0,0 +1,192 @@
+/*
+ * Copyright 2019 Government of Canada
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.refractions.chyf.datatools.processor;
+
+/**
+ * Streaming quantile estimator using a histogram with logarithmically sized bins.
+ *
+ * Values are counted in bins whose bounds grow by a constant factor so
+ * any quantile is estimated to within {@link #RELATIVE_ACCURACY} of the
+ * actual value.  Positive and negative values are stored separately; values
+ * closer to zero than {@link #MIN_VALUE} are counted as zero.
+ *
+ * At most {@link #MAX_BINS} bins are kept for each sign, so memory use
+ * does not depend on the number of values added.  If values span more bins
+ * than this the bins closest to zero are combined and only the lowest
+ * quantiles lose accuracy.  Sketches can be merged, so values from different
+ * tiles can be collected separately and then combined.
+ *
+ */
+public class QuantileSketch {
+
+	public static final double RELATIVE_ACCURACY = 0.02;
+	public static final int MAX_BINS = 512;
+	public static final double MIN_VALUE = 1e-6;
+
+	private static final double GAMMA = (1 + RELATIVE_ACCURACY) / (1 - RELATIVE_ACCURACY);
+	private static final double LOG_GAMMA = Math.log(GAMMA);
+
+	private final Bins positive = new Bins();
+	private final Bins negative = new Bins();
+	private int zeroCount = 0;
+	private long count = 0;
+	private double min = Double.NaN;
+	private double max = Double.NaN;
+
+	public void add(double value) {
+		if (Double.isNaN(value)) return;
+		if (value > MIN_VALUE) {
+			positive.add(index(value), 1);
+		}else if (value < -MIN_VALUE) {
+			negative.add(index(-value), 1);
+		}else {
+			zeroCount++;
+		}
+		if (count == 0 || value < min) min = value;
+		if (count == 0 || value > max) max = value;
+		count++;
+	}
+
+	public void merge(QuantileSketch other) {
+		if (other.count == 0) return;
+		positive.merge(other.positive);
+		negative.merge(other.negative);
+		zeroCount += other.zeroCount;
+		if (count == 0 || other.min < min) min = other.min;
+		if (count == 0 || other.max > max) max = other.max;
+		count += other.count;
+	}
+
+	public long getCount() {
+		return count;
+	}
+
+	/**
+	 *
+	 * @param quantile value between 0 and 1
+	 * @return the estimated value at the given quantile or NaN if
+	 * no values have been added
+	 */
+	public double getQuantile(double quantile) {
+		if (count == 0) return Double.NaN;
+		if (quantile < 0 || quantile > 1) throw new IllegalArgumentException("Quantile must be between 0 and 1");
+
+		long rank = (long)Math.floor(quantile * (count - 1));
+		if (rank == 0) return min;
+		if (rank == count - 1) return max;
+
+		double value;
+		long negatives = negative.total();
+		if (rank < negatives) {
+			//largest magnitude negative values first
+			value = -value(negative.indexAtRank(negatives - 1 - rank));
+		}else if (rank < negatives + zeroCount) {
+			value = 0;
+		}else {
+			value = value(positive.indexAtRank(rank - negatives - zeroCount));
+		}
+		return Math.max(min, Math.min(max, value));
+	}
+
+	public QuantileSketch copy() {
+		QuantileSketch copy = new QuantileSketch();
+		copy.merge(this);
+		return copy;
+	}
+
+	private static int index(double value) {
+		return (int)Math.ceil(Math.log(value) / LOG_GAMMA);
+	}
+
+	/*
+	 * value representing the bin (GAMMA^(index-1), GAMMA^index]
+	 */
+	private static double value(int index) {
+		return 2 * Math.pow(GAMMA, index) / (GAMMA + 1);
+	}
+
+	/*
+	 * counts for a contiguous range of bin indexes
+	 */
+	private static class Bins {
+		private int[] counts = null;
+		private int offset;
+
+		void add(int index, int n) {
+			if (counts == null) {
+				counts = new int[16];
+				offset = index - 8;
+			}
+			if (index < offset || index >= offset + counts.length) resize(index);
+			//bins below the range have been combined into the lowest bin
+			if (index < offset) index = offset;
+			counts[index - offset] += n;
+		}
+
+		void merge(Bins other) {
+			if (other.counts == null) return;
+			for (int i = other.counts.length - 1; i >= 0; i --) {
+				if (other.counts[i] != 0) add(other.offset + i, other.counts[i]);
+			}
+		}
+
+		long total() {
+			long total = 0;
+			if (counts != null) for (int c : counts) total += c;
+			return total;
+		}
+
+		int indexAtRank(long rank) {
+			long cnt = 0;
+			for (int i = 0; i < counts.length; i ++) {
+				cnt += counts[i];
+				if (cnt > rank) return offset + i;
+			}
+			return offset + counts.length - 1;
+		}
+
+		private void resize(int index) {
+			int low = Math.min(offset, index);
+			int high = Math.max(offset + counts.length - 1, index);
+			//at least double the size to limit copying
+			int length = Math.max(high - low + 1, counts.length * 2);
+			if (index < offset) {
+				low = high - length + 1;
+			}else {
+				high = low + length - 1;
+			}
+			if (length > MAX_BINS) {
+				//keep the highest bins in use
+				high = index;
+				for (int i = counts.length - 1; i >= 0; i --) {
+					if (counts[i] != 0) {
+						high = Math.max(high, offset + i);
+						break;
+					}
+				}
+				low = high - MAX_BINS + 1;
+				length = MAX_BINS;
+			}
+			int[] resized = new int[length];
+			for (int i = 0; i < counts.length; i ++) {
+				if (counts[i] == 0) continue;
+				resized[Math.max(offset + i, low) - low] += counts[i];
+			}
+			counts = resized;
+			offset = low;
+		}
+	}
+}
@@ -18,6 +18,11 @@ package net.refractions.chyf.datatools.processor;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import org.geotools.data.simple.SimpleFeatureReader;
 import org.geotools.geometry.GeneralEnvelope;
@@ -40,6 +45,7 @@ public class SEAProcessor {
 	static final Logger logger = LoggerFactory.getLogger(ChyfDataSource.class.getCanonicalName());
 
 	private int processingtilesize = 1024; 
+	private int workers = Runtime.getRuntime().availableProcessors();
 	
 	private ChyfDataSource data;
 	private GeoTiffDemReader dem;
@@ -52,6 +58,17 @@ public class SEAProcessor {
 		this.tiles = generateTiles();
 	}
 	
+	/**
+	 * Sets the number of tiles processed concurrently.  This also limits the 
+	 * number of DEM tiles held in memory at one time.
+	 * 
+	 * @param workers
+	 */
+	public void setWorkerCount(int workers) {
+		if (workers < 1) throw new IllegalArgumentException("Worker count must be at least 1");
+		this.workers = workers;
+	}
+	
 	//Feature id:
 	//Generation of the identifier is dependent on the underlying data storage medium. 
 	//Often this identifier is not persistent. Mediums such shapefiles and database tables
@@ -61,20 +78,37 @@ public class SEAProcessor {
 	//dependent on which storage medium or data source is being used.
 	
 	public SEAResult doWork(ProgressMonitor monitor) throws Exception {
-		//process by tile
-		List<SEAResult> results = new ArrayList<>();
-		
 		monitor.setTaskLength(tiles.size()+1);
 		
-		for (Tile tile : tiles) {
-			results.add( (new SEATileProcessor(dem, data)).doWork(tile) );
-			monitor.worked(1);
+		//process by tile; at most workers tiles are in progress at any time
+		//and the results are merged as each tile completes
+		SEAResult total = new SEAResult();
+		ExecutorService executor = Executors.newFixedThreadPool(workers);
+		try {
+			CompletionService<SEAResult> completion = new ExecutorCompletionService<>(executor);
+			int next = 0;
+			int running = 0;
+			while (next < tiles.size() || running > 0) {
+				while (running < workers && next < tiles.size()) {
+					Tile tile = tiles.get(next++);
+					completion.submit(()->(new SEATileProcessor(dem, data)).doWork(tile));
+					running++;
+				}
+				SEAResult result;
+				try {
+					result = completion.take().get();
+				}catch (ExecutionException ex) {
+					if (ex.getCause() instanceof Exception) throw (Exception)ex.getCause();
+					throw ex;
+				}
+				running--;
+				total.merge(result);
+				monitor.worked(1);
+			}
+		}finally {
+			executor.shutdownNow();
 		}
 		
-		//merge all results
-		SEAResult total = new SEAResult();
-		results.forEach(r->total.merge(r));
-			
 		//compute values for catchments with no data
 		//assigne the values to those of the catchment with the longest shared edge
 		SimpleFeatureReader all = data.getECatchments(null);
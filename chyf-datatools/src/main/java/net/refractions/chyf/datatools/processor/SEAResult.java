@@ -85,6 +85,9 @@ public class SEAResult {
 		
 		//north, south, east, west, flat (slope < 5)
 		private int[] aspectClassCnt = {0,0,0,0,0};
+		
+		private QuantileSketch elevations = new QuantileSketch();
+		private QuantileSketch slopes = new QuantileSketch();
 
 		Statistics(double elevation, double slope, double aspect){
 			this.maxElevation = elevation;
@@ -95,6 +98,8 @@ public class SEAResult {
 			this.numItemElv = 1;
 			this.slopeSum = slope;
 			this.elvSum = elevation;
+			this.elevations.add(elevation);
+			this.slopes.add(slope);
 			addAspect(slope, aspect);
 		}
 		
@@ -109,6 +114,7 @@ public class SEAResult {
 			
 			this.numItemElv = 1;
 			this.elvSum = elevation;
+			this.elevations.add(elevation);
 		}
 		
 		void merge(Statistics other){
@@ -127,6 +133,9 @@ public class SEAResult {
 			for (int i = 0; i < this.aspectClassCnt.length; i ++) {
 				this.aspectClassCnt[i] = this.aspectClassCnt[i] + other.aspectClassCnt[i];
 			}
+			
+			this.elevations.merge(other.elevations);
+			this.slopes.merge(other.slopes);
 		}
 		
 		
@@ -135,6 +144,7 @@ public class SEAResult {
 			if (elevation < this.minElevation) this.minElevation = elevation;
 			this.numItemElv++;
 			this.elvSum += elevation;
+			this.elevations.add(elevation);
 		}
 		
 		private void addAspect(double slope, double aspect) {
@@ -163,6 +173,7 @@ public class SEAResult {
 			if (slope < this.minSlope) this.minSlope = slope;
 			this.numItem++;
 			this.slopeSum += slope;
+			this.slopes.add(slope);
 			addAspect(slope, aspect);
 		}
 		
@@ -189,6 +200,23 @@ public class SEAResult {
 			return this.minSlope;
 		}
 		
+		/**
+		 * 
+		 * @param quantile value between 0 and 1
+		 * @return the estimated elevation at the quantile
+		 */
+		public double getElevationQuantile(double quantile) {
+			return this.elevations.getQuantile(quantile);
+		}
+		/**
+		 * 
+		 * @param quantile value between 0 and 1
+		 * @return the estimated slope at the quantile
+		 */
+		public double getSlopeQuantile(double quantile) {
+			return this.slopes.getQuantile(quantile);
+		}
+		
 		public double getNorthPercent() {
 			return getPercent(0);
 		}
@@ -221,6 +249,9 @@ public class SEAResult {
 			
 			clone.aspectClassCnt = new int[this.aspectClassCnt.length];
 			for (int i = 0; i < clone.aspectClassCnt.length; i ++) clone.aspectClassCnt[i] = this.aspectClassCnt[i];
+			
+			clone.elevations = this.elevations.copy();
+			clone.slopes = this.slopes.copy();
 			return clone;
 		}
 		
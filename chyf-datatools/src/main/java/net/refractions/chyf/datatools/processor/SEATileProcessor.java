@@ -15,36 +15,32 @@
  */
 package net.refractions.chyf.datatools.processor;
 
-import java.awt.image.DataBuffer;
 import java.util.ArrayList;
 import java.util.List;
 
-import org.geotools.coverage.grid.GridCoverage2D;
 import org.geotools.data.simple.SimpleFeatureReader;
 import org.geotools.geometry.jts.ReferencedEnvelope;
-import org.locationtech.jts.geom.Coordinate;
-import org.locationtech.jts.geom.Envelope;
 import org.locationtech.jts.geom.Geometry;
-import org.locationtech.jts.geom.GeometryFactory;
-import org.locationtech.jts.geom.Point;
-import org.locationtech.jts.geom.prep.PreparedGeometry;
-import org.locationtech.jts.geom.prep.PreparedGeometryFactory;
-import org.locationtech.jts.index.strtree.STRtree;
 import org.opengis.feature.simple.SimpleFeature;
 
 import net.refractions.chyf.datatools.readers.ChyfDataSource;
+import net.refractions.chyf.datatools.readers.DemWindow;
 import net.refractions.chyf.datatools.readers.GeoTiffDemReader;
 
 /**
  * Computes slope/aspect/elevation stats for all DEM points inside
  * a tile, assigning the results to the catchment that intersects the
- * center point of the DEM grid cell.
+ * center point of the DEM grid cell.  Catchments are rasterized
+ * to a label grid matching the DEM cells before processing.
  * 
  * @author Emily
  *
  */
 public class SEATileProcessor  {
 	
+	//dem buffer reused by the tiles processed on each thread
+	private static final ThreadLocal<DemWindow> windows = ThreadLocal.withInitial(DemWindow::new);
+	
 	private GeoTiffDemReader elevationData;
 	private ChyfDataSource datasource;
 
@@ -57,83 +53,75 @@ public class SEATileProcessor  {
 	public SEAResult doWork(Tile t) {
 		try {
 			//get features that overlap elevation data
-			SimpleFeatureReader sfreader = datasource.getECatchments(t.getEnvelope());
 			List<Geometry> sf = new ArrayList<>();
-			while(sfreader.hasNext()) {
-				SimpleFeature ff = sfreader.next();
-				Geometry geom = ((Geometry)ff.getDefaultGeometry());			
-				Geometry rgeom = ReprojectionUtils.reproject(geom, sfreader.getFeatureType().getCoordinateReferenceSystem(), elevationData.getCrs());
-				rgeom.setUserData(ff.getID());
-				sf.add(rgeom);
+			try(SimpleFeatureReader sfreader = datasource.getECatchments(t.getEnvelope())){
+				while(sfreader.hasNext()) {
+					SimpleFeature ff = sfreader.next();
+					Geometry geom = ((Geometry)ff.getDefaultGeometry());			
+					Geometry rgeom = ReprojectionUtils.reproject(geom, sfreader.getFeatureType().getCoordinateReferenceSystem(), elevationData.getCrs());
+					rgeom.setUserData(ff.getID());
+					sf.add(rgeom);
+				}
 			}
 			if (sf.isEmpty()) return new SEAResult();
 			
-			STRtree index = new STRtree();
-			for (Geometry g : sf) {
-				PreparedGeometry pg = PreparedGeometryFactory.prepare(g);
-				index.insert(pg.getGeometry().getEnvelopeInternal(), pg);
-			}
-			index.build();
-			
 			//expand by 1 on each side so we have the data necessary to compute slope
 			ReferencedEnvelope dataEnv = t.getEnvelope();
 			dataEnv = new ReferencedEnvelope(dataEnv.getMinX() - elevationData.getXCellSize(), dataEnv.getMaxX() + elevationData.getXCellSize(), dataEnv.getMinY() - elevationData.getYCellSize(), dataEnv.getMaxY() + elevationData.getYCellSize(), dataEnv.getCoordinateReferenceSystem());
 			
-			GridCoverage2D dem = elevationData.getData(dataEnv);
+			DemWindow dem = elevationData.readWindow(dataEnv, windows.get());
 			
+			double xmin = dem.getXMin();
+			double ymin = dem.getYMin();
+			int width = dem.getWidth();
+			int height = dem.getHeight();
 			
-			double xmin = dem.getEnvelope().getMinimum(0);
-			double ymin = dem.getEnvelope().getMinimum(1);
+			//burn each catchment into the label grid; the label is the index into sf
+			LabelRaster labels = new LabelRaster(width, height, xmin, ymin, elevationData.getXCellSize(), elevationData.getYCellSize());
+			String[] ids = new String[sf.size()];
+			for (int i = 0; i < sf.size(); i ++) {
+				ids[i] = (String) sf.get(i).getUserData();
+				labels.burn(sf.get(i), i, 1, width - 2, 1, height - 2);
+			}
 			
-			DataBuffer dataBuffer = null;
 			SEAResult results = new SEAResult();
+			double[][] edata = new double[3][3];
+			//grown if a cell is inside more catchments
+			int[] cellLabels = new int[4];
 			
-			for (int x = 1 ; x < dem.getRenderedImage().getWidth() - 1; x ++) {
-				for (int y = 1 ; y < dem.getRenderedImage().getHeight() - 1; y ++) {	
-					double xCenter = xmin + x * elevationData.getXCellSize() + (elevationData.getXCellSize() / 2.0);
-					double yCenter = ymin + y * elevationData.getYCellSize() + (elevationData.getYCellSize() / 2.0);
-					
-					Envelope searchEnv = new Envelope(new Coordinate(xCenter, yCenter));
-					Point pnt = (new GeometryFactory()).createPoint(new Coordinate(xCenter, yCenter));
-					
-					List<?> items = index.query(searchEnv);
-					List<PreparedGeometry> geoms = new ArrayList<>();
-					for (Object item : items) {
-						PreparedGeometry pg = (PreparedGeometry) item;
-						if (pg.contains(pnt)) geoms.add(pg);
+			for (int x = 1 ; x < width - 1; x ++) {
+				for (int y = 1 ; y < height - 1; y ++) {	
+					int cnt = labels.getLabels(x, y, cellLabels);
+					if (cnt == 0) continue;
+					if (cnt > cellLabels.length) {
+						cellLabels = new int[cnt];
+						labels.getLabels(x, y, cellLabels);
 					}
-					if (geoms.isEmpty()) continue;
 					
-					if (dataBuffer == null) {
-						dataBuffer = dem.getRenderedImage().getData().getDataBuffer();
-					}
-
-					double v1 = dataBuffer.getElemDouble(x-1 +   (dem.getRenderedImage().getHeight() - (y+1) - 1) * dem.getRenderedImage().getWidth());
-					double v2 = dataBuffer.getElemDouble(x +     (dem.getRenderedImage().getHeight() - (y+1) - 1) * dem.getRenderedImage().getWidth());
-					double v3 = dataBuffer.getElemDouble(x + 1 + (dem.getRenderedImage().getHeight() - (y+1) - 1) * dem.getRenderedImage().getWidth());
+					double v1 = dem.getValue(x - 1, y + 1);
+					double v2 = dem.getValue(x, y + 1);
+					double v3 = dem.getValue(x + 1, y + 1);
 					
-					double v4 = dataBuffer.getElemDouble(x-1 +   (dem.getRenderedImage().getHeight() - y - 1) * dem.getRenderedImage().getWidth());
-					double v5 = dataBuffer.getElemDouble(x +     (dem.getRenderedImage().getHeight() - y - 1) * dem.getRenderedImage().getWidth());
-					double v6 = dataBuffer.getElemDouble(x + 1 + (dem.getRenderedImage().getHeight() - y - 1) * dem.getRenderedImage().getWidth());
+					double v4 = dem.getValue(x - 1, y);
+					double v5 = dem.getValue(x, y);
+					double v6 = dem.getValue(x + 1, y);
 					
-					double v7 = dataBuffer.getElemDouble(x-1 +   (dem.getRenderedImage().getHeight() - (y-1) - 1) * dem.getRenderedImage().getWidth());
-					double v8 = dataBuffer.getElemDouble(x +     (dem.getRenderedImage().getHeight() - (y-1) - 1) * dem.getRenderedImage().getWidth());
-					double v9 = dataBuffer.getElemDouble(x + 1 + (dem.getRenderedImage().getHeight() - (y-1) - 1) * dem.getRenderedImage().getWidth());
+					double v7 = dem.getValue(x - 1, y - 1);
+					double v8 = dem.getValue(x, y - 1);
+					double v9 = dem.getValue(x + 1, y - 1);
 					
-					double[][] edata = new double[][] {
-						{v1, v4, v7},
-						{v2, v5, v8},
-						{v3, v6, v9},
-					};
+					edata[0][0] = v1; edata[0][1] = v4; edata[0][2] = v7;
+					edata[1][0] = v2; edata[1][1] = v5; edata[1][2] = v8;
+					edata[2][0] = v3; edata[2][1] = v6; edata[2][2] = v9;
 					
 					double[] slopeaspect = computeSlopeAspect(edata);
 					if (slopeaspect[0] == -9999) {
 						if (!isNoData(v5)) {
-							for (PreparedGeometry g : geoms) results.addElevationValue((String)g.getGeometry().getUserData(),  v5);
+							for (int i = 0; i < cnt; i ++) results.addElevationValue(ids[cellLabels[i]],  v5);
 						}
 					}else {
-						for (PreparedGeometry g : geoms) {
-							results.addSlopeAspectElevationValue((String)g.getGeometry().getUserData(), slopeaspect[0], slopeaspect[1], v5);
+						for (int i = 0; i < cnt; i ++) {
+							results.addSlopeAspectElevationValue(ids[cellLabels[i]], slopeaspect[0], slopeaspect[1], v5);
 						}
 					}
 				}
@@ -145,8 +133,12 @@ public class SEATileProcessor  {
 	}
 	
 	private boolean isNoData(double v) {
-		for (int k = 0; k < elevationData.getNoData().length; k ++) {
-			if (v == elevationData.getNoData()[k]) return true;
+		if (Double.isNaN(v)) return true;
+		double[] nodata = elevationData.getNoData();
+		if (nodata == null) return false;
+		for (int k = 0; k < nodata.length; k ++) {
+			//values are read as floats
+			if (v == nodata[k] || v == (float)nodata[k]) return true;
 		}
 		return false;
 	}
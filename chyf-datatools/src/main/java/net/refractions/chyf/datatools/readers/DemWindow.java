@@ -0,0 +1,102 @@
+/*
+ * Copyright 2019 Government of Canada
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License.
+ */
+package net.refractions.chyf.datatools.readers;
+
+/**
+ * A block of DEM cells read by {@link GeoTiffDemReader#readWindow(org.geotools.geometry.jts.ReferencedEnvelope, DemWindow)}.  
+ * Cell (x,y) covers (xmin + x * xcellsize, ymin + y * ycellsize) to 
+ * (xmin + (x+1) * xcellsize, ymin + (y+1) * ycellsize).
+ * 
+ * The value buffer is reused when the window is passed back to
+ * the reader so a window should only be used by one thread.
+ *
+ */
+public class DemWindow {
+
+	private float[] data = new float[0];
+	private int width;
+	private int height;
+	private double xmin;
+	private double ymin;
+	private double xCellSize;
+	private double yCellSize;
+	private float[] noData;
+	
+	void set(int width, int height, double xmin, double ymin, double xCellSize, double yCellSize, double[] noData) {
+		this.width = width;
+		this.height = height;
+		this.xmin = xmin;
+		this.ymin = ymin;
+		this.xCellSize = xCellSize;
+		this.yCellSize = yCellSize;
+		if (data.length < width * height) data = new float[width * height];
+		this.noData = new float[noData == null ? 0 : noData.length];
+		for (int i = 0; i < this.noData.length; i ++) this.noData[i] = (float)noData[i];
+	}
+	
+	/*
+	 * values in image order; first row is the top (north) row
+	 */
+	float[] getBuffer() {
+		return data;
+	}
+	
+	public int getWidth() {
+		return width;
+	}
+	
+	public int getHeight() {
+		return height;
+	}
+	
+	public double getXMin() {
+		return xmin;
+	}
+	
+	public double getYMin() {
+		return ymin;
+	}
+	
+	public double getXCellSize() {
+		return xCellSize;
+	}
+	
+	public double getYCellSize() {
+		return yCellSize;
+	}
+	
+	/**
+	 * 
+	 * @param x cell column; 0 is the west most column
+	 * @param y cell row; 0 is the south most row
+	 * @return the elevation value
+	 */
+	public float getValue(int x, int y) {
+		return data[(height - y - 1) * width + x];
+	}
+	
+	/**
+	 * 
+	 * @return true if the value is NaN or one of the no data values of the DEM
+	 */
+	public boolean isNoData(float value) {
+		if (Float.isNaN(value)) return true;
+		for (float nd : noData) {
+			if (value == nd) return true;
+		}
+		return false;
+	}
+}
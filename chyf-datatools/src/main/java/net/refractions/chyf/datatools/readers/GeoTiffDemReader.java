@@ -15,6 +15,9 @@
  */
 package net.refractions.chyf.datatools.readers;
 
+import java.awt.Rectangle;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
 import java.io.Closeable;
 import java.nio.file.Path;
 
@@ -40,6 +43,7 @@ public class GeoTiffDemReader implements Closeable {
 	private int ycells;
 	
 	private CoordinateReferenceSystem crs;
+	private double[] noData;
 	
 	public GeoTiffDemReader(Path file) throws Exception{
 
@@ -59,7 +63,7 @@ public class GeoTiffDemReader implements Closeable {
 		this.coverage = reader.read(names[0], new GeneralParameterValue[] {});
 		
 		this.crs = reader.getCoordinateReferenceSystem();
-		
+		this.noData = this.coverage.getSampleDimension(0).getNoDataValues();
 	}
 	
 	public GeneralEnvelope getFileBounds(){
@@ -67,7 +71,7 @@ public class GeoTiffDemReader implements Closeable {
 	}
 	
 	public double[] getNoData() {
-		return this.coverage.getSampleDimension(0).getNoDataValues();
+		return this.noData;
 	}
 	
 	public CoordinateReferenceSystem getCrs() {
@@ -80,6 +84,58 @@ public class GeoTiffDemReader implements Closeable {
 	public double getYCellSize() {
 		return this.yCellSize;
 	}
+	/**
+	 * Reads the cells that intersect the given envelope.  The envelope is truncated
+	 * to the file bounds.  Unlike {@link #getData(ReferencedEnvelope)} only the tiles 
+	 * or strips of the file that overlap the window are decoded and the values
+	 * are copied into the buffer of the window provided.
+	 * 
+	 * Can be called from multiple threads at once provided each uses its own window. 
+	 * 
+	 * @param bounds the window bounds in the DEM coordinate reference system
+	 * @param window window to read values into or null to create a new window
+	 * @return the window
+	 */
+	public DemWindow readWindow(ReferencedEnvelope bounds, DemWindow window) {
+		if (window == null) window = new DemWindow();
+		
+		//cells that intersect the bounds; tolerance for bounds that are aligned to the cells
+		double tolerance = 1e-6;
+		double left = this.bounds.getMinimum(0);
+		double top = this.bounds.getMaximum(1);
+		int col1 = Math.max(0, (int)Math.floor((bounds.getMinX() - left) / xCellSize + tolerance));
+		int col2 = Math.min(xcells, (int)Math.ceil((bounds.getMaxX() - left) / xCellSize - tolerance));
+		int row1 = Math.max(0, (int)Math.floor((top - bounds.getMaxY()) / yCellSize + tolerance));
+		int row2 = Math.min(ycells, (int)Math.ceil((top - bounds.getMinY()) / yCellSize - tolerance));
+		
+		int width = Math.max(0, col2 - col1);
+		int height = Math.max(0, row2 - row1);
+		window.set(width, height, left + col1 * xCellSize, top - row2 * yCellSize, xCellSize, yCellSize, noData);
+		if (width == 0 || height == 0) return window;
+		
+		RenderedImage image = coverage.getRenderedImage();
+		Rectangle region = new Rectangle(image.getMinX() + col1, image.getMinY() + row1, width, height);
+		float[] buffer = window.getBuffer();
+		float[] row = new float[width];
+		
+		int tx1 = Math.floorDiv(region.x - image.getTileGridXOffset(), image.getTileWidth());
+		int tx2 = Math.floorDiv(region.x + region.width - 1 - image.getTileGridXOffset(), image.getTileWidth());
+		int ty1 = Math.floorDiv(region.y - image.getTileGridYOffset(), image.getTileHeight());
+		int ty2 = Math.floorDiv(region.y + region.height - 1 - image.getTileGridYOffset(), image.getTileHeight());
+		for (int ty = ty1; ty <= ty2; ty ++) {
+			for (int tx = tx1; tx <= tx2; tx ++) {
+				Raster tile = image.getTile(tx, ty);
+				Rectangle r = tile.getBounds().intersection(region);
+				if (r.isEmpty()) continue;
+				for (int y = r.y; y < r.y + r.height; y ++) {
+					tile.getSamples(r.x, y, r.width, 1, 0, row);
+					System.arraycopy(row, 0, buffer, (y - region.y) * width + (r.x - region.x), r.width);
+				}
+			}
+		}
+		return window;
+	}
+	
 	public GridCoverage2D getData(ReferencedEnvelope cropBounds) {
 		
 		CoverageProcessor processor = new CoverageProcessor();
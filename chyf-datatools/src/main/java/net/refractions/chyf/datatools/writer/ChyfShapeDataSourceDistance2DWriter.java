@@ -51,13 +51,27 @@ public class ChyfShapeDataSourceDistance2DWriter {
 	
 	public static enum StatField{
 		DISTANCE_2D_MEAN ("D2W2D_MEAN"),
-		DISTANCE_2D_MAX ("D2W2D_MAX");
+		DISTANCE_2D_MAX ("D2W2D_MAX"),
+		DISTANCE_2D_P10 ("D2W2D_P10"),
+		DISTANCE_2D_P50 ("D2W2D_P50"),
+		DISTANCE_2D_P90 ("D2W2D_P90");
 		
 		public String fieldName;
 		
 		StatField(String fieldName){
 			this.fieldName = fieldName;
 		}
+		
+		public Double getValue(Distance2DResult.Statistics stats) {
+			switch(this) {
+			case DISTANCE_2D_MEAN: return stats.getMean();
+			case DISTANCE_2D_MAX: return stats.getMax();
+			case DISTANCE_2D_P10: return stats.getQuantile(0.1);
+			case DISTANCE_2D_P50: return stats.getQuantile(0.5);
+			case DISTANCE_2D_P90: return stats.getQuantile(0.9);
+			}
+			return null;
+		}
 	}
 	
 	
@@ -114,8 +128,9 @@ public class ChyfShapeDataSourceDistance2DWriter {
 		
 					Distance2DResult.Statistics d = distance2dValues.getResult(feature.getID());
 					if (d != null) {
-						toWrite.setAttribute(StatField.DISTANCE_2D_MAX.fieldName, d.getMax());
-						toWrite.setAttribute(StatField.DISTANCE_2D_MEAN.fieldName, d.getMean());
+						for (StatField s : StatField.values()) {
+							toWrite.setAttribute(s.fieldName, s.getValue(d));
+						}
 					}
 					writer.write();
 				}   
@@ -53,10 +53,16 @@ public class ChyfShapeDataSourceSEAWriter {
 		ELV_MIN ("ELV_MIN"),
 		ELV_MAX ("ELV_MAX"),
 		ELV_MEAN ("ELV_MEAN"),
+		ELV_P10 ("ELV_P10"),
+		ELV_P50 ("ELV_P50"),
+		ELV_P90 ("ELV_P90"),
 		
 		SLOPE_MIN ("SLOPE_MIN"),
 		SLOPE_MAX ("SLOPE_MAX"),
 		SLOPE_MEAN ("SLOPE_MEAN"),
+		SLOPE_P10 ("SLOPE_P10"),
+		SLOPE_P50 ("SLOPE_P50"),
+		SLOPE_P90 ("SLOPE_P90"),
 		
 		NORTH_PCT ("NORTH_PCT"),
 		SOUTH_PCT ("SOUTH_PCT"),
@@ -75,11 +81,17 @@ public class ChyfShapeDataSourceSEAWriter {
 			case ELV_MAX: return stats.getMaxElevation();
 			case ELV_MEAN: return stats.getAverageElevation();
 			case ELV_MIN: return stats.getMinElevation();
+			case ELV_P10: return stats.getElevationQuantile(0.1);
+			case ELV_P50: return stats.getElevationQuantile(0.5);
+			case ELV_P90: return stats.getElevationQuantile(0.9);
 			case FLAT_PCT: return stats.getFlatPercent()* 100;
 			case NORTH_PCT: return stats.getNorthPercent()* 100;
 			case SLOPE_MAX: return stats.getMaxSlope();
 			case SLOPE_MEAN: return stats.getAverageSlope();
 			case SLOPE_MIN: return stats.getMinSlope();
+			case SLOPE_P10: return stats.getSlopeQuantile(0.1);
+			case SLOPE_P50: return stats.getSlopeQuantile(0.5);
+			case SLOPE_P90: return stats.getSlopeQuantile(0.9);
 			case SOUTH_PCT: return stats.getSouthPercent() * 100;
 			case WEST_PCT: return stats.getWestPercent()* 100;
 			}
@@ -0,0 +1,140 @@
+/*
+ * Copyright 2019 Government of Canada
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.refractions.chyf.datatools.writer;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.function.BiFunction;
+
+import org.geotools.geopkg.GeoPackage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Writes catchment statistics to a copy of a geopackage.
+ *
+ * The input file is copied as is, so no layers are decoded, and statistics
+ * fields are added to the catchment table and updated in batches keyed by the
+ * feature id.  Only the statistics themselves are held in memory.
+ *
+ */
+class GeoPackageStatisticsWriter {
+
+	static final Logger logger = LoggerFactory.getLogger(GeoPackageStatisticsWriter.class.getCanonicalName());
+
+	private static final int BATCH_SIZE = 1000;
+
+	/**
+	 *
+	 * @param input the input geopackage
+	 * @param output the new geopackage to create
+	 * @param table the catchment table
+	 * @param fields the statistics field names
+	 * @param stats the statistics by feature id
+	 * @param values function returning the value of the field with the given index for a set of statistics
+	 * @throws IOException
+	 */
+	static <T> void write(Path input, Path output, String table, String[] fields, Map<String, T> stats, BiFunction<T, Integer, Double> values) throws IOException {
+		Files.copy(input, output);
+
+		GeoPackage geopkg = new GeoPackage(output.toFile());
+		try(Connection c = geopkg.getDataSource().getConnection()){
+
+			//existing columns and primary key
+			Set<String> columns = new HashSet<>();
+			String pk = null;
+			try(Statement s = c.createStatement();
+					ResultSet rs = s.executeQuery("PRAGMA table_info(" + quote(table) + ")")){
+				while(rs.next()) {
+					columns.add(rs.getString("name").toLowerCase());
+					if (rs.getInt("pk") > 0) pk = rs.getString("name");
+				}
+			}
+			if (pk == null) throw new IOException("No primary key found for table " + table);
+
+			//add statistics fields, clearing any existing values
+			try(Statement s = c.createStatement()){
+				StringBuilder clear = new StringBuilder();
+				for (String field : fields) {
+					if (columns.contains(field.toLowerCase())) {
+						clear.append(clear.length() == 0 ? "" : ", ").append(quote(field)).append(" = NULL");
+					}else {
+						s.execute("ALTER TABLE " + quote(table) + " ADD COLUMN " + quote(field) + " REAL");
+					}
+				}
+				if (clear.length() > 0) s.execute("UPDATE " + quote(table) + " SET " + clear);
+			}
+
+			StringBuilder sql = new StringBuilder();
+			sql.append("UPDATE ").append(quote(table)).append(" SET ");
+			for (int i = 0; i < fields.length; i ++) {
+				if (i > 0) sql.append(", ");
+				sql.append(quote(fields[i])).append(" = ?");
+			}
+			sql.append(" WHERE ").append(quote(pk)).append(" = ?");
+
+			c.setAutoCommit(false);
+			try(PreparedStatement ps = c.prepareStatement(sql.toString())){
+				int cnt = 0;
+				for (Entry<String, T> e : stats.entrySet()) {
+					long id;
+					try {
+						//feature ids are <table>.<primary key>
+						id = Long.parseLong(e.getKey().substring(e.getKey().lastIndexOf('.') + 1));
+					}catch (NumberFormatException ex) {
+						logger.warn("Unable to write statistics for feature " + e.getKey() + ": invalid feature id");
+						continue;
+					}
+					for (int i = 0; i < fields.length; i ++) {
+						Double d = values.apply(e.getValue(), i);
+						if (d == null || d.isNaN()) {
+							ps.setNull(i + 1, Types.DOUBLE);
+						}else {
+							ps.setDouble(i + 1, d);
+						}
+					}
+					ps.setLong(fields.length + 1, id);
+					ps.addBatch();
+					if (++cnt % BATCH_SIZE == 0) {
+						ps.executeBatch();
+						c.commit();
+					}
+				}
+				ps.executeBatch();
+				c.commit();
+			}
+		}catch (SQLException ex) {
+			throw new IOException(ex);
+		}finally {
+			geopkg.close();
+		}
+	}
+
+	private static String quote(String name) {
+		return "\"" + name.replace("\"", "\"\"") + "\"";
+	}
+}
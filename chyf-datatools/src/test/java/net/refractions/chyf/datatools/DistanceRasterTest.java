@@ -0,0 +1,96 @@
+/*
+ * Copyright 2019 Government of Canada
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License.
+ */
+package net.refractions.chyf.datatools;
+
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import net.refractions.chyf.datatools.processor.DistanceRaster;
+
+/**
+ * Tests the raster distances against the distance from each
+ * grid node to every segment
+ * 
+ */
+public class DistanceRasterTest {
+
+	@Test
+	public void testPointDistances() {
+		//segments of zero length on grid nodes give exact distances
+		Random r = new Random(2);
+		for (int trial = 0; trial < 100; trial ++) {
+			int width = 5 + r.nextInt(60);
+			int height = 5 + r.nextInt(60);
+			DistanceRaster raster = new DistanceRaster(width, height, 0, 0, 1);
+			int[][] points = new int[1 + r.nextInt(10)][];
+			for (int i = 0; i < points.length; i ++) {
+				points[i] = new int[] {r.nextInt(width), r.nextInt(height)};
+				raster.addSegment(points[i][0], points[i][1], points[i][0], points[i][1]);
+			}
+			raster.compute();
+			for (int x = 0; x < width; x ++) {
+				for (int y = 0; y < height; y ++) {
+					double expected = Double.MAX_VALUE;
+					for (int[] p : points) expected = Math.min(expected, Math.hypot(x - p[0], y - p[1]));
+					Assert.assertEquals(expected, raster.getDistance(x, y), 0.000000001);
+				}
+			}
+		}
+	}
+	
+	@Test
+	public void testSegmentDistances() {
+		Random r = new Random(1);
+		double cellsize = 3;
+		double xmin = 10.3;
+		double ymin = -4.1;
+		for (int trial = 0; trial < 50; trial ++) {
+			int width = 60 + r.nextInt(80);
+			int height = 60 + r.nextInt(80);
+			DistanceRaster raster = new DistanceRaster(width, height, xmin, ymin, cellsize);
+			double[][] segments = new double[1 + r.nextInt(20)][];
+			for (int i = 0; i < segments.length; i ++) {
+				segments[i] = new double[] {
+						xmin + r.nextDouble() * (width - 1) * cellsize, ymin + r.nextDouble() * (height - 1) * cellsize,
+						xmin + r.nextDouble() * (width - 1) * cellsize, ymin + r.nextDouble() * (height - 1) * cellsize};
+				raster.addSegment(segments[i][0], segments[i][1], segments[i][2], segments[i][3]);
+			}
+			raster.compute();
+			
+			for (int x = 0; x < width; x ++) {
+				for (int y = 0; y < height; y ++) {
+					double px = xmin + x * cellsize;
+					double py = ymin + y * cellsize;
+					double expected = Double.MAX_VALUE;
+					for (double[] s : segments) expected = Math.min(expected, distance(px, py, s));
+					double actual = raster.getDistance(x, y);
+					Assert.assertTrue("Distance less than nearest segment distance", actual >= expected - 0.000000001);
+					Assert.assertTrue("Distance too large", actual - expected <= cellsize);
+				}
+			}
+		}
+	}
+	
+	private double distance(double px, double py, double[] s) {
+		double dx = s[2] - s[0];
+		double dy = s[3] - s[1];
+		double len2 = dx * dx + dy * dy;
+		double t = len2 == 0 ? 0 : Math.max(0, Math.min(1, ((px - s[0]) * dx + (py - s[1]) * dy) / len2));
+		return Math.hypot(px - (s[0] + t * dx), py - (s[1] + t * dy));
+	}
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright 2019 Government of Canada
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License.
+ */
+package net.refractions.chyf.datatools;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.prep.PreparedGeometry;
+import org.locationtech.jts.geom.prep.PreparedGeometryFactory;
+import org.locationtech.jts.io.WKTReader;
+
+import net.refractions.chyf.datatools.processor.LabelRaster;
+
+/**
+ * Tests that scan-line rasterization labels the same cells
+ * as point in polygon tests on the cell centers
+ * 
+ */
+public class LabelRasterTest {
+
+	@Test
+	public void testRasterize() throws Exception {
+		String[] wkts = new String[] {
+			"POLYGON (( 530.9 137, 388.6 178.3, 427.8 343.3, 337.1 427.8, 130.9 493.8, 54.6 728.9, 238.1 854.7, 568.1 788.7, 588.7 665, 411.3 619.6, 522.7 549.5, 757.8 543.3, 821.7 444.3, 799 264.9, 735.1 151.5, 530.9 137 ))",
+			"POLYGON (( 600 600, 990 600, 990 990, 600 990, 600 600 ), ( 700 700, 700 900, 900 900, 900 700, 700 700 ))",
+			"MULTIPOLYGON ((( 15 15, 95 15, 55 95, 15 15 )), (( 105 5, 195 5, 195 45, 105 45, 105 5 )))"
+		};
+		
+		double cellsize = 10;
+		int width = 100;
+		double xmin = 0.5;
+		double ymin = -0.25;
+		
+		LabelRaster raster = new LabelRaster(width, width, xmin, ymin, cellsize, cellsize);
+		Geometry[] geoms = new Geometry[wkts.length];
+		for (int i = 0; i < wkts.length; i ++) {
+			geoms[i] = (new WKTReader()).read(wkts[i]);
+			raster.burn(geoms[i], i, 1, width - 2, 1, width - 2);
+		}
+		
+		GeometryFactory gf = new GeometryFactory();
+		//smaller than the overlapping cells need
+		int[] buffer = new int[1];
+		for (int i = 0; i < wkts.length; i ++) {
+			PreparedGeometry pg = PreparedGeometryFactory.prepare(geoms[i]);
+			for (int x = 0; x < width; x ++) {
+				for (int y = 0; y < width; y ++) {
+					Coordinate c = new Coordinate(xmin + x * cellsize + cellsize / 2.0, ymin + y * cellsize + cellsize / 2.0);
+					boolean expected = x > 0 && y > 0 && x < width - 1 && y < width - 1 && pg.contains(gf.createPoint(c));
+					boolean actual = false;
+					for (int l : raster.getLabels(x, y)) if (l == i) actual = true;
+					Assert.assertEquals("Cell " + x + " " + y + " for polygon " + i, expected, actual);
+					
+					int[] all = raster.getLabels(x, y);
+					int cnt = raster.getLabels(x, y, buffer);
+					Assert.assertEquals(all.length, cnt);
+					if (cnt > buffer.length) {
+						buffer = new int[cnt];
+						Assert.assertEquals(cnt, raster.getLabels(x, y, buffer));
+					}
+					for (int k = 0; k < cnt; k ++) Assert.assertEquals(all[k], buffer[k]);
+				}
+			}
+		}
+	}
+}
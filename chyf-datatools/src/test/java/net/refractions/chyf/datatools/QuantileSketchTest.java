@@ -0,0 +1,94 @@
+/*
+ * Copyright 2019 Government of Canada
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License.
+ */
+package net.refractions.chyf.datatools;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import net.refractions.chyf.datatools.processor.QuantileSketch;
+
+/**
+ * Tests quantile estimates against the sorted values
+ * 
+ */
+public class QuantileSketchTest {
+
+	private static final double[] QUANTILES = {0, 0.1, 0.5, 0.9, 1};
+	
+	@Test
+	public void testQuantiles() {
+		Random r = new Random(3);
+		for (int trial = 0; trial < 30; trial ++) {
+			int n = 1 + r.nextInt(50000);
+			double[] values = new double[n];
+			QuantileSketch all = new QuantileSketch();
+			QuantileSketch part1 = new QuantileSketch();
+			QuantileSketch part2 = new QuantileSketch();
+			for (int i = 0; i < n; i ++) {
+				double v;
+				if (trial % 3 == 0) {
+					//elevation like, including negative values
+					v = r.nextGaussian() * 100;
+				}else if (trial % 3 == 1) {
+					v = Math.exp(r.nextGaussian() * 2);
+				}else {
+					//distance like, including zeros
+					v = r.nextInt(10) == 0 ? 0 : r.nextDouble() * 500;
+				}
+				values[i] = v;
+				all.add(v);
+				if (i % 2 == 0) {
+					part1.add(v);
+				}else {
+					part2.add(v);
+				}
+			}
+			part1.merge(part2);
+			Arrays.sort(values);
+			
+			Assert.assertEquals(n, all.getCount());
+			Assert.assertEquals(n, part1.getCount());
+			for (double q : QUANTILES) {
+				double expected = values[(int)Math.floor(q * (n - 1))];
+				double tolerance = Math.abs(expected) * QuantileSketch.RELATIVE_ACCURACY + QuantileSketch.MIN_VALUE;
+				Assert.assertEquals("Quantile " + q, expected, all.getQuantile(q), tolerance);
+				Assert.assertEquals("Merged quantile " + q, expected, part1.getQuantile(q), tolerance);
+			}
+		}
+	}
+	
+	@Test
+	public void testBoundedBins() {
+		//values spanning more bins than are kept; the high quantiles stay accurate
+		QuantileSketch sketch = new QuantileSketch();
+		int n = 100000;
+		for (int i = 0; i < n; i ++) sketch.add(Math.pow(10, -5 + 15.0 * i / n));
+		
+		double p50 = Math.pow(10, -5 + 15.0 * Math.floor(0.5 * (n - 1)) / n);
+		double p90 = Math.pow(10, -5 + 15.0 * Math.floor(0.9 * (n - 1)) / n);
+		Assert.assertEquals(p50, sketch.getQuantile(0.5), p50 * QuantileSketch.RELATIVE_ACCURACY);
+		Assert.assertEquals(p90, sketch.getQuantile(0.9), p90 * QuantileSketch.RELATIVE_ACCURACY);
+		Assert.assertEquals(Math.pow(10, -5), sketch.getQuantile(0), 0);
+	}
+	
+	@Test
+	public void testEmpty() {
+		Assert.assertTrue(Double.isNaN(new QuantileSketch().getQuantile(0.5)));
+	}
+}
@@ -50,6 +50,7 @@ public class TestDistance2DComputation {
 	public void testCatchmentComputations() throws Exception {
 		Distance2DProcessor processor = new Distance2DProcessor(chyfData, CRS.decode("EPSG:3978"));
 		processor.setCellSize(100);
+		processor.setMethod(Distance2DProcessor.Method.VECTOR);
 		processor.doWork(new ProgressMonitor());
 		Distance2DResult results = processor.getResults();
 		
@@ -66,4 +67,49 @@ public class TestDistance2DComputation {
 		Assert.assertEquals("Invalid 2d max distance for catchment 5", 166.52822583574235, results.getResult("Catchment.5").getMax(), 0.000000001);
 		
 	}
+	
+	@Test
+	public void testRasterComputations() throws Exception {
+		Distance2DProcessor vector = new Distance2DProcessor(chyfData, CRS.decode("EPSG:3978"));
+		vector.setCellSize(100);
+		vector.setMethod(Distance2DProcessor.Method.VECTOR);
+		vector.doWork(new ProgressMonitor());
+		
+		Distance2DProcessor raster = new Distance2DProcessor(chyfData, CRS.decode("EPSG:3978"));
+		raster.setCellSize(100);
+		raster.setMethod(Distance2DProcessor.Method.RASTER);
+		raster.doWork(new ProgressMonitor());
+		
+		//raster distances can exceed the actual distance by up to
+		//half a cell diagonal
+		double tolerance = 100 * Math.sqrt(2) / 2;
+		for (int i = 1; i <= 5; i ++) {
+			String fid = "Catchment." + i;
+			Distance2DResult.Statistics expected = vector.getResults().getResult(fid);
+			Distance2DResult.Statistics actual = raster.getResults().getResult(fid);
+			Assert.assertEquals("Invalid 2d mean distance for catchment " + i, expected.getMean(), actual.getMean(), tolerance);
+			Assert.assertEquals("Invalid 2d max distance for catchment " + i, expected.getMax(), actual.getMax(), tolerance);
+		}
+	}
+	
+	@Test
+	public void testParallelComputations() throws Exception {
+		Distance2DProcessor single = new Distance2DProcessor(chyfData, CRS.decode("EPSG:3978"));
+		single.setCellSize(100);
+		single.setWorkerCount(1);
+		single.doWork(new ProgressMonitor());
+		
+		Distance2DProcessor parallel = new Distance2DProcessor(chyfData, CRS.decode("EPSG:3978"));
+		parallel.setCellSize(100);
+		parallel.setWorkerCount(4);
+		parallel.doWork(new ProgressMonitor());
+		
+		for (int i = 1; i <= 5; i ++) {
+			String fid = "Catchment." + i;
+			Distance2DResult.Statistics expected = single.getResults().getResult(fid);
+			Distance2DResult.Statistics actual = parallel.getResults().getResult(fid);
+			Assert.assertEquals("Invalid 2d mean distance for catchment " + i, expected.getMean(), actual.getMean(), 0.000000001);
+			Assert.assertEquals("Invalid 2d max distance for catchment " + i, expected.getMax(), actual.getMax(), 0.000000001);
+		}
+	}
 }
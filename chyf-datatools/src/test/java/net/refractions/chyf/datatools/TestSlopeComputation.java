@@ -38,6 +38,7 @@ import net.refractions.chyf.datatools.processor.SEAProcessor;
 import net.refractions.chyf.datatools.processor.SEAResult;
 import net.refractions.chyf.datatools.processor.SEATileProcessor;
 import net.refractions.chyf.datatools.readers.ChyfShapeDataSource;
+import net.refractions.chyf.datatools.readers.DemWindow;
 import net.refractions.chyf.datatools.readers.GeoTiffDemReader;
 
 
@@ -196,5 +197,38 @@ public class TestSlopeComputation {
 		}
 		
 	}
-
+	
+	@Test
+	public void testReadWindow() throws Exception {
+		GeneralEnvelope env = elevationData.getFileBounds();
+		ReferencedEnvelope re = new ReferencedEnvelope(env.getMinimum(0), env.getMaximum(0), env.getMinimum(1), env.getMaximum(1), elevationData.getCrs());
+		GridCoverage2D allData = elevationData.getData(re);
+		int minx = allData.getRenderedImage().getMinX();
+		int miny = allData.getRenderedImage().getMinY();
+		int height = allData.getRenderedImage().getHeight();
+		
+		//window with one cell removed on each side plus part of a cell that should be included
+		double xs = elevationData.getXCellSize();
+		double ys = elevationData.getYCellSize();
+		ReferencedEnvelope bounds = new ReferencedEnvelope(re.getMinX() + xs, re.getMaxX() - xs * 1.5, re.getMinY() + ys * 0.5, re.getMaxY() - ys, re.getCoordinateReferenceSystem());
+		DemWindow window = elevationData.readWindow(bounds, null);
+		
+		Assert.assertEquals(re.getMinX() + xs, window.getXMin(), 1e-7);
+		Assert.assertEquals(re.getMinY(), window.getYMin(), 1e-7);
+		Assert.assertEquals((int)Math.round(re.getWidth() / xs) - 2, window.getWidth());
+		Assert.assertEquals((int)Math.round(re.getHeight() / ys) - 1, window.getHeight());
+		
+		for (int x = 0; x < window.getWidth(); x ++) {
+			for (int y = 0; y < window.getHeight(); y ++) {
+				//image rows start at the top
+				double expected = allData.getRenderedImage().getData().getSampleDouble(minx + x + 1, miny + height - 1 - y, 0);
+				Assert.assertEquals(expected, window.getValue(x, y), 1e-7);
+			}
+		}
+		
+		//reusing the window
+		DemWindow reused = elevationData.readWindow(re, window);
+		Assert.assertSame(window, reused);
+		Assert.assertEquals((int)Math.round(re.getWidth() / xs), reused.getWidth());
+	}
 }
@@ -26,6 +26,7 @@ import org.slf4j.MDC;
 import net.refractions.chyf.ChyfLogger;
 import net.refractions.chyf.ChyfLogger.Process;
 import net.refractions.chyf.datasource.ChyfGeoPackageDataSource;
+import net.refractions.chyf.datasource.GeoPackageCompactor;
 import net.refractions.chyf.datasource.ProcessingState;
 import net.refractions.chyf.flowpathconstructor.datasource.FlowpathGeoPackageDataSource;
 import net.refractions.chyf.flowpathconstructor.datasource.FlowpathPostGisLocalDataSource;
@@ -35,6 +36,7 @@ import net.refractions.chyf.flowpathconstructor.rank.RankEngine;
 import net.refractions.chyf.flowpathconstructor.skeletonizer.names.NameEngine;
 import net.refractions.chyf.flowpathconstructor.skeletonizer.points.PointEngine;
 import net.refractions.chyf.flowpathconstructor.skeletonizer.voronoi.SkeletonEngine;
+import net.refractions.chyf.util.ProcessStatistics;
 
 /**
  * Main class for running all flowpath constructor components
@@ -59,7 +61,12 @@ public class FlowpathConstructor {
 				ChyfGeoPackageDataSource.prepareOutput(input, output);
 				
 				dataSource = new FlowpathGeoPackageDataSource(output);
-				runDatasource(dataSource, runtime);
+				boolean processed = runDatasource(dataSource, runtime);
+				//a failed run is left as is for reviewing the errors
+				if (processed && runtime.isCompactOutput()) {
+					logger.info("Compacting Output");
+					((FlowpathGeoPackageDataSource)dataSource).compact(GeoPackageCompactor.DEFAULT_QUERY_COUNT);
+				}
 			}else if (runtime.isPostigs()){
 				if (runtime.hasAoi()) {
 					dataSource = new FlowpathPostGisLocalDataSource(runtime.getDbConnectionString(), runtime.getInput(), runtime.getOutput());
@@ -77,9 +84,15 @@ public class FlowpathConstructor {
 		}
 		long then = System.nanoTime();
 		logger.info("Processing Time: " + ( (then - now) / Math.pow(10, 9) ) + " seconds" );
+		if (runtime.getReportFile() != null) ProcessStatistics.getRunReport().writeJson(runtime.getReportFile());
 	}
 
-	private static void runDatasource(IFlowpathDataSource dataSource, FlowpathArgs runtime) {
+	/**
+	 * 
+	 * @return true if all the processing steps completed
+	 */
+	private static boolean runDatasource(IFlowpathDataSource dataSource, FlowpathArgs runtime) {
+		boolean processed = false;
 		try {
 			try {
 				MDC.put("aoi_id", runtime.getLogFileName());
@@ -97,6 +110,7 @@ public class FlowpathConstructor {
 				RankEngine.doWork(dataSource, prop);
 				logger.info("Applying Names To Skeletons");
 				NameEngine.doWork(dataSource, prop, runtime.getCores());
+				processed = true;
 			}catch (Throwable ex) {
 				ChyfLogger.INSTANCE.logException(Process.FLOWPATHFULL, ex);
 				logger.error(ex.getMessage(), ex);
@@ -105,9 +119,10 @@ public class FlowpathConstructor {
 			dataSource.finish();
 			
 			logger.info("Finished Processing AOI: " + runtime.getAoi());
-			
+			return processed;
 		}catch (IOException ex) {
 			logger.error(ex.getMessage(), ex);
+			return false;
 		}
 	}
 	
@@ -137,14 +152,19 @@ public class FlowpathConstructor {
 					ChyfProperties localprop = prop;
 					if (next[1] != null) localprop = ChyfProperties.getProperties(next[1]);
 					
+					//stops if the aoi was claimed by another worker
 					logger.info("Generating Constructions Points");
 					PointEngine.doWork(dataSource, localprop);
+					dataSource.checkLease();
 					logger.info("Generating Skeletons");
 					SkeletonEngine.doWork(dataSource, localprop, runtime.getCores());
+					dataSource.checkLease();
 					logger.info("Directionalizing Dataset");
 					DirectionalizeEngine.doWork(dataSource, localprop);
+					dataSource.checkLease();
 					logger.info("Computing Rank");
 					RankEngine.doWork(dataSource, localprop);
+					dataSource.checkLease();
 					logger.info("Applying Names To Skeletons");
 					NameEngine.doWork(dataSource, localprop, runtime.getCores());
 					dataSource.finish();
@@ -156,7 +176,11 @@ public class FlowpathConstructor {
 					}catch (Throwable ex2) {
 						logger.error(ex2.getMessage(), ex2);	
 					}
-					dataSource.setState(ProcessingState.FP_ERROR);
+					try {
+						dataSource.setState(ProcessingState.FP_ERROR);
+					}catch (IOException ex2) {
+						logger.error(ex2.getMessage(), ex2);
+					}
 				}
 				logger.info("Finished Processing AOI: " + aoi);
 				if (!all) break;
@@ -85,9 +85,15 @@ public class FlowpathGeoPackageDataSource extends ChyfGeoPackageDataSource imple
 	public FlowpathGeoPackageDataSource(Path geopackageFile) throws Exception {
 		super(geopackageFile);
 		
-		addInternalIdAttribute();
-		if (ChyfDataSource.findAttribute(getFeatureType(Layer.EFLOWPATHS), ChyfAttribute.DIRECTION) == null) {
-			addDirectionAttribute();
+		try {
+			addInternalIdAttribute();
+			if (ChyfDataSource.findAttribute(getFeatureType(Layer.EFLOWPATHS), ChyfAttribute.DIRECTION) == null) {
+				addDirectionAttribute();
+			}
+		}catch (Exception ex) {
+			//stops the log writer
+			close();
+			throw ex;
 		}
 		
 		ChyfLogger.INSTANCE.setDataSource(this);
@@ -104,7 +110,7 @@ public class FlowpathGeoPackageDataSource extends ChyfGeoPackageDataSource imple
 	
 	@Override
 	public void updateCoastline(FeatureId fid, LineString newls, Transaction tx) throws IOException {
-		try(SimpleFeatureWriter writer = geopkg.writer(getEntry(Layer.SHORELINES), false, ff.id(fid), tx)){
+		try(SimpleFeatureWriter writer = getFeatureWriter(getEntry(Layer.SHORELINES), false, ff.id(fid), tx)){
 			if (newls.getCoordinateSequence().getDimension() == 3) {
 				writer.getFeatureType().getGeometryDescriptor().getUserData().put(Hints.COORDINATE_DIMENSION, 3);
 			}else {
@@ -282,7 +288,7 @@ public class FlowpathGeoPackageDataSource extends ChyfGeoPackageDataSource imple
 			try {
 				for (Polygon polygon : polygons) {
 					FeatureId fid = PolygonInfo.getFeatureId(polygon);
-					try(SimpleFeatureWriter writer = geopkg.writer(waterbodiesLayer, false, ff.id(fid), tx)){
+					try(SimpleFeatureWriter writer = getFeatureWriter(waterbodiesLayer, false, ff.id(fid), tx)){
 						if (polygon.getExteriorRing().getCoordinateSequence().getDimension() == 3) {
 							writer.getFeatureType().getGeometryDescriptor().getUserData().put(Hints.COORDINATE_DIMENSION, 3);
 						}else {
@@ -320,7 +326,7 @@ public class FlowpathGeoPackageDataSource extends ChyfGeoPackageDataSource imple
 	public void writeRanks(Map<FeatureId, RankType> ranks) throws Exception{
 		
 		try(DefaultTransaction tx = new DefaultTransaction()){
-			try(SimpleFeatureWriter writer = geopkg.writer(getEntry(Layer.EFLOWPATHS), false, Filter.INCLUDE, tx)){
+			try(SimpleFeatureWriter writer = getFeatureWriter(getEntry(Layer.EFLOWPATHS), false, Filter.INCLUDE, tx)){
 				Name rankatt = ChyfDataSource.findAttribute(writer.getFeatureType(), ChyfAttribute.RANK);
 				while(writer.hasNext()) {
 					SimpleFeature sf = writer.next();
@@ -345,7 +351,7 @@ public class FlowpathGeoPackageDataSource extends ChyfGeoPackageDataSource imple
 		
 		try(DefaultTransaction tx = new DefaultTransaction()){
 			
-			try(SimpleFeatureWriter writer = geopkg.writer(getEntry(Layer.EFLOWPATHS), false, Filter.INCLUDE, tx)){
+			try(SimpleFeatureWriter writer = getFeatureWriter(getEntry(Layer.EFLOWPATHS), false, Filter.INCLUDE, tx)){
 				
 				Name name1 = ChyfDataSource.findAttribute(writer.getFeatureType(), ChyfAttribute.RIVERNAMEID1);
 				Name name2 = ChyfDataSource.findAttribute(writer.getFeatureType(), ChyfAttribute.RIVERNAMEID2);
@@ -380,7 +386,7 @@ public class FlowpathGeoPackageDataSource extends ChyfGeoPackageDataSource imple
 		try(DefaultTransaction tx = new DefaultTransaction()){
 			try {
 				//do 3d first
-				try(SimpleFeatureWriter writer = geopkg.writer(getEntry(Layer.EFLOWPATHS), false, Filter.INCLUDE, tx)){
+				try(SimpleFeatureWriter writer = getFeatureWriter(getEntry(Layer.EFLOWPATHS), false, Filter.INCLUDE, tx)){
 
 					Name diratt = ChyfDataSource.findAttribute(writer.getFeatureType(), ChyfAttribute.DIRECTION);
 					writer.getFeatureType().getGeometryDescriptor().getUserData().put(Hints.COORDINATE_DIMENSION, 3);
@@ -416,7 +422,7 @@ public class FlowpathGeoPackageDataSource extends ChyfGeoPackageDataSource imple
 		try(DefaultTransaction tx = new DefaultTransaction()){
 			try {
 				//do everything else
-				try(SimpleFeatureWriter writer = geopkg.writer(getEntry(Layer.EFLOWPATHS), false, Filter.INCLUDE, tx)){
+				try(SimpleFeatureWriter writer = getFeatureWriter(getEntry(Layer.EFLOWPATHS), false, Filter.INCLUDE, tx)){
 
 					Name diratt = ChyfDataSource.findAttribute(writer.getFeatureType(), ChyfAttribute.DIRECTION);
 					writer.getFeatureType().getGeometryDescriptor().getUserData().put(Hints.COORDINATE_DIMENSION, 2);
@@ -467,7 +473,7 @@ public class FlowpathGeoPackageDataSource extends ChyfGeoPackageDataSource imple
 			logger.info("Writing skeletons to geopackage");
 	
 			try(Transaction tx = new DefaultTransaction()) {	
-				try(SimpleFeatureWriter fw = geopkg.writer(getEntry(Layer.EFLOWPATHS), true, Filter.EXCLUDE, tx)){
+				try(SimpleFeatureWriter fw = getFeatureWriter(getEntry(Layer.EFLOWPATHS), true, Filter.EXCLUDE, tx)){
 					//all skeletons are always 2d
 					fw.getFeatureType().getGeometryDescriptor().getUserData().put(Hints.COORDINATE_DIMENSION, 2);
 					
@@ -544,6 +550,7 @@ public class FlowpathGeoPackageDataSource extends ChyfGeoPackageDataSource imple
 		}catch (SQLException ex) {
 			throw new IOException(ex);
 		}
+		layerModified(getEntry(Layer.EFLOWPATHS));
 	}
 	
 	
@@ -558,8 +565,7 @@ public class FlowpathGeoPackageDataSource extends ChyfGeoPackageDataSource imple
 			c.createStatement().execute(query);
 		}
 		
-		geopkg.close();
-		read();
+		reopen();
 	}
 	
 	@Override
@@ -584,8 +590,7 @@ public class FlowpathGeoPackageDataSource extends ChyfGeoPackageDataSource imple
 			}
 		}
 		
-		geopkg.close();
-		read();
+		reopen();
 	}
 	
 	/**
@@ -658,6 +663,7 @@ public class FlowpathGeoPackageDataSource extends ChyfGeoPackageDataSource imple
 		}catch (SQLException ex) {
 			throw new IOException (ex);
 		}
+		layerModified(getEntry(Layer.FEATURENAMES));
 
 	}
 
@@ -19,6 +19,7 @@ import java.io.IOException;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
+import java.sql.Statement;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
@@ -90,8 +91,14 @@ public class FlowpathPostGisDataSource extends ChyfPostGisDataSource implements
 
 		super(connectionString, inschema, outschema);
 		
-		if (ChyfDataSource.findAttribute(getFeatureType(Layer.EFLOWPATHS), ChyfAttribute.DIRECTION) == null) {
-			addDirectionAttribute();
+		try {
+			if (ChyfDataSource.findAttribute(getFeatureType(Layer.EFLOWPATHS), ChyfAttribute.DIRECTION) == null) {
+				addDirectionAttribute();
+			}
+		}catch (Exception ex) {
+			//stops the log writer
+			close();
+			throw ex;
 		}
 		
 		ChyfLogger.INSTANCE.setDataSource(this);
@@ -123,8 +130,8 @@ public class FlowpathPostGisDataSource extends ChyfPostGisDataSource implements
 			sb.append(") ");
 			
 		    
-		    try {
-		    	getConnection().createStatement().executeUpdate(sb.toString());
+		    try(Connection c = getConnection(); Statement s = c.createStatement()) {
+		    	s.executeUpdate(sb.toString());
 			} catch (SQLException e) {
 				throw new IOException(e);
 			}
@@ -145,84 +152,87 @@ public class FlowpathPostGisDataSource extends ChyfPostGisDataSource implements
 	 */
 	public void clearAoiOutputTables() throws IOException {
 		
-		Connection c = getConnection();
+		try(Connection c = getConnection()){
 		
-		StringBuilder sb = new StringBuilder();
-    	sb.append("DELETE FROM ");
-		sb.append(workingSchema + "." + CONSTRUCTION_PNTS_TABLE);
-		sb.append(" WHERE aoi_id = ?");
-		try(PreparedStatement ps = c.prepareStatement(sb.toString())){
-			ps.setObject(1, aoiUuid);
-			ps.executeUpdate();
-		} catch (SQLException e) {
-			throw new IOException(e);
-		}
+			StringBuilder sb = new StringBuilder();
+	    	sb.append("DELETE FROM ");
+			sb.append(workingSchema + "." + CONSTRUCTION_PNTS_TABLE);
+			sb.append(" WHERE aoi_id = ?");
+			try(PreparedStatement ps = c.prepareStatement(sb.toString())){
+				ps.setObject(1, aoiUuid);
+				ps.executeUpdate();
+			} catch (SQLException e) {
+				throw new IOException(e);
+			}
 
 		
-		sb = new StringBuilder();
-    	sb.append("DELETE FROM ");
-		sb.append(getTableName(Layer.ERRORS));
-		sb.append(" WHERE " + getAoiFieldName(Layer.ERRORS) + " = ?");
-		try(PreparedStatement ps = c.prepareStatement(sb.toString())){
-			ps.setObject(1, aoiUuid);
-			ps.executeUpdate();
-		} catch (SQLException e) {
-			throw new IOException(e);
-		}
+			sb = new StringBuilder();
+	    	sb.append("DELETE FROM ");
+			sb.append(getTableName(Layer.ERRORS));
+			sb.append(" WHERE " + getAoiFieldName(Layer.ERRORS) + " = ?");
+			try(PreparedStatement ps = c.prepareStatement(sb.toString())){
+				ps.setObject(1, aoiUuid);
+				ps.executeUpdate();
+			} catch (SQLException e) {
+				throw new IOException(e);
+			}
 		    
-	    //check if working tables exist;
-	    List<Layer> toProcess = new ArrayList<>();
-	    for (Layer l : Layer.values()) {
-	    	if (l == Layer.ERRORS) continue;
-	    	if (l == Layer.AOI) continue;
-	    	toProcess.add(l);
-	    }
-	    toProcess.add(Layer.AOI);
+		    //check if working tables exist;
+		    List<Layer> toProcess = new ArrayList<>();
+		    for (Layer l : Layer.values()) {
+		    	if (l == Layer.ERRORS) continue;
+		    	if (l == Layer.AOI) continue;
+		    	toProcess.add(l);
+		    }
+		    toProcess.add(Layer.AOI);
 	    
-	    for (Layer l : toProcess) {
-	    	sb = new StringBuilder();
-    		//delete everything from aoi
-    		sb.append("DELETE FROM ");
-    		sb.append( workingSchema + "." + getTypeName(l) );
-    		sb.append(" WHERE ");
-    		sb.append(getAoiFieldName(l));
-    		sb.append(" = ? ");
+		    for (Layer l : toProcess) {
+		    	sb = new StringBuilder();
+	    		//delete everything from aoi
+	    		sb.append("DELETE FROM ");
+	    		sb.append( workingSchema + "." + getTypeName(l) );
+	    		sb.append(" WHERE ");
+	    		sb.append(getAoiFieldName(l));
+	    		sb.append(" = ? ");
 	    		
-    		try(PreparedStatement ps = c.prepareStatement(sb.toString())){
-    			ps.setObject(1, aoiUuid);
-    			ps.executeUpdate();
-    		}catch(SQLException ex) {
-    			throw new IOException(ex);
-    		}
+	    		try(PreparedStatement ps = c.prepareStatement(sb.toString())){
+	    			ps.setObject(1, aoiUuid);
+	    			ps.executeUpdate();
+	    		}catch(SQLException ex) {
+	    			throw new IOException(ex);
+	    		}
 	    	
-    		//we create this table and don't want to copy stuff into working schema from it
-    		if (l == Layer.FEATURENAMES) continue;
+	    		//we create this table and don't want to copy stuff into working schema from it
+	    		if (l == Layer.FEATURENAMES) continue;
     		
-    		SimpleFeatureType rtype = rawDataStore.getSchema(getTypeName(l));
-    		Name internalidatt = ChyfDataSource.findAttribute(rtype, ChyfAttribute.INTERNAL_ID);
+	    		SimpleFeatureType rtype = rawDataStore.getSchema(getTypeName(l));
+	    		Name internalidatt = ChyfDataSource.findAttribute(rtype, ChyfAttribute.INTERNAL_ID);
     		
-    		sb = new StringBuilder();
-    		sb.append("INSERT INTO ");
-    		sb.append(workingSchema + "." + getTypeName(l));
-    		sb.append(" SELECT ");
-    		if (l != Layer.AOI && internalidatt == null) {
-    			sb.append("uuid_generate_v4() as " + ChyfAttribute.INTERNAL_ID.getFieldName());
-    			sb.append(",");
-    		}
-    		sb.append(" a.* ");
-    		sb.append(" FROM " + rawSchema + "." + getTypeName(l) + " a ");
-    		sb.append(" WHERE ");
-    		sb.append(getAoiFieldName(l));
-    		sb.append(" = " );
-    		sb.append (" ? ");
+	    		sb = new StringBuilder();
+	    		sb.append("INSERT INTO ");
+	    		sb.append(workingSchema + "." + getTypeName(l));
+	    		sb.append(" SELECT ");
+	    		if (l != Layer.AOI && internalidatt == null) {
+	    			sb.append("uuid_generate_v4() as " + ChyfAttribute.INTERNAL_ID.getFieldName());
+	    			sb.append(",");
+	    		}
+	    		sb.append(" a.* ");
+	    		sb.append(" FROM " + rawSchema + "." + getTypeName(l) + " a ");
+	    		sb.append(" WHERE ");
+	    		sb.append(getAoiFieldName(l));
+	    		sb.append(" = " );
+	    		sb.append (" ? ");
     		
-    		try(PreparedStatement ps = c.prepareStatement(sb.toString())){
-    			ps.setObject(1, aoiUuid);
-    			ps.executeUpdate();
-    		}catch(SQLException ex) {
-    			throw new IOException(ex);
-    		}	    		   
-	    }
+	    		try(PreparedStatement ps = c.prepareStatement(sb.toString())){
+	    			ps.setObject(1, aoiUuid);
+	    			ps.executeUpdate();
+	    		}catch(SQLException ex) {
+	    			throw new IOException(ex);
+	    		}	    		   
+		    }
+		}catch (SQLException ex) {
+			throw new IOException(ex);
+		}
 	}
 	
 	@Override
@@ -349,7 +359,7 @@ public class FlowpathPostGisDataSource extends ChyfPostGisDataSource implements
 		sb.append(getAoiFieldName(null));
 		sb.append(" = ?");
 		
-		try(PreparedStatement ps = getConnection().prepareStatement(sb.toString())){
+		try(Connection c = getConnection(); PreparedStatement ps = c.prepareStatement(sb.toString())){
 			ps.setObject(1, aoiUuid);
 			ps.executeUpdate();
 		}catch (SQLException ex) {
@@ -687,23 +697,21 @@ public class FlowpathPostGisDataSource extends ChyfPostGisDataSource implements
 	 */
 	@Override
 	public void removeExistingSkeletons(boolean bankOnly) throws IOException {
-		try {
-			Connection c = getConnection();
-			
-			StringBuilder sb = new StringBuilder();
-			sb.append("DELETE FROM ");
-			sb.append(getTableName(Layer.EFLOWPATHS));
-			sb.append(" WHERE ");
-			sb.append(ChyfAttribute.EFTYPE.getFieldName());
-			sb.append(" IN (" );
-			sb.append(EfType.BANK.getChyfValue());
-			if (!bankOnly) {
-				sb.append(",");
-				sb.append(EfType.SKELETON.getChyfValue());	
-			}
-			sb.append(")");
-			
-			c.createStatement().execute(sb.toString());
+		StringBuilder sb = new StringBuilder();
+		sb.append("DELETE FROM ");
+		sb.append(getTableName(Layer.EFLOWPATHS));
+		sb.append(" WHERE ");
+		sb.append(ChyfAttribute.EFTYPE.getFieldName());
+		sb.append(" IN (" );
+		sb.append(EfType.BANK.getChyfValue());
+		if (!bankOnly) {
+			sb.append(",");
+			sb.append(EfType.SKELETON.getChyfValue());	
+		}
+		sb.append(")");
+		
+		try(Connection c = getConnection(); Statement s = c.createStatement()){
+			s.execute(sb.toString());
 		}catch (SQLException ex) {
 			throw new IOException(ex);
 		}
@@ -714,12 +722,13 @@ public class FlowpathPostGisDataSource extends ChyfPostGisDataSource implements
 		
 		String tablename = getTableName(Layer.EFLOWPATHS);
 
-		Connection c = getConnection();
-		String query = "ALTER TABLE " + tablename + " add column " + ChyfAttribute.DIRECTION.getFieldName()  + " integer ";
-		c.createStatement().execute(query);
-		
-		query = "UPDATE TABLE " + tablename + " set " + ChyfAttribute.DIRECTION.getFieldName()  + " = " + DirectionType.UNKNOWN.getChyfValue();
-		c.createStatement().execute(query);
+		try(Connection c = getConnection(); Statement s = c.createStatement()){
+			String query = "ALTER TABLE " + tablename + " add column " + ChyfAttribute.DIRECTION.getFieldName()  + " integer ";
+			s.execute(query);
+			
+			query = "UPDATE TABLE " + tablename + " set " + ChyfAttribute.DIRECTION.getFieldName()  + " = " + DirectionType.UNKNOWN.getChyfValue();
+			s.execute(query);
+		}
 		
 		resetWorkingDataStore();
 	}
@@ -730,9 +739,10 @@ public class FlowpathPostGisDataSource extends ChyfPostGisDataSource implements
 
 		String tablename = getTableName(Layer.EFLOWPATHS);
 
-		Connection c = getConnection();
-		String query = "ALTER TABLE " + tablename + " add column " + ChyfAttribute.RANK.getFieldName()  + " integer ";
-		c.createStatement().execute(query);
+		try(Connection c = getConnection(); Statement s = c.createStatement()){
+			String query = "ALTER TABLE " + tablename + " add column " + ChyfAttribute.RANK.getFieldName()  + " integer ";
+			s.execute(query);
+		}
 		
 		resetWorkingDataStore();
 	}
@@ -804,8 +814,8 @@ public class FlowpathPostGisDataSource extends ChyfPostGisDataSource implements
 		}	
 		
 		sb.append(" ) foo ");
-		try{
-			getConnection().createStatement().execute(sb.toString());
+		try(Connection c = getConnection(); Statement s = c.createStatement()){
+			s.execute(sb.toString());
 		}catch (SQLException ex) {
 			throw new IOException(ex);
 		}
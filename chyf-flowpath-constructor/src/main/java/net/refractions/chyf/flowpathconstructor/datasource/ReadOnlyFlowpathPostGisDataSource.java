@@ -29,13 +29,10 @@ import java.util.NoSuchElementException;
 import java.util.Set;
 import java.util.UUID;
 
-import org.geotools.data.DataStoreFinder;
 import org.geotools.data.FeatureReader;
 import org.geotools.data.Transaction;
 import org.geotools.data.simple.SimpleFeatureSource;
 import org.geotools.data.util.NullProgressListener;
-import org.geotools.jdbc.JDBCDataStore;
-import org.geotools.jdbc.JDBCDataStoreFactory;
 import org.geotools.referencing.CRS;
 import org.locationtech.jts.geom.Coordinate;
 import org.locationtech.jts.geom.Geometry;
@@ -57,6 +54,7 @@ import net.refractions.chyf.datasource.ChyfDataSource;
 import net.refractions.chyf.datasource.ChyfPostGisDataSource;
 import net.refractions.chyf.datasource.FlowDirection;
 import net.refractions.chyf.datasource.Layer;
+import net.refractions.chyf.datasource.PostGisConnectionPool;
 import net.refractions.chyf.datasource.RankType;
 import net.refractions.chyf.flowpathconstructor.skeletonizer.points.ConstructionPoint;
 import net.refractions.chyf.flowpathconstructor.skeletonizer.voronoi.SkelLineString;
@@ -78,45 +76,11 @@ public class ReadOnlyFlowpathPostGisDataSource extends ChyfPostGisDataSource imp
 		
 		this.workingSchema = schema;
 		
-		int port = 5432;
-		String host = null;
-		String dbname = null;
-		String user = null;
-		String password = null;
-		
-		String[] bits = connectionString.split(";");
-		for (String bit : bits) {
-			if (bit.toLowerCase().contains("host=")) {
-				host = bit.substring("host=".length());
-			}else if (bit.toLowerCase().contains("db=")) {
-				dbname = bit.substring("db=".length());
-			}else if (bit.toLowerCase().contains("user=")) {
-				user = bit.substring("user=".length());
-			}else if (bit.toLowerCase().contains("password=")) {
-				password = bit.substring("password=".length());
-			}else if (bit.toLowerCase().contains("port=")) {
-				String sport = bit.substring("port=".length());
-				port = Integer.valueOf(sport);
-			}
-		}
-		connectionParameters = new HashMap<>();
-		connectionParameters.put("dbtype", "postgis");
-		connectionParameters.put("host", host);
-		connectionParameters.put("port", port);
-		connectionParameters.put("schema", workingSchema);
-		connectionParameters.put("database", dbname);
-		connectionParameters.put("user", user);
-		connectionParameters.put("passwd", password);
-
-		connectionParameters.put(JDBCDataStoreFactory.EXPOSE_PK.key, Boolean.TRUE);
-	    connectionParameters.put("schema", workingSchema);
-	    workingDataStore = DataStoreFinder.getDataStore(connectionParameters);
-	    
-	    
-	    Connection c = ((JDBCDataStore)workingDataStore).getConnection(Transaction.AUTO_COMMIT);
+		pool = new PostGisConnectionPool(connectionString);
+	    workingDataStore = pool.getDataStore(workingSchema);
 	    
 		// read the srid from the eflowpath table
-		try {
+		try (Connection c = pool.getConnection()){
 			StringBuilder sb = new StringBuilder();
 			sb.append("SELECT srid ");
 			sb.append("FROM geometry_columns ");
@@ -139,6 +103,7 @@ public class ReadOnlyFlowpathPostGisDataSource extends ChyfPostGisDataSource imp
 			throw new IOException(
 					"Could not determine srid of eflowpath table - ensure a valid srid exists in the geometry column tables for the eflowpath table");
 		}
+		startLog();
 	}
 
 	
@@ -175,13 +140,14 @@ public class ReadOnlyFlowpathPostGisDataSource extends ChyfPostGisDataSource imp
 	@Override
 	public void setAoi(String aoiId) throws IOException {
 		//query aoi table for aoi id
-	    Connection c = ((JDBCDataStore)workingDataStore).getConnection(Transaction.AUTO_COMMIT);
 	    StringBuilder sb = new StringBuilder();
 	    sb.append("SELECT id FROM ");
 	    sb.append(workingSchema + "." + getTypeName(Layer.AOI));
 	    sb.append(" WHERE name = ? ");
 	    
-	    try(PreparedStatement ps = c.prepareStatement(sb.toString())){
+	    aoiUuid = null;
+	    try(Connection c = pool.getConnection();
+	    		PreparedStatement ps = c.prepareStatement(sb.toString())){
 	    	ps.setString(1, aoiId);
 	    	try(ResultSet rs = ps.executeQuery()){
 	    		if (rs.next()) {
@@ -43,6 +43,7 @@ public class WaterbodyIterator {
 
 	private List<FeatureId> wbToProcess;
 	private IFlowpathDataSource source;
+	private int count;
 	
 	public WaterbodyIterator(IFlowpathDataSource source) throws Exception {
 		this.source = source;
@@ -74,6 +75,14 @@ public class WaterbodyIterator {
 				}
 			}
 		}
+		count = wbToProcess.size();
+	}
+	
+	/**
+	 * @return the total number of waterbodies to process
+	 */
+	public int getCount() {
+		return count;
 	}
 	
 	/**
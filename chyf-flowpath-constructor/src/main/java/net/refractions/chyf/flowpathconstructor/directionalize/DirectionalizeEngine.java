@@ -55,6 +55,8 @@ import net.refractions.chyf.flowpathconstructor.directionalize.graph.DEdge;
 import net.refractions.chyf.flowpathconstructor.directionalize.graph.DGraph;
 import net.refractions.chyf.flowpathconstructor.directionalize.graph.DNode;
 import net.refractions.chyf.flowpathconstructor.directionalize.graph.EdgeInfo;
+import net.refractions.chyf.util.ProcessStatistics;
+import net.refractions.chyf.util.RunReport;
 
 /**
  * Main class for computing direction on dataset
@@ -73,8 +75,8 @@ public class DirectionalizeEngine {
 	
 	
 	public static void doWork(IFlowpathDataSource dataSource, ChyfProperties properties) throws Exception {
-		try {
-			doWorkInternal(dataSource, properties);
+		try(RunReport.Stage stage = ProcessStatistics.startStage("DirectionalizeEngine")) {
+			doWorkInternal(dataSource, properties, stage);
 		}catch (ExceptionWithLocation ex) {
 			ChyfLogger.INSTANCE.logException(ChyfLogger.Process.DIRECTION, ex);
 			throw ex;
@@ -84,7 +86,7 @@ public class DirectionalizeEngine {
 		}
 	}
 	
-	private static void doWorkInternal(IFlowpathDataSource dataSource, ChyfProperties properties) throws Exception {
+	private static void doWorkInternal(IFlowpathDataSource dataSource, ChyfProperties properties, RunReport.Stage stage) throws Exception {
 		if (properties == null) properties = ChyfProperties.getProperties(dataSource.getCoordinateReferenceSystem());
 
 		CoordinateReferenceSystem sourceCRS = null;	
@@ -133,6 +135,8 @@ public class DirectionalizeEngine {
 			}
 		}
 		
+		stage.addItems(edges.size());
+		
 		//create graph
 		logger.info("build graph");
 		DGraph graph = DGraph.buildGraphLines(edges);
@@ -41,6 +41,8 @@ import net.refractions.chyf.flowpathconstructor.FlowpathArgs;
 import net.refractions.chyf.flowpathconstructor.datasource.FlowpathGeoPackageDataSource;
 import net.refractions.chyf.flowpathconstructor.datasource.FlowpathPostGisLocalDataSource;
 import net.refractions.chyf.flowpathconstructor.datasource.IFlowpathDataSource;
+import net.refractions.chyf.util.ProcessStatistics;
+import net.refractions.chyf.util.RunReport;
 
 /**
  * Main class for computing Rank in dataset
@@ -58,8 +60,8 @@ public class RankEngine {
 	}
 	
 	public static void doWork(IFlowpathDataSource dataSource, ChyfProperties properties) throws Exception {
-		try {
-			doWorkInternal(dataSource, properties);
+		try(RunReport.Stage stage = ProcessStatistics.startStage("RankEngine")) {
+			doWorkInternal(dataSource, properties, stage);
 		}catch (ExceptionWithLocation ex) {
 			ChyfLogger.INSTANCE.logException(ChyfLogger.Process.RANK, ex);
 			throw ex;
@@ -69,7 +71,7 @@ public class RankEngine {
 		}
 	}
 	
-	private static void doWorkInternal(IFlowpathDataSource dataSource, ChyfProperties properties) throws Exception {
+	private static void doWorkInternal(IFlowpathDataSource dataSource, ChyfProperties properties, RunReport.Stage stage) throws Exception {
 		logger.info("build graph");
 		RGraph graph = new RGraph();
 		CoordinateReferenceSystem crs;
@@ -92,6 +94,7 @@ public class RankEngine {
 			while(reader.hasNext()) {
 				SimpleFeature sf = reader.next();
 				graph.addEdge(sf, eftypeatt);	
+				stage.addItems(1);
 			}
 		}
 		
@@ -38,6 +38,8 @@ import net.refractions.chyf.flowpathconstructor.datasource.FlowpathGeoPackageDat
 import net.refractions.chyf.flowpathconstructor.datasource.IFlowpathDataSource;
 import net.refractions.chyf.flowpathconstructor.datasource.NameFlowpathPostGisLocalDataSource;
 import net.refractions.chyf.flowpathconstructor.datasource.WaterbodyIterator;
+import net.refractions.chyf.util.ProcessStatistics;
+import net.refractions.chyf.util.RunReport;
 
 /**
  * Attempts to apply names to skeletons inside waterbodies based on the names
@@ -57,8 +59,8 @@ public class NameEngine {
 	}
 	
 	public static void doWork(IFlowpathDataSource dataSource, ChyfProperties properties, int cores) throws Exception {
-		try {
-			doWorkInternal(dataSource, properties, cores);
+		try(RunReport.Stage stage = ProcessStatistics.startStage("NameEngine")) {
+			doWorkInternal(dataSource, properties, cores, stage);
 		}catch (ExceptionWithLocation ex) {
 			ChyfLogger.INSTANCE.logException(ChyfLogger.Process.NAMING, ex);
 			throw ex;
@@ -68,11 +70,12 @@ public class NameEngine {
 		}
 	}
 	
-	private static void doWorkInternal(IFlowpathDataSource dataSource, ChyfProperties properties, int cores) throws Exception {
+	private static void doWorkInternal(IFlowpathDataSource dataSource, ChyfProperties properties, int cores, RunReport.Stage stage) throws Exception {
 		
 		ExecutorService service = Executors.newFixedThreadPool(4);
 		List<NameJob> tasks = new ArrayList<>();
 		WaterbodyIterator iterator = new WaterbodyIterator(dataSource);
+		stage.addItems(iterator.getCount());
 		
 		for (int i = 0; i < cores; i ++) {
 			NameJob job = new NameJob(dataSource, iterator, MDC.getCopyOfContextMap());
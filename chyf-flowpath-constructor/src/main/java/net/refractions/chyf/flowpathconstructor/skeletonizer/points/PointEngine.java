@@ -63,6 +63,8 @@ import net.refractions.chyf.flowpathconstructor.datasource.FlowpathPostGisLocalD
 import net.refractions.chyf.flowpathconstructor.datasource.IFlowpathDataSource;
 import net.refractions.chyf.flowpathconstructor.datasource.TerminalNode;
 import net.refractions.chyf.flowpathconstructor.datasource.WaterbodyIterator;
+import net.refractions.chyf.util.ProcessStatistics;
+import net.refractions.chyf.util.RunReport;
 
 /**
  * Engine for generating skeleton input/output points. Attempts to apply names
@@ -115,7 +117,7 @@ public class PointEngine {
 	}
 
 	public void doWork(IFlowpathDataSource dataSource) throws Exception{
-		try {
+		try(RunReport.Stage stage = ProcessStatistics.startStage("PointEngine")) {
 			this.dataSource = dataSource;
 			if (properties == null) properties = ChyfProperties.getProperties(dataSource.getCoordinateReferenceSystem());
 			
@@ -131,6 +133,7 @@ public class PointEngine {
 			Name idAttribute = ChyfDataSource.findAttribute(dataSource.getFeatureType(Layer.ECATCHMENTS), ChyfAttribute.INTERNAL_ID);
 			
 			WaterbodyIterator iterator = new WaterbodyIterator(dataSource);
+			stage.addItems(iterator.getCount());
 			SimpleFeature toProcess = null;
 			while((toProcess = iterator.getNextWaterbody()) != null) {
 	
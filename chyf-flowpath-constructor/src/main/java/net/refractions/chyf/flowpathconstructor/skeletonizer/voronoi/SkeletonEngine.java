@@ -37,6 +37,8 @@ import net.refractions.chyf.flowpathconstructor.datasource.FlowpathGeoPackageDat
 import net.refractions.chyf.flowpathconstructor.datasource.FlowpathPostGisLocalDataSource;
 import net.refractions.chyf.flowpathconstructor.datasource.IFlowpathDataSource;
 import net.refractions.chyf.flowpathconstructor.datasource.WaterbodyIterator;
+import net.refractions.chyf.util.ProcessStatistics;
+import net.refractions.chyf.util.RunReport;
 
 /**
  * Manages the running of the skeletonizer  
@@ -63,6 +65,12 @@ public class SkeletonEngine {
 	}
 
 	public static void doWork(IFlowpathDataSource dataSource, ChyfProperties properties, int cores) throws Exception {
+		try(RunReport.Stage stage = ProcessStatistics.startStage("SkeletonEngine")){
+			doWorkInternal(dataSource, properties, cores, stage);
+		}
+	}
+	
+	private static void doWorkInternal(IFlowpathDataSource dataSource, ChyfProperties properties, int cores, RunReport.Stage stage) throws Exception {
 		if (properties == null) properties = ChyfProperties.getProperties(dataSource.getCoordinateReferenceSystem());
 
 		dataSource.removeExistingSkeletons(false);
@@ -73,6 +81,7 @@ public class SkeletonEngine {
 		ExecutorService service = Executors.newFixedThreadPool(4);
 		List<SkeletonJob> tasks = new ArrayList<>();
 		WaterbodyIterator iterator = new WaterbodyIterator(dataSource);
+		stage.addItems(iterator.getCount());
 		
 		for (int i = 0; i < cores; i ++) {
 			SkeletonJob j1 = new SkeletonJob(dataSource, iterator, generator, MDC.getCopyOfContextMap());
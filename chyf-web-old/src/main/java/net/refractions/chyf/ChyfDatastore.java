@@ -16,6 +16,7 @@
 package net.refractions.chyf;
 
 import java.io.File;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -25,6 +26,7 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
 import java.util.stream.Stream;
+import java.util.zip.CRC32;
 
 import org.geotools.referencing.CRS;
 import org.locationtech.jts.geom.Geometry;
@@ -37,6 +39,7 @@ import org.slf4j.LoggerFactory;
 
 import net.refractions.chyf.hygraph.HyGraph;
 import net.refractions.chyf.hygraph.HyGraphBuilder;
+import net.refractions.chyf.hygraph.HyGraphSnapshot;
 
 public class ChyfDatastore {
 
@@ -66,15 +69,36 @@ public class ChyfDatastore {
 	 * Creates a new datastore reading input data from database
 	 */
 	public ChyfDatastore() {
+		this((Path)null);
+	}
+	
+	/**
+	 * Creates a new datastore reading input data from database.  If a snapshot
+	 * file is provided the graph is loaded from the snapshot when it exists,
+	 * and it was built from the same rows (see {@link ChyfPostgresqlReader#getSourceVersions()}),
+	 * otherwise the graph is built from the database and written to the snapshot.
+	 * 
+	 * @param snapshot the HyGraph snapshot file (may be null)
+	 */
+	public ChyfDatastore(Path snapshot) {
 		try {
-			HyGraphBuilder gb = new HyGraphBuilder();
-			List<Geometry> boundaries = new ArrayList<>();
-
-			reader = new ChyfPostgresqlReader();
-			reader.read(gb);
-			boundaries = reader.getBoundaries();
-
-			hyGraph = gb.build(boundaries);
+			long start = System.nanoTime();
+			ChyfPostgresqlReader dbreader = new ChyfPostgresqlReader();
+			reader = dbreader;
+			long sourceKey = snapshot == null ? 0 : sourceKey(dbreader.getSourceVersions());
+			hyGraph = readSnapshot(snapshot, sourceKey);
+			if (hyGraph == null) {
+				HyGraphBuilder gb = new HyGraphBuilder();
+				List<Geometry> boundaries = new ArrayList<>();
+	
+				reader.read(gb);
+				boundaries = reader.getBoundaries();
+	
+				hyGraph = gb.build(boundaries);
+				logger.info("HyGraph built from database in " + ((System.nanoTime() - start) / 1_000_000) + " ms");
+				writeSnapshot(snapshot, sourceKey);
+			}
+			precomputeDrainageAreas();
 		} catch (Exception e) {
 			throw new RuntimeException(e);
 		}
@@ -87,11 +111,26 @@ public class ChyfDatastore {
 	 * @param dataDir
 	 */
 	public ChyfDatastore(String dataDir) {
+		this(dataDir, null);
+	}
+	
+	/**
+	 * Creates a new datastore reading input data from the data folder provided.  If a 
+	 * snapshot file is provided and it was built from the same input data (same
+	 * files, sizes and modified times in the data folder) the graph is loaded from the snapshot, otherwise 
+	 * the graph is built from the datasets and written to the snapshot.
+	 *   
+	 * @param dataDir
+	 * @param snapshot the HyGraph snapshot file (may be null)
+	 */
+	public ChyfDatastore(String dataDir, Path snapshot) {
 		try {
+			long start = System.nanoTime();
 			//search for all possible input datasets
 			//these can either be geopackages or shapefiles
 			Path p = Paths.get(dataDir);
 			Set<String> inputs = new HashSet<>();
+			List<String> sources = new ArrayList<>();
 			try(Stream<Path> stream = Files.walk(p)){
 				for (Iterator<Path> iterator = stream.iterator(); iterator.hasNext();) {
 					Path item = iterator.next();
@@ -100,21 +139,71 @@ public class ChyfDatastore {
 					}else if (item.toString().endsWith(".shp")) {
 						inputs.add(item.getParent().toString() + File.separator);
 					}
+					if (Files.isRegularFile(item) && (snapshot == null || !item.toAbsolutePath().toString().startsWith(snapshot.toAbsolutePath().toString()))) {
+						sources.add(item.toString() + "|" + Files.size(item) + "|" + Files.getLastModifiedTime(item).toMillis());
+					}
 				}
 			}
-			
-		    HyGraphBuilder gb = new HyGraphBuilder();
-		    List<Geometry> boundaries = new ArrayList<>();
-		    //add each of these datasets
-		    for (String in : inputs) {
-		    	boundaries.addAll(addDataset(in, gb));
-		    }
-		    hyGraph = gb.build(boundaries);
+			long sourceKey = sourceKey(sources);
+			hyGraph = readSnapshot(snapshot, sourceKey);
+			if (hyGraph == null) {
+			    HyGraphBuilder gb = new HyGraphBuilder();
+			    List<Geometry> boundaries = new ArrayList<>();
+			    //add each of these datasets
+			    for (String in : inputs) {
+			    	boundaries.addAll(addDataset(in, gb));
+			    }
+			    hyGraph = gb.build(boundaries);
+			    logger.info("HyGraph built from " + inputs.size() + " datasets in " + ((System.nanoTime() - start) / 1_000_000) + " ms");
+			    writeSnapshot(snapshot, sourceKey);
+			}
+		    precomputeDrainageAreas();
 		}catch (Exception e) {
 			throw new RuntimeException(e);
 		}
 	}
 
+	/**
+	 * Reads the graph from the snapshot if it exists and matches the source key
+	 * 
+	 * @return the graph or null if it must be built from the source data 
+	 */
+	private HyGraph readSnapshot(Path snapshot, long sourceKey) {
+		if (snapshot == null || !Files.isRegularFile(snapshot)) return null;
+		try {
+			return HyGraphSnapshot.read(snapshot, sourceKey);
+		}catch (Exception ex) {
+			logger.warn("Unable to read HyGraph snapshot " + snapshot + "; reading source data", ex);
+			return null;
+		}
+	}
+	
+	private void writeSnapshot(Path snapshot, long sourceKey) {
+		if (snapshot == null) return;
+		try {
+			HyGraphSnapshot.write(hyGraph, snapshot, sourceKey);
+		}catch (Exception ex) {
+			logger.warn("Unable to write HyGraph snapshot " + snapshot, ex);
+		}
+	}
+	
+	private static long sourceKey(List<String> sources) {
+		CRC32 crc = new CRC32();
+		sources.stream().sorted().forEach(s->crc.update(s.getBytes(StandardCharsets.UTF_8)));
+		return crc.getValue();
+	}
+	
+	/**
+	 * Fills the upstream drainage area cache in a background
+	 * thread so startup is not delayed
+	 */
+	private void precomputeDrainageAreas() {
+		Thread t = new Thread(()->{
+			hyGraph.getDrainageAreaCache().precompute();
+		}, "drainage-area-precompute");
+		t.setDaemon(true);
+		t.start();
+	}
 	
 	public ChyfDataReader getReader() {
 		return this.reader;
@@ -66,6 +66,9 @@ public class ChyfPostgresqlReader extends ChyfDataReader{
 	public static int SRID = 4326;
 	public static WKBReader READER = new WKBReader(new GeometryFactory(new PrecisionModel(), SRID));
 	
+	//queries.properties keys of the queries read by read(HyGraphBuilder)
+	private static final String[] SOURCE_QUERIES = {"sql.select.waterbody", "sql.select.catchment", "sql.select.flowpath", "sql.select.workinglimit"};
+	
 	protected List<Geometry> boundaries = new ArrayList<>();
 	
 	private AnnotationConfigApplicationContext context;
@@ -86,6 +89,27 @@ public class ChyfPostgresqlReader extends ChyfDataReader{
 		return this.boundaries;
 	}
 	
+	/**
+	 * Summarizes the rows returned by each source query so a HyGraph
+	 * snapshot can be checked against the current database.  The row
+	 * count and an order independent hash of the row values are computed
+	 * in the database, so any insert, update or delete changes the result.
+	 * 
+	 * @return one entry per source query
+	 */
+	public List<String> getSourceVersions() {
+		SpringJdbcConfiguration config = context.getBean(SpringJdbcConfiguration.class);
+		List<String> versions = new ArrayList<>();
+		for (String property : SOURCE_QUERIES) {
+			String query = context.getEnvironment().getProperty(property).trim();
+			if (query.endsWith(";")) query = query.substring(0, query.length() - 1);
+			String summary = config.jdbcTemplate().queryForObject(
+					"SELECT count(*) || '|' || coalesce(sum(hashtext(q::text)), 0) FROM (" + query + ") q", String.class);
+			versions.add(query + "|" + summary);
+		}
+		return versions;
+	}
+	
 	public void read(HyGraphBuilder gb ) throws Exception{
 		
 		CoordinateReferenceSystem dbCRS = GeotoolsGeometryReprojector.srsCodeToCRS(SRID);
@@ -25,7 +25,8 @@ import org.slf4j.LoggerFactory;
 
 /**
  * Simple File based vector tile cache.  This has been
- * replaced by EHCache
+ * replaced by EHCache.  See {@link PackedVectorTileCache}
+ * for a file based cache that does not create a file per tile.
  * 
  * @author Emily
  *
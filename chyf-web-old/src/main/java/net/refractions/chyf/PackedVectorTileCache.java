@@ -0,0 +1,298 @@
+/*
+ * Copyright 2019 Government of Canada
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.refractions.chyf;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.EnumMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Vector tile cache that stores all the tiles of a layer in a single
+ * append-only pack file instead of a file per tile.
+ *
+ * Each record in the pack file is a header (z, x, y, tile length) followed
+ * by the tile bytes.  An in-memory index maps each tile to the offset
+ * and length of its latest record; the index is rebuilt by scanning the
+ * record headers when the cache is opened and any incomplete record at
+ * the end of the file (from an interrupted write) is discarded.
+ *
+ * Reads use positional reads on a shared channel and can run concurrently
+ * with each other and with the single writer; a tile is only added to the index
+ * once its record has been completely written.  Interrupting a thread doing
+ * I/O closes the shared channel, so it is reopened for the other threads.  Clearing a layer switches to a
+ * new, empty, pack file (the next generation) in a single step and then deletes
+ * the old file.
+ *
+ */
+public class PackedVectorTileCache implements Closeable {
+
+	static final Logger logger = LoggerFactory.getLogger(PackedVectorTileCache.class.getCanonicalName());
+
+	private static final String EXTENSION = ".pack";
+	private static final int HEADER_SIZE = 16;
+	private static final int MAX_ZOOM = 28;
+
+	private final Path root;
+	private final EnumMap<VectorTileLayer, LayerArchive> archives = new EnumMap<>(VectorTileLayer.class);
+	private final EnumMap<VectorTileLayer, Object> writeLocks = new EnumMap<>(VectorTileLayer.class);
+
+	/**
+	 * Opens (or creates) the tile archives in the given directory
+	 *
+	 * @param root the cache directory
+	 * @throws IOException
+	 */
+	public PackedVectorTileCache(Path root) throws IOException {
+		this.root = root;
+		Files.createDirectories(root);
+		for (VectorTileLayer layer : VectorTileLayer.values()) {
+			long generation = findLatestGeneration(layer);
+			archives.put(layer, new LayerArchive(layer, generation));
+			writeLocks.put(layer, new Object());
+		}
+	}
+
+	/**
+	 *
+	 * @return the tile or null if it is not in the cache
+	 */
+	public byte[] getVectorTile(int z, int x, int y, VectorTileLayer layer) {
+		LayerArchive archive;
+		synchronized (archives) {
+			archive = archives.get(layer);
+		}
+		try {
+			return archive.read(key(z, x, y));
+		}catch (ClosedChannelException ex) {
+			//layer was cleared or the thread was interrupted while reading
+			return null;
+		}catch (IOException ex) {
+			logger.warn("Unable to read tile from tile cache: " + ex.getMessage(), ex);
+			return null;
+		}
+	}
+
+	public void writeVectorTile(int z, int x, int y, VectorTileLayer layer, byte[] tile) {
+		synchronized (writeLocks.get(layer)) {
+			LayerArchive archive;
+			synchronized (archives) {
+				archive = archives.get(layer);
+			}
+			try {
+				archive.append(z, x, y, tile);
+			}catch (IOException ex) {
+				logger.warn("Unable to save tile to tile cache: " + ex.getMessage(), ex);
+			}
+		}
+	}
+
+	/**
+	 * Removes all tiles for the given layer
+	 *
+	 * @param layer
+	 * @throws IOException
+	 */
+	public void clear(VectorTileLayer layer) throws IOException {
+		synchronized (writeLocks.get(layer)) {
+			LayerArchive old;
+			synchronized (archives) {
+				old = archives.get(layer);
+				archives.put(layer, new LayerArchive(layer, old.generation + 1));
+			}
+			old.close();
+			Files.deleteIfExists(old.file);
+		}
+	}
+
+	/**
+	 *
+	 * @return the number of tiles in the cache for the given layer
+	 */
+	public int size(VectorTileLayer layer) {
+		synchronized (archives) {
+			return archives.get(layer).index.size();
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		synchronized (archives) {
+			for (LayerArchive a : archives.values()) a.close();
+		}
+	}
+
+	/*
+	 * finds the latest pack file for the layer, removing any
+	 * older generations left from an interrupted clear
+	 */
+	private long findLatestGeneration(VectorTileLayer layer) throws IOException {
+		long latest = 0;
+		String prefix = layer.name() + ".";
+		try(DirectoryStream<Path> files = Files.newDirectoryStream(root, prefix + "*" + EXTENSION)){
+			for (Path p : files) {
+				String name = p.getFileName().toString();
+				try {
+					long generation = Long.parseLong(name.substring(prefix.length(), name.length() - EXTENSION.length()));
+					if (generation > latest) {
+						if (latest > 0) Files.deleteIfExists(getFile(layer, latest));
+						latest = generation;
+					}else {
+						Files.deleteIfExists(p);
+					}
+				}catch (NumberFormatException ex) {
+					//not a pack file
+				}
+			}
+		}
+		return latest == 0 ? 1 : latest;
+	}
+
+	private Path getFile(VectorTileLayer layer, long generation) {
+		return root.resolve(layer.name() + "." + generation + EXTENSION);
+	}
+
+	private static long key(int z, int x, int y) {
+		if (z < 0 || z > MAX_ZOOM) throw new IllegalArgumentException("Zoom level " + z + " not supported by tile cache");
+		if (!isValid(z, x, y)) throw new IllegalArgumentException("Tile " + z + "/" + x + "/" + y + " not supported by tile cache");
+		return ((long)z << 58) | ((long)x << 29) | y;
+	}
+
+	private static boolean isValid(int z, int x, int y) {
+		if (z < 0 || z > MAX_ZOOM) return false;
+		int n = 1 << z;
+		return x >= 0 && x < n && y >= 0 && y < n;
+	}
+
+	/*
+	 * pack file and index for a single layer
+	 */
+	private class LayerArchive implements Closeable{
+
+		private final long generation;
+		private final Path file;
+		private volatile FileChannel channel;
+		private boolean closed = false;
+		//tile key -> record offset (high 40 bits) and tile length (low 24 bits)
+		private final ConcurrentHashMap<Long, Long> index = new ConcurrentHashMap<>();
+		private long end;
+
+		LayerArchive(VectorTileLayer layer, long generation) throws IOException{
+			this.generation = generation;
+			this.file = getFile(layer, generation);
+			this.channel = open();
+			this.end = loadIndex();
+		}
+
+		private long loadIndex() throws IOException {
+			long size = channel.size();
+			long position = 0;
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+			while (position + HEADER_SIZE <= size) {
+				header.clear();
+				readFully(header, position);
+				header.flip();
+				int z = header.getInt();
+				int x = header.getInt();
+				int y = header.getInt();
+				int length = header.getInt();
+				if (!isValid(z, x, y) || length < 0 || position + HEADER_SIZE + length > size) break;
+				index.put(key(z, x, y), ((position + HEADER_SIZE) << 24) | length);
+				position += HEADER_SIZE + length;
+			}
+			if (position < size) {
+				logger.warn("Discarding incomplete tile record at end of " + file);
+				channel.truncate(position);
+			}
+			return position;
+		}
+
+		byte[] read(long key) throws IOException {
+			Long entry = index.get(key);
+			if (entry == null) return null;
+			int length = (int)(entry & 0xFFFFFF);
+			ByteBuffer buffer = ByteBuffer.allocate(length);
+			readFully(buffer, entry >>> 24);
+			return buffer.array();
+		}
+
+		void append(int z, int x, int y, byte[] tile) throws IOException {
+			if (tile.length > 0xFFFFFF) throw new IOException("Tile too large for tile cache");
+			long key = key(z, x, y);
+			ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + tile.length);
+			buffer.putInt(z).putInt(x).putInt(y).putInt(tile.length).put(tile);
+			buffer.flip();
+			long position = end;
+			FileChannel c = channel;
+			while (buffer.hasRemaining()) {
+				try {
+					position += c.write(buffer, position);
+				}catch (ClosedChannelException ex) {
+					c = reopen(c, ex);
+				}
+			}
+			index.put(key, ((end + HEADER_SIZE) << 24) | tile.length);
+			end = position;
+		}
+
+		private void readFully(ByteBuffer buffer, long position) throws IOException {
+			FileChannel c = channel;
+			while (buffer.hasRemaining()) {
+				int read;
+				try {
+					read = c.read(buffer, position);
+				}catch (ClosedChannelException ex) {
+					c = reopen(c, ex);
+					continue;
+				}
+				if (read < 0) throw new IOException("Unexpected end of tile archive " + file);
+				position += read;
+			}
+		}
+
+		private FileChannel open() throws IOException {
+			return FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		}
+
+		/*
+		 * reopens the channel if it was closed by an interrupt rather than by
+		 * closing the archive; the exception is rethrown if the archive was
+		 * closed or the current thread was interrupted
+		 */
+		private synchronized FileChannel reopen(FileChannel failed, ClosedChannelException ex) throws IOException {
+			if (closed) throw ex;
+			if (channel == failed) channel = open();
+			if (Thread.currentThread().isInterrupted()) throw ex;
+			return channel;
+		}
+
+		@Override
+		public synchronized void close() throws IOException {
+			closed = true;
+			channel.close();
+		}
+	}
+}
@@ -0,0 +1,348 @@
+/*
+ * Copyright 2019 Government of Canada
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.refractions.chyf.hygraph;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.operation.union.UnaryUnionOp;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Cache of upstream drainage areas for large basins.
+ *
+ * Catchments at confluences with at least a minimum number of (approximate)
+ * upstream catchments are selected as cache points.  The unioned geometry,
+ * area and merged statistics of the upstream drainage area of these catchments
+ * are stored the first time they are computed (or when {@link #precompute()} is called).
+ * Upstream drainage area queries then combine the cached sub-basins
+ * they contain with the remaining individual catchments instead of
+ * unioning every upstream catchment.
+ *
+ * A cached sub-basin is only used if none of its catchments have already been
+ * included in the result, so braided networks are never double counted.
+ *
+ * The total number of vertices in the cached geometries is limited; when the
+ * limit is exceeded the least recently used basins are evicted.  Cache usage
+ * statistics are logged after precomputing and every
+ * {@link #STATISTICS_INTERVAL} queries.
+ *
+ */
+public class DrainageAreaCache {
+
+	static final Logger logger = LoggerFactory.getLogger(DrainageAreaCache.class.getCanonicalName());
+
+	/**
+	 * Default minimum number of upstream catchments for a catchment to be cached
+	 */
+	public static final int DEFAULT_MIN_UPSTREAM_CATCHMENTS = 500;
+
+	/**
+	 * Default maximum number of vertices in all cached geometries (about 250MB of coordinates)
+	 */
+	public static final long DEFAULT_MAX_CACHED_VERTICES = 5_000_000;
+
+	/**
+	 * Number of queries between logging the cache statistics
+	 */
+	public static final int STATISTICS_INTERVAL = 1000;
+
+	private final HyGraphTopology topology;
+	private final ECatchment[] eCatchments;
+	private final int minUpstreamCatchments;
+	private final long maxCachedVertices;
+
+	//cache points in upstream-first order
+	private final int[] cachePoints;
+	private final BitSet isCachePoint;
+	private final AtomicReferenceArray<Basin> cache;
+	//last access time of each cached basin, for eviction
+	private final AtomicLongArray lastUsed;
+	private final AtomicLong clock = new AtomicLong();
+	private final AtomicLong cachedVertices = new AtomicLong();
+
+	private final AtomicLong queries = new AtomicLong();
+	private final AtomicLong largeQueries = new AtomicLong();
+	private final AtomicLong largeQueryTime = new AtomicLong();
+	private final AtomicLong directHits = new AtomicLong();
+	private final AtomicLong partialHits = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+
+	public DrainageAreaCache(HyGraphTopology topology, ECatchment[] eCatchments, int minUpstreamCatchments) {
+		this(topology, eCatchments, minUpstreamCatchments, DEFAULT_MAX_CACHED_VERTICES);
+	}
+
+	/**
+	 *
+	 * @param minUpstreamCatchments the minimum number of upstream catchments for
+	 * a confluence catchment to be cached
+	 * @param maxCachedVertices the maximum number of vertices in all cached geometries
+	 */
+	public DrainageAreaCache(HyGraphTopology topology, ECatchment[] eCatchments, int minUpstreamCatchments, long maxCachedVertices) {
+		this.topology = topology;
+		this.eCatchments = eCatchments;
+		this.minUpstreamCatchments = minUpstreamCatchments;
+		this.maxCachedVertices = maxCachedVertices;
+		this.cache = new AtomicReferenceArray<>(eCatchments.length);
+		this.lastUsed = new AtomicLongArray(eCatchments.length);
+		this.isCachePoint = new BitSet(eCatchments.length);
+		this.cachePoints = findCachePoints();
+		logger.info("Drainage area cache: " + cachePoints.length + " cache points with at least " + minUpstreamCatchments + " upstream catchments");
+	}
+
+	/**
+	 * Selects the cache points.  Upstream catchment counts are
+	 * accumulated in topological order (upstream first); in braided
+	 * networks these counts are over estimates which is fine for
+	 * selecting cache points.
+	 *
+	 * @return the cache points ordered upstream first
+	 */
+	private int[] findCachePoints() {
+		int n = eCatchments.length;
+		int[] offsets = topology.getECatchmentUpOffsets();
+		int[] targets = topology.getECatchmentUpTargets();
+
+		//distinct upstream neighbours and reverse (downstream) adjacency
+		int[] mark = new int[n];
+		Arrays.fill(mark, -1);
+		int[] numUp = new int[n];
+		int[] downCount = new int[n + 1];
+		for (int c = 0; c < n; c ++) {
+			for (int k = offsets[c]; k < offsets[c + 1]; k ++) {
+				int u = targets[k];
+				if (u == c || mark[u] == c) continue;
+				mark[u] = c;
+				numUp[c]++;
+				downCount[u + 1]++;
+			}
+		}
+		for (int i = 0; i < n; i ++) downCount[i + 1] += downCount[i];
+		int[] down = new int[downCount[n]];
+		int[] fill = Arrays.copyOf(downCount, n);
+		Arrays.fill(mark, -1);
+		for (int c = 0; c < n; c ++) {
+			for (int k = offsets[c]; k < offsets[c + 1]; k ++) {
+				int u = targets[k];
+				if (u == c || mark[u] == c) continue;
+				mark[u] = c;
+				down[fill[u]++] = c;
+			}
+		}
+
+		//kahn's algorithm; catchments in cycles are never processed
+		//and never become cache points
+		long[] accumulated = new long[n];
+		int[] pending = Arrays.copyOf(numUp, n);
+		int[] queue = new int[n];
+		int size = 0;
+		for (int c = 0; c < n; c ++) {
+			accumulated[c] = 1;
+			if (pending[c] == 0) queue[size++] = c;
+		}
+		List<Integer> points = new ArrayList<>();
+		for (int i = 0; i < size; i ++) {
+			int u = queue[i];
+			if (numUp[u] >= 2 && accumulated[u] >= minUpstreamCatchments) {
+				points.add(u);
+				isCachePoint.set(u);
+			}
+			for (int k = downCount[u]; k < downCount[u + 1]; k ++) {
+				int c = down[k];
+				accumulated[c] = Math.min(Integer.MAX_VALUE, accumulated[c] + accumulated[u]);
+				if (--pending[c] == 0) queue[size++] = c;
+			}
+		}
+		return points.stream().mapToInt(Integer::intValue).toArray();
+	}
+
+	/**
+	 * Computes all cache point drainage areas.  Points are computed
+	 * upstream first so each basin is built from the already cached
+	 * basins upstream of it.
+	 */
+	public void precompute() {
+		long start = System.nanoTime();
+		for (int c : cachePoints) {
+			getUpstreamBasin(c);
+		}
+		logger.info("Precomputed " + cachePoints.length + " drainage areas in " + ((System.nanoTime() - start) / 1_000_000) + " ms");
+		logger.info("Drainage area cache " + getStatistics());
+	}
+
+	/**
+	 * Computes the upstream drainage basin of the given catchment
+	 *
+	 * @param catchmentIndex the index (id - 1) of the catchment
+	 * @return the upstream basin; the returned basin must not be modified
+	 */
+	public Basin getUpstreamBasin(int catchmentIndex) {
+		if (queries.incrementAndGet() % STATISTICS_INTERVAL == 0) {
+			logger.info("Drainage area cache " + getStatistics());
+		}
+		Basin cached = cache.get(catchmentIndex);
+		if (cached != null) {
+			lastUsed.set(catchmentIndex, clock.incrementAndGet());
+			directHits.incrementAndGet();
+			return cached;
+		}
+
+		long start = System.nanoTime();
+		int[] upstream = topology.getUpstreamECatchments(catchmentIndex, Integer.MAX_VALUE);
+
+		BitSet covered = new BitSet();
+		List<Geometry> geoms = new ArrayList<>();
+		StatisticMerger stats = new StatisticMerger();
+		double area = 0;
+		int used = 0;
+
+		for (int c : upstream) {
+			if (covered.get(c)) continue;
+
+			Basin sub = c == catchmentIndex ? null : cache.get(c);
+			if (sub != null) {
+				int[] members = topology.getUpstreamECatchments(c, Integer.MAX_VALUE);
+				boolean overlaps = false;
+				for (int m : members) {
+					if (covered.get(m)) {
+						overlaps = true;
+						break;
+					}
+				}
+				if (!overlaps) {
+					lastUsed.set(c, clock.incrementAndGet());
+					for (int m : members) covered.set(m);
+					geoms.add(sub.geometry);
+					area += sub.area;
+					stats.merge(sub.stats);
+					used++;
+					continue;
+				}
+			}
+			covered.set(c);
+			ECatchment catchment = eCatchments[c];
+			geoms.add(catchment.getPolygon());
+			area += catchment.getArea();
+			stats.addCatchment(catchment);
+		}
+
+		Basin basin = new Basin(UnaryUnionOp.union(geoms), area, stats);
+		if (isCachePoint.get(catchmentIndex)) {
+			lastUsed.set(catchmentIndex, clock.incrementAndGet());
+			if (cache.compareAndSet(catchmentIndex, null, basin)
+					&& cachedVertices.addAndGet(basin.vertices) > maxCachedVertices) {
+				evict();
+			}
+		}
+
+		if (used > 0) partialHits.incrementAndGet();
+		if (upstream.length >= minUpstreamCatchments) {
+			long time = System.nanoTime() - start;
+			largeQueries.incrementAndGet();
+			largeQueryTime.addAndGet(time);
+			logger.debug("Upstream drainage area for catchment " + (catchmentIndex + 1) + " (" + upstream.length + " catchments, "
+					+ used + " cached sub-basins) computed in " + (time / 1_000_000) + " ms");
+		}
+		return basin;
+	}
+
+	/*
+	 * removes the least recently used basins until the cached
+	 * vertex count is within the limit
+	 */
+	private synchronized void evict() {
+		while (cachedVertices.get() > maxCachedVertices) {
+			int oldest = -1;
+			for (int c : cachePoints) {
+				if (cache.get(c) != null && (oldest == -1 || lastUsed.get(c) < lastUsed.get(oldest))) oldest = c;
+			}
+			if (oldest == -1) return;
+			Basin removed = cache.getAndSet(oldest, null);
+			if (removed != null) {
+				cachedVertices.addAndGet(-removed.vertices);
+				evictions.incrementAndGet();
+			}
+		}
+	}
+
+	/**
+	 *
+	 * @return the number of vertices in all the cached geometries
+	 */
+	public long getCachedVertices() {
+		return cachedVertices.get();
+	}
+
+	/**
+	 *
+	 * @return summary of the cache usage including hit rate and
+	 * average large basin computation time
+	 */
+	public String getStatistics() {
+		long q = queries.get();
+		long hits = directHits.get() + partialHits.get();
+		long large = largeQueries.get();
+		int cached = 0;
+		for (int c : cachePoints) {
+			if (cache.get(c) != null) cached++;
+		}
+		return String.format("queries: %d; direct hits: %d; partial hits: %d; hit rate: %.1f%%; large basin queries: %d; mean large basin time: %.1f ms; cached basins: %d; cached vertices: %d; evictions: %d",
+				q, directHits.get(), partialHits.get(), q == 0 ? 0.0 : 100.0 * hits / q,
+				large, large == 0 ? 0.0 : largeQueryTime.get() / 1_000_000.0 / large,
+				cached, cachedVertices.get(), evictions.get());
+	}
+
+	/**
+	 * Unioned geometry, total area and merged statistics of an upstream drainage basin
+	 */
+	public static class Basin {
+		private final Geometry geometry;
+		private final double area;
+		private final StatisticMerger stats;
+		private final int vertices;
+
+		Basin(Geometry geometry, double area, StatisticMerger stats){
+			this.geometry = geometry;
+			this.area = area;
+			this.stats = stats;
+			this.vertices = geometry.getNumPoints();
+		}
+
+		public Geometry getGeometry() {
+			return geometry;
+		}
+
+		public double getArea() {
+			return area;
+		}
+
+		/**
+		 * @return a copy of the statistics for this basin
+		 */
+		public StatisticMerger getStatistics() {
+			StatisticMerger copy = new StatisticMerger();
+			copy.merge(stats);
+			return copy;
+		}
+	}
+}
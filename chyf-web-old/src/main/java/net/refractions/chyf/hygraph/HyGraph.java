@@ -33,14 +33,11 @@ import org.locationtech.jts.operation.union.UnaryUnionOp;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import net.refractions.chyf.ChyfDatastore;
 import net.refractions.chyf.enumTypes.CatchmentType;
-import net.refractions.chyf.enumTypes.NexusType;
 import net.refractions.chyf.hygraph.ECatchment.ECatchmentStat;
-import net.refractions.chyf.indexing.BboxIntersectsFilter;
 import net.refractions.chyf.indexing.ECatchmentContainsPointFilter;
 import net.refractions.chyf.indexing.Filter;
-import net.refractions.chyf.indexing.RTree;
+import net.refractions.chyf.indexing.PackedRTree;
 import net.refractions.chyf.indexing.SpatiallyIndexable;
 
 public class HyGraph {
@@ -49,14 +46,17 @@ public class HyGraph {
 	private Nexus[] nexuses;
 	private EFlowpath[] eFlowpaths;
 	private ECatchment[] eCatchments;
-	private RTree<Nexus> nexusIndex;
-	private RTree<EFlowpath> eFlowpathIndex;
-	private RTree<ECatchment> eCatchmentIndex;
+	private PackedRTree<Nexus> nexusIndex;
+	private PackedRTree<EFlowpath> eFlowpathIndex;
+	private PackedRTree<ECatchment> eCatchmentIndex;
+	private HyGraphTopology topology;
+	private DrainageAreaCache drainageAreaCache;
 
-	public HyGraph(Nexus[] nexuses, EFlowpath[] eFlowpaths, ECatchment[] eCatchments) {
+	public HyGraph(Nexus[] nexuses, EFlowpath[] eFlowpaths, ECatchment[] eCatchments, HyGraphTopology topology) {
 		this.nexuses = nexuses;
 		this.eFlowpaths = eFlowpaths;
 		this.eCatchments = eCatchments;
+		this.topology = topology;
 
 		// Sort the terminal nodes first for easy access
 		// Actually don't as this ruins the id-based array access 
@@ -74,9 +74,81 @@ public class HyGraph {
 //			}
 //		});
 
-		nexusIndex = new RTree<Nexus>(Arrays.asList(nexuses));
-		eFlowpathIndex = new RTree<EFlowpath>(Arrays.asList(eFlowpaths));
-		eCatchmentIndex = new RTree<ECatchment>(Arrays.asList(eCatchments));
+		nexusIndex = new PackedRTree<Nexus>(Arrays.asList(nexuses));
+		eFlowpathIndex = new PackedRTree<EFlowpath>(Arrays.asList(eFlowpaths));
+		eCatchmentIndex = new PackedRTree<ECatchment>(Arrays.asList(eCatchments));
+		
+		drainageAreaCache = new DrainageAreaCache(topology, eCatchments, DrainageAreaCache.DEFAULT_MIN_UPSTREAM_CATCHMENTS);
+	}
+	
+	/**
+	 * Creates a graph from prebuilt spatial indexes (used when
+	 * loading a snapshot)
+	 */
+	HyGraph(Nexus[] nexuses, EFlowpath[] eFlowpaths, ECatchment[] eCatchments, HyGraphTopology topology,
+			PackedRTree<Nexus> nexusIndex, PackedRTree<EFlowpath> eFlowpathIndex, PackedRTree<ECatchment> eCatchmentIndex) {
+		this.nexuses = nexuses;
+		this.eFlowpaths = eFlowpaths;
+		this.eCatchments = eCatchments;
+		this.topology = topology;
+		this.nexusIndex = nexusIndex;
+		this.eFlowpathIndex = eFlowpathIndex;
+		this.eCatchmentIndex = eCatchmentIndex;
+		
+		drainageAreaCache = new DrainageAreaCache(topology, eCatchments, DrainageAreaCache.DEFAULT_MIN_UPSTREAM_CATCHMENTS);
+	}
+	
+	Nexus[] getNexuses() {
+		return nexuses;
+	}
+	
+	EFlowpath[] getEFlowpaths() {
+		return eFlowpaths;
+	}
+	
+	ECatchment[] getECatchments() {
+		return eCatchments;
+	}
+	
+	HyGraphTopology getTopology() {
+		return topology;
+	}
+	
+	PackedRTree<Nexus> getNexusIndex() {
+		return nexusIndex;
+	}
+	
+	PackedRTree<EFlowpath> getEFlowpathIndex() {
+		return eFlowpathIndex;
+	}
+	
+	PackedRTree<ECatchment> getECatchmentIndex() {
+		return eCatchmentIndex;
+	}
+	
+	/**
+	 * Replaces the upstream drainage area cache with a new, empty, cache 
+	 * 
+	 * @param minUpstreamCatchments the minimum number of upstream catchments for
+	 * a confluence catchment to be cached
+	 */
+	public void setDrainageAreaCache(int minUpstreamCatchments) {
+		setDrainageAreaCache(minUpstreamCatchments, DrainageAreaCache.DEFAULT_MAX_CACHED_VERTICES);
+	}
+	
+	/**
+	 * Replaces the upstream drainage area cache with a new, empty, cache 
+	 * 
+	 * @param minUpstreamCatchments the minimum number of upstream catchments for
+	 * a confluence catchment to be cached
+	 * @param maxCachedVertices the maximum number of vertices in all cached geometries
+	 */
+	public void setDrainageAreaCache(int minUpstreamCatchments, long maxCachedVertices) {
+		drainageAreaCache = new DrainageAreaCache(topology, eCatchments, minUpstreamCatchments, maxCachedVertices);
+	}
+	
+	public DrainageAreaCache getDrainageAreaCache() {
+		return drainageAreaCache;
 	}
 	
 	public Nexus getNexus(int nexusId) {
@@ -102,7 +174,7 @@ public class HyGraph {
 	 * 		is not contained in any elementary catchment
 	 */
 	public EFlowpath getEFlowpath(Point point) {
-		List<ECatchment> possibleCatchments = eCatchmentIndex.search(point, 1, null, 
+		List<ECatchment> possibleCatchments = eCatchmentIndex.query(point.getEnvelopeInternal(), 
 				new ECatchmentContainsPointFilter(point));
 		EFlowpath flowpath = null;
 		if(possibleCatchments.size() > 0) {
@@ -160,7 +232,7 @@ public class HyGraph {
 	}
 
 	public ECatchment getECatchment(Point point) {
-		List<ECatchment> eCatchments = findECatchments(point, 1, 0.0, new ECatchmentContainsPointFilter(point));
+		List<ECatchment> eCatchments = eCatchmentIndex.query(point.getEnvelopeInternal(), new ECatchmentContainsPointFilter(point));
 		if(eCatchments.size() > 0) {
 			return eCatchments.get(0);
 		}
@@ -175,18 +247,7 @@ public class HyGraph {
 	 * @return
 	 */
 	public List<ECatchment> findECatchments(Polygon p) {
-		Envelope e = p.getEnvelopeInternal();
-		double distance = Math.sqrt( (e.getWidth() * e.getWidth()) + (e.getHeight() * e.getHeight())) / 2;
-		BboxIntersectsFilter<ECatchment> filter = new BboxIntersectsFilter<>(e);
-		Point center = p.getFactory().createPoint(e.centre());
-		
-		List<ECatchment> items = new ArrayList<>();
-		for (ECatchment cat : eCatchmentIndex.search(center, 1000, distance, filter)) {
-			if (cat.getPolygon().relate(p, "2********")) {
-				items.add(cat);
-			}	
-		}
-		return items;
+		return eCatchmentIndex.query(p.getEnvelopeInternal(), cat->cat.getPolygon().relate(p, "2********"));
 	}
 	
 	/**
@@ -195,15 +256,7 @@ public class HyGraph {
 	 * @return
 	 */
 	public List<EFlowpath> findEFlowpaths(Envelope e, Filter<EFlowpath> filter) {
-		double distance = Math.sqrt( (e.getWidth() * e.getWidth()) + (e.getHeight() * e.getHeight())) / 2;
-		BboxIntersectsFilter<EFlowpath> bboxfilter = new BboxIntersectsFilter<>(e);
-		Point center = eFlowpaths[0].getLineString().getFactory().createPoint(e.centre());
-		Filter<EFlowpath> combined = item->filter.pass(item) && bboxfilter.pass(item);
-		List<EFlowpath> items = new ArrayList<>();
-		for (EFlowpath cat : eFlowpathIndex.search(center, 1000, distance, combined)) {
-			items.add(cat);
-		}
-		return items;
+		return eFlowpathIndex.query(e, filter);
 	}
 	
 	public List<ECatchment> findECatchments(Point p, int maxResults, Double maxDistance, Filter<ECatchment> f) {
@@ -222,20 +275,11 @@ public class HyGraph {
 		if(eFlowpath == null) {
 			return Collections.emptyList();
 		}
-		HashSet<EFlowpath> resultSet = new HashSet<EFlowpath>(maxResults);
-		List<EFlowpath> results = new ArrayList<EFlowpath>(maxResults);
-		results.add(eFlowpath);
-		resultLoop:
-			for(int i = 0; i < results.size(); i++) {
-				for(EFlowpath upstream: results.get(i).getFromNode().getUpFlows()) {
-					if(resultSet.add(upstream)) {
-						results.add(upstream);
-						if(results.size() >= maxResults) {
-							break resultLoop;
-						}
-					}
-				}
-			}
+		int[] ids = topology.getUpstreamEFlowpaths(eFlowpath.getId() - 1, maxResults);
+		List<EFlowpath> results = new ArrayList<EFlowpath>(ids.length);
+		for(int id : ids) {
+			results.add(eFlowpaths[id]);
+		}
 		return results;
 	}
 
@@ -305,20 +349,11 @@ public class HyGraph {
 		if(eFlowpath == null) {
 			return Collections.emptyList();
 		}
-		HashSet<EFlowpath> resultSet = new HashSet<EFlowpath>(maxResults);
-		List<EFlowpath> results = new ArrayList<EFlowpath>(maxResults);
-		results.add(eFlowpath);
-		resultLoop:
-			for(int i = 0; i < results.size(); i++) {
-				for(EFlowpath downstream: results.get(i).getToNode().getDownFlows()) {
-					if(resultSet.add(downstream)) {
-						results.add(downstream);
-						if(results.size() >= maxResults) {
-							break resultLoop;
-						}
-					}
-				}
-			}
+		int[] ids = topology.getDownstreamEFlowpaths(eFlowpath.getId() - 1, maxResults);
+		List<EFlowpath> results = new ArrayList<EFlowpath>(ids.length);
+		for(int id : ids) {
+			results.add(eFlowpaths[id]);
+		}
 		return results;
 	}
 
@@ -326,35 +361,11 @@ public class HyGraph {
 		if(eCatchment == null) {
 			return Collections.emptyList();
 		}
-		int size = Math.min(ChyfDatastore.MAX_RESULTS, maxResults);
-		HashSet<ECatchment> resultSet = new HashSet<ECatchment>(size);
-		List<ECatchment> results = new ArrayList<ECatchment>(size);
-		results.add(eCatchment);
-		resultLoop:
-			for(int i = 0; i < results.size(); i++) {
-				for(Nexus n: results.get(i).getUpNexuses()) {
-					for(EFlowpath f: n.getUpFlows()) {
-						if(f.getCatchment() != null) {
-							if(resultSet.add(f.getCatchment())) {
-								results.add(f.getCatchment());
-								if(results.size() >= maxResults) {
-									break resultLoop;
-								}
-							}
-						}
-					}
-					if(n.getType() == NexusType.BANK) {
-						if(n.getBankCatchment() != null) {
-							if(resultSet.add(n.getBankCatchment())) {
-								results.add(n.getBankCatchment());
-								if(results.size() >= maxResults) {
-									break resultLoop;
-								}
-							}
-						}
-					}
-				}
-			}
+		int[] ids = topology.getUpstreamECatchments(eCatchment.getId() - 1, maxResults);
+		List<ECatchment> results = new ArrayList<ECatchment>(ids.length);
+		for(int id : ids) {
+			results.add(eCatchments[id]);
+		}
 		return results;
 	}
 
@@ -362,30 +373,20 @@ public class HyGraph {
 		if(eCatchment == null) {
 			return Collections.emptyList();
 		}
-		int size = Math.min(ChyfDatastore.MAX_RESULTS, maxResults);
-		HashSet<ECatchment> resultSet = new HashSet<ECatchment>(size);
-		ArrayList<ECatchment> results = new ArrayList<ECatchment>(size);
-		results.add(eCatchment);
-		resultLoop:
-			for(int i = 0; i < results.size(); i++) {
-				for(Nexus n: results.get(i).getDownNexuses()) {
-					for(EFlowpath f: n.getDownFlows()) {
-						if(f.getCatchment() != null) {
-							if(resultSet.add(f.getCatchment())) {
-								results.add(f.getCatchment());
-								if(results.size() >= maxResults) {
-									break resultLoop;
-								}
-							}
-						}
-					}
-				}
-			}
+		int[] ids = topology.getDownstreamECatchments(eCatchment.getId() - 1, maxResults);
+		List<ECatchment> results = new ArrayList<ECatchment>(ids.length);
+		for(int id : ids) {
+			results.add(eCatchments[id]);
+		}
 		return results;
 	}
 
 	public DrainageArea getUpstreamDrainageArea(ECatchment eCatchment, boolean removeHoles) {
-		return buildDrainageArea(getUpstreamECatchments(eCatchment, Integer.MAX_VALUE), removeHoles);
+		if(eCatchment == null) {
+			return buildDrainageArea(Collections.emptyList(), removeHoles);
+		}
+		DrainageAreaCache.Basin basin = drainageAreaCache.getUpstreamBasin(eCatchment.getId() - 1);
+		return buildDrainageArea(basin.getGeometry(), basin.getArea(), basin.getStatistics(), removeHoles);
 	}
 
 	public DrainageArea getDownstreamDrainageArea(ECatchment eCatchment, boolean removeHoles) {
@@ -405,6 +406,10 @@ public class HyGraph {
 		}
 
 		Geometry g = UnaryUnionOp.union(geoms);
+		return buildDrainageArea(g, area, statMerger, removeHoles);
+	}
+	
+	private DrainageArea buildDrainageArea(Geometry g, double area, StatisticMerger statMerger, boolean removeHoles) {
 		DrainageArea da = new DrainageArea(g, area);
 		if(removeHoles) {
 			da = removeHoles(da, statMerger);		
@@ -84,9 +84,12 @@ public class HyGraphBuilder {
 		StreamOrderCalculator.calcOrders(eFlowpaths, nexuses);
 		classifyCatchments();
 		
+		EFlowpath[] eFlowpathArray = eFlowpaths.toArray(new EFlowpath[eFlowpaths.size()]);
+		ECatchment[] eCatchmentArray = eCatchments.toArray(new ECatchment[eCatchments.size()]);
+		HyGraphTopology topology = HyGraphTopology.build(eFlowpathArray, eCatchmentArray);
+		
 		return new HyGraph(nexuses.toArray(new Nexus[nexuses.size()]), 
-				eFlowpaths.toArray(new EFlowpath[eFlowpaths.size()]),
-				eCatchments.toArray(new ECatchment[eCatchments.size()]));
+				eFlowpathArray, eCatchmentArray, topology);
 	}
 	
 	public EFlowpath addEFlowpath(FlowpathType type, Rank rank, String name, UUID nameId, double length, LineString lineString) {
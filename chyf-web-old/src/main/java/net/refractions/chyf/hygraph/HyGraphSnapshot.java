@@ -0,0 +1,345 @@
+/*
+ * Copyright 2019 Government of Canada
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.refractions.chyf.hygraph;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.LineString;
+import org.locationtech.jts.geom.Polygon;
+import org.locationtech.jts.io.ParseException;
+import org.locationtech.jts.io.WKBReader;
+import org.locationtech.jts.io.WKBWriter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import net.refractions.chyf.ChyfDatastore;
+import net.refractions.chyf.enumTypes.CatchmentType;
+import net.refractions.chyf.enumTypes.FlowpathType;
+import net.refractions.chyf.enumTypes.NexusType;
+import net.refractions.chyf.enumTypes.Rank;
+import net.refractions.chyf.hygraph.ECatchment.ECatchmentStat;
+import net.refractions.chyf.indexing.PackedRTree;
+
+/**
+ * Reads and writes a binary snapshot of a built HyGraph so the
+ * service can start without re-reading the source data, rebuilding
+ * the graph and computing stream orders.
+ *
+ * The snapshot is a single file that is read sequentially:
+ * <ol>
+ * <li>header: magic number, format version and a key identifying the source data</li>
+ * <li>nexuses: point and type</li>
+ * <li>catchments: attributes, statistics and polygon (WKB)</li>
+ * <li>flowpaths: nexus and catchment references, attributes and linestring (WKB)</li>
+ * <li>relationships: nexus flows and bank catchments, catchment flowpaths and nexuses</li>
+ * <li>topology arrays and the three spatial index structures</li>
+ * </ol>
+ * Objects are referenced by id (0 for none) and enums by ordinal so
+ * the {@link #VERSION} must be incremented whenever the format,
+ * the graph objects or the enum types change.
+ *
+ */
+public class HyGraphSnapshot {
+
+	static final Logger logger = LoggerFactory.getLogger(HyGraphSnapshot.class.getCanonicalName());
+
+	private static final int MAGIC = 0x43485946; //CHYF
+	public static final int VERSION = 1;
+
+	private static final int BUFFER_SIZE = 1 << 20;
+
+	/**
+	 * Writes the graph to the given file.  The snapshot is written to a
+	 * temporary file first and moved into place once complete.
+	 *
+	 * @param graph the graph to write
+	 * @param file the snapshot file
+	 * @param sourceKey key identifying the source data the graph was built from
+	 * @throws IOException
+	 */
+	public static void write(HyGraph graph, Path file, long sourceKey) throws IOException {
+		long start = System.nanoTime();
+		Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp), BUFFER_SIZE))) {
+			write(graph, out, sourceKey);
+		}
+		Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+		logger.info("HyGraph snapshot written to " + file + " in " + ((System.nanoTime() - start) / 1_000_000) + " ms");
+	}
+
+	/**
+	 * Reads a graph from the given snapshot file
+	 *
+	 * @param file the snapshot file
+	 * @param sourceKey the expected source key
+	 * @return the graph or null if the snapshot is from a different
+	 * format version or different source data
+	 * @throws IOException if the snapshot cannot be read
+	 */
+	public static HyGraph read(Path file, long sourceKey) throws IOException {
+		long start = System.nanoTime();
+		HyGraph graph;
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), BUFFER_SIZE))) {
+			graph = read(in, sourceKey);
+		}
+		if (graph != null) {
+			logger.info("HyGraph snapshot read from " + file + " in " + ((System.nanoTime() - start) / 1_000_000) + " ms");
+		}
+		return graph;
+	}
+
+	static void write(HyGraph graph, DataOutputStream out, long sourceKey) throws IOException {
+		Nexus[] nexuses = graph.getNexuses();
+		EFlowpath[] eFlowpaths = graph.getEFlowpaths();
+		ECatchment[] eCatchments = graph.getECatchments();
+		WKBWriter wkbWriter = new WKBWriter();
+
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.writeLong(sourceKey);
+
+		out.writeInt(nexuses.length);
+		for (Nexus n : nexuses) {
+			Coordinate c = n.getPoint().getCoordinate();
+			out.writeDouble(c.x);
+			out.writeDouble(c.y);
+			writeEnum(out, n.getType());
+		}
+
+		ECatchmentStat[] stats = ECatchmentStat.values();
+		out.writeInt(eCatchments.length);
+		for (ECatchment c : eCatchments) {
+			writeEnum(out, c.getType());
+			out.writeDouble(c.getArea());
+			writeEnum(out, c.getRank());
+			writeString(out, c.getName());
+			writeInteger(out, c.getStrahlerOrder());
+			writeInteger(out, c.getHortonOrder());
+			writeInteger(out, c.getHackOrder());
+			for (ECatchmentStat s : stats) {
+				out.writeDouble(s.getValue(c));
+			}
+			writeGeometry(out, wkbWriter, c.getPolygon());
+		}
+
+		out.writeInt(eFlowpaths.length);
+		for (EFlowpath f : eFlowpaths) {
+			out.writeInt(f.getFromNode().getId());
+			out.writeInt(f.getToNode().getId());
+			out.writeInt(f.getCatchment() == null ? 0 : f.getCatchment().getId());
+			out.writeDouble(f.getLength());
+			writeEnum(out, f.getType());
+			writeEnum(out, f.getRank());
+			writeString(out, f.getName());
+			UUID nameId = f.getNameId();
+			out.writeBoolean(nameId != null);
+			if (nameId != null) {
+				out.writeLong(nameId.getMostSignificantBits());
+				out.writeLong(nameId.getLeastSignificantBits());
+			}
+			writeInteger(out, f.getStrahlerOrder());
+			writeInteger(out, f.getHortonOrder());
+			writeInteger(out, f.getHackOrder());
+			writeGeometry(out, wkbWriter, f.getLineString());
+		}
+
+		for (Nexus n : nexuses) {
+			writeIds(out, n.getUpFlows());
+			writeIds(out, n.getDownFlows());
+			out.writeInt(n.getBankCatchment() == null ? 0 : n.getBankCatchment().getId());
+		}
+		for (ECatchment c : eCatchments) {
+			writeIds(out, c.getFlowpaths());
+			writeNexusIds(out, c.getUpNexuses());
+			writeNexusIds(out, c.getDownNexuses());
+		}
+
+		graph.getTopology().write(out);
+		graph.getNexusIndex().write(out);
+		graph.getEFlowpathIndex().write(out);
+		graph.getECatchmentIndex().write(out);
+	}
+
+	static HyGraph read(DataInputStream in, long sourceKey) throws IOException {
+		if (in.readInt() != MAGIC) throw new IOException("Not a HyGraph snapshot");
+		int version = in.readInt();
+		if (version != VERSION) {
+			logger.info("HyGraph snapshot version " + version + " does not match current version " + VERSION);
+			return null;
+		}
+		if (in.readLong() != sourceKey) {
+			logger.info("HyGraph snapshot was built from different source data");
+			return null;
+		}
+		WKBReader wkbReader = new WKBReader(ChyfDatastore.GEOMETRY_FACTORY);
+
+		Nexus[] nexuses = new Nexus[in.readInt()];
+		for (int i = 0; i < nexuses.length; i ++) {
+			double x = in.readDouble();
+			double y = in.readDouble();
+			nexuses[i] = new Nexus(i + 1, ChyfDatastore.GEOMETRY_FACTORY.createPoint(new Coordinate(x, y)));
+			nexuses[i].setType(readEnum(in, NexusType.values()));
+		}
+
+		ECatchmentStat[] stats = ECatchmentStat.values();
+		ECatchment[] eCatchments = new ECatchment[in.readInt()];
+		Rank[] catchmentRanks = new Rank[eCatchments.length];
+		for (int i = 0; i < eCatchments.length; i ++) {
+			CatchmentType type = readEnum(in, CatchmentType.values());
+			double area = in.readDouble();
+			catchmentRanks[i] = readEnum(in, Rank.values());
+			String name = readString(in);
+			Integer strahler = readInteger(in);
+			Integer horton = readInteger(in);
+			Integer hack = readInteger(in);
+			double[] values = new double[stats.length];
+			for (int s = 0; s < stats.length; s ++) values[s] = in.readDouble();
+
+			ECatchment c = new ECatchment(i + 1, type, area, (Polygon) readGeometry(in, wkbReader));
+			c.setName(name);
+			c.setStrahlerOrder(strahler);
+			c.setHortonOrder(horton);
+			c.setHackOrder(hack);
+			for (int s = 0; s < stats.length; s ++) stats[s].updateCatchment(c, values[s]);
+			eCatchments[i] = c;
+		}
+
+		EFlowpath[] eFlowpaths = new EFlowpath[in.readInt()];
+		for (int i = 0; i < eFlowpaths.length; i ++) {
+			Nexus from = get(nexuses, in.readInt());
+			Nexus to = get(nexuses, in.readInt());
+			ECatchment catchment = get(eCatchments, in.readInt());
+			double length = in.readDouble();
+			FlowpathType type = readEnum(in, FlowpathType.values());
+			Rank rank = readEnum(in, Rank.values());
+			String name = readString(in);
+			UUID nameId = in.readBoolean() ? new UUID(in.readLong(), in.readLong()) : null;
+			Integer strahler = readInteger(in);
+			Integer horton = readInteger(in);
+			Integer hack = readInteger(in);
+
+			EFlowpath f = new EFlowpath(i + 1, from, to, length, type, rank, name, nameId, catchment,
+					(LineString) readGeometry(in, wkbReader));
+			f.setStrahlerOrder(strahler);
+			f.setHortonOrder(horton);
+			f.setHackOrder(hack);
+			eFlowpaths[i] = f;
+		}
+
+		for (Nexus n : nexuses) {
+			for (int id : readIds(in)) n.addUpFlow(get(eFlowpaths, id));
+			for (int id : readIds(in)) n.addDownFlow(get(eFlowpaths, id));
+			n.setBankCatchment(get(eCatchments, in.readInt()));
+		}
+		for (int i = 0; i < eCatchments.length; i ++) {
+			ECatchment c = eCatchments[i];
+			for (int id : readIds(in)) c.addFlowpath(get(eFlowpaths, id));
+			for (int id : readIds(in)) c.addUpNexus(get(nexuses, id));
+			for (int id : readIds(in)) c.addDownNexus(get(nexuses, id));
+			//adding flowpaths updates the rank; restore the stored value
+			c.setRank(catchmentRanks[i]);
+		}
+
+		HyGraphTopology topology = HyGraphTopology.read(in);
+		if (topology.getNumECatchments() != eCatchments.length || topology.getNumEFlowpaths() != eFlowpaths.length) {
+			throw new IOException("Snapshot topology does not match the graph");
+		}
+		PackedRTree<Nexus> nexusIndex = PackedRTree.read(in, Arrays.asList(nexuses));
+		PackedRTree<EFlowpath> eFlowpathIndex = PackedRTree.read(in, Arrays.asList(eFlowpaths));
+		PackedRTree<ECatchment> eCatchmentIndex = PackedRTree.read(in, Arrays.asList(eCatchments));
+
+		return new HyGraph(nexuses, eFlowpaths, eCatchments, topology, nexusIndex, eFlowpathIndex, eCatchmentIndex);
+	}
+
+	private static <T> T get(T[] items, int id) throws IOException {
+		if (id == 0) return null;
+		if (id < 0 || id > items.length) throw new IOException("Invalid reference in snapshot: " + id);
+		return items[id - 1];
+	}
+
+	private static void writeEnum(DataOutputStream out, Enum<?> value) throws IOException {
+		out.writeByte(value == null ? -1 : value.ordinal());
+	}
+
+	private static <E extends Enum<E>> E readEnum(DataInputStream in, E[] values) throws IOException {
+		int ordinal = in.readByte();
+		if (ordinal < 0) return null;
+		if (ordinal >= values.length) throw new IOException("Invalid enum value in snapshot: " + ordinal);
+		return values[ordinal];
+	}
+
+	private static void writeString(DataOutputStream out, String value) throws IOException {
+		out.writeBoolean(value != null);
+		if (value != null) out.writeUTF(value);
+	}
+
+	private static String readString(DataInputStream in) throws IOException {
+		return in.readBoolean() ? in.readUTF() : null;
+	}
+
+	private static void writeInteger(DataOutputStream out, Integer value) throws IOException {
+		out.writeBoolean(value != null);
+		if (value != null) out.writeInt(value);
+	}
+
+	private static Integer readInteger(DataInputStream in) throws IOException {
+		return in.readBoolean() ? in.readInt() : null;
+	}
+
+	private static void writeGeometry(DataOutputStream out, WKBWriter writer, Geometry geometry) throws IOException {
+		byte[] wkb = writer.write(geometry);
+		out.writeInt(wkb.length);
+		out.write(wkb);
+	}
+
+	private static Geometry readGeometry(DataInputStream in, WKBReader reader) throws IOException {
+		byte[] wkb = new byte[in.readInt()];
+		in.readFully(wkb);
+		try {
+			return reader.read(wkb);
+		} catch (ParseException e) {
+			throw new IOException("Invalid geometry in snapshot", e);
+		}
+	}
+
+	private static void writeIds(DataOutputStream out, List<EFlowpath> items) throws IOException {
+		out.writeInt(items.size());
+		for (EFlowpath f : items) out.writeInt(f.getId());
+	}
+
+	private static void writeNexusIds(DataOutputStream out, List<Nexus> items) throws IOException {
+		out.writeInt(items.size());
+		for (Nexus n : items) out.writeInt(n.getId());
+	}
+
+	private static int[] readIds(DataInputStream in) throws IOException {
+		int[] ids = new int[in.readInt()];
+		for (int i = 0; i < ids.length; i ++) ids[i] = in.readInt();
+		return ids;
+	}
+}
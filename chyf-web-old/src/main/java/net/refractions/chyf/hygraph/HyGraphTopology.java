@@ -0,0 +1,297 @@
+/*
+ * Copyright 2019 Government of Canada
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.refractions.chyf.hygraph;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+import net.refractions.chyf.enumTypes.NexusType;
+
+/**
+ * Compressed sparse row representation of the upstream and downstream
+ * relationships between elementary catchments and between elementary
+ * flowpaths.  Items are referenced by index (id - 1) and the neighbours
+ * of item i are stored in targets[offsets[i]] to targets[offsets[i+1]-1],
+ * in the same order as they would be visited by walking the Nexus
+ * object graph.
+ *
+ * Traversals run over the primitive arrays using a per-thread
+ * workspace (visited bitset and queue) that is reused between calls.
+ *
+ */
+public class HyGraphTopology {
+
+	private final int numCatchments;
+	private final int numFlowpaths;
+
+	private final int[] ecUpOffsets;
+	private final int[] ecUpTargets;
+	private final int[] ecDownOffsets;
+	private final int[] ecDownTargets;
+
+	private final int[] efUpOffsets;
+	private final int[] efUpTargets;
+	private final int[] efDownOffsets;
+	private final int[] efDownTargets;
+
+	private final ThreadLocal<Workspace> workspace;
+
+	private HyGraphTopology(int numCatchments, int numFlowpaths,
+			int[][] ecUp, int[][] ecDown, int[][] efUp, int[][] efDown) {
+		this.numCatchments = numCatchments;
+		this.numFlowpaths = numFlowpaths;
+		this.ecUpOffsets = ecUp[0];
+		this.ecUpTargets = ecUp[1];
+		this.ecDownOffsets = ecDown[0];
+		this.ecDownTargets = ecDown[1];
+		this.efUpOffsets = efUp[0];
+		this.efUpTargets = efUp[1];
+		this.efDownOffsets = efDown[0];
+		this.efDownTargets = efDown[1];
+
+		int size = Math.max(numCatchments, numFlowpaths) + 1;
+		this.workspace = ThreadLocal.withInitial(()->new Workspace(size));
+	}
+
+	/**
+	 * Builds the topology from the graph elements.  The elements
+	 * must be ordered by id, with ids starting at 1.
+	 *
+	 * @param eFlowpaths
+	 * @param eCatchments
+	 * @return
+	 */
+	public static HyGraphTopology build(EFlowpath[] eFlowpaths, ECatchment[] eCatchments) {
+		for (int i = 0; i < eFlowpaths.length; i ++) {
+			if (eFlowpaths[i].getId() != i + 1) throw new IllegalStateException("EFlowpaths must be ordered by id");
+		}
+		for (int i = 0; i < eCatchments.length; i ++) {
+			if (eCatchments[i].getId() != i + 1) throw new IllegalStateException("ECatchments must be ordered by id");
+		}
+
+		CsrBuilder ecUp = new CsrBuilder(eCatchments.length);
+		CsrBuilder ecDown = new CsrBuilder(eCatchments.length);
+		for (ECatchment c : eCatchments) {
+			for (Nexus n : c.getUpNexuses()) {
+				for (EFlowpath f : n.getUpFlows()) {
+					if (f.getCatchment() != null) ecUp.add(f.getCatchment().getId() - 1);
+				}
+				if (n.getType() == NexusType.BANK && n.getBankCatchment() != null) {
+					ecUp.add(n.getBankCatchment().getId() - 1);
+				}
+			}
+			ecUp.next();
+
+			for (Nexus n : c.getDownNexuses()) {
+				for (EFlowpath f : n.getDownFlows()) {
+					if (f.getCatchment() != null) ecDown.add(f.getCatchment().getId() - 1);
+				}
+			}
+			ecDown.next();
+		}
+
+		CsrBuilder efUp = new CsrBuilder(eFlowpaths.length);
+		CsrBuilder efDown = new CsrBuilder(eFlowpaths.length);
+		for (EFlowpath f : eFlowpaths) {
+			for (EFlowpath u : f.getFromNode().getUpFlows()) efUp.add(u.getId() - 1);
+			efUp.next();
+			for (EFlowpath d : f.getToNode().getDownFlows()) efDown.add(d.getId() - 1);
+			efDown.next();
+		}
+
+		return new HyGraphTopology(eCatchments.length, eFlowpaths.length,
+				ecUp.build(), ecDown.build(), efUp.build(), efDown.build());
+	}
+
+	/**
+	 * Writes the topology arrays so they can be restored with
+	 * {@link #read(DataInput)}
+	 *
+	 * @param out
+	 * @throws IOException
+	 */
+	public void write(DataOutput out) throws IOException {
+		out.writeInt(numCatchments);
+		out.writeInt(numFlowpaths);
+		for (int[] a : new int[][] {ecUpOffsets, ecUpTargets, ecDownOffsets, ecDownTargets,
+				efUpOffsets, efUpTargets, efDownOffsets, efDownTargets}) {
+			out.writeInt(a.length);
+			for (int v : a) out.writeInt(v);
+		}
+	}
+
+	/**
+	 * Reads topology arrays written by {@link #write(DataOutput)}
+	 *
+	 * @param in
+	 * @return
+	 * @throws IOException
+	 */
+	public static HyGraphTopology read(DataInput in) throws IOException {
+		int numCatchments = in.readInt();
+		int numFlowpaths = in.readInt();
+		int[][] ecUp = {readArray(in), readArray(in)};
+		int[][] ecDown = {readArray(in), readArray(in)};
+		int[][] efUp = {readArray(in), readArray(in)};
+		int[][] efDown = {readArray(in), readArray(in)};
+		if (ecUp[0].length != numCatchments + 1 || ecDown[0].length != numCatchments + 1
+				|| efUp[0].length != numFlowpaths + 1 || efDown[0].length != numFlowpaths + 1) {
+			throw new IOException("Invalid topology offsets");
+		}
+		return new HyGraphTopology(numCatchments, numFlowpaths, ecUp, ecDown, efUp, efDown);
+	}
+
+	private static int[] readArray(DataInput in) throws IOException {
+		int[] a = new int[in.readInt()];
+		for (int i = 0; i < a.length; i ++) a[i] = in.readInt();
+		return a;
+	}
+
+	public int getNumECatchments() {
+		return numCatchments;
+	}
+
+	public int getNumEFlowpaths() {
+		return numFlowpaths;
+	}
+
+	/**
+	 * @return offsets into the upstream catchment neighbour array
+	 */
+	int[] getECatchmentUpOffsets() {
+		return ecUpOffsets;
+	}
+
+	/**
+	 * @return upstream catchment neighbour array
+	 */
+	int[] getECatchmentUpTargets() {
+		return ecUpTargets;
+	}
+
+	/**
+	 * Computes the upstream catchments of the given catchment.
+	 *
+	 * @param catchmentIndex the index (id - 1) of the start catchment
+	 * @param maxResults
+	 * @return indices of the upstream catchments, starting with the given catchment
+	 */
+	public int[] getUpstreamECatchments(int catchmentIndex, int maxResults) {
+		return traverse(catchmentIndex, maxResults, ecUpOffsets, ecUpTargets);
+	}
+
+	/**
+	 * Computes the downstream catchments of the given catchment.
+	 *
+	 * @param catchmentIndex the index (id - 1) of the start catchment
+	 * @param maxResults
+	 * @return indices of the downstream catchments, starting with the given catchment
+	 */
+	public int[] getDownstreamECatchments(int catchmentIndex, int maxResults) {
+		return traverse(catchmentIndex, maxResults, ecDownOffsets, ecDownTargets);
+	}
+
+	/**
+	 * Computes the upstream flowpaths of the given flowpath.
+	 *
+	 * @param flowpathIndex the index (id - 1) of the start flowpath
+	 * @param maxResults
+	 * @return indices of the upstream flowpaths, starting with the given flowpath
+	 */
+	public int[] getUpstreamEFlowpaths(int flowpathIndex, int maxResults) {
+		return traverse(flowpathIndex, maxResults, efUpOffsets, efUpTargets);
+	}
+
+	/**
+	 * Computes the downstream flowpaths of the given flowpath.
+	 *
+	 * @param flowpathIndex the index (id - 1) of the start flowpath
+	 * @param maxResults
+	 * @return indices of the downstream flowpaths, starting with the given flowpath
+	 */
+	public int[] getDownstreamEFlowpaths(int flowpathIndex, int maxResults) {
+		return traverse(flowpathIndex, maxResults, efDownOffsets, efDownTargets);
+	}
+
+	/*
+	 * Breadth first traversal from the start item. As with the original
+	 * object graph traversal the start item is not marked as visited.
+	 */
+	private int[] traverse(int start, int maxResults, int[] offsets, int[] targets) {
+		Workspace ws = workspace.get();
+		int[] queue = ws.queue;
+		long[] visited = ws.visited;
+
+		int size = 0;
+		queue[size++] = start;
+		resultLoop:
+			for (int i = 0; i < size; i ++) {
+				int item = queue[i];
+				for (int k = offsets[item]; k < offsets[item + 1]; k ++) {
+					int next = targets[k];
+					long mask = 1L << next;
+					if ((visited[next >>> 6] & mask) == 0) {
+						visited[next >>> 6] |= mask;
+						queue[size++] = next;
+						if (size >= maxResults) break resultLoop;
+					}
+				}
+			}
+
+		//reset only the bits we have set
+		for (int i = 0; i < size; i ++) {
+			visited[queue[i] >>> 6] = 0;
+		}
+		return Arrays.copyOf(queue, size);
+	}
+
+	private static class Workspace {
+		final long[] visited;
+		final int[] queue;
+
+		Workspace(int size) {
+			visited = new long[(size >>> 6) + 1];
+			queue = new int[size];
+		}
+	}
+
+	private static class CsrBuilder {
+		private int[] offsets;
+		private int[] targets;
+		private int item = 0;
+		private int size = 0;
+
+		CsrBuilder(int numItems) {
+			offsets = new int[numItems + 1];
+			targets = new int[Math.max(16, numItems * 2)];
+		}
+
+		void add(int target) {
+			if (size == targets.length) targets = Arrays.copyOf(targets, size * 2);
+			targets[size++] = target;
+		}
+
+		void next() {
+			offsets[++item] = size;
+		}
+
+		int[][] build() {
+			return new int[][] {offsets, Arrays.copyOf(targets, size)};
+		}
+	}
+}
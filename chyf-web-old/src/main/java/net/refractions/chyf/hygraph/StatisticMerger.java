@@ -64,6 +64,29 @@ public class StatisticMerger {
 		totalArea += eCatchment.getArea();
 	}
 	
+	/**
+	 * Merges the catchment statistics collected by another merger
+	 * into this merger.  The other merger is not modified.
+	 * 
+	 * @param other
+	 */
+	public void merge(StatisticMerger other) {
+		for (ECatchmentStat s : singleValues) {
+			Double value = other.stats.get(s);
+			if (value != null) updateStat(stats, s, value);
+		}
+		for (ECatchmentStat s : awaValues) {
+			Double value = other.areaWAverages.get(s);
+			if (value == null) continue;
+			Double current = areaWAverages.get(s);
+			if (current == null) {
+				current = 0.0;
+			}
+			areaWAverages.put(s, current + value);
+		}
+		totalArea += other.totalArea;
+	}
+	
 	private void updateStat(HashMap<ECatchment.ECatchmentStat, Double> stats, ECatchment.ECatchmentStat stat, Double value) {
 		if (Double.isNaN(value)) return;
 		if (!stats.containsKey(stat)) {
@@ -0,0 +1,482 @@
+/*
+ * Copyright 2019 Government of Canada
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.refractions.chyf.indexing;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Point;
+
+/**
+ * Static R-tree that is bulk loaded once in Hilbert curve order and stored
+ * in flat arrays.  Node bounds are stored in a packed double array
+ * (minx, miny, maxx, maxy) with the leaf items first, followed by
+ * each level of branch nodes up to the root.
+ *
+ * Supports window queries and k-nearest neighbour queries. Nearest
+ * queries use the items exact distance so results are ordered
+ * by {@link SpatiallyIndexable#distance(Point)}.
+ *
+ */
+public class PackedRTree<T extends SpatiallyIndexable> {
+
+	private static final int NODE_SIZE = 16;
+	private static final int HILBERT_MAX = (1 << 16) - 1;
+
+	private final int numItems;
+	private final int numNodes;
+	private final Object[] items;
+	//node bounds; 4 values per node
+	private final double[] boxes;
+	//for leaf nodes the item index; for branch nodes the position of the first child
+	private final int[] indices;
+	//end position (exclusive) of each level
+	private final int[] levelBounds;
+
+	public PackedRTree(Collection<T> items) {
+		this.items = items.toArray();
+		this.numItems = this.items.length;
+
+		List<Integer> bounds = new ArrayList<>();
+		int n = numItems;
+		int nodes = n;
+		bounds.add(nodes);
+		do {
+			n = (n + NODE_SIZE - 1) / NODE_SIZE;
+			nodes += n;
+			bounds.add(nodes);
+		} while (n > 1);
+		this.numNodes = nodes;
+		this.levelBounds = bounds.stream().mapToInt(Integer::intValue).toArray();
+
+		this.boxes = new double[numNodes * 4];
+		this.indices = new int[numNodes];
+
+		Envelope all = new Envelope();
+		for (int i = 0; i < numItems; i ++) {
+			Envelope e = ((SpatiallyIndexable)this.items[i]).getEnvelope();
+			boxes[i * 4] = e.getMinX();
+			boxes[i * 4 + 1] = e.getMinY();
+			boxes[i * 4 + 2] = e.getMaxX();
+			boxes[i * 4 + 3] = e.getMaxY();
+			indices[i] = i;
+			all.expandToInclude(e);
+		}
+
+		if (numItems > NODE_SIZE) {
+			sortByHilbert(all);
+		}
+
+		//build the branch levels
+		int pos = 0;
+		for (int level = 0; level < levelBounds.length - 1; level ++) {
+			int end = levelBounds[level];
+			int parent = end;
+			while (pos < end) {
+				double minx = Double.POSITIVE_INFINITY;
+				double miny = Double.POSITIVE_INFINITY;
+				double maxx = Double.NEGATIVE_INFINITY;
+				double maxy = Double.NEGATIVE_INFINITY;
+				int first = pos;
+				for (int i = 0; i < NODE_SIZE && pos < end; i ++, pos ++) {
+					minx = Math.min(minx, boxes[pos * 4]);
+					miny = Math.min(miny, boxes[pos * 4 + 1]);
+					maxx = Math.max(maxx, boxes[pos * 4 + 2]);
+					maxy = Math.max(maxy, boxes[pos * 4 + 3]);
+				}
+				boxes[parent * 4] = minx;
+				boxes[parent * 4 + 1] = miny;
+				boxes[parent * 4 + 2] = maxx;
+				boxes[parent * 4 + 3] = maxy;
+				indices[parent] = first;
+				parent ++;
+			}
+		}
+	}
+
+	private PackedRTree(Object[] items, double[] boxes, int[] indices, int[] levelBounds) {
+		this.items = items;
+		this.numItems = items.length;
+		this.boxes = boxes;
+		this.indices = indices;
+		this.levelBounds = levelBounds;
+		this.numNodes = indices.length;
+	}
+
+	/**
+	 * Writes the tree structure (not the items) so it can be restored
+	 * with {@link #read(DataInput, Collection)} without re-sorting.
+	 *
+	 * @param out
+	 * @throws IOException
+	 */
+	public void write(DataOutput out) throws IOException {
+		out.writeInt(numItems);
+		out.writeInt(numNodes);
+		out.writeInt(levelBounds.length);
+		for (int b : levelBounds) out.writeInt(b);
+		for (int i : indices) out.writeInt(i);
+		for (double d : boxes) out.writeDouble(d);
+	}
+
+	/**
+	 * Reads a tree structure written by {@link #write(DataOutput)}.
+	 *
+	 * @param in
+	 * @param items the indexed items, in the same order as when the tree was built
+	 * @return
+	 * @throws IOException if the structure does not match the items
+	 */
+	public static <T extends SpatiallyIndexable> PackedRTree<T> read(DataInput in, Collection<T> items) throws IOException {
+		int numItems = in.readInt();
+		int numNodes = in.readInt();
+		if (numItems != items.size() || numNodes < numItems) {
+			throw new IOException("Spatial index does not match the indexed items");
+		}
+		int[] levelBounds = new int[in.readInt()];
+		for (int i = 0; i < levelBounds.length; i ++) levelBounds[i] = in.readInt();
+		int[] indices = new int[numNodes];
+		for (int i = 0; i < numNodes; i ++) indices[i] = in.readInt();
+		double[] boxes = new double[numNodes * 4];
+		for (int i = 0; i < boxes.length; i ++) boxes[i] = in.readDouble();
+		return new PackedRTree<>(items.toArray(), boxes, indices, levelBounds);
+	}
+
+	public int size() {
+		return numItems;
+	}
+
+	/**
+	 * Finds all items whose envelopes intersect the query window
+	 *
+	 * @param window query window
+	 * @param filter optional filter (may be null)
+	 * @return items that intersect the window and pass the filter
+	 */
+	public List<T> query(Envelope window, Filter<? super T> filter) {
+		List<T> results = new ArrayList<>();
+		if (numItems == 0 || window.isNull()) return results;
+
+		double qminx = window.getMinX();
+		double qminy = window.getMinY();
+		double qmaxx = window.getMaxX();
+		double qmaxy = window.getMaxY();
+
+		int[] stack = new int[levelBounds.length * NODE_SIZE];
+		int stackSize = 0;
+		int node = numNodes - 1;
+		while (true) {
+			int end = Math.min(node + NODE_SIZE, upperBound(node));
+			for (int pos = node; pos < end; pos ++) {
+				int b = pos * 4;
+				if (qmaxx < boxes[b] || qmaxy < boxes[b + 1] || qminx > boxes[b + 2] || qminy > boxes[b + 3]) continue;
+				if (node < numItems) {
+					T item = item(indices[pos]);
+					if (filter == null || filter.pass(item)) results.add(item);
+				} else {
+					if (stackSize == stack.length) stack = Arrays.copyOf(stack, stackSize * 2);
+					stack[stackSize++] = indices[pos];
+				}
+			}
+			if (stackSize == 0) break;
+			node = stack[--stackSize];
+		}
+		return results;
+	}
+
+	/**
+	 * Finds the nearest items to the query point ordered by distance
+	 *
+	 * @param query the query point
+	 * @param nResults maximum number of results
+	 * @param maxDistance maximum distance from the query point (may be null)
+	 * @param filter optional filter (may be null)
+	 * @return items ordered by increasing distance
+	 */
+	public List<T> search(Point query, int nResults, Double maxDistance, Filter<? super T> filter) {
+		List<T> results = new ArrayList<>(Math.min(nResults, 16));
+		if (numItems == 0 || nResults <= 0) return results;
+		double maxDist = maxDistance == null ? Double.POSITIVE_INFINITY : maxDistance;
+
+		double x = query.getX();
+		double y = query.getY();
+
+		//queue values: node positions for branches and leaves, -(item index + 1) for items
+		MinQueue queue = new MinQueue();
+		int node = numNodes - 1;
+		while (true) {
+			int end = Math.min(node + NODE_SIZE, upperBound(node));
+			for (int pos = node; pos < end; pos ++) {
+				double dist = boxDistance(pos, x, y);
+				if (dist > maxDist) continue;
+				if (node < numItems) {
+					//exact item distance is never less than the box distance
+					int index = indices[pos];
+					double d = ((SpatiallyIndexable)items[index]).distance(query);
+					if (d <= maxDist) queue.add(d, -(index + 1));
+				} else {
+					queue.add(dist, indices[pos]);
+				}
+			}
+
+			boolean next = false;
+			while (!queue.isEmpty()) {
+				double dist = queue.peekPriority();
+				int value = queue.poll();
+				if (dist > maxDist) return results;
+				if (value < 0) {
+					T item = item(-value - 1);
+					if (filter == null || filter.pass(item)) {
+						results.add(item);
+						if (results.size() >= nResults) return results;
+					}
+				} else {
+					node = value;
+					next = true;
+					break;
+				}
+			}
+			if (!next) break;
+		}
+		return results;
+	}
+
+	/**
+	 * For testing/inspection of index structure.  Nodes are numbered
+	 * breadth first as in {@link RTree}: node 0 is the root node and
+	 * the children of node k are nodes k*16+1 to k*16+16.
+	 *
+	 * @param node
+	 * @return the node envelope followed by the envelopes of its children
+	 * (or the items if the children are leaves)
+	 */
+	public List<SpatiallyIndexable> getNode(int node) {
+		ArrayList<SpatiallyIndexable> results = new ArrayList<SpatiallyIndexable>(NODE_SIZE + 1);
+		int pos = position(node);
+		if (pos < 0) return results;
+		if (pos < numItems) {
+			results.add(item(indices[pos]));
+			return results;
+		}
+		results.add(envelope(pos));
+		int first = indices[pos];
+		int end = Math.min(first + NODE_SIZE, upperBound(first));
+		for (int i = first; i < end; i ++) {
+			if (first < numItems) {
+				results.add(item(indices[i]));
+			}else {
+				results.add(envelope(i));
+			}
+		}
+		return results;
+	}
+
+	/*
+	 * the position of the node with the given breadth first id,
+	 * or -1 if there is no such node
+	 */
+	private int position(int node) {
+		if (node < 0 || numItems == 0) return -1;
+		//child number at each level, from the node up to the root
+		int[] path = new int[levelBounds.length];
+		int depth = 0;
+		while (node > 0) {
+			if (depth == path.length) return -1;
+			path[depth++] = (node - 1) % NODE_SIZE;
+			node = (node - 1) / NODE_SIZE;
+		}
+		int pos = numNodes - 1;
+		while (depth > 0) {
+			if (pos < numItems) return -1;
+			int first = indices[pos];
+			int child = first + path[--depth];
+			if (child >= Math.min(first + NODE_SIZE, upperBound(first))) return -1;
+			pos = child;
+		}
+		return pos;
+	}
+
+	@SuppressWarnings("unchecked")
+	private T item(int index) {
+		return (T) items[index];
+	}
+
+	private IndexableEnvelope envelope(int pos) {
+		IndexableEnvelope e = new IndexableEnvelope();
+		e.init(boxes[pos * 4], boxes[pos * 4 + 2], boxes[pos * 4 + 1], boxes[pos * 4 + 3]);
+		return e;
+	}
+
+	private double boxDistance(int pos, double x, double y) {
+		int b = pos * 4;
+		double dx = x < boxes[b] ? boxes[b] - x : (x > boxes[b + 2] ? x - boxes[b + 2] : 0);
+		double dy = y < boxes[b + 1] ? boxes[b + 1] - y : (y > boxes[b + 3] ? y - boxes[b + 3] : 0);
+		return Math.sqrt(dx * dx + dy * dy);
+	}
+
+	/*
+	 * the end position of the level containing the node
+	 */
+	private int upperBound(int node) {
+		int lo = 0;
+		int hi = levelBounds.length - 1;
+		while (lo < hi) {
+			int m = (lo + hi) >>> 1;
+			if (levelBounds[m] > node) {
+				hi = m;
+			} else {
+				lo = m + 1;
+			}
+		}
+		return levelBounds[lo];
+	}
+
+	private void sortByHilbert(Envelope all) {
+		double w = all.getWidth() == 0 ? 1 : all.getWidth();
+		double h = all.getHeight() == 0 ? 1 : all.getHeight();
+		long[] keys = new long[numItems];
+		for (int i = 0; i < numItems; i ++) {
+			double cx = (boxes[i * 4] + boxes[i * 4 + 2]) / 2;
+			double cy = (boxes[i * 4 + 1] + boxes[i * 4 + 3]) / 2;
+			int hx = (int) Math.floor(HILBERT_MAX * (cx - all.getMinX()) / w);
+			int hy = (int) Math.floor(HILBERT_MAX * (cy - all.getMinY()) / h);
+			//unsigned hilbert value in the high bits, item index in the low bits;
+			//sign bit flipped so signed sort order matches unsigned order
+			keys[i] = (((hilbert(hx, hy) & 0xffffffffL) << 32) | i) ^ Long.MIN_VALUE;
+		}
+		Arrays.sort(keys);
+
+		double[] sortedBoxes = new double[numItems * 4];
+		for (int i = 0; i < numItems; i ++) {
+			int index = (int) (keys[i] & 0xffffffffL);
+			System.arraycopy(boxes, index * 4, sortedBoxes, i * 4, 4);
+			indices[i] = index;
+		}
+		System.arraycopy(sortedBoxes, 0, boxes, 0, sortedBoxes.length);
+	}
+
+	/*
+	 * Hilbert curve index of a point on a 2^16 x 2^16 grid
+	 * (public domain bit twiddling method by rawrunprotocol, as used in flatbush)
+	 */
+	private static int hilbert(int x, int y) {
+		int a = x ^ y;
+		int b = 0xFFFF ^ a;
+		int c = 0xFFFF ^ (x | y);
+		int d = x & (y ^ 0xFFFF);
+
+		int A = a | (b >>> 1);
+		int B = (a >>> 1) ^ a;
+		int C = ((c >>> 1) ^ (b & (d >>> 1))) ^ c;
+		int D = ((a & (c >>> 1)) ^ (d >>> 1)) ^ d;
+
+		a = A; b = B; c = C; d = D;
+		A = ((a & (a >>> 2)) ^ (b & (b >>> 2)));
+		B = ((a & (b >>> 2)) ^ (b & ((a ^ b) >>> 2)));
+		C ^= ((a & (c >>> 2)) ^ (b & (d >>> 2)));
+		D ^= ((b & (c >>> 2)) ^ ((a ^ b) & (d >>> 2)));
+
+		a = A; b = B; c = C; d = D;
+		A = ((a & (a >>> 4)) ^ (b & (b >>> 4)));
+		B = ((a & (b >>> 4)) ^ (b & ((a ^ b) >>> 4)));
+		C ^= ((a & (c >>> 4)) ^ (b & (d >>> 4)));
+		D ^= ((b & (c >>> 4)) ^ ((a ^ b) & (d >>> 4)));
+
+		a = A; b = B; c = C; d = D;
+		C ^= ((a & (c >>> 8)) ^ (b & (d >>> 8)));
+		D ^= ((b & (c >>> 8)) ^ ((a ^ b) & (d >>> 8)));
+
+		a = C ^ (C >>> 1);
+		b = D ^ (D >>> 1);
+
+		int i0 = x ^ y;
+		int i1 = b | (0xFFFF ^ (i0 | a));
+
+		i0 = (i0 | (i0 << 8)) & 0x00FF00FF;
+		i0 = (i0 | (i0 << 4)) & 0x0F0F0F0F;
+		i0 = (i0 | (i0 << 2)) & 0x33333333;
+		i0 = (i0 | (i0 << 1)) & 0x55555555;
+
+		i1 = (i1 | (i1 << 8)) & 0x00FF00FF;
+		i1 = (i1 | (i1 << 4)) & 0x0F0F0F0F;
+		i1 = (i1 | (i1 << 2)) & 0x33333333;
+		i1 = (i1 | (i1 << 1)) & 0x55555555;
+
+		return (i1 << 1) | i0;
+	}
+
+	/*
+	 * binary min heap of (priority, int value) pairs
+	 */
+	private static class MinQueue {
+		private double[] priorities = new double[64];
+		private int[] values = new int[64];
+		private int size = 0;
+
+		boolean isEmpty() {
+			return size == 0;
+		}
+
+		void add(double priority, int value) {
+			if (size == values.length) {
+				priorities = Arrays.copyOf(priorities, size * 2);
+				values = Arrays.copyOf(values, size * 2);
+			}
+			int pos = size++;
+			while (pos > 0) {
+				int parent = (pos - 1) >> 1;
+				if (priorities[parent] <= priority) break;
+				priorities[pos] = priorities[parent];
+				values[pos] = values[parent];
+				pos = parent;
+			}
+			priorities[pos] = priority;
+			values[pos] = value;
+		}
+
+		double peekPriority() {
+			return priorities[0];
+		}
+
+		int poll() {
+			int top = values[0];
+			size--;
+			if (size > 0) {
+				double priority = priorities[size];
+				int value = values[size];
+				int pos = 0;
+				int half = size >> 1;
+				while (pos < half) {
+					int child = 2 * pos + 1;
+					if (child + 1 < size && priorities[child + 1] < priorities[child]) child++;
+					if (priorities[child] >= priority) break;
+					priorities[pos] = priorities[child];
+					values[pos] = values[child];
+					pos = child;
+				}
+				priorities[pos] = priority;
+				values[pos] = value;
+			}
+			return top;
+		}
+	}
+}
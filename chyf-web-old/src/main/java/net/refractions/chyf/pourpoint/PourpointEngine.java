@@ -20,10 +20,18 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map.Entry;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 
 import org.apache.commons.collections4.iterators.IteratorChain;
@@ -92,6 +100,16 @@ public class PourpointEngine {
 		
 	}
 	
+	/**
+	 * Shared pool used to compute independent per-pourpoint work; bounded
+	 * by the number of processors so concurrent requests queue rather
+	 * than oversubscribe the server.  Tasks run on this pool never submit
+	 * tasks to it.  The pool is shut down with the application context
+	 * (see {@link #shutdown()}).
+	 */
+	private static final ExecutorService POOL = Executors.newFixedThreadPool(
+			Runtime.getRuntime().availableProcessors(), new PourpointThreadFactory());
+	
 	private List<Pourpoint> points;
 	private HyGraph hygraph;
 	private boolean removeHoles = false;
@@ -193,7 +211,10 @@ public class PourpointEngine {
 		this.availableOutputs = availableOutputs;
 			
 		//compute downstream flowpaths for pourpoints
-		points.forEach(p->p.findDownstreamFlowpaths(hygraph));
+		invokeAll(points, p->{
+			p.findDownstreamFlowpaths(hygraph);
+			return null;
+		});
 			
 		//if two points have the same downstream flowpath then fail - this
 		//is not allowed
@@ -484,12 +505,26 @@ public class PourpointEngine {
 
 		distanceValues = new HashMap<>();
 		
-		for (Pourpoint pp : points) {
+		//each pourpoint walks downstream independently; the results
+		//are merged in pourpoint order 
+		List<PourpointDistances> results = invokeAll(points, pp->{
+			PourpointDistances d = new PourpointDistances();
 			//walk downstream until we reach the network terminus
 			for (EFlowpath edge : pp.getDownstreamFlowpaths()) {
-				processPourpointRel(pp, edge, nodedistances, primarydistances);
+				processPourpointRel(pp, edge, d.nodeDistances, d.primaryDistances);
 			}
-		}	
+			return d;
+		});
+		for (int i = 0; i < points.size(); i ++) {
+			Pourpoint pp = points.get(i);
+			PourpointDistances d = results.get(i);
+			for (Entry<Nexus, Range> e : d.nodeDistances.entrySet()) {
+				nodedistances.computeIfAbsent(e.getKey(), k->new HashMap<>()).put(pp, e.getValue());
+			}
+			for (Entry<EFlowpath, Double> e : d.primaryDistances.entrySet()) {
+				primarydistances.computeIfAbsent(e.getKey(), k->new HashMap<>()).put(pp, e.getValue());
+			}
+		}
 		
 		//this pourpoint relationship is the pourpoint catchment relationship
 		//not the relationship of pourpoints along the flow network
@@ -743,7 +778,12 @@ public class PourpointEngine {
 		}
 	}
 	
-	private void processPourpointRel(Pourpoint point, EFlowpath path, HashMap<Nexus, HashMap<Pourpoint, Range>> nodedistances, HashMap<EFlowpath, HashMap<Pourpoint, Double>> primaryDistances) {
+	/*
+	 * Walks downstream from the given flowpath computing the distances from the
+	 * pourpoint to each nexus and the primary distances to each flowpath.  Only 
+	 * the values for the given pourpoint are read and updated.
+	 */
+	private void processPourpointRel(Pourpoint point, EFlowpath path, HashMap<Nexus, Range> nodedistances, HashMap<EFlowpath, Double> primaryDistances) {
 		//TODO: stop once we've visited all pourpoints as there won't be any more relationships downstream
 		//this stop would only be useful if all the pourpoints are on the same network, if they are on
 		//different trees it might not be useful
@@ -752,12 +792,7 @@ public class PourpointEngine {
 		
 		
 		//this is the first edges; we don't care if its primary or not
-		HashMap<Pourpoint, Double> primaryOutValue = primaryDistances.get(path);
-		if (primaryOutValue == null) {
-			primaryOutValue = new HashMap<>();
-			primaryDistances.put(path,  primaryOutValue);
-		}
-		primaryOutValue.put(point, 0.0);
+		primaryDistances.put(path, 0.0);
 		
 		
 		while(!toProcess.isEmpty()) {
@@ -766,51 +801,34 @@ public class PourpointEngine {
 			Nexus inNode = item.getFromNode();
 			Nexus outNode = item.getToNode();
 			
-			HashMap<Pourpoint, Range> inValue = nodedistances.get(inNode);
-			if (inValue == null) {
-				inValue = new HashMap<>();
-				nodedistances.put(inNode, inValue);
-			}
-			HashMap<Pourpoint, Range> outValue = nodedistances.get(outNode);
-			if (outValue == null) {
-				outValue = new HashMap<>();
-				nodedistances.put(outNode, outValue);
-			}
-			
 			double distance = item.getLength();
 			//update primary distance
 			if (item.getRank() == Rank.PRIMARY && item != path) {
 				//find the upstream edge
 				EFlowpath up = null;
 				for (EFlowpath upedges : item.getFromNode().getUpFlows()) {
-					if (primaryDistances.containsKey(upedges) && primaryDistances.get(upedges).containsKey(point)) {
+					if (primaryDistances.containsKey(upedges)) {
 						up = upedges;
 						break;
 					}
 				}
 				
 				if (up != null) {
-					Double pdistance = primaryDistances.get(up).get(point);
+					Double pdistance = primaryDistances.get(up);
 					pdistance += distance;
-				
-					primaryOutValue = primaryDistances.get(item);
-					if (primaryOutValue == null) {
-						primaryOutValue = new HashMap<>();
-						primaryDistances.put(item,  primaryOutValue);
-					}
-					primaryOutValue.put(point, pdistance);
+					primaryDistances.put(item, pdistance);
 				}
 			}
 			
 			
 			boolean continueDownstream = true;
 			//compute distances for downstream node		
-			if (!inValue.containsKey(point)) {
-				inValue.put(point, new Range(-1, -1));
-				outValue.put(point,new Range(0,0));
+			Range v = nodedistances.get(inNode);
+			if (v == null) {
+				nodedistances.put(inNode, new Range(-1, -1));
+				nodedistances.put(outNode, new Range(0,0));
 			}else {
-				Range v = inValue.get(point);
-				Range outRange = outValue.get(point);
+				Range outRange = nodedistances.get(outNode);
 				if (outRange == null) outRange = new Range();
 				if (v.minDistance <= 0) {
 					outRange.updateDistance(distance, distance);
@@ -820,7 +838,7 @@ public class PourpointEngine {
 					//if this doesn't make a change to the distances we don't need to continue down this path
 					//but we always continue down the primary path
 				}
-				outValue.put(point, outRange);
+				nodedistances.put(outNode, outRange);
 			}
 			
 			if (item.getRank() == Rank.PRIMARY || continueDownstream) {
@@ -847,36 +865,54 @@ public class PourpointEngine {
 		HashMap<EFlowpath, Set<ECatchment>> catchments = new HashMap<>();
 		Set<Pourpoint> processed = new HashSet<>();
 		while(!toProcess.isEmpty()) {
-			Pourpoint item = toProcess.removeFirst();
-			processed.add(item);
-			for (EFlowpath path : item.getDownstreamFlowpaths()) {
-				List<ECatchment>[] results = findUpstreamCatchments(item, path, catchments);
-					
-				List<ECatchment> uniqueCatchments = results[0];
-				List<ECatchment> otherCatchments = results[1];
+			//every pourpoint in the queue has all its upstream pourpoints processed
+			//so compute their upstream catchments concurrently against the current
+			//catchments.  A result is only used if the traversal did not visit a
+			//flowpath added to the catchments since, otherwise it is recomputed; this 
+			//gives the same results as processing the queue one item at a time.
+			List<Pourpoint> batch = new ArrayList<>(toProcess);
+			List<UpstreamCatchments[][]> batchResults = invokeAll(batch, item->new UpstreamCatchments[][] {
+				findUpstreamCatchments(item.getDownstreamFlowpaths(), catchments),
+				findUpstreamCatchments(item.getOtherDownstreamFlowpaths(), catchments)});
+			Set<EFlowpath> added = new HashSet<>();
+			
+			for (UpstreamCatchments[][] itemResults : batchResults) {
+				Pourpoint item = toProcess.removeFirst();
+				processed.add(item);
+				
+				List<EFlowpath> paths = item.getDownstreamFlowpaths();
+				for (int i = 0; i < paths.size(); i ++) {
+					EFlowpath path = paths.get(i);
+					UpstreamCatchments results = itemResults[0][i];
+					if (!Collections.disjoint(results.visited, added)) results = findUpstreamCatchments(path, catchments);
+						
+					List<ECatchment> uniqueCatchments = results.uniqueCatchments;
+					List<ECatchment> otherCatchments = results.otherCatchments;
+						
+					item.addUpstreamCatchments(uniqueCatchments, otherCatchments);
 					
-				item.addUpstreamCatchments(uniqueCatchments, otherCatchments);
+					Set<ECatchment> all = new HashSet<>();
+					all.addAll(uniqueCatchments);
+					all.addAll(otherCatchments);
+					catchments.put(path, all);
+					added.add(path);
+				}
 				
-				Set<ECatchment> all = new HashSet<>();
-				all.addAll(uniqueCatchments);
-				all.addAll(otherCatchments);
-				catchments.put(path, all);
-			}
-			
-			for (EFlowpath path : item.getOtherDownstreamFlowpaths()) {
-				List<ECatchment>[] results = findUpstreamCatchments(item, path, catchments);
-				List<ECatchment> uniqueCatchments = results[0];
-				List<ECatchment> otherCatchments = results[1];
-				item.addNeighbourCatchments(uniqueCatchments, otherCatchments);
-			}
-			
-			//remove pourpoint and find the next to process
-			for (Pourpoint pp : points) {
-				if (processed.contains(pp)) continue;
-				if (toProcess.contains(pp)) continue;
-				Set<Pourpoint> tt = new HashSet<>(pp.getUpstreamPourpoints());
-				tt.removeAll(processed);
-				if (tt.isEmpty()) toProcess.add(pp);
+				paths = item.getOtherDownstreamFlowpaths();
+				for (int i = 0; i < paths.size(); i ++) {
+					UpstreamCatchments results = itemResults[1][i];
+					if (!Collections.disjoint(results.visited, added)) results = findUpstreamCatchments(paths.get(i), catchments);
+					item.addNeighbourCatchments(results.uniqueCatchments, results.otherCatchments);
+				}
+				
+				//remove pourpoint and find the next to process
+				for (Pourpoint pp : points) {
+					if (processed.contains(pp)) continue;
+					if (toProcess.contains(pp)) continue;
+					Set<Pourpoint> tt = new HashSet<>(pp.getUpstreamPourpoints());
+					tt.removeAll(processed);
+					if (tt.isEmpty()) toProcess.add(pp);
+				}
 			}
 		}
 		
@@ -989,7 +1025,9 @@ public class PourpointEngine {
 	 */
 	private void computeCatchmentContainsRelationship() {
 		catchmentContainment = new HashSet<>();
-		for (Pourpoint point1 : points) {
+		//each row is computed independently and the results combined
+		List<Set<PourpointKey>> rows = invokeAll(points, point1->{
+			Set<PourpointKey> row = new HashSet<>();
 			for (Pourpoint point2 : points) {
 				if (point1 == point2) continue;
 				
@@ -1001,16 +1039,18 @@ public class PourpointEngine {
 					//point1 contains point2
 					key = new PourpointKey(point1, point2);
 				}
-				if (catchmentContainment.contains(key)) continue;
+				if (row.contains(key)) continue;
 				
 				for (ECatchment c : point1.getSharedCatchments()) {
 					if (point2.getSharedCatchments().contains(c) || point2.getUniqueCatchments().contains(c)) {
-						catchmentContainment.add(key);
+						row.add(key);
 						break;
 					}
 				}
-			}	
-		}
+			}
+			return row;
+		});
+		rows.forEach(catchmentContainment::addAll);
 	}
 	
 	/*
@@ -1126,7 +1166,15 @@ public class PourpointEngine {
 	}
 	
 	
-	private List<ECatchment>[] findUpstreamCatchments(Pourpoint point, EFlowpath root, HashMap<EFlowpath, Set<ECatchment>> catchments){
+	private UpstreamCatchments[] findUpstreamCatchments(List<EFlowpath> roots, HashMap<EFlowpath, Set<ECatchment>> catchments){
+		UpstreamCatchments[] results = new UpstreamCatchments[roots.size()];
+		for (int i = 0; i < results.length; i ++) {
+			results[i] = findUpstreamCatchments(roots.get(i), catchments);
+		}
+		return results;
+	}
+	
+	private UpstreamCatchments findUpstreamCatchments(EFlowpath root, HashMap<EFlowpath, Set<ECatchment>> catchments){
 		
 		List<ECatchment> uniqueCatchments = new ArrayList<ECatchment>();
 		List<ECatchment> otherCatchments = new ArrayList<ECatchment>();
@@ -1152,7 +1200,7 @@ public class PourpointEngine {
 			}	
 		}
 		uniqueCatchments.removeAll(otherCatchments);
-		return new List[] {uniqueCatchments, otherCatchments};
+		return new UpstreamCatchments(uniqueCatchments, otherCatchments, visited);
 	}
 
 	private void processHoles() {
@@ -1164,9 +1212,8 @@ public class PourpointEngine {
 		
 		Set<Geometry> geometries = new HashSet<>();
 		
-		for (Pourpoint point : points) {
-			DrainageArea area = point.getCatchmentDrainageArea(hygraph, false);
-			
+		List<DrainageArea> areas = invokeAll(points, point->point.getCatchmentDrainageArea(hygraph, false));
+		for (DrainageArea area : areas) {
 			//TODO: this should always be a single polygon; this was added because of issues
 			//with kotl dataset and multipolygons were returned
 			for (int i = 0; i < area.getGeometry().getNumGeometries(); i ++) {
@@ -1293,6 +1340,86 @@ public class PourpointEngine {
 		}
 	}
 
+	/**
+	 * Runs the task for each item on the shared pool and returns the 
+	 * results in item order.  If any task fails the exception
+	 * from the first failed item is thrown.
+	 * 
+	 * @param items
+	 * @param task
+	 * @return
+	 */
+	static <I, R> List<R> invokeAll(List<I> items, PourpointTask<I, R> task) {
+		List<R> results = new ArrayList<>(items.size());
+		if (items.size() <= 1) {
+			for (I item : items) results.add(task.call(item));
+			return results;
+		}
+		List<Callable<R>> tasks = new ArrayList<>(items.size());
+		for (I item : items) tasks.add(()->task.call(item));
+		try {
+			for (Future<R> f : POOL.invokeAll(tasks)) {
+				results.add(f.get());
+			}
+		}catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new PourpointException("Pourpoint computation interrupted");
+		}catch (ExecutionException ex) {
+			if (ex.getCause() instanceof RuntimeException) throw (RuntimeException)ex.getCause();
+			if (ex.getCause() instanceof Error) throw (Error)ex.getCause();
+			throw new RuntimeException(ex.getCause());
+		}
+		return results;
+	}
+	
+	/**
+	 * Stops the shared pool, interrupting any running tasks.  Called when
+	 * the application context is destroyed so the pool threads do not
+	 * outlive the web application.
+	 */
+	public static void shutdown() {
+		POOL.shutdownNow();
+	}
+	
+	@FunctionalInterface
+	interface PourpointTask<I, R>{
+		R call(I item);
+	}
+	
+	private static class PourpointThreadFactory implements ThreadFactory{
+		private final AtomicInteger count = new AtomicInteger();
+		
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "pourpoint-" + count.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		}
+	}
+	
+	/*
+	 * Nexus and primary flowpath distances for a single pourpoint
+	 */
+	class PourpointDistances{
+		LinkedHashMap<Nexus, Range> nodeDistances = new LinkedHashMap<>();
+		LinkedHashMap<EFlowpath, Double> primaryDistances = new LinkedHashMap<>();
+	}
+	
+	/*
+	 * Results of an upstream catchment traversal
+	 */
+	class UpstreamCatchments{
+		List<ECatchment> uniqueCatchments;
+		List<ECatchment> otherCatchments;
+		Set<EFlowpath> visited;
+		
+		UpstreamCatchments(List<ECatchment> uniqueCatchments, List<ECatchment> otherCatchments, Set<EFlowpath> visited){
+			this.uniqueCatchments = uniqueCatchments;
+			this.otherCatchments = otherCatchments;
+			this.visited = visited;
+		}
+	}
+	
 	class Range{
 		double minDistance;
 		double maxDistance;
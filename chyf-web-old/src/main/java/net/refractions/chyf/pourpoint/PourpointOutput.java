@@ -60,12 +60,11 @@ public class PourpointOutput {
 		this.pcr = engine.getPartitionedCatchmentRelationship();
 		
 		if (engine.getSortedPartitionedCatchments() != null) {
-			partitionedcatchments = new ArrayList<>();
-			for (UniqueSubCatchment c : engine.getSortedPartitionedCatchments()) {
+			partitionedcatchments = new ArrayList<>(PourpointEngine.invokeAll(engine.getSortedPartitionedCatchments(), c->{
 				DrainageArea da = c.getDrainageArea(engine.getGraph());
 				da.setId(c.getId());
-				partitionedcatchments.add(da);
-			}
+				return da;
+			}));
 		}
 		this.ccr = engine.getCatchmentContainment();
 		this.interiorCatchments = engine.getInteriorCatchments();
@@ -78,14 +77,16 @@ public class PourpointOutput {
 		
 		if (engine.getAvailableOutputs().contains(OutputType.CATCHMENTS)) {
 			catchments = new HashMap<>();
-			for (Pourpoint p : points) {
-				catchments.put(p, p.getCatchmentDrainageArea(engine.getGraph(), engine.getRemoveHoles()));
+			List<DrainageArea> areas = PourpointEngine.invokeAll(points, p->p.getCatchmentDrainageArea(engine.getGraph(), engine.getRemoveHoles()));
+			for (int i = 0; i < points.size(); i ++) {
+				catchments.put(points.get(i), areas.get(i));
 			}
 		}
 		if (engine.getAvailableOutputs().contains(OutputType.SUBCATCHMENTS)) {
 			subcatchments = new HashMap<>();
-			for (Pourpoint p : points) {
-				subcatchments.put(p, engine.getGraph().buildDrainageArea(p.getUniqueCatchments(), false));
+			List<DrainageArea> areas = PourpointEngine.invokeAll(points, p->engine.getGraph().buildDrainageArea(p.getUniqueCatchments(), false));
+			for (int i = 0; i < points.size(); i ++) {
+				subcatchments.put(points.get(i), areas.get(i));
 			}
 		}
 		
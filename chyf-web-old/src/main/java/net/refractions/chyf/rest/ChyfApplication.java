@@ -16,6 +16,8 @@
 package net.refractions.chyf.rest;
 
 import java.io.File;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.Collection;
 import java.util.Collections;
 
@@ -24,6 +26,7 @@ import javax.servlet.ServletContext;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.cache.Cache;
 import org.springframework.cache.CacheManager;
@@ -34,11 +37,12 @@ import org.springframework.stereotype.Component;
 import net.refractions.chyf.ChyfDataReader;
 import net.refractions.chyf.ChyfDatastore;
 import net.refractions.chyf.hygraph.HyGraph;
+import net.refractions.chyf.pourpoint.PourpointEngine;
 import nrcan.cccmeo.chyf.db.DbVectorTileCache;
 
 @Component
 @EnableCaching
-public class ChyfApplication {
+public class ChyfApplication implements DisposableBean {
 	
 	static final Logger logger = LoggerFactory.getLogger(ChyfDataReader.class.getCanonicalName());
 
@@ -47,6 +51,8 @@ public class ChyfApplication {
     @Autowired
 	public ChyfApplication(ServletContext servletContext) {
     	String dataStore = servletContext.getInitParameter("chyfDataStore");
+    	String snapshotFile = servletContext.getInitParameter("chyfSnapshotFile");
+    	Path snapshot = snapshotFile == null || snapshotFile.trim().isEmpty() ? null : Paths.get(snapshotFile.trim());
 		String dir = null;
 		
     	if (dataStore.equals("filestore")) {
@@ -62,10 +68,10 @@ public class ChyfApplication {
 					break;
 				}
 			}
-			chyfDatastore = new ChyfDatastore(dir);
+			chyfDatastore = new ChyfDatastore(dir, snapshot);
     		
     	} else if (dataStore.equals("database")) {
-    		chyfDatastore = new ChyfDatastore();	
+    		chyfDatastore = new ChyfDatastore(snapshot);	
     	}
     }
         
@@ -96,6 +102,11 @@ public class ChyfApplication {
 		};
 	}
 	
+	@Override
+	public void destroy() {
+		PourpointEngine.shutdown();
+	}
+	
 // FOR ehcache
 //    @Bean
 //    public JCacheCacheManager jCacheCacheManager(JCacheManagerFactoryBean jCacheManagerFactoryBean){
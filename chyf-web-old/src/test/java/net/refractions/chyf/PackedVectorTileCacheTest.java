@@ -0,0 +1,133 @@
+/*
+ * Copyright 2019 Government of Canada
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.refractions.chyf;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests reading, writing, reopening and clearing the packed tile cache
+ *
+ */
+public class PackedVectorTileCacheTest {
+
+	private Path root;
+
+	@Before
+	public void setup() throws IOException {
+		root = Files.createTempDirectory("tilecache");
+	}
+
+	@After
+	public void cleanup() throws IOException {
+		try(Stream<Path> files = Files.walk(root)){
+			files.sorted(Comparator.reverseOrder()).forEach(p->p.toFile().delete());
+		}
+	}
+
+	@Test
+	public void test_ReadWrite() throws IOException {
+		try(PackedVectorTileCache cache = new PackedVectorTileCache(root)){
+			Assert.assertNull(cache.getVectorTile(5, 10, 12, VectorTileLayer.WATER));
+			cache.writeVectorTile(5, 10, 12, VectorTileLayer.WATER, new byte[] {1, 2, 3});
+			cache.writeVectorTile(5, 10, 13, VectorTileLayer.WATER, new byte[] {4});
+			cache.writeVectorTile(5, 10, 12, VectorTileLayer.CATCHMENT, new byte[] {5, 6});
+			//replace
+			cache.writeVectorTile(5, 10, 13, VectorTileLayer.WATER, new byte[] {7, 8});
+
+			Assert.assertArrayEquals(new byte[] {1, 2, 3}, cache.getVectorTile(5, 10, 12, VectorTileLayer.WATER));
+			Assert.assertArrayEquals(new byte[] {7, 8}, cache.getVectorTile(5, 10, 13, VectorTileLayer.WATER));
+			Assert.assertArrayEquals(new byte[] {5, 6}, cache.getVectorTile(5, 10, 12, VectorTileLayer.CATCHMENT));
+			Assert.assertNull(cache.getVectorTile(5, 12, 10, VectorTileLayer.WATER));
+		}
+
+		//reopen, with a partial record at the end of the file
+		try(FileChannel channel = FileChannel.open(root.resolve(VectorTileLayer.WATER.name() + ".1.pack"), StandardOpenOption.APPEND)){
+			channel.write(ByteBuffer.wrap(new byte[] {0, 0, 0, 5, 0}));
+		}
+		try(PackedVectorTileCache cache = new PackedVectorTileCache(root)){
+			Assert.assertEquals(2, cache.size(VectorTileLayer.WATER));
+			Assert.assertArrayEquals(new byte[] {1, 2, 3}, cache.getVectorTile(5, 10, 12, VectorTileLayer.WATER));
+			Assert.assertArrayEquals(new byte[] {7, 8}, cache.getVectorTile(5, 10, 13, VectorTileLayer.WATER));
+			cache.writeVectorTile(6, 1, 1, VectorTileLayer.WATER, new byte[] {9});
+			Assert.assertArrayEquals(new byte[] {9}, cache.getVectorTile(6, 1, 1, VectorTileLayer.WATER));
+		}
+	}
+
+	@Test
+	public void test_Clear() throws IOException {
+		try(PackedVectorTileCache cache = new PackedVectorTileCache(root)){
+			cache.writeVectorTile(5, 10, 12, VectorTileLayer.WATER, new byte[] {1, 2, 3});
+			cache.writeVectorTile(5, 10, 12, VectorTileLayer.CATCHMENT, new byte[] {5, 6});
+			cache.clear(VectorTileLayer.WATER);
+
+			Assert.assertNull(cache.getVectorTile(5, 10, 12, VectorTileLayer.WATER));
+			Assert.assertArrayEquals(new byte[] {5, 6}, cache.getVectorTile(5, 10, 12, VectorTileLayer.CATCHMENT));
+			cache.writeVectorTile(5, 10, 12, VectorTileLayer.WATER, new byte[] {4});
+		}
+		try(PackedVectorTileCache cache = new PackedVectorTileCache(root)){
+			Assert.assertArrayEquals(new byte[] {4}, cache.getVectorTile(5, 10, 12, VectorTileLayer.WATER));
+			Assert.assertFalse(Files.exists(root.resolve(VectorTileLayer.WATER.name() + ".1.pack")));
+		}
+	}
+
+	@Test
+	public void test_Interrupt() throws IOException {
+		try(PackedVectorTileCache cache = new PackedVectorTileCache(root)){
+			cache.writeVectorTile(5, 10, 12, VectorTileLayer.WATER, new byte[] {1, 2, 3});
+
+			//the interrupted read closes the shared channel
+			Thread.currentThread().interrupt();
+			try {
+				Assert.assertNull(cache.getVectorTile(5, 10, 12, VectorTileLayer.WATER));
+			}finally {
+				Assert.assertTrue(Thread.interrupted());
+			}
+
+			Assert.assertArrayEquals(new byte[] {1, 2, 3}, cache.getVectorTile(5, 10, 12, VectorTileLayer.WATER));
+			cache.writeVectorTile(5, 10, 13, VectorTileLayer.WATER, new byte[] {4});
+			Assert.assertArrayEquals(new byte[] {4}, cache.getVectorTile(5, 10, 13, VectorTileLayer.WATER));
+		}
+	}
+
+	@Test
+	public void test_InvalidTile() throws IOException {
+		try(PackedVectorTileCache cache = new PackedVectorTileCache(root)){
+			int[][] invalid = {{-1, 0, 0}, {29, 0, 0}, {5, -1, 0}, {5, 0, -1}, {5, 32, 0}, {5, 0, 32}, {0, 1, 0}};
+			for (int[] t : invalid) {
+				try {
+					cache.getVectorTile(t[0], t[1], t[2], VectorTileLayer.WATER);
+					Assert.fail("Tile " + t[0] + "/" + t[1] + "/" + t[2] + " should be rejected");
+				}catch (IllegalArgumentException ex) {
+					//expected
+				}
+			}
+			cache.writeVectorTile(28, (1 << 28) - 1, (1 << 28) - 1, VectorTileLayer.WATER, new byte[] {1});
+			Assert.assertArrayEquals(new byte[] {1}, cache.getVectorTile(28, (1 << 28) - 1, (1 << 28) - 1, VectorTileLayer.WATER));
+		}
+	}
+}
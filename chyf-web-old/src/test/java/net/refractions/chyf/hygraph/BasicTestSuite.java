@@ -49,13 +49,16 @@ import net.refractions.chyf.ChyfShapeDataReader;
 	StreamOrderTest.class, 
 	FlowpathTest.class, 
 	DrainageTest.class, 
+	DrainageAreaCacheTest.class,
 	ElementaryDrainageTest.class,
 	MultiDimensionalDownstreamTest.class,
 	PourpointProjectionTest.class,
 	PourpointTest.class,
 	SimpleDataPourpointTest.class,
 	PointRelationshipTreeTest.class,
-	PourpointSecondaryTest.class})
+	PourpointSecondaryTest.class,
+	SpatialIndexTest.class,
+	HyGraphSnapshotTest.class})
 
 public class BasicTestSuite extends Suite {
 
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2019 Government of Canada
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.refractions.chyf.hygraph;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestRule;
+
+import net.refractions.chyf.hygraph.ECatchment.ECatchmentStat;
+
+/**
+ * Tests that upstream drainage areas built from cached sub-basins
+ * match drainage areas built from the individual catchments.
+ *
+ */
+public class DrainageAreaCacheTest {
+
+	@Rule
+	public TestRule rule = BasicTestSuite.SETUP_RULE;
+
+	@Test
+	public void test_CachedUpstreamDrainage() {
+		//cache nearly every confluence
+		checkCachedUpstreamDrainage(DrainageAreaCache.DEFAULT_MAX_CACHED_VERTICES);
+	}
+
+	@Test
+	public void test_EvictedUpstreamDrainage() {
+		//small enough that most basins are evicted
+		checkCachedUpstreamDrainage(1000);
+	}
+
+	private void checkCachedUpstreamDrainage(long maxCachedVertices) {
+		HyGraph graph = BasicTestSuite.DATASTORE.getHyGraph();
+
+		graph.setDrainageAreaCache(3, maxCachedVertices);
+		try {
+			graph.getDrainageAreaCache().precompute();
+			Assert.assertTrue(graph.getDrainageAreaCache().getCachedVertices() <= maxCachedVertices);
+
+			int id = 1;
+			ECatchment c;
+			while((c = graph.getECatchment(id)) != null) {
+				DrainageArea expected = graph.buildDrainageArea(graph.getUpstreamECatchments(c, Integer.MAX_VALUE), false);
+				DrainageArea actual = graph.getUpstreamDrainageArea(c, false);
+
+				Assert.assertEquals("Drainage area for catchment " + id, expected.getArea(), actual.getArea(), expected.getArea() * 1e-9);
+
+				double diff = expected.getGeometry().symDifference(actual.getGeometry()).getArea();
+				Assert.assertTrue("Drainage geometry for catchment " + id, diff <= expected.getGeometry().getArea() * 0.0001);
+
+				for (ECatchmentStat s : ECatchmentStat.values()) {
+					Double e = expected.getStat(s);
+					Double a = actual.getStat(s);
+					if (e == null) {
+						Assert.assertNull(a);
+					}else {
+						Assert.assertEquals(s.name() + " for catchment " + id, e, a, Math.abs(e) * 1e-9 + 1e-9);
+					}
+				}
+				id += 25;
+			}
+			Assert.assertTrue(graph.getDrainageAreaCache().getCachedVertices() <= maxCachedVertices);
+		}finally {
+			graph.setDrainageAreaCache(DrainageAreaCache.DEFAULT_MIN_UPSTREAM_CATCHMENTS);
+		}
+	}
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright 2019 Government of Canada
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.refractions.chyf.hygraph;
+
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestRule;
+import org.locationtech.jts.geom.Point;
+
+import net.refractions.chyf.ChyfDatastore;
+import net.refractions.chyf.ChyfShapeDataReader;
+import net.refractions.chyf.hygraph.ECatchment.ECatchmentStat;
+
+/**
+ * Tests that a graph loaded from a snapshot matches the graph
+ * built from the source data.
+ *
+ */
+public class HyGraphSnapshotTest {
+
+	@Rule
+	public TestRule rule = BasicTestSuite.SETUP_RULE;
+
+	@Test
+	public void test_Snapshot() throws Exception {
+		HyGraph expected = BasicTestSuite.DATASTORE.getHyGraph();
+		Path snapshot = Files.createTempFile("hygraph", ".snapshot");
+		try {
+			HyGraphSnapshot.write(expected, snapshot, 1);
+			Assert.assertNull(HyGraphSnapshot.read(snapshot, 2));
+			HyGraph actual = HyGraphSnapshot.read(snapshot, 1);
+			Assert.assertNotNull(actual);
+
+			Assert.assertEquals(expected.getNexuses().length, actual.getNexuses().length);
+			Assert.assertEquals(expected.getEFlowpaths().length, actual.getEFlowpaths().length);
+			Assert.assertEquals(expected.getECatchments().length, actual.getECatchments().length);
+
+			for (Nexus e : expected.getNexuses()) {
+				Nexus a = actual.getNexus(e.getId());
+				Assert.assertTrue(e.getPoint().equalsExact(a.getPoint()));
+				Assert.assertEquals(e.getType(), a.getType());
+				Assert.assertEquals(ids(e.getUpFlows()), ids(a.getUpFlows()));
+				Assert.assertEquals(ids(e.getDownFlows()), ids(a.getDownFlows()));
+			}
+			for (EFlowpath e : expected.getEFlowpaths()) {
+				EFlowpath a = actual.getEFlowpath(e.getId());
+				Assert.assertTrue(e.getLineString().equalsExact(a.getLineString()));
+				Assert.assertEquals(e.getFromNode().getId(), a.getFromNode().getId());
+				Assert.assertEquals(e.getToNode().getId(), a.getToNode().getId());
+				Assert.assertEquals(e.getType(), a.getType());
+				Assert.assertEquals(e.getRank(), a.getRank());
+				Assert.assertEquals(e.getName(), a.getName());
+				Assert.assertEquals(e.getNameId(), a.getNameId());
+				Assert.assertEquals(e.getStrahlerOrder(), a.getStrahlerOrder());
+				Assert.assertEquals(e.getHortonOrder(), a.getHortonOrder());
+				Assert.assertEquals(e.getHackOrder(), a.getHackOrder());
+			}
+			for (ECatchment e : expected.getECatchments()) {
+				ECatchment a = actual.getECatchment(e.getId());
+				Assert.assertTrue(e.getPolygon().equalsExact(a.getPolygon()));
+				Assert.assertEquals(e.getType(), a.getType());
+				Assert.assertEquals(e.getRank(), a.getRank());
+				Assert.assertEquals(e.getArea(), a.getArea(), 0.0);
+				Assert.assertEquals(ids(e.getFlowpaths()), ids(a.getFlowpaths()));
+				for (ECatchmentStat s : ECatchmentStat.values()) {
+					Assert.assertEquals(s.getValue(e), s.getValue(a), 0.0);
+				}
+				Assert.assertEquals(ids(expected.getUpstreamECatchments(e, ChyfDatastore.MAX_RESULTS)), 
+						ids(actual.getUpstreamECatchments(a, ChyfDatastore.MAX_RESULTS)));
+				Point p = e.getPolygon().getInteriorPoint();
+				ECatchment ep = expected.getECatchment(p);
+				ECatchment ap = actual.getECatchment(p);
+				Assert.assertEquals(ep == null ? null : ep.getId(), ap == null ? null : ap.getId());
+			}
+		}finally {
+			Files.deleteIfExists(snapshot);
+		}
+	}
+
+	@Test
+	public void test_SnapshotStartup() throws Exception {
+		URL url = ClassLoader.getSystemResource("data/" + ChyfShapeDataReader.FLOWPATH_FILE);
+		String datapath = Paths.get(url.toURI()).getParent().toString() + "/";
+		Path snapshot = Files.createTempFile("hygraph", ".snapshot");
+		Files.delete(snapshot);
+		try {
+			//the first start writes the snapshot and the second reads it
+			ChyfDatastore built = new ChyfDatastore(datapath, snapshot);
+			Assert.assertTrue(Files.exists(snapshot));
+
+			ChyfDatastore loaded = new ChyfDatastore(datapath, snapshot);
+			Assert.assertEquals(built.getHyGraph().getECatchments().length, loaded.getHyGraph().getECatchments().length);
+		}finally {
+			Files.deleteIfExists(snapshot);
+		}
+	}
+
+	private static List<Integer> ids(List<?> items) {
+		return items.stream().map(i->{
+			if (i instanceof EFlowpath) return ((EFlowpath)i).getId();
+			if (i instanceof ECatchment) return ((ECatchment)i).getId();
+			return ((Nexus)i).getId();
+		}).collect(Collectors.toList());
+	}
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright 2019 Government of Canada
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.refractions.chyf.hygraph;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestRule;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Point;
+
+import net.refractions.chyf.ChyfDatastore;
+import net.refractions.chyf.indexing.BboxIntersectsFilter;
+import net.refractions.chyf.indexing.ECatchmentContainsPointFilter;
+import net.refractions.chyf.indexing.PackedRTree;
+import net.refractions.chyf.indexing.RTree;
+import net.refractions.chyf.indexing.SpatiallyIndexable;
+
+/**
+ * Compares the packed r-tree with the original r-tree for
+ * point-in-catchment, window and nearest queries.
+ *
+ */
+public class SpatialIndexTest {
+
+	private static final int NUM_QUERIES = 20000;
+
+	@Rule
+	public TestRule rule = BasicTestSuite.SETUP_RULE;
+
+	@Test
+	public void test_PackedRTree() {
+		HyGraph graph = BasicTestSuite.DATASTORE.getHyGraph();
+		List<ECatchment> catchments = new ArrayList<>();
+		ECatchment c;
+		for (int id = 1; (c = graph.getECatchment(id)) != null; id ++) {
+			catchments.add(c);
+		}
+
+		RTree<ECatchment> rtree = new RTree<>(catchments);
+		PackedRTree<ECatchment> packed = new PackedRTree<>(catchments);
+
+		Envelope bounds = new Envelope();
+		catchments.forEach(e->bounds.expandToInclude(e.getEnvelope()));
+		Random r = new Random(1);
+		Point[] points = new Point[NUM_QUERIES];
+		for (int i = 0; i < points.length; i ++) {
+			points[i] = ChyfDatastore.GEOMETRY_FACTORY.createPoint(new Coordinate(
+					bounds.getMinX() + r.nextDouble() * bounds.getWidth(),
+					bounds.getMinY() + r.nextDouble() * bounds.getHeight()));
+		}
+		double size = Math.max(bounds.getWidth(), bounds.getHeight()) / 100;
+
+		//point in catchment
+		List<List<ECatchment>> expected = new ArrayList<>();
+		for (Point p : points) {
+			expected.add(rtree.search(p, 1, 0.0, new ECatchmentContainsPointFilter(p)));
+		}
+		List<List<ECatchment>> actual = new ArrayList<>();
+		for (Point p : points) {
+			actual.add(packed.query(p.getEnvelopeInternal(), new ECatchmentContainsPointFilter(p)));
+		}
+		for (int i = 0; i < points.length; i ++) {
+			Assert.assertEquals(new HashSet<>(expected.get(i)), new HashSet<>(actual.get(i)));
+		}
+
+		//window
+		expected.clear();
+		for (Point p : points) {
+			Envelope e = new Envelope(p.getCoordinate());
+			e.expandBy(size);
+			double distance = Math.sqrt(2 * size * size);
+			expected.add(rtree.search(p, Integer.MAX_VALUE, distance, new BboxIntersectsFilter<>(e)));
+		}
+		actual.clear();
+		for (Point p : points) {
+			Envelope e = new Envelope(p.getCoordinate());
+			e.expandBy(size);
+			actual.add(packed.query(e, null));
+		}
+		for (int i = 0; i < points.length; i ++) {
+			Assert.assertEquals(new HashSet<>(expected.get(i)), new HashSet<>(actual.get(i)));
+		}
+
+		//nearest
+		for (Point p : points) {
+			List<ECatchment> e = rtree.search(p, 5, null, null);
+			List<ECatchment> a = packed.search(p, 5, null, null);
+			Assert.assertEquals(e.size(), a.size());
+			for (int i = 0; i < e.size(); i ++) {
+				Assert.assertEquals(e.get(i).distance(p), a.get(i).distance(p), 0.0000001);
+			}
+		}
+	}
+
+	@Test
+	public void test_PackedRTreeNodes() {
+		HyGraph graph = BasicTestSuite.DATASTORE.getHyGraph();
+		List<ECatchment> catchments = new ArrayList<>();
+		ECatchment c;
+		for (int id = 1; (c = graph.getECatchment(id)) != null; id ++) {
+			catchments.add(c);
+		}
+		PackedRTree<ECatchment> packed = new PackedRTree<>(catchments);
+
+		//walk the tree breadth first using the node ids of the child envelopes
+		Set<SpatiallyIndexable> items = new HashSet<>();
+		Deque<Integer> nodes = new ArrayDeque<>();
+		nodes.add(0);
+		while (!nodes.isEmpty()) {
+			int node = nodes.poll();
+			List<SpatiallyIndexable> results = packed.getNode(node);
+			Assert.assertFalse(results.isEmpty());
+			if (results.get(0) instanceof ECatchment) {
+				Assert.assertEquals(1, results.size());
+				Assert.assertTrue(items.add(results.get(0)));
+				continue;
+			}
+			for (int i = 1; i < results.size(); i ++) {
+				int child = node * 16 + i;
+				Assert.assertEquals(results.get(i).getEnvelope(), packed.getNode(child).get(0).getEnvelope());
+				nodes.add(child);
+			}
+			if (results.size() <= 16) Assert.assertTrue(packed.getNode(node * 16 + results.size()).isEmpty());
+		}
+		Assert.assertEquals(catchments.size(), items.size());
+		Assert.assertTrue(packed.getNode(-1).isEmpty());
+	}
+}
@@ -28,6 +28,11 @@ public enum DataSourceTable {
 	EFLOWPATH_PROPERTIES("chyf2.eflowpath_properties"),
 	ECATCHMENT_ATTRIBUTES("chyf2.ecatchment_attributes"),
 	NAMES("chyf2.names"),
+	//materialized name search tables
+	//see data/chyf_name_search.sql
+	ECATCHMENT_NAME_SEARCH("chyf2.ecatchment_name_search"),
+	ECATCHMENT_NAME_GEOMETRY("chyf2.ecatchment_name_geometry"),
+	NAME_GEOMETRY("chyf2.name_geometry"),
 	//use view for data tables
 	//view filters out only the aoi's flagged 
 	//for display in the aoi table
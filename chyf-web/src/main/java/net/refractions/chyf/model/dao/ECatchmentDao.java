@@ -17,7 +17,6 @@ package net.refractions.chyf.model.dao;
 
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.util.ArrayList;
 import java.util.List;
 import java.util.UUID;
 
@@ -190,7 +189,9 @@ public class ECatchmentDao {
 	}
 	
 	/**
-	 * Searches catchments by name returning individual catchments
+	 * Searches catchments by name returning individual catchments. Names
+	 * are matched against the denormalized name search table so the
+	 * search can be resolved using the trigram name index.
 	 * 
 	 * @param search search parameters
 	 * @return list of catchments matching search parameters
@@ -198,122 +199,87 @@ public class ECatchmentDao {
 	public List<ECatchment> getFeaturesByName(NameSearchParameters search){
 		StringBuilder sb = new StringBuilder();
 		sb.append(buildFeatureSelect());
-		sb.append(" WHERE ");
-		
-		boolean isCatchment = search.getFeatureType() == null || search.getFeatureType().contains(HydroFeature.Type.CATCHMENT);
-		boolean isWaterbody = search.getFeatureType() == null || search.getFeatureType().contains(HydroFeature.Type.WATERBODY);
-		
-		if (isCatchment && !isWaterbody) {
-			sb.append(Field.EC_TYPE + " != " + ECatchment.EcType.WATER.code);
-			sb.append("AND");
-		}else if (!isCatchment && isWaterbody) {
-			sb.append(Field.EC_TYPE + " = " + ECatchment.EcType.WATER.code);
-			sb.append("AND");
-		}
-		
-		sb.append(" ( rivernames1.name_en " );
+		sb.append(" WHERE e.id IN (SELECT ecatchment_id FROM ");
+		sb.append(DataSourceTable.ECATCHMENT_NAME_SEARCH.tableName);
+		sb.append(" WHERE name ");
 		sb.append(search.getMatchType().getSql());
 		sb.append(" ? ");
-		sb.append(" or  rivernames1.name_fr " );
-		sb.append(search.getMatchType().getSql());
-		sb.append(" ? ");
-		sb.append(" or  rivernames2.name_en " );
-		sb.append(search.getMatchType().getSql());
-		sb.append(" ? ");
-		sb.append(" or  rivernames2.name_fr " );
-		sb.append(search.getMatchType().getSql());
-		sb.append(" ? ");
-		sb.append(" or  lakenames1.name_en " );
-		sb.append(search.getMatchType().getSql());
-		sb.append(" ? ");
-		sb.append(" or  lakenames1.name_fr " );
-		sb.append(search.getMatchType().getSql());
-		sb.append(" ? ");
-		sb.append(" or  lakenames2.name_en " );
-		sb.append(search.getMatchType().getSql());
-		sb.append(" ? ");
-		sb.append(" or  lakenames2.name_fr " );
-		sb.append(search.getMatchType().getSql());
-		sb.append(" ? ");
-		sb.append(" ) ");
+		sb.append(buildTypeFilter(search));
+		sb.append(") ");
 		sb.append(" limit " + search.getMaxresults());
 		
-		String name = search.getEscapedName();
-		if (search.getMatchType() == MatchType.CONTAINS) {
-			name = "%" + name + "%";
-		}
-		
 		try {
-			return jdbcTemplate.query(sb.toString(), ecatchmentMapper, name, name, name, name, name, name, name, name);
+			return jdbcTemplate.query(sb.toString(), ecatchmentMapper, getSearchName(search));
 		}catch (EmptyResultDataAccessException ex) {
 			return null;
 		}
 	}
 	
 	/**
-	 * Searches catchments by name, merging features with the same name id into a single result item
+	 * Searches catchments by name, merging features with the same name id into a single result item.
+	 * Merged geometries are read from the precomputed name geometry table.
 	 * 
 	 * @param search search parameters
 	 * @return list of named features matching the search parameters
 	 */
 	public List<NamedFeature> getFeaturesByNameMerged(NameSearchParameters search){
-		List<NamedFeature> features = new ArrayList<>();
+		StringBuilder sb = new StringBuilder();
+		sb.append("SELECT name_id, ");
+		sb.append(Field.EC_TYPE.columnname + ", ");
+		sb.append("name_en, name_fr, ");
+		sb.append("st_asbinary(" + Field.GEOMETRY.columnname + ") as " + Field.GEOMETRY.columnname);
+		sb.append(" FROM ");
+		sb.append(DataSourceTable.ECATCHMENT_NAME_GEOMETRY.tableName);
+		sb.append(" WHERE ( name_en " );
+		sb.append(search.getMatchType().getSql());
+		sb.append(" ? ");
+		sb.append(" or name_fr " );
+		sb.append(search.getMatchType().getSql());
+		sb.append(" ? ) ");
+		sb.append(buildTypeFilter(search));
+		sb.append(" limit " + search.getMaxresults());
 		
-		for (Field f : new Field[] {Field.RIVERNAME1_ID, Field.RIVERNAME2_ID, Field.LAKENAME1_ID, Field.LAKENAME2_ID}) {
-			StringBuilder sb = new StringBuilder();
-			sb.append("SELECT e.");
-			sb.append(f.columnname + " as name_id, e.");
-			sb.append(Field.EC_TYPE.columnname + ",");
-			sb.append("names.name_en as name_en, ");
-			sb.append("names.name_fr as name_fr, ");
-			sb.append("st_asbinary(st_union(" + Field.GEOMETRY.columnname + ")) as " + Field.GEOMETRY.columnname);
-			sb.append(" FROM ");
-			sb.append(DataSourceTable.ECATCHMENT.tableName + " e");
-			sb.append(" LEFT JOIN ");
-			sb.append(DataSourceTable.NAMES.tableName + " names ");
-			sb.append(" ON e." + f.columnname + " = names.name_id");
-			
-			sb.append(" WHERE ");
-			
-			boolean isCatchment = search.getFeatureType() == null || search.getFeatureType().contains(HydroFeature.Type.CATCHMENT);
-			boolean isWaterbody = search.getFeatureType() == null || search.getFeatureType().contains(HydroFeature.Type.WATERBODY);
-			
-			if (isCatchment && !isWaterbody) {
-				sb.append(Field.EC_TYPE + " != " + ECatchment.EcType.WATER.code);
-				sb.append("AND");
-			}else if (!isCatchment && isWaterbody) {
-				sb.append(Field.EC_TYPE + " = " + ECatchment.EcType.WATER.code);
-				sb.append("AND");
-			}
-			
-			sb.append(" ( names.name_en " );
-			sb.append(search.getMatchType().getSql());
-			sb.append(" ? ");
-			sb.append(" or name_fr " );
-			sb.append(search.getMatchType().getSql());
-			sb.append(" ? ) ");
-			sb.append(" GROUP BY e.");
-			sb.append(f.columnname);
-			sb.append(", name_en, name_fr, e.");
-			sb.append(Field.EC_TYPE.columnname);
-			
-			sb.append(" limit " + search.getMaxresults());
-			
-			String name = search.getEscapedName();
-			if (search.getMatchType() == MatchType.CONTAINS) {
-				name = "%" + name+ "%";
-			}
-			
-			try {
-				features.addAll(jdbcTemplate.query(sb.toString(), namedFeatureMapper, name, name));
-			}catch (EmptyResultDataAccessException ex) {
-			}
-			if (features.size() > search.getMaxresults()) return features.subList(0, search.getMaxresults());
+		String name = getSearchName(search);
+		List<NamedFeature> features = null;
+		try {
+			features = jdbcTemplate.query(sb.toString(), namedFeatureMapper, name, name);
+		}catch (EmptyResultDataAccessException ex) {
 		}
-		if (features.isEmpty()) return null;
+		if (features == null || features.isEmpty()) return null;
 		return features;
 	}
 	
+	/**
+	 * 
+	 * @param search
+	 * @return the escaped search name with wildcards added for the match type
+	 */
+	private String getSearchName(NameSearchParameters search) {
+		String name = search.getEscapedName();
+		if (search.getMatchType() == MatchType.CONTAINS) {
+			name = "%" + name + "%";
+		}
+		return name;
+	}
+	
+	/**
+	 * 
+	 * @param search
+	 * @return an sql AND clause restricting the catchment type to the
+	 * requested feature types; empty string if no restriction required
+	 */
+	private String buildTypeFilter(NameSearchParameters search) {
+		boolean isCatchment = search.getFeatureType() == null || search.getFeatureType().contains(HydroFeature.Type.CATCHMENT);
+		boolean isWaterbody = search.getFeatureType() == null || search.getFeatureType().contains(HydroFeature.Type.WATERBODY);
+		
+		if (isCatchment && !isWaterbody) {
+			return " AND " + Field.EC_TYPE.columnname + " != " + ECatchment.EcType.WATER.code + " ";
+		}else if (!isCatchment && isWaterbody) {
+			return " AND " + Field.EC_TYPE.columnname + " = " + ECatchment.EcType.WATER.code + " ";
+		}
+		return "";
+	}
+	
 	private String buildFeatureSelect() {
 		StringBuilder sb = new StringBuilder();
 		sb.append("SELECT ");
@@ -45,7 +45,8 @@ public class NameFeatureSearchDao {
 		
 	/**
 	 * Search for names across all feature types, merging features with the same name into a single
-	 * output object
+	 * output object.  Merged geometries and bounds are precomputed per name id in the 
+	 * name geometry table.
 	 * 
 	 * @param search search parameters
 	 * @return list of matching features
@@ -53,66 +54,16 @@ public class NameFeatureSearchDao {
 	public List<NamedFeature> getFeaturesByNameMerged(NameSearchParameters search){
 
 		StringBuilder sb = new StringBuilder();
-		sb.append("WITH nameids AS (");
-		sb.append("SELECT name_id ");
-		sb.append("FROM ");
-		sb.append(DataSourceTable.NAMES.tableName );
-		sb.append(" WHERE name_en " + search.getMatchType().getSql() + " ? ");
-		sb.append(" OR name_fr " + search.getMatchType().getSql() +" ? ");
-		sb.append("),  all_features AS (");
-		
-		sb.append("SELECT rivernameid1 as name_id, st_union(geometry) as geometry");
-		sb.append(" FROM ");
-		sb.append(DataSourceTable.ECATCHMENT.tableName );
-		sb.append(" WHERE rivernameid1 IN (SELECT name_id FROM nameids) ");
-		sb.append(" GROUP BY rivernameid1 ");
-		
-		sb.append(" UNION ");
-		sb.append("SELECT rivernameid2 as name_id, st_union(geometry) as geometry");
-		sb.append(" FROM ");
-		sb.append(DataSourceTable.ECATCHMENT.tableName );
-		sb.append(" WHERE rivernameid2 IN (SELECT name_id FROM nameids) ");
-		sb.append(" GROUP BY rivernameid2 ");
-		
-		sb.append(" UNION ");
-		sb.append("SELECT lakenameid1 as name_id, st_union(geometry) as geometry");
-		sb.append(" FROM ");
-		sb.append(DataSourceTable.ECATCHMENT.tableName );
-		sb.append(" WHERE lakenameid1 IN (SELECT name_id FROM nameids) ");
-		sb.append(" GROUP BY lakenameid1 ");
-		
-		sb.append(" UNION ");
-		sb.append("SELECT lakenameid2 as name_id, st_union(geometry) as geometry");
-		sb.append(" FROM ");
-		sb.append(DataSourceTable.ECATCHMENT.tableName );
-		sb.append(" WHERE lakenameid2 IN (SELECT name_id FROM nameids) ");
-		sb.append(" GROUP BY lakenameid2 ");
-		
-		sb.append(" UNION ");
-		sb.append("SELECT rivernameid1, st_union(geometry) as geometry");
-		sb.append(" FROM ");
-		sb.append(DataSourceTable.EFLOWPATH.tableName );
-		sb.append(" WHERE rivernameid1 IN (SELECT name_id FROM nameids) ");
-		sb.append(" GROUP BY rivernameid1 ");
-		
-		sb.append(" UNION ");
-		sb.append("SELECT rivernameid2, st_union(geometry) as geometry");
-		sb.append(" FROM ");
-		sb.append(DataSourceTable.EFLOWPATH.tableName );
-		sb.append(" WHERE rivernameid2 IN (SELECT name_id FROM nameids) ");
-		sb.append(" GROUP BY rivernameid2 ");
-		sb.append(") ");
-		sb.append("SELECT a.name_id, a.name_en, a.name_fr,");
+		sb.append("SELECT name_id, name_en, name_fr,");
 		if (search.getResultType() == ResultType.BBOX) {
-			sb.append(" st_asbinary(st_extent(b.geometry)) as geometry");
+			sb.append(" st_asbinary(bbox) as geometry");
 		}else {
-			sb.append(" st_asbinary(st_union(b.geometry)) as geometry");
+			sb.append(" st_asbinary(geometry) as geometry");
 		}
 		sb.append(" FROM ");
-		sb.append(" all_features b, ");
-		sb.append(DataSourceTable.NAMES.tableName );
-		sb.append(" a WHERE a.name_id = b.name_id ");
-		sb.append(" GROUP BY a.name_id, a.name_en, a.name_fr ");
+		sb.append(DataSourceTable.NAME_GEOMETRY.tableName);
+		sb.append(" WHERE name_en " + search.getMatchType().getSql() + " ? ");
+		sb.append(" OR name_fr " + search.getMatchType().getSql() +" ? ");
 		sb.append(" limit " + search.getMaxresults());
 		
 		String name = search.getEscapedName();
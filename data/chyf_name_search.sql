@@ -0,0 +1,122 @@
+-- Name search index tables used by the chyf-web name search endpoints.
+--
+-- These materialized views denormalize the four ecatchment name columns
+-- and the two eflowpath name columns into name -> feature rows and
+-- precompute the merged geometry for each name id. Trigram indexes
+-- allow exact (ilike) and contains (ilike '%..%') searches to be
+-- resolved with index lookups instead of sequential scans.
+--
+-- The views are not maintained by PostgreSQL. They MUST be refreshed as the
+-- last step of every load of ecatchment, eflowpath or names data, otherwise
+-- searches miss new or changed names and return stale geometries:
+--
+-- SELECT chyf2.refresh_name_search();
+--
+-- (or run chyf_name_search_refresh.sql with psql)
+
+CREATE EXTENSION IF NOT EXISTS pg_trgm;
+
+
+-- View: chyf2.ecatchment_name_search
+-- one row per catchment, name id and language
+
+-- DROP MATERIALIZED VIEW chyf2.ecatchment_name_search;
+
+CREATE MATERIALIZED VIEW chyf2.ecatchment_name_search
+ AS
+ WITH catchment_names AS (
+   SELECT e.id, e.ec_type, e.rivernameid1 AS name_id FROM chyf2.ecatchment_vw e WHERE e.rivernameid1 IS NOT NULL
+   UNION
+   SELECT e.id, e.ec_type, e.rivernameid2 FROM chyf2.ecatchment_vw e WHERE e.rivernameid2 IS NOT NULL
+   UNION
+   SELECT e.id, e.ec_type, e.lakenameid1 FROM chyf2.ecatchment_vw e WHERE e.lakenameid1 IS NOT NULL
+   UNION
+   SELECT e.id, e.ec_type, e.lakenameid2 FROM chyf2.ecatchment_vw e WHERE e.lakenameid2 IS NOT NULL
+ )
+ SELECT c.id AS ecatchment_id,
+    c.ec_type,
+    c.name_id,
+    n.name
+   FROM catchment_names c
+     JOIN (SELECT name_id, name_en AS name FROM chyf2.names WHERE name_en IS NOT NULL
+           UNION
+           SELECT name_id, name_fr FROM chyf2.names WHERE name_fr IS NOT NULL) n
+     ON n.name_id = c.name_id;
+
+CREATE UNIQUE INDEX ecatchment_name_search_pk ON chyf2.ecatchment_name_search (ecatchment_id, name_id, name);
+CREATE INDEX ecatchment_name_search_name_idx ON chyf2.ecatchment_name_search USING gin (name gin_trgm_ops);
+
+
+-- View: chyf2.ecatchment_name_geometry
+-- merged catchment geometry for each name id and catchment type
+
+-- DROP MATERIALIZED VIEW chyf2.ecatchment_name_geometry;
+
+CREATE MATERIALIZED VIEW chyf2.ecatchment_name_geometry
+ AS
+ SELECT s.name_id,
+    s.ec_type,
+    n.name_en,
+    n.name_fr,
+    st_union(e.geometry) AS geometry
+   FROM (SELECT DISTINCT ecatchment_id, ec_type, name_id FROM chyf2.ecatchment_name_search) s
+     JOIN chyf2.ecatchment_vw e ON e.id = s.ecatchment_id
+     JOIN chyf2.names n ON n.name_id = s.name_id
+  GROUP BY s.name_id, s.ec_type, n.name_en, n.name_fr;
+
+CREATE UNIQUE INDEX ecatchment_name_geometry_pk ON chyf2.ecatchment_name_geometry (name_id, ec_type);
+CREATE INDEX ecatchment_name_geometry_name_en_idx ON chyf2.ecatchment_name_geometry USING gin (name_en gin_trgm_ops);
+CREATE INDEX ecatchment_name_geometry_name_fr_idx ON chyf2.ecatchment_name_geometry USING gin (name_fr gin_trgm_ops);
+
+
+-- View: chyf2.name_geometry
+-- merged catchment and flowpath geometry for each name id
+
+-- DROP MATERIALIZED VIEW chyf2.name_geometry;
+
+CREATE MATERIALIZED VIEW chyf2.name_geometry
+ AS
+ WITH all_features AS (
+   SELECT name_id, geometry FROM chyf2.ecatchment_name_geometry
+   UNION ALL
+   SELECT rivernameid1, st_union(geometry) FROM chyf2.eflowpath_vw WHERE rivernameid1 IS NOT NULL GROUP BY rivernameid1
+   UNION ALL
+   SELECT rivernameid2, st_union(geometry) FROM chyf2.eflowpath_vw WHERE rivernameid2 IS NOT NULL GROUP BY rivernameid2
+ )
+ SELECT n.name_id,
+    n.name_en,
+    n.name_fr,
+    st_union(f.geometry) AS geometry,
+    st_envelope(st_collect(f.geometry)) AS bbox
+   FROM all_features f
+     JOIN chyf2.names n ON n.name_id = f.name_id
+  GROUP BY n.name_id, n.name_en, n.name_fr;
+
+CREATE UNIQUE INDEX name_geometry_pk ON chyf2.name_geometry (name_id);
+CREATE INDEX name_geometry_name_en_idx ON chyf2.name_geometry USING gin (name_en gin_trgm_ops);
+CREATE INDEX name_geometry_name_fr_idx ON chyf2.name_geometry USING gin (name_fr gin_trgm_ops);
+
+
+ALTER TABLE chyf2.ecatchment_name_search OWNER TO chyf;
+ALTER TABLE chyf2.ecatchment_name_geometry OWNER TO chyf;
+ALTER TABLE chyf2.name_geometry OWNER TO chyf;
+
+
+-- Function: chyf2.refresh_name_search()
+-- refreshes the name search views in dependency order; the views stay
+-- readable by the web services while they are refreshed
+
+-- DROP FUNCTION chyf2.refresh_name_search();
+
+CREATE OR REPLACE FUNCTION chyf2.refresh_name_search()
+ RETURNS void
+ LANGUAGE plpgsql
+AS $function$
+BEGIN
+  REFRESH MATERIALIZED VIEW CONCURRENTLY chyf2.ecatchment_name_search;
+  REFRESH MATERIALIZED VIEW CONCURRENTLY chyf2.ecatchment_name_geometry;
+  REFRESH MATERIALIZED VIEW CONCURRENTLY chyf2.name_geometry;
+END;
+$function$;
+
+ALTER FUNCTION chyf2.refresh_name_search() OWNER TO chyf;
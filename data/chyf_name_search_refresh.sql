@@ -0,0 +1,7 @@
+-- Refreshes the name search views created by chyf_name_search.sql.
+--
+-- Run after every load of ecatchment, eflowpath or names data:
+--
+-- psql -d <database> -f chyf_name_search_refresh.sql
+
+SELECT chyf2.refresh_name_search();